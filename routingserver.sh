@@ -0,0 +1,3 @@
+#! /bin/bash
+
+java -Xmx4G -cp build/jar/jgstreetmap.jar:../jgralab/build/jar/jgralab.jar de.uni_koblenz.jgstreetmap.server.RoutingServer $*
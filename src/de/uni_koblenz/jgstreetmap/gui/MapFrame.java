@@ -61,8 +61,12 @@ public class MapFrame extends JFrame {
 
 	private JTextField searchTextField;
 
+	private JTextField isochroneTextField;
+
 	private RoutingAlgorithms[] routingAlgorithms = {
-			RoutingAlgorithms.Dijkstra, RoutingAlgorithms.AStar };
+			RoutingAlgorithms.Dijkstra, RoutingAlgorithms.AStar,
+			RoutingAlgorithms.BidirectionalDijkstra,
+			RoutingAlgorithms.BidirectionalAStar, RoutingAlgorithms.EdgeBased };
 
 	// private OsmGraph graph;
 
@@ -209,6 +213,31 @@ public class MapFrame extends JFrame {
 		});
 		pnl.add(startButton);
 
+		JLabel lbl = new JLabel("Isochrone (min)");
+		lbl.setAlignmentX(Component.CENTER_ALIGNMENT);
+		pnl.add(lbl);
+
+		isochroneTextField = new JTextField();
+		isochroneTextField.setAlignmentX(Component.CENTER_ALIGNMENT);
+		isochroneTextField
+				.setToolTipText("Enter the minutes reachable by car from the start and hit return, leave empty to hide.");
+		pnl.add(isochroneTextField);
+		isochroneTextField.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String text = isochroneTextField.getText().trim();
+				if (text.length() == 0) {
+					mapPanel.setIsochrone(null);
+					return;
+				}
+				try {
+					mapPanel.showIsochrone(Double.parseDouble(text));
+				} catch (NumberFormatException ex) {
+					isochroneTextField.selectAll();
+				}
+			}
+		});
+
 		buttonPanel.add(new Box.Filler(d8x8, d8x8, d8x8));
 
 		// ---------------------
@@ -219,7 +248,7 @@ public class MapFrame extends JFrame {
 		pnl.setBorder(BorderFactory.createTitledBorder("Map"));
 		buttonPanel.add(pnl);
 
-		JLabel lbl = new JLabel("Locate town");
+		lbl = new JLabel("Locate town");
 		lbl.setAlignmentX(Component.CENTER_ALIGNMENT);
 		pnl.add(lbl);
 
@@ -30,20 +30,28 @@ import javax.swing.event.ChangeListener;
 
 import de.uni_koblenz.jgralab.graphmarker.BooleanGraphMarker;
 import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
-import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph.Neighbour;
 import de.uni_koblenz.jgstreetmap.model.LayoutInfo;
-import de.uni_koblenz.jgstreetmap.model.kdtree.KDTreeQueries;
 import de.uni_koblenz.jgstreetmap.osmschema.map.HasNode;
 import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
 import de.uni_koblenz.jgstreetmap.osmschema.map.Way;
 import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
 import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
 import de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.BidirectionalAStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.BidirectionalDijkstraRouteCalculator;
 import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.Isochrone;
+import de.uni_koblenz.jgstreetmap.routing.IsochroneCalculator;
 import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
 import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
 import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.RouteSummary;
 import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.SnappedRoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentIndex;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+import de.uni_koblenz.jgstreetmap.routing.turn.EdgeBasedRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.turn.TurnRestrictions;
 
 public class MapPanel extends JPanel implements Printable {
 	private static final long serialVersionUID = 1L;
@@ -54,6 +62,9 @@ public class MapPanel extends JPanel implements Printable {
 
 	private static final int FRAMEWIDTH = 16;
 
+	/** the distance in meters up to which clicks are snapped to roads */
+	private static final double MAX_SNAP_DISTANCE = 1000;
+
 	private static final Color FRAME_BG_COLOR = Color.WHITE;;
 	private static final Color FRAME_FG_COLOR = Color.BLACK;
 	private static final Color FRAME_FONT_COLOR = Color.BLUE;
@@ -66,6 +77,9 @@ public class MapPanel extends JPanel implements Printable {
 	private static final Color EDGE_COLOR = new Color(0, 0, 255, 128);
 	private static final Color LABEL_COLOR = Color.MAGENTA.darker();
 	private static final Color NODE_FILLER = Color.WHITE;
+	private static final Color ISOCHRONE_COLOR = new Color(255, 128, 0, 64);
+	private static final Color ISOCHRONE_BORDER_COLOR = new Color(255, 128, 0,
+			192);
 
 	private static final double MINUTE = 1.0 / 60.0;
 
@@ -106,13 +120,18 @@ public class MapPanel extends JPanel implements Printable {
 	private RoutingResult shortestRoute = null;
 	private RoutingResult mostConvenientRoute = null;
 	private Node startNode = null;
+	private SegmentProjection startPoint = null;
+	private transient SegmentIndex segmentIndex;
+	private transient IsochroneCalculator isochroneCalculator;
+	private transient TurnRestrictions turnRestrictions;
+	private Isochrone isochrone = null;
 
 	private ResultPanel resultPanel;
 
 	private Map<String, Node> townMap = new HashMap<String, Node>(10000);
 
 	public enum RoutingAlgorithms {
-		Dijkstra, AStar;
+		Dijkstra, AStar, BidirectionalDijkstra, BidirectionalAStar, EdgeBased;
 	}
 
 	// public MapPanel(AnnotatedOsmGraph graph, ResultPanel respnl) {
@@ -206,19 +225,16 @@ public class MapPanel extends JPanel implements Printable {
 									: Cursor.DEFAULT_CURSOR));
 					setCenter(latC - deltaLat, lonC - deltaLon);
 				} else {
-					// long start = System.currentTimeMillis();
-					List<Neighbour> neighbours = null;
-					// for (int n = 0; n < 1000; ++n) {
-					neighbours = KDTreeQueries.neighboursKD(
-							MapPanel.this.graph, lat, lon, 100.0);
-					// }
-					// long stop = System.currentTimeMillis();
-					// System.out.println("Time:" + (stop - start));
+					SegmentProjection p = getSegmentIndex().nearest(lat, lon,
+							MAX_SNAP_DISTANCE,
+							fastestRouteCalculator.getRestriction());
 					resultPanel.clear();
-					if ((neighbours != null) && (neighbours.size() >= 1)) {
-						Node dest = neighbours.get(0).getNode();
+					if (p != null) {
+						Node dest = (Node) ((p.getFraction() < 0.5) ? p
+								.getAlpha() : p.getOmega());
 						if (mouseSetStartNode) {
 							setStartNode(dest);
+							startPoint = p;
 							printNode("Start", startNode);
 							setCursor(Cursor
 									.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
@@ -226,16 +242,16 @@ public class MapPanel extends JPanel implements Printable {
 						} else {
 							printNode("Start", startNode);
 							printNode("Destination", dest);
-							if (startNode != null) {
-								System.out.println("Selected destination node "
-										+ dest);
+							if (startPoint != null) {
+								System.out.println("Selected destination " + p);
 								fastestRoute = fastestRouteCalculator.getRoute(
-										dest, EdgeRating.TIME);
+										startPoint, p, EdgeRating.TIME);
 								shortestRoute = shortestRouteCalculator
-										.getRoute(dest, EdgeRating.LENGTH);
+										.getRoute(startPoint, p,
+												EdgeRating.LENGTH);
 								if (mostConvenientRouteCalculator != null) {
 									mostConvenientRoute = mostConvenientRouteCalculator
-											.getRoute(dest,
+											.getRoute(startPoint, p,
 													EdgeRating.CONVENIENCE);
 								}
 								if (showRoutes) {
@@ -254,7 +270,7 @@ public class MapPanel extends JPanel implements Printable {
 							}
 						}
 					} else {
-						resultPanel.println("No node found :-(");
+						resultPanel.println("No road found :-(");
 					}
 				}
 			}
@@ -275,6 +291,13 @@ public class MapPanel extends JPanel implements Printable {
 				+ " towns.");
 	}
 
+	private SegmentIndex getSegmentIndex() {
+		if (segmentIndex == null) {
+			segmentIndex = new SegmentIndex(graph);
+		}
+		return segmentIndex;
+	}
+
 	private void setStartNode(Node n) {
 		if (n != null) {
 			System.out.println("Selected start node " + n);
@@ -318,8 +341,6 @@ public class MapPanel extends JPanel implements Printable {
 
 	private void printRoute(RoutingResult result, RouteCalculator calculator,
 			EdgeRating rating) {
-		List<Segment> route = result.getRoute();
-
 		resultPanel.println();
 		switch (rating) {
 		case TIME:
@@ -336,15 +357,16 @@ public class MapPanel extends JPanel implements Printable {
 			break;
 		}
 
-		if ((route == null) || (route.size() < 1)) {
+		if (result.getSegmentCount() < 1) {
 			resultPanel.println("No route found :-(");
 			return;
 		}
 
-		double length = calculator.calculateCompleteWeight(route,
-				EdgeRating.LENGTH) / 1000.0;
-		double time = calculator
-				.calculateCompleteWeight(route, EdgeRating.TIME) / 3600;
+		// length, time and street names in one pass, with the travelled
+		// parts of the end segments of snapped routes
+		RouteSummary summary = result.summarize(calculator, graph);
+		double length = summary.getLength() / 1000.0;
+		double time = summary.getTime() / 3600;
 		// double degree = calculator.calculateCompleteWeight(route,
 		// EdgeRating.CONVENIENCE);
 		resultPanel.println("  Calculation time: "
@@ -361,42 +383,11 @@ public class MapPanel extends JPanel implements Printable {
 		resultPanel.println();
 
 		// resultPanel.println(" Degree : " + degree);
-		Way lastWay = null;
-		String lastName = null;
-		for (Segment s : route) {
-			Way way = getWay(s);
-			if ((way != null) && (way != lastWay)) {
-				String name = AnnotatedOsmGraph.getTag(way, "name");
-				if (name != null) {
-					name = name.trim();
-				}
-				if (name == null) {
-					name = AnnotatedOsmGraph.getTag(way, "ref");
-					if (name != null) {
-						name = name.trim();
-					}
-				}
-				if ((name != null) && !name.equals(lastName)) {
-					resultPanel.println("  " + name);
-					lastName = name;
-				}
-				lastWay = way;
-			}
-
+		for (String name : summary.getStreetNames()) {
+			resultPanel.println("  " + name);
 		}
 	}
 
-	private Way getWay(Segment s) {
-		for (Way w : ((Node) s.getAlpha()).get_ways()) {
-			for (Way v : ((Node) s.getOmega()).get_ways()) {
-				if (v == w) {
-					return w;
-				}
-			}
-		}
-		return null;
-	}
-
 	/**
 	 * Sets the center of the map to the default position University Campus,
 	 * "Steiler Zahn".
@@ -498,6 +489,9 @@ public class MapPanel extends JPanel implements Printable {
 		if (showGraph) {
 			paintGraph(g2);
 		}
+		if (isochrone != null) {
+			paintIsochrone(g2);
+		}
 		if (showRoutes) {
 			paintRoute(g2, fastestRoute, LayoutInfo.FASTEST_ROUTE);
 			paintRoute(g2, shortestRoute, LayoutInfo.SHORTEST_ROUTE);
@@ -516,21 +510,50 @@ public class MapPanel extends JPanel implements Printable {
 
 	}
 
+	private void paintIsochrone(Graphics2D g) {
+		g.setRenderingHints(antialias);
+		g.setStroke(new BasicStroke(2.0f, BasicStroke.JOIN_ROUND,
+				BasicStroke.CAP_ROUND));
+		for (double[][] ring : isochrone.getPolygons()) {
+			Polygon poly = new Polygon();
+			for (double[] p : ring) {
+				poly.addPoint(getPx(p[1]), getPy(p[0]));
+			}
+			g.setColor(ISOCHRONE_COLOR);
+			g.fillPolygon(poly);
+			g.setColor(ISOCHRONE_BORDER_COLOR);
+			g.drawPolygon(poly);
+		}
+	}
+
 	private void paintRoute(Graphics2D g, RoutingResult result, LayoutInfo l) {
-		if ((result == null) || (result.getRoute() == null)
-				|| (result.getRoute().size() < 1)) {
+		if ((result == null) || (result.getSegmentCount() < 1)) {
 			return;
 		}
 		Polygon poly = new Polygon();
-		Segment lastSeg = null;
-		for (Segment s : result.getRoute()) {
-			Node n = (Node) s.getThis();
-			poly.addPoint(getPx(n.get_longitude()), getPy(n.get_latitude()));
-			lastSeg = s;
-		}
-		if (lastSeg != null) {
-			Node n = (Node) lastSeg.getThat();
-			poly.addPoint(getPx(n.get_longitude()), getPy(n.get_latitude()));
+		if (result instanceof SnappedRoutingResult) {
+			// from the start point over the inner nodes to the target point
+			SnappedRoutingResult snapped = (SnappedRoutingResult) result;
+			List<Segment> route = snapped.getRoute();
+			poly.addPoint(getPx(snapped.getFrom().getLongitude()),
+					getPy(snapped.getFrom().getLatitude()));
+			for (int i = 1; i < route.size(); i++) {
+				Node n = (Node) route.get(i).getThis();
+				poly.addPoint(getPx(n.get_longitude()), getPy(n.get_latitude()));
+			}
+			poly.addPoint(getPx(snapped.getTo().getLongitude()),
+					getPy(snapped.getTo().getLatitude()));
+		} else {
+			Segment lastSeg = null;
+			for (Segment s : result) {
+				Node n = (Node) s.getThis();
+				poly.addPoint(getPx(n.get_longitude()), getPy(n.get_latitude()));
+				lastSeg = s;
+			}
+			if (lastSeg != null) {
+				Node n = (Node) lastSeg.getThat();
+				poly.addPoint(getPx(n.get_longitude()), getPy(n.get_latitude()));
+			}
 		}
 		g.setStroke(l.bgStroke);
 		g.setColor(l.bgColor);
@@ -657,6 +680,42 @@ public class MapPanel extends JPanel implements Printable {
 			mostConvenientRouteCalculator = new AStarRouteCalculator(graph);
 			System.out.println("Choosen A* routing algorithm.");
 			break;
+		case BidirectionalDijkstra:
+			fastestRouteCalculator = new BidirectionalDijkstraRouteCalculator(
+					graph);
+			shortestRouteCalculator = new BidirectionalDijkstraRouteCalculator(
+					graph);
+			mostConvenientRouteCalculator = new BidirectionalDijkstraRouteCalculator(
+					graph);
+			System.out
+					.println("Choosen bidirectional Dijkstra routing algorithm.");
+			break;
+		case BidirectionalAStar:
+			fastestRouteCalculator = new BidirectionalAStarRouteCalculator(
+					graph);
+			shortestRouteCalculator = new BidirectionalAStarRouteCalculator(
+					graph);
+			mostConvenientRouteCalculator = new BidirectionalAStarRouteCalculator(
+					graph);
+			System.out.println("Choosen bidirectional A* routing algorithm.");
+			break;
+		case EdgeBased:
+			if (turnRestrictions == null) {
+				turnRestrictions = new TurnRestrictions(graph);
+				System.out.println("Read " + turnRestrictions.size()
+						+ " turn restrictions, ignored "
+						+ turnRestrictions.getIgnoredRelationCount()
+						+ " relations.");
+			}
+			fastestRouteCalculator = new EdgeBasedRouteCalculator(graph,
+					turnRestrictions);
+			shortestRouteCalculator = new EdgeBasedRouteCalculator(graph,
+					turnRestrictions);
+			mostConvenientRouteCalculator = new EdgeBasedRouteCalculator(
+					graph, turnRestrictions);
+			System.out
+					.println("Choosen edge-based routing algorithm with turn restrictions.");
+			break;
 		default:
 			System.err.println("Unknown RoutingAlgorithm selected! " + alg);
 		}
@@ -1228,6 +1287,45 @@ public class MapPanel extends JPanel implements Printable {
 		return showRoutes;
 	}
 
+	public Isochrone getIsochrone() {
+		return isochrone;
+	}
+
+	/**
+	 * Shows <code>isochrone</code> as overlay, or removes the overlay if
+	 * <code>isochrone</code> is null.
+	 */
+	public void setIsochrone(Isochrone isochrone) {
+		this.isochrone = isochrone;
+		if (isVisible()) {
+			repaint();
+		}
+	}
+
+	/**
+	 * Computes and shows the area reachable by car from the start node within
+	 * <code>minutes</code>.
+	 */
+	public void showIsochrone(double minutes) {
+		if (startNode == null) {
+			resultPanel.println("Please set a start node first.");
+			return;
+		}
+		if (isochroneCalculator == null) {
+			isochroneCalculator = new IsochroneCalculator(graph);
+		}
+		Isochrone result = isochroneCalculator.calculate(startNode,
+				minutes * 60, RoutingRestriction.CAR);
+		resultPanel.println();
+		resultPanel.printLabel("Isochrone:", ISOCHRONE_BORDER_COLOR);
+		resultPanel.println("  Limit: " + minutes + " minutes");
+		resultPanel.println("  Reached nodes: "
+				+ result.getReachedNodes().size());
+		resultPanel.println("  Calculation time: "
+				+ result.getCalculationTime() / 1000d + " seconds");
+		setIsochrone(result);
+	}
+
 	public void setMouseStartNode() {
 		fastestRoute = null;
 		shortestRoute = null;
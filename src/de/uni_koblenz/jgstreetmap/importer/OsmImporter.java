@@ -1,5 +1,6 @@
 package de.uni_koblenz.jgstreetmap.importer;
 
+import java.io.IOException;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -31,6 +32,8 @@ import de.uni_koblenz.jgstreetmap.osmschema.map.OsmPrimitive;
 import de.uni_koblenz.jgstreetmap.osmschema.map.Relation;
 import de.uni_koblenz.jgstreetmap.osmschema.map.Way;
 import de.uni_koblenz.jgstreetmap.routing.Segmentator;
+import de.uni_koblenz.jgstreetmap.routing.alt.LandmarkTool;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchyTool;
 
 public class OsmImporter extends DefaultHandler {
 	private enum State {
@@ -61,6 +64,8 @@ public class OsmImporter extends DefaultHandler {
 	private int levels, members;
 	private boolean buildKD;
 	private boolean createSegments;
+	private boolean buildContractionHierarchies;
+	private int landmarkCount;
 
 	public OsmImporter(String inFile, String outFile) {
 		this.inFile = inFile;
@@ -84,6 +89,9 @@ public class OsmImporter extends DefaultHandler {
 		usedTags.add("natural");
 		usedTags.add("oneway");
 		usedTags.add("name");
+		// turn restriction relations
+		usedTags.add("type");
+		usedTags.add("restriction");
 	}
 
 	private static CommandLine processCommandLineOptions(String[] args) {
@@ -136,6 +144,18 @@ public class OsmImporter extends DefaultHandler {
 				"(optional): disables the creation of segments");
 		disableSegments.setRequired(false);
 		oh.addOption(disableSegments);
+
+		Option hierarchies = new Option("c", "contraction-hierarchies",
+				false,
+				"(optional): builds contraction hierarchies for routing next to the output file");
+		hierarchies.setRequired(false);
+		oh.addOption(hierarchies);
+
+		Option landmarks = new Option("a", "alt-landmarks", true,
+				"(optional): computes the given number of landmarks for A* next to the output file");
+		landmarks.setRequired(false);
+		landmarks.setArgName("number");
+		oh.addOption(landmarks);
 		return oh.parse(args);
 	}
 
@@ -162,6 +182,23 @@ public class OsmImporter extends DefaultHandler {
 			importer.setCreateSegments(false);
 			System.out.println("Disabling the creation of segments...");
 		}
+		if (cl.hasOption("c")) {
+			if (cl.hasOption("S")) {
+				System.err
+						.println("Contraction hierarchies need segments, ignoring option c.");
+			} else {
+				importer.setBuildContractionHierarchies(true);
+			}
+		}
+		if (cl.hasOption("a")) {
+			int landmarks = Integer.parseInt(cl.getOptionValue("a"));
+			if (cl.hasOption("S")) {
+				System.err
+						.println("Landmarks need segments, ignoring option a.");
+			} else {
+				importer.setLandmarkCount(landmarks);
+			}
+		}
 
 		importer.importOsm();
 
@@ -227,6 +264,24 @@ public class OsmImporter extends DefaultHandler {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		// the hierarchies refer to vertex and edge ids, so they must be built
+		// after defragmentation
+		if (buildContractionHierarchies && createSegments) {
+			System.out.println("Building contraction hierarchies...");
+			try {
+				ContractionHierarchyTool.buildHierarchies(graph, outFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if ((landmarkCount > 0) && createSegments) {
+			System.out.println("Computing landmarks...");
+			try {
+				LandmarkTool.buildLandmarks(graph, outFile, landmarkCount);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		long stopTime = System.currentTimeMillis();
 		System.out.println("Total conversion time: " + (stopTime - startTime)
 				/ 1000.0 + "s");
@@ -437,4 +492,13 @@ public class OsmImporter extends DefaultHandler {
 	public void setCreateSegments(boolean createSegments) {
 		this.createSegments = createSegments;
 	}
+
+	public void setBuildContractionHierarchies(
+			boolean buildContractionHierarchies) {
+		this.buildContractionHierarchies = buildContractionHierarchies;
+	}
+
+	public void setLandmarkCount(int landmarkCount) {
+		this.landmarkCount = landmarkCount;
+	}
 }
@@ -28,6 +28,9 @@ import de.uni_koblenz.jgstreetmap.routing.Segmentator;
 
 public class AnnotatedOsmGraph extends OsmGraphImpl {
 	private Map<Long, OsmPrimitive> osmIdMap;
+
+	/** the ways by OSM id, which may coincide with the id of a node */
+	private Map<Long, Way> wayIdMap;
 	private GraphMarker<LayoutInfo> layoutInfo;
 	private SortedMap<Integer, List<Way>> orderedWays;
 	private KDTree kdTree;
@@ -35,6 +38,7 @@ public class AnnotatedOsmGraph extends OsmGraphImpl {
 	public AnnotatedOsmGraph(String id, int vmax, int emax) {
 		super(id, vmax, emax);
 		osmIdMap = new HashMap<Long, OsmPrimitive>();
+		wayIdMap = new HashMap<Long, Way>();
 		layoutInfo = new GraphMarker<LayoutInfo>(this);
 		orderedWays = new TreeMap<Integer, List<Way>>();
 	}
@@ -45,6 +49,7 @@ public class AnnotatedOsmGraph extends OsmGraphImpl {
 			osmIdMap.put(o.get_osmId(), o);
 		}
 		for (Way way : getWayVertices()) {
+			wayIdMap.put(way.get_osmId(), way);
 			LayoutInfo l = LayoutInfo.computeInfo(way);
 			layoutInfo.mark(way, l);
 			List<Way> lst = orderedWays.get(l.zOrder);
@@ -95,6 +100,14 @@ public class AnnotatedOsmGraph extends OsmGraphImpl {
 		return osmIdMap.get(osmId);
 	}
 
+	/**
+	 * @return the way with the OSM id <code>osmId</code>, e.g. the way id of
+	 *         a segment, or null if there is none
+	 */
+	public Way getWayById(long osmId) {
+		return wayIdMap.get(osmId);
+	}
+
 	public static String getTag(OsmPrimitive o, String key) {
 		Map<String, String> tags = o.get_tags();
 		if (tags != null) {
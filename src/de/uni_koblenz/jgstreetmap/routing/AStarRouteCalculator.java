@@ -4,9 +4,7 @@
 package de.uni_koblenz.jgstreetmap.routing;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Stack;
 import java.util.TreeSet;
 
@@ -22,7 +20,7 @@ import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
  */
 public class AStarRouteCalculator extends RouteCalculator {
 	GraphMarker<AStarMark> marker;
-	PriorityQueue<Node> queue;
+	VertexHeap queue;
 
 	private static class AStarMark {
 		/** indicates that AStar is done with the vertex */
@@ -63,70 +61,60 @@ public class AStarRouteCalculator extends RouteCalculator {
 		}
 
 		if (queue == null) {
-			queue = new PriorityQueue<Node>(128, new Comparator<Node>() {
-				@Override
-				public int compare(Node a, Node b) {
-					return Double.compare(marker.getMark(a).fvalue, marker
-							.getMark(b).fvalue);
-				}
-			});
+			queue = new VertexHeap(graph.getMaxVCount() + 1);
 		} else {
 			queue.clear();
 		}
 
-		marker.mark(start, new AStarMark(calculateHeuristic(start, target, r),
-				0, null));
-		queue.offer(start);
+		WeightTable weights = getWeightTable(r);
+		double startFValue = calculateHeuristic(start, target, r);
+		marker.mark(start, new AStarMark(startFValue, 0, null));
+		queue.insert(start.getId(), startFValue);
 
 		while (!queue.isEmpty()) {
-			Node currentVertex = queue.poll();
+			Node currentVertex = (Node) graph.getVertex(queue.poll());
 			AStarMark mark = marker.getMark(currentVertex);
 			mark.done = true;
 
+			if (currentVertex == target) {
+				// the target is settled, so its distance is final
+				Stack<Segment> routesegments = new Stack<Segment>();
+				AStarMark targetMark = mark;
+				while (targetMark != null && targetMark.parentSegment != null) {
+					routesegments.push(targetMark.parentSegment);
+					targetMark = marker.getMark(targetMark.parentSegment
+							.getThis());
+				}
+
+				List<Segment> out = new ArrayList<Segment>(routesegments.size());
+				while (!routesegments.empty()) {
+					out.add(routesegments.pop());
+				}
+				// printRoute(out, r);
+				return new RoutingResult(out.isEmpty() ? null : out, System
+						.currentTimeMillis()
+						- startTime);
+			}
+
 			for (Segment currentSegment : currentVertex.getSegmentIncidences()) {
-				if (relevantTypes.contains(currentSegment.get_wayType())
-						&& (currentSegment.isNormal() || !currentSegment
-								.is_oneway())) {
+				if (weights.isAllowed(currentSegment)) {
 					Node nextVertex = (Node) currentSegment.getThat();
 					double newDist = mark.distance
-							+ rate(currentSegment, r, mark.parentSegment);
-					double heuristic = calculateHeuristic(nextVertex, target, r);
-					double newFValue = newDist + heuristic;
+							+ rate(weights, currentSegment, r,
+									mark.parentSegment);
 					AStarMark nextMark = marker.getMark(nextVertex);
 					if (nextMark == null) {
+						double newFValue = newDist
+								+ calculateHeuristic(nextVertex, target, r);
 						marker.mark(nextVertex, new AStarMark(newFValue,
 								newDist, currentSegment));
-						queue.offer(nextVertex);
-					} else if (nextMark.distance > newDist) {
-						nextMark.fvalue = newFValue;
+						queue.insert(nextVertex.getId(), newFValue);
+					} else if (!nextMark.done && (nextMark.distance > newDist)) {
+						// the heuristic part of the f value doesn't change
+						nextMark.fvalue += newDist - nextMark.distance;
 						nextMark.distance = newDist;
 						nextMark.parentSegment = currentSegment;
-						if (!nextMark.done) {
-							queue.remove(nextVertex);
-							queue.offer(nextVertex);
-						}
-					}
-
-					if (nextVertex == target) {
-						System.out.println("Target found!");
-						Stack<Segment> routesegments = new Stack<Segment>();
-						AStarMark targetMark = marker.getMark(target);
-						while (targetMark != null
-								&& targetMark.parentSegment != null) {
-							routesegments.push(targetMark.parentSegment);
-							targetMark = marker
-									.getMark(targetMark.parentSegment.getThis());
-						}
-
-						List<Segment> out = new ArrayList<Segment>(
-								routesegments.size());
-						while (!routesegments.empty()) {
-							out.add(routesegments.pop());
-						}
-						// printRoute(out, r);
-						return new RoutingResult(out, System
-								.currentTimeMillis()
-								- startTime);
+						queue.decreaseKey(nextVertex.getId(), nextMark.fvalue);
 					}
 				} else {
 					// System.out.println("Segment " + currentSegment
@@ -137,34 +125,4 @@ public class AStarRouteCalculator extends RouteCalculator {
 		// System.out.println("Returning null route!");
 		return new RoutingResult(null, System.currentTimeMillis() - startTime);
 	}
-
-	private double calculateHeuristic(Node start, Node target, EdgeRating r) {
-		if (start == target) {
-			return 0;
-		}
-
-		double sLat = start.get_latitude() * Math.PI / 180;
-		double sLong = start.get_longitude() * Math.PI / 180;
-		double tLat = target.get_latitude() * Math.PI / 180;
-		double tLong = target.get_longitude() * Math.PI / 180;
-		double earthRadius = 6378.3 * 1000;
-
-		double dist = Math.acos(Math.sin(sLat) * Math.sin(tLat)
-				+ Math.cos(sLat) * Math.cos(tLat) * Math.cos(sLong - tLong))
-				* earthRadius;
-
-		// System.out.println("dist between " + start + " and target " + target
-		// + " = " + dist + " meters.");
-
-		switch (r) {
-		case LENGTH:
-			return dist;
-		case TIME:
-			return dist * 3.6 / speeds.motorway;
-		case CONVENIENCE:
-			return 0;
-		default:
-			return 0;
-		}
-	}
 }
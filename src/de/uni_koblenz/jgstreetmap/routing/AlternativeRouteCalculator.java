@@ -0,0 +1,420 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+
+/**
+ * Computes the best route and a few alternatives to it with the plateau
+ * method: a forward shortest path tree from the start and a backward tree to
+ * the target are grown up to the allowed stretch. Chains of segments which are
+ * in both trees (plateaus) are locally optimal, and the route through a
+ * plateau consists of the forward tree path to its first node, the plateau
+ * and the backward tree path from its last node. The candidates are tried in
+ * the order of decreasing plateau weight, and a candidate is accepted if it
+ * isn't too long and doesn't overlap too much with the routes accepted so
+ * far.
+ *
+ * So all alternatives come from the same two searches. Only
+ * {@link EdgeRating#LENGTH} and {@link EdgeRating#TIME} are supported, since
+ * the rating of a segment must not depend on its predecessor.
+ */
+public class AlternativeRouteCalculator extends RouteCalculator {
+	/** alternatives may be 25% worse than the best route */
+	public static final double DEFAULT_MAX_STRETCH = 0.25;
+
+	/** alternatives may share 70% of their length with better routes */
+	public static final double DEFAULT_MAX_OVERLAP = 0.7;
+
+	/** plateaus must make up 10% of the best route's rating */
+	public static final double DEFAULT_MIN_PLATEAU = 0.1;
+
+	public static final int DEFAULT_MAX_ALTERNATIVES = 2;
+
+	private double maxStretch;
+	private double maxOverlap;
+	private double minPlateau;
+	private int maxAlternatives;
+
+	private SearchTree forwardTree;
+	private SearchTree backwardTree;
+
+	/**
+	 * A shortest path tree whose arrays are indexed by vertex id. The forward
+	 * tree stores the segment over which a vertex is reached, the backward
+	 * tree the segment over which a vertex is left towards the root.
+	 */
+	private class SearchTree {
+		private final boolean forward;
+		private int generation;
+		private int[] visited;
+		private int[] settled;
+		private double[] distance;
+		private Segment[] parent;
+		private VertexHeap queue;
+
+		SearchTree(boolean forward) {
+			this.forward = forward;
+		}
+
+		void initialize(Node root) {
+			int size = graph.getMaxVCount() + 1;
+			if ((visited == null) || (visited.length < size)) {
+				visited = new int[size];
+				settled = new int[size];
+				distance = new double[size];
+				parent = new Segment[size];
+				queue = new VertexHeap(size);
+				generation = 0;
+			} else {
+				queue.clear();
+			}
+			if (generation == Integer.MAX_VALUE) {
+				Arrays.fill(visited, 0);
+				Arrays.fill(settled, 0);
+				generation = 0;
+			}
+			generation++;
+			int id = root.getId();
+			visited[id] = generation;
+			distance[id] = 0;
+			parent[id] = null;
+			queue.insert(id, 0);
+		}
+
+		/**
+		 * Settles vertices until <code>until</code> is settled or the next
+		 * distance exceeds <code>limit</code>.
+		 */
+		void grow(Node until, double limit, WeightTable weights) {
+			while (!queue.isEmpty() && (queue.peekKey() <= limit)) {
+				int id = queue.poll();
+				settled[id] = generation;
+				Node v = (Node) graph.getVertex(id);
+				double d = distance[id];
+				for (Segment s : v.getSegmentIncidences()) {
+					// the backward tree follows the segments in reverse
+					Segment used = forward ? s : opposite(s);
+					if (!weights.isAllowed(used)) {
+						continue;
+					}
+					int w = s.getThat().getId();
+					double newDist = d + weights.getWeight(used);
+					if (visited[w] != generation) {
+						visited[w] = generation;
+						distance[w] = newDist;
+						parent[w] = used;
+						queue.insert(w, newDist);
+					} else if ((settled[w] != generation)
+							&& (newDist < distance[w])) {
+						distance[w] = newDist;
+						parent[w] = used;
+						queue.decreaseKey(w, newDist);
+					}
+				}
+				if (v == until) {
+					return;
+				}
+			}
+		}
+
+		boolean isSettled(int id) {
+			return settled[id] == generation;
+		}
+
+		double getDistance(int id) {
+			return distance[id];
+		}
+
+		Segment getParent(int id) {
+			return parent[id];
+		}
+	}
+
+	/** a route candidate through a plateau */
+	private static class Candidate {
+		final Node via;
+		final double rating;
+		final double plateau;
+
+		Candidate(Node via, double rating, double plateau) {
+			this.via = via;
+			this.rating = rating;
+			this.plateau = plateau;
+		}
+	}
+
+	public AlternativeRouteCalculator(OsmGraph graph) {
+		this.graph = graph;
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+		maxStretch = DEFAULT_MAX_STRETCH;
+		maxOverlap = DEFAULT_MAX_OVERLAP;
+		minPlateau = DEFAULT_MIN_PLATEAU;
+		maxAlternatives = DEFAULT_MAX_ALTERNATIVES;
+		forwardTree = new SearchTree(true);
+		backwardTree = new SearchTree(false);
+	}
+
+	public double getMaxStretch() {
+		return maxStretch;
+	}
+
+	/**
+	 * Sets how much worse than the best route an alternative may be, e.g.
+	 * 0.25 allows a rating of 125% of the best one.
+	 */
+	public void setMaxStretch(double maxStretch) {
+		this.maxStretch = maxStretch;
+	}
+
+	public double getMaxOverlap() {
+		return maxOverlap;
+	}
+
+	/**
+	 * Sets the fraction of its length an alternative may share with the
+	 * better routes.
+	 */
+	public void setMaxOverlap(double maxOverlap) {
+		this.maxOverlap = maxOverlap;
+	}
+
+	public double getMinPlateau() {
+		return minPlateau;
+	}
+
+	/**
+	 * Sets the minimal rating of a plateau relative to the rating of the best
+	 * route. Short plateaus indicate routes with detours.
+	 */
+	public void setMinPlateau(double minPlateau) {
+		this.minPlateau = minPlateau;
+	}
+
+	public int getMaxAlternatives() {
+		return maxAlternatives;
+	}
+
+	public void setMaxAlternatives(int maxAlternatives) {
+		this.maxAlternatives = maxAlternatives;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		List<RoutingResult> routes = getRoutes(target, r);
+		if (routes.isEmpty()) {
+			return new RoutingResult(null, 0);
+		}
+		return routes.get(0);
+	}
+
+	/**
+	 * @return the best route to <code>target</code> followed by up to
+	 *         {@link #getMaxAlternatives()} alternatives in the order of
+	 *         increasing rating, or an empty list if <code>target</code> can't
+	 *         be reached. Each result carries the time for all of them.
+	 */
+	public List<RoutingResult> getRoutes(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Alternative routes support only LENGTH and TIME, not " + r);
+		}
+		if (start == target) {
+			return Collections.emptyList();
+		}
+
+		WeightTable weights = getWeightTable(r);
+		forwardTree.initialize(start);
+		forwardTree.grow(target, Double.POSITIVE_INFINITY, weights);
+		if (!forwardTree.isSettled(target.getId())) {
+			return Collections.emptyList();
+		}
+		double best = forwardTree.getDistance(target.getId());
+		double limit = best * (1 + maxStretch);
+		forwardTree.grow(null, limit, weights);
+		backwardTree.initialize(target);
+		backwardTree.grow(null, limit, weights);
+
+		List<List<Segment>> routes = new ArrayList<List<Segment>>();
+		routes.add(createRoute(target));
+		if (maxAlternatives > 0) {
+			List<Candidate> candidates = findPlateaus(limit, best * minPlateau);
+			Set<Segment> used = new HashSet<Segment>();
+			addSegments(used, routes.get(0));
+			for (Candidate c : candidates) {
+				if (routes.size() > maxAlternatives) {
+					break;
+				}
+				List<Segment> route = createRoute(c.via);
+				if ((route != null) && (overlap(used, route) <= maxOverlap)) {
+					routes.add(route);
+					addSegments(used, route);
+				}
+			}
+		}
+
+		// the best route comes first, the alternatives by rating
+		final List<Double> ratings = new ArrayList<Double>();
+		for (List<Segment> route : routes) {
+			ratings.add(calculateCompleteWeight(route, r));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 1; i < routes.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(ratings.get(i), ratings.get(j));
+			}
+		});
+		order.add(0, 0);
+
+		long time = System.currentTimeMillis() - startTime;
+		List<RoutingResult> results = new ArrayList<RoutingResult>(routes
+				.size());
+		for (int i : order) {
+			results.add(new RoutingResult(routes.get(i), time));
+		}
+		return results;
+	}
+
+	/**
+	 * @return one candidate per plateau with a rating up to
+	 *         <code>limit</code> and a plateau weight of at least
+	 *         <code>minWeight</code>, the longest plateaus first
+	 */
+	private List<Candidate> findPlateaus(double limit, double minWeight) {
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Node v : graph.getNodeVertices()) {
+			int id = v.getId();
+			if (!isPlateauStart(id)) {
+				continue;
+			}
+			double rating = forwardTree.getDistance(id)
+					+ backwardTree.getDistance(id);
+			if (rating > limit) {
+				continue;
+			}
+			// follow the plateau to its end
+			int end = id;
+			Segment s = backwardTree.getParent(end);
+			while ((s != null) && isPlateauSegment(s)) {
+				end = s.getThat().getId();
+				s = backwardTree.getParent(end);
+			}
+			double weight = forwardTree.getDistance(end)
+					- forwardTree.getDistance(id);
+			if (weight >= minWeight) {
+				candidates.add(new Candidate(v, rating, weight));
+			}
+		}
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) {
+				int result = Double.compare(c2.plateau, c1.plateau);
+				return (result != 0) ? result : Double.compare(c1.rating,
+						c2.rating);
+			}
+		});
+		return candidates;
+	}
+
+	/**
+	 * @return true if the vertex with id <code>id</code> is the first vertex
+	 *         of a plateau, i.e. left over a plateau segment but not reached
+	 *         over one
+	 */
+	private boolean isPlateauStart(int id) {
+		if (!forwardTree.isSettled(id) || !backwardTree.isSettled(id)) {
+			return false;
+		}
+		Segment out = backwardTree.getParent(id);
+		if ((out == null) || !isPlateauSegment(out)) {
+			return false;
+		}
+		Segment in = forwardTree.getParent(id);
+		return (in == null) || !isPlateauSegment(in);
+	}
+
+	/**
+	 * @return true if <code>s</code> is in both trees
+	 */
+	private boolean isPlateauSegment(Segment s) {
+		int u = s.getThis().getId();
+		int w = s.getThat().getId();
+		return forwardTree.isSettled(w) && backwardTree.isSettled(u)
+				&& (forwardTree.getParent(w) == s)
+				&& (backwardTree.getParent(u) == s);
+	}
+
+	/**
+	 * @return the route from the start along the forward tree to
+	 *         <code>via</code> and along the backward tree to the target, or
+	 *         null if it visits a vertex twice
+	 */
+	private List<Segment> createRoute(Node via) {
+		List<Segment> route = new ArrayList<Segment>();
+		Set<Integer> vertices = new HashSet<Integer>();
+		vertices.add(via.getId());
+		Segment s = forwardTree.getParent(via.getId());
+		while (s != null) {
+			route.add(s);
+			int v = s.getThis().getId();
+			if (!vertices.add(v)) {
+				return null;
+			}
+			s = forwardTree.getParent(v);
+		}
+		Collections.reverse(route);
+		s = backwardTree.getParent(via.getId());
+		while (s != null) {
+			route.add(s);
+			int v = s.getThat().getId();
+			if (!vertices.add(v)) {
+				return null;
+			}
+			s = backwardTree.getParent(v);
+		}
+		return route;
+	}
+
+	private static void addSegments(Set<Segment> segments, List<Segment> route) {
+		for (Segment s : route) {
+			segments.add((Segment) s.getNormalEdge());
+		}
+	}
+
+	/**
+	 * @return the fraction of the length of <code>route</code> on segments in
+	 *         <code>segments</code>
+	 */
+	private static double overlap(Set<Segment> segments, List<Segment> route) {
+		double shared = 0;
+		double total = 0;
+		for (Segment s : route) {
+			total += s.get_length();
+			if (segments.contains(s.getNormalEdge())) {
+				shared += s.get_length();
+			}
+		}
+		return (total == 0) ? 1 : shared / total;
+	}
+}
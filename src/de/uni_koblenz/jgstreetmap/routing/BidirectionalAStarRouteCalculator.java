@@ -0,0 +1,25 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+
+/**
+ * A bidirectional A* using the average of the forward and backward great-circle
+ * estimates as potential. Since the backward search uses the negated
+ * potential, both searches see the same reduced segment ratings, so the
+ * stopping criterion of {@link BidirectionalDijkstraRouteCalculator} stays
+ * correct.
+ */
+public class BidirectionalAStarRouteCalculator extends
+		BidirectionalDijkstraRouteCalculator {
+
+	public BidirectionalAStarRouteCalculator(OsmGraph graph) {
+		super(graph);
+	}
+
+	@Override
+	protected double forwardPotential(Node v, Node target, EdgeRating r) {
+		return (calculateHeuristic(v, target, r) - calculateHeuristic(start,
+				v, r)) / 2;
+	}
+}
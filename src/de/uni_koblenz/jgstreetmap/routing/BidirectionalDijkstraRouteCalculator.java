@@ -0,0 +1,244 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgralab.graphmarker.GraphMarker;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+
+/**
+ * Runs a forward search from the start vertex on outgoing segments and a
+ * backward search from the target on incoming segments at the same time. The
+ * searches stop as soon as the sum of the smallest keys of both queues reaches
+ * the length of the best route found so far.
+ *
+ * The queue keys are the distances shifted by a potential function, which is
+ * zero here. {@link BidirectionalAStarRouteCalculator} plugs in a goal
+ * directed potential.
+ *
+ * For {@link RouteCalculator.EdgeRating#CONVENIENCE} the penalty between the
+ * last forward and the first backward segment is added when both searches
+ * meet, so routes are rated like in the unidirectional calculators.
+ */
+public class BidirectionalDijkstraRouteCalculator extends RouteCalculator {
+
+	private static class SearchMark {
+		/** indicates that the search is done with the vertex */
+		boolean done;
+
+		/** records the distance to the start (or target) vertex */
+		double distance;
+
+		/** the potential of the vertex, computed once */
+		double potential;
+
+		/**
+		 * the segment leading to the vertex in the forward search, or the
+		 * segment leaving the vertex towards the target in the backward search
+		 */
+		Segment parentSegment;
+
+		SearchMark(double d, double p, Segment s) {
+			distance = d;
+			potential = p;
+			parentSegment = s;
+		}
+	}
+
+	private GraphMarker<SearchMark> forwardMarker;
+	private GraphMarker<SearchMark> backwardMarker;
+	private VertexHeap forwardQueue;
+	private VertexHeap backwardQueue;
+
+	/** length of the best route found so far */
+	private double bestDistance;
+
+	/** the vertex where forward and backward search of that route meet */
+	private Node meetingVertex;
+
+	/** the weights of the current query */
+	private WeightTable weights;
+
+	public BidirectionalDijkstraRouteCalculator(OsmGraph graph) {
+		this.graph = graph;
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	/**
+	 * The potential of a vertex in the forward search. The backward search
+	 * uses the negated potential, so that both searches work with the same
+	 * reduced segment ratings and the usual stopping criterion stays correct.
+	 *
+	 * @return 0, which yields a plain bidirectional Dijkstra
+	 */
+	protected double forwardPotential(Node v, Node target, EdgeRating r) {
+		return 0;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+
+		initialize();
+		weights = getWeightTable(r);
+		bestDistance = Double.POSITIVE_INFINITY;
+		meetingVertex = null;
+
+		if (start != target) {
+			double p = forwardPotential(start, target, r);
+			forwardMarker.mark(start, new SearchMark(0, p, null));
+			forwardQueue.insert(start.getId(), p);
+			p = forwardPotential(target, target, r);
+			backwardMarker.mark(target, new SearchMark(0, p, null));
+			backwardQueue.insert(target.getId(), -p);
+
+			while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+				double forwardKey = forwardQueue.peekKey();
+				double backwardKey = backwardQueue.peekKey();
+				if (forwardKey + backwardKey >= bestDistance) {
+					break;
+				}
+				if (forwardKey <= backwardKey) {
+					expandForward(target, r);
+				} else {
+					expandBackward(target, r);
+				}
+			}
+		}
+
+		if (meetingVertex == null) {
+			return new RoutingResult(null, System.currentTimeMillis()
+					- startTime);
+		}
+
+		Stack<Segment> routesegments = new Stack<Segment>();
+		SearchMark m = forwardMarker.getMark(meetingVertex);
+		while ((m != null) && (m.parentSegment != null)) {
+			routesegments.push(m.parentSegment);
+			m = forwardMarker.getMark(m.parentSegment.getThis());
+		}
+		List<Segment> out = new ArrayList<Segment>();
+		while (!routesegments.empty()) {
+			out.add(routesegments.pop());
+		}
+		m = backwardMarker.getMark(meetingVertex);
+		while ((m != null) && (m.parentSegment != null)) {
+			out.add(m.parentSegment);
+			m = backwardMarker.getMark(m.parentSegment.getThat());
+		}
+		return new RoutingResult(out, System.currentTimeMillis() - startTime);
+	}
+
+	private void initialize() {
+		if (forwardMarker != null) {
+			forwardMarker.clear();
+			backwardMarker.clear();
+			forwardQueue.clear();
+			backwardQueue.clear();
+		} else {
+			forwardMarker = new GraphMarker<SearchMark>(graph);
+			backwardMarker = new GraphMarker<SearchMark>(graph);
+			forwardQueue = new VertexHeap(graph.getMaxVCount() + 1);
+			backwardQueue = new VertexHeap(graph.getMaxVCount() + 1);
+		}
+	}
+
+	private void expandForward(Node target, EdgeRating r) {
+		Node currentVertex = (Node) graph.getVertex(forwardQueue.poll());
+		SearchMark mark = forwardMarker.getMark(currentVertex);
+		mark.done = true;
+
+		for (Segment currentSegment : currentVertex.getSegmentIncidences()) {
+			if (!weights.isAllowed(currentSegment)) {
+				continue;
+			}
+			Node nextVertex = (Node) currentSegment.getThat();
+			double newDist = mark.distance
+					+ rate(weights, currentSegment, r, mark.parentSegment);
+			SearchMark nextMark = forwardMarker.getMark(nextVertex);
+			if (nextMark == null) {
+				nextMark = new SearchMark(newDist, forwardPotential(nextVertex,
+						target, r), currentSegment);
+				forwardMarker.mark(nextVertex, nextMark);
+				forwardQueue.insert(nextVertex.getId(), newDist
+						+ nextMark.potential);
+			} else if (!nextMark.done && (nextMark.distance > newDist)) {
+				nextMark.distance = newDist;
+				nextMark.parentSegment = currentSegment;
+				forwardQueue.decreaseKey(nextVertex.getId(), newDist
+						+ nextMark.potential);
+			} else {
+				continue;
+			}
+			SearchMark backwardMark = backwardMarker.getMark(nextVertex);
+			if (backwardMark != null) {
+				updateBestDistance(nextVertex, nextMark, backwardMark, r);
+			}
+		}
+	}
+
+	private void expandBackward(Node target, EdgeRating r) {
+		Node currentVertex = (Node) graph.getVertex(backwardQueue.poll());
+		SearchMark mark = backwardMarker.getMark(currentVertex);
+		mark.done = true;
+
+		for (Segment outgoing : currentVertex.getSegmentIncidences()) {
+			// the incoming segment as seen from its this vertex
+			Segment currentSegment = opposite(outgoing);
+			if (!weights.isAllowed(currentSegment)) {
+				continue;
+			}
+			Node previousVertex = (Node) currentSegment.getThis();
+			// the convenience penalty only depends on the pair of segments,
+			// so it may be accounted for the earlier one
+			double newDist = mark.distance
+					+ rate(weights, currentSegment, r, mark.parentSegment);
+			SearchMark previousMark = backwardMarker.getMark(previousVertex);
+			if (previousMark == null) {
+				previousMark = new SearchMark(newDist, forwardPotential(
+						previousVertex, target, r), currentSegment);
+				backwardMarker.mark(previousVertex, previousMark);
+				backwardQueue.insert(previousVertex.getId(), newDist
+						- previousMark.potential);
+			} else if (!previousMark.done && (previousMark.distance > newDist)) {
+				previousMark.distance = newDist;
+				previousMark.parentSegment = currentSegment;
+				backwardQueue.decreaseKey(previousVertex.getId(), newDist
+						- previousMark.potential);
+			} else {
+				continue;
+			}
+			SearchMark forwardMark = forwardMarker.getMark(previousVertex);
+			if (forwardMark != null) {
+				updateBestDistance(previousVertex, forwardMark, previousMark, r);
+			}
+		}
+	}
+
+	private void updateBestDistance(Node v, SearchMark forwardMark,
+			SearchMark backwardMark, EdgeRating r) {
+		double d = forwardMark.distance + backwardMark.distance;
+		if ((forwardMark.parentSegment != null)
+				&& (backwardMark.parentSegment != null)) {
+			// penalty between the two segments meeting at v, if any
+			d += rate(weights, backwardMark.parentSegment, r,
+					forwardMark.parentSegment)
+					- rate(weights, backwardMark.parentSegment, r, null);
+		}
+		if (d < bestDistance) {
+			bestDistance = d;
+			meetingVertex = v;
+		}
+	}
+}
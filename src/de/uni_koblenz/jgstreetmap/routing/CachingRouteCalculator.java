@@ -0,0 +1,110 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.traffic.LiveTraffic;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * Answers route queries from a {@link RouteCache} and delegates the misses to
+ * another {@link RouteCalculator}, whose results are then cached. The speeds
+ * are those of the delegate, and routes are cached per {@link RoutingProfile}.
+ * Misses are answered from parts of cached routes unless the delegate rates
+ * turns, see {@link RouteCalculator#isRatingTurns()}.
+ */
+public class CachingRouteCalculator extends RouteCalculator {
+	private final RouteCalculator calculator;
+	private final RouteCache cache;
+	private boolean subPathReuse;
+
+	public CachingRouteCalculator(RouteCalculator calculator) {
+		this(calculator, new RouteCache(calculator.graph));
+	}
+
+	/**
+	 * @param cache
+	 *            the cache, which may be shared with other calculators
+	 */
+	public CachingRouteCalculator(RouteCalculator calculator,
+			RouteCache cache) {
+		this.calculator = calculator;
+		this.cache = cache;
+		subPathReuse = !calculator.isRatingTurns();
+		graph = calculator.graph;
+		speeds = calculator.getSpeeds();
+		start = calculator.getStart();
+		traffic = calculator.getTraffic();
+		relevantTypes = new TreeSet<SegmentType>();
+		super.setRestriction(calculator.getRestriction());
+		if (calculator.profile != null) {
+			super.setProfile(calculator.profile);
+		}
+	}
+
+	public RouteCalculator getRouteCalculator() {
+		return calculator;
+	}
+
+	public RouteCache getCache() {
+		return cache;
+	}
+
+	public boolean isSubPathReuse() {
+		return subPathReuse;
+	}
+
+	/**
+	 * Selects whether misses may be answered from parts of cached routes,
+	 * which is only correct if each part of a best route is a best route
+	 * itself.
+	 */
+	public void setSubPathReuse(boolean subPathReuse) {
+		this.subPathReuse = subPathReuse;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		RoutingProfile p = getProfile();
+		TrafficState t = fetchTrafficState();
+		RoutingResult result = cache.get(start, target, r, p, t,
+				subPathReuse);
+		if (result != null) {
+			return result;
+		}
+		// the delegate may keep search state for its start, so it is only
+		// told about a new start when it is actually needed
+		if (calculator.getStart() != start) {
+			calculator.setStart(start);
+		}
+		result = calculator.getRoute(target, r);
+		cache.put(start, target, r, p, t, result.getRoute());
+		return result;
+	}
+
+	@Override
+	public void setRestriction(RoutingRestriction rest) {
+		super.setRestriction(rest);
+		if ((calculator.getRestriction() != rest)
+				|| (calculator.profile != null)) {
+			calculator.setRestriction(rest);
+		}
+	}
+
+	@Override
+	public void setTraffic(LiveTraffic traffic) {
+		super.setTraffic(traffic);
+		calculator.setTraffic(traffic);
+	}
+
+	@Override
+	public void setProfile(RoutingProfile profile) {
+		super.setProfile(profile);
+		calculator.setProfile(profile);
+	}
+}
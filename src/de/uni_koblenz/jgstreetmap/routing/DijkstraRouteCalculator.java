@@ -1,10 +1,5 @@
 package de.uni_koblenz.jgstreetmap.routing;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Stack;
 import java.util.TreeSet;
 
 import de.uni_koblenz.jgralab.graphmarker.GraphMarker;
@@ -33,14 +28,49 @@ public class DijkstraRouteCalculator extends RouteCalculator {
 	}
 
 	protected GraphMarker<DijkstraMarker> dijkstraMarker;
-	PriorityQueue<Node> queue;
+	VertexHeap queue;
 
 	// protected RoutingRestriction rest;
 
+	/** true if all vertices reachable from start are settled */
 	protected boolean routesCalculated;
 
 	protected boolean startChanged;
 
+	/**
+	 * if true, {@link #getRoute(Node, EdgeRating)} stops as soon as the target
+	 * is settled and keeps the frontier for later queries from the same start
+	 */
+	protected boolean stopAtTarget;
+
+	/** the rating the current search tree has been computed for */
+	protected EdgeRating searchRating;
+
+	/** the weights of the current search tree and their revision */
+	private WeightTable weights;
+	private int weightRevision;
+
+	/**
+	 * The search of the previous start vertex, which is swapped in again when
+	 * the start vertex changes back. So the searches from both ends of the
+	 * segment a snapped route starts on, see
+	 * {@link #getRouteBetween(Segment, Segment, EdgeRating)}, are resumed by
+	 * later queries.
+	 */
+	private SearchState previous = new SearchState();
+
+	/** the state of a search kept aside while another start is used */
+	private static class SearchState {
+		Node start;
+		GraphMarker<DijkstraMarker> marker;
+		VertexHeap queue;
+		boolean routesCalculated;
+		boolean startChanged = true;
+		EdgeRating searchRating;
+		WeightTable weights;
+		int weightRevision;
+	}
+
 	public DijkstraRouteCalculator(OsmGraph g) {
 		dijkstraMarker = null;
 		graph = g;
@@ -48,10 +78,73 @@ public class DijkstraRouteCalculator extends RouteCalculator {
 		setRestriction(RoutingRestriction.CAR);
 		startChanged = false;
 		routesCalculated = false;
+		stopAtTarget = true;
+		searchRating = null;
 		speeds = new Speed();
 	}
 
+	/**
+	 * Computes the shortest routes from the start vertex to all reachable
+	 * vertices. If a search from the same start with the same rating has
+	 * already been started by {@link #getRoute(Node, EdgeRating)}, its frontier
+	 * is resumed.
+	 */
 	public void calculateShortestRoutes(EdgeRating rating) {
+		prepareSearch(rating);
+		settle(null, rating, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Computes the shortest routes from the start vertex to all vertices whose
+	 * distance rated by <code>rating</code> doesn't exceed <code>limit</code>.
+	 * The frontier is kept, so a later call with a greater limit or a call of
+	 * {@link #calculateShortestRoutes(EdgeRating)} resumes the search.
+	 */
+	public void calculateRoutesWithin(EdgeRating rating, double limit) {
+		prepareSearch(rating);
+		settle(null, rating, limit);
+	}
+
+	/**
+	 * @return the distance of <code>v</code> from the start vertex, or
+	 *         infinity if <code>v</code> hasn't been settled yet
+	 */
+	public double getDistance(Node v) {
+		DijkstraMarker m = (dijkstraMarker == null) ? null : dijkstraMarker
+				.getMark(v);
+		if ((m == null) || !m.done) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return m.distance;
+	}
+
+	/**
+	 * @return the last segment of the shortest route to <code>v</code>, or
+	 *         null if <code>v</code> is the start vertex or hasn't been settled
+	 *         yet
+	 */
+	public Segment getParentSegment(Node v) {
+		DijkstraMarker m = (dijkstraMarker == null) ? null : dijkstraMarker
+				.getMark(v);
+		if ((m == null) || !m.done) {
+			return null;
+		}
+		return m.parentSegment;
+	}
+
+	/**
+	 * Starts a new search unless the current search tree has been computed
+	 * from the same start with the same rating and weights.
+	 */
+	private void prepareSearch(EdgeRating rating) {
+		WeightTable t = getWeightTable(rating);
+		if (startChanged || (rating != searchRating) || (t != weights)
+				|| (t.getRevision() != weightRevision)) {
+			initializeSearch(rating, t);
+		}
+	}
+
+	private void initializeSearch(EdgeRating rating, WeightTable t) {
 		if (start == null) {
 			throw new IllegalStateException(
 					"setStart() must be called before invoking this method!");
@@ -63,57 +156,68 @@ public class DijkstraRouteCalculator extends RouteCalculator {
 		}
 
 		if (queue == null) {
-			queue = new PriorityQueue<Node>(128, new Comparator<Node>() {
-				public int compare(Node a, Node b) {
-					return Double.compare(dijkstraMarker.getMark(a).distance,
-							dijkstraMarker.getMark(b).distance);
-				}
-			});
+			queue = new VertexHeap(graph.getMaxVCount() + 1);
 		} else {
 			queue.clear();
 		}
 
 		dijkstraMarker.mark(start, new DijkstraMarker(0, null));
-		queue.offer(start);
+		queue.insert(start.getId(), 0);
+		searchRating = rating;
+		weights = t;
+		weightRevision = t.getRevision();
+		startChanged = false;
+		routesCalculated = false;
+	}
+
+	/**
+	 * Runs the dijkstra main loop on the current frontier until
+	 * <code>target</code> is settled or, if <code>target</code> is null, until
+	 * all reachable vertices with a distance up to <code>limit</code> are
+	 * settled.
+	 */
+	private void settle(Node target, EdgeRating rating, double limit) {
 		// dijkstra algorithm main loop
 		while (!queue.isEmpty()) {
+			if (queue.peekKey() > limit) {
+				return;
+			}
 			// retrieve vertex with smallest distance and mark as "done"
-			Node currentVertex = queue.poll();
+			Node currentVertex = (Node) graph.getVertex(queue.poll());
 
 			DijkstraMarker m = dijkstraMarker.getMark(currentVertex);
 			m.done = true;
 
 			// follow each traverseable edge
 			for (Segment currentSegment : currentVertex.getSegmentIncidences()) {
-				if (relevantTypes.contains(currentSegment.get_wayType())
-						&& (currentSegment.isNormal() || !currentSegment
-								.is_oneway())) {
+				if (weights.isAllowed(currentSegment)) {
 
 					Node nextVertex = (Node) currentSegment.getThat();
 
 					double newDistance = m.distance
-							+ rate(currentSegment, rating, m.parentSegment);
+							+ rate(weights, currentSegment, rating,
+									m.parentSegment);
 					// if the new path is shorter than the distance stored
 					// at the other end, this new value is stored
 					DijkstraMarker n = dijkstraMarker.getMark(nextVertex);
 					if (n == null) {
 						dijkstraMarker.mark(nextVertex, new DijkstraMarker(
 								newDistance, currentSegment));
-						queue.offer(nextVertex); // position in the queue
-					} else if (n.distance > newDistance) {
+						queue.insert(nextVertex.getId(), newDistance);
+					} else if (!n.done && (n.distance > newDistance)) {
 						n.distance = newDistance;
 						n.parentSegment = currentSegment;
-						if (!n.done) {
-							// TODO This call is O(n) and makes the algorithm damn slow!
-							queue.remove(nextVertex);
-							
-							queue.offer(nextVertex);
-						}
+						queue.decreaseKey(nextVertex.getId(), newDistance);
 					}
 				}
 			}
+
+			// the outgoing segments of the target have been relaxed, too, so
+			// the search can be resumed from the remaining frontier
+			if (currentVertex == target) {
+				return;
+			}
 		}
-		startChanged = false;
 		routesCalculated = true;
 	}
 
@@ -121,8 +225,13 @@ public class DijkstraRouteCalculator extends RouteCalculator {
 	public RoutingResult getRoute(Node target, EdgeRating rating) {
 		long startTime = System.currentTimeMillis();
 
-		if (!routesCalculated || startChanged) {
-			calculateShortestRoutes(rating);
+		prepareSearch(rating);
+		if (!routesCalculated) {
+			DijkstraMarker m = dijkstraMarker.getMark(target);
+			if ((m == null) || !m.done) {
+				settle(stopAtTarget ? target : null, rating,
+						Double.POSITIVE_INFINITY);
+			}
 		}
 
 		DijkstraMarker m = dijkstraMarker.getMark(target);
@@ -130,22 +239,79 @@ public class DijkstraRouteCalculator extends RouteCalculator {
 			return new RoutingResult(null, System.currentTimeMillis()
 					- startTime);
 		}
-		Stack<Segment> routesegments = new Stack<Segment>();
+		// the predecessor chain is walked twice, to size the route and to
+		// fill it from the back, without creating a list
+		int count = 0;
+		for (DijkstraMarker p = m; (p != null) && (p.parentSegment != null);) {
+			count++;
+			p = dijkstraMarker.getMark(p.parentSegment.getThis());
+		}
+		int[] incidences = new int[count];
 		while ((m != null) && (m.parentSegment != null)) {
-			routesegments.push(m.parentSegment);
+			incidences[--count] = m.parentSegment.getId();
 			m = dijkstraMarker.getMark(m.parentSegment.getThis());
 		}
+		return new RoutingResult(graph, incidences, System.currentTimeMillis()
+				- startTime);
+	}
 
-		List<Segment> out = new ArrayList<Segment>(routesegments.size());
-		while (!routesegments.empty()) {
-			out.add(routesegments.pop());
-		}
-		return new RoutingResult(out, System.currentTimeMillis() - startTime);
+	public boolean isStoppingAtTarget() {
+		return stopAtTarget;
+	}
+
+	/**
+	 * Selects between the point-to-point mode (the default), in which
+	 * {@link #getRoute(Node, EdgeRating)} stops once the target is settled,
+	 * and the one-to-all mode, in which the complete shortest path tree is
+	 * computed on the first query from a start vertex.
+	 */
+	public void setStopAtTarget(boolean stopAtTarget) {
+		this.stopAtTarget = stopAtTarget;
 	}
 
 	@Override
-	public void setStart(Node start) {
-		this.start = start;
+	public void setRestriction(RoutingRestriction rest) {
+		super.setRestriction(rest);
+		// the saved frontiers are only valid for the former restriction
 		startChanged = true;
+		previous.startChanged = true;
+	}
+
+	/**
+	 * Sets the start vertex. The frontier of the current start vertex is
+	 * kept if it doesn't change, and the one of the previous start vertex is
+	 * resumed if it changes back.
+	 */
+	@Override
+	public void setStart(Node start) {
+		if (start == this.start) {
+			return;
+		}
+		swapSearchStates();
+		if (start != this.start) {
+			this.start = start;
+			startChanged = true;
+		}
+	}
+
+	private void swapSearchStates() {
+		SearchState s = new SearchState();
+		s.start = start;
+		s.marker = dijkstraMarker;
+		s.queue = queue;
+		s.routesCalculated = routesCalculated;
+		s.startChanged = startChanged;
+		s.searchRating = searchRating;
+		s.weights = weights;
+		s.weightRevision = weightRevision;
+		start = previous.start;
+		dijkstraMarker = previous.marker;
+		queue = previous.queue;
+		routesCalculated = previous.routesCalculated;
+		startChanged = previous.startChanged;
+		searchRating = previous.searchRating;
+		weights = previous.weights;
+		weightRevision = previous.weightRevision;
+		previous = s;
 	}
 }
@@ -0,0 +1,145 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.List;
+import java.util.Map;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+
+/**
+ * The area reachable from a start node within a limit, as computed by an
+ * {@link IsochroneCalculator}. It consists of the reached nodes, the points
+ * on the boundary segments where the limit is used up, and polygons covering
+ * both.
+ */
+public class Isochrone {
+
+	/**
+	 * The point on a segment up to which it can be traversed within the limit.
+	 */
+	public static class CutPoint {
+		private final Segment segment;
+		private final double fraction;
+		private final double latitude;
+		private final double longitude;
+
+		CutPoint(Segment segment, double fraction, double latitude,
+				double longitude) {
+			this.segment = segment;
+			this.fraction = fraction;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		/**
+		 * @return the segment incidence, traversed from its this vertex
+		 */
+		public Segment getSegment() {
+			return segment;
+		}
+
+		/**
+		 * @return the reachable part of the segment, between 0 and 1
+		 */
+		public double getFraction() {
+			return fraction;
+		}
+
+		public double getLatitude() {
+			return latitude;
+		}
+
+		public double getLongitude() {
+			return longitude;
+		}
+	}
+
+	private final Node start;
+	private final EdgeRating rating;
+	private final double limit;
+	private final Map<Node, Double> reachedNodes;
+	private final List<CutPoint> cutPoints;
+
+	/** closed rings of latitude/longitude pairs, counterclockwise */
+	private final List<double[][]> polygons;
+
+	private final double cellSize;
+	private final long calculationTime;
+
+	Isochrone(Node start, EdgeRating rating, double limit,
+			Map<Node, Double> reachedNodes, List<CutPoint> cutPoints,
+			List<double[][]> polygons, double cellSize, long calculationTime) {
+		this.start = start;
+		this.rating = rating;
+		this.limit = limit;
+		this.reachedNodes = reachedNodes;
+		this.cutPoints = cutPoints;
+		this.polygons = polygons;
+		this.cellSize = cellSize;
+		this.calculationTime = calculationTime;
+	}
+
+	public Node getStart() {
+		return start;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	/**
+	 * @return the limit, in seconds for {@link EdgeRating#TIME}
+	 */
+	public double getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the reached nodes with their distances from the start node
+	 */
+	public Map<Node, Double> getReachedNodes() {
+		return reachedNodes;
+	}
+
+	public List<CutPoint> getCutPoints() {
+		return cutPoints;
+	}
+
+	/**
+	 * @return the outlines of the reachable area, each an array of
+	 *         latitude/longitude pairs whose last point connects to the first
+	 */
+	public List<double[][]> getPolygons() {
+		return polygons;
+	}
+
+	/**
+	 * @return the edge length in meters of the grid cells the polygons are
+	 *         made of
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public long getCalculationTime() {
+		return calculationTime;
+	}
+
+	/**
+	 * @return true if the given position lies within one of the polygons
+	 */
+	public boolean contains(double lat, double lon) {
+		boolean inside = false;
+		for (double[][] ring : polygons) {
+			for (int i = 0, j = ring.length - 1; i < ring.length; j = i++) {
+				if (((ring[i][0] > lat) != (ring[j][0] > lat))
+						&& (lon < (ring[j][1] - ring[i][1]) * (lat - ring[i][0])
+								/ (ring[j][0] - ring[i][0]) + ring[i][1])) {
+					inside = !inside;
+				}
+			}
+		}
+		return inside;
+	}
+}
@@ -0,0 +1,366 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.Isochrone.CutPoint;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * Computes the area reachable from a start node within a time (or length)
+ * limit. A {@link DijkstraRouteCalculator} settles all nodes up to the limit,
+ * the segments leaving the reached nodes are cut where the limit is used up,
+ * and the reached parts of the segments are rasterized onto a grid. The
+ * outlines of the grid cells, with enclosed holes filled, form the polygons
+ * of the {@link Isochrone}.
+ */
+public class IsochroneCalculator {
+	/** the default edge length in meters of the grid cells */
+	public static final double DEFAULT_CELL_SIZE = 100;
+
+	/** grids with more cells are coarsened */
+	private static final int MAX_CELLS = 1 << 22;
+
+	private static final double METERS_PER_DEGREE = 60 * GpsTools.MINUTEMETER;
+
+	/** the x and y offsets of the directions east, north, west and south */
+	private static final int[] DX = { 1, 0, -1, 0 };
+	private static final int[] DY = { 0, 1, 0, -1 };
+
+	private final DijkstraRouteCalculator calculator;
+	private double cellSize;
+
+	public IsochroneCalculator(OsmGraph graph) {
+		this(new DijkstraRouteCalculator(graph));
+	}
+
+	/**
+	 * @param calculator
+	 *            the calculator for the bounded searches, whose speeds apply
+	 *            to {@link EdgeRating#TIME}
+	 */
+	public IsochroneCalculator(DijkstraRouteCalculator calculator) {
+		this.calculator = calculator;
+		cellSize = DEFAULT_CELL_SIZE;
+	}
+
+	public DijkstraRouteCalculator getRouteCalculator() {
+		return calculator;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Sets the edge length in meters of the grid cells. Smaller cells follow
+	 * the road network more closely, larger cells give smoother polygons.
+	 */
+	public void setCellSize(double cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("cell size must be positive");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Computes the area reachable from <code>start</code> within
+	 * <code>seconds</code> under <code>restriction</code>.
+	 */
+	public Isochrone calculate(Node start, double seconds,
+			RoutingRestriction restriction) {
+		if (calculator.getRestriction() != restriction) {
+			calculator.setRestriction(restriction);
+		}
+		return calculate(start, seconds, EdgeRating.TIME);
+	}
+
+	/**
+	 * Computes the area reachable from <code>start</code> within
+	 * <code>seconds</code> under the calculator's current restriction.
+	 */
+	public Isochrone calculate(Node start, double seconds) {
+		return calculate(start, seconds, EdgeRating.TIME);
+	}
+
+	/**
+	 * Computes the area reachable from <code>start</code> with routes whose
+	 * rating doesn't exceed <code>limit</code>.
+	 */
+	public Isochrone calculate(Node start, double limit, EdgeRating rating) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+		long startTime = System.currentTimeMillis();
+		// keep the search tree if the start is the same, a bounded search is
+		// resumed from its frontier
+		if (calculator.getStart() != start) {
+			calculator.setStart(start);
+		}
+		calculator.calculateRoutesWithin(rating, limit);
+
+		Map<Node, Double> reachedNodes = new LinkedHashMap<Node, Double>();
+		List<CutPoint> cutPoints = new ArrayList<CutPoint>();
+		// the reached parts of segments as latitude/longitude quadruples
+		List<double[]> pieces = new ArrayList<double[]>();
+
+		// walk the shortest path tree within the limit
+		Stack<Node> stack = new Stack<Node>();
+		reachedNodes.put(start, 0.0);
+		stack.push(start);
+		while (!stack.isEmpty()) {
+			Node u = stack.pop();
+			double d = reachedNodes.get(u);
+			Segment parent = calculator.getParentSegment(u);
+			for (Segment s : u.getSegmentIncidences()) {
+				if (!calculator.isTraversable(s)) {
+					continue;
+				}
+				Node w = (Node) s.getThat();
+				double dw = calculator.getDistance(w);
+				if ((dw <= limit) && (calculator.getParentSegment(w) == s)) {
+					reachedNodes.put(w, dw);
+					stack.push(w);
+					pieces.add(piece(u, w, 1));
+					continue;
+				}
+				double r = calculator.rate(s, rating, parent);
+				if (d + r <= limit) {
+					pieces.add(piece(u, w, 1));
+				} else {
+					double fraction = Math.max(0, (limit - d) / r);
+					double[] p = piece(u, w, fraction);
+					cutPoints.add(new CutPoint(s, fraction, p[2], p[3]));
+					pieces.add(p);
+				}
+			}
+		}
+
+		Grid grid = new Grid(start, pieces, cellSize);
+		return new Isochrone(start, rating, limit, reachedNodes, cutPoints,
+				grid.createPolygons(), grid.size, System.currentTimeMillis()
+						- startTime);
+	}
+
+	/**
+	 * @return the start and the point at <code>fraction</code> of the straight
+	 *         line from <code>u</code> to <code>w</code>
+	 */
+	private static double[] piece(Node u, Node w, double fraction) {
+		double lat = u.get_latitude();
+		double lon = u.get_longitude();
+		return new double[] { lat, lon,
+				lat + fraction * (w.get_latitude() - lat),
+				lon + fraction * (w.get_longitude() - lon) };
+	}
+
+	/**
+	 * A raster of square cells around the reached parts of the segments, x
+	 * grows to the east and y to the north.
+	 */
+	private static class Grid {
+		private final double originLat;
+		private final double originLon;
+		private final double metersPerLon;
+		private double minX;
+		private double minY;
+		private double size;
+		private int columns;
+		private int rows;
+		private final boolean[] covered;
+
+		Grid(Node start, List<double[]> pieces, double cellSize) {
+			originLat = start.get_latitude();
+			originLon = start.get_longitude();
+			metersPerLon = METERS_PER_DEGREE
+					* Math.cos(Math.toRadians(originLat));
+
+			// bounding box in meters relative to the start
+			minX = 0;
+			minY = 0;
+			double maxX = 0;
+			double maxY = 0;
+			for (double[] p : pieces) {
+				for (int i = 0; i < 4; i += 2) {
+					double x = x(p[i + 1]);
+					double y = y(p[i]);
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+			}
+
+			// one empty cell around the covered ones, so that the outside is
+			// connected
+			size = cellSize;
+			while (true) {
+				columns = (int) ((maxX - minX) / size) + 3;
+				rows = (int) ((maxY - minY) / size) + 3;
+				if ((long) columns * rows <= MAX_CELLS) {
+					break;
+				}
+				size *= Math.sqrt((double) columns * rows / MAX_CELLS) * 1.01;
+			}
+			minX -= size;
+			minY -= size;
+
+			covered = new boolean[columns * rows];
+			covered[cell(0, 0)] = true;
+			for (double[] p : pieces) {
+				double x1 = x(p[1]);
+				double y1 = y(p[0]);
+				double x2 = x(p[3]);
+				double y2 = y(p[2]);
+				double length = Math.hypot(x2 - x1, y2 - y1);
+				int steps = (int) Math.ceil(2 * length / size);
+				for (int i = 0; i <= steps; i++) {
+					double f = (steps == 0) ? 0 : (double) i / steps;
+					int c = cell(x1 + f * (x2 - x1), y1 + f * (y2 - y1));
+					covered[c] = true;
+				}
+			}
+		}
+
+		List<double[][]> createPolygons() {
+			boolean[] inside = fillHoles();
+
+			// directed boundary edges between grid corners with the inside on
+			// the left, as bit masks of their directions by start corner
+			int cornerColumns = columns + 1;
+			byte[] outgoing = new byte[cornerColumns * (rows + 1)];
+			for (int y = 0; y < rows; y++) {
+				for (int x = 0; x < columns; x++) {
+					if (!inside[y * columns + x]) {
+						continue;
+					}
+					int corner = y * cornerColumns + x;
+					if (!inside[(y - 1) * columns + x]) {
+						outgoing[corner] |= 1;
+					}
+					if (!inside[y * columns + x + 1]) {
+						outgoing[corner + 1] |= 2;
+					}
+					if (!inside[(y + 1) * columns + x]) {
+						outgoing[corner + cornerColumns + 1] |= 4;
+					}
+					if (!inside[y * columns + x - 1]) {
+						outgoing[corner + cornerColumns] |= 8;
+					}
+				}
+			}
+
+			List<double[][]> polygons = new ArrayList<double[][]>();
+			for (int first = 0; first < outgoing.length; first++) {
+				if (outgoing[first] != 0) {
+					polygons.add(traceRing(outgoing, first, cornerColumns));
+				}
+			}
+			return polygons;
+		}
+
+		/**
+		 * @return the covered cells together with the cells which can't be
+		 *         reached from the border of the grid without crossing a
+		 *         covered cell
+		 */
+		private boolean[] fillHoles() {
+			boolean[] outside = new boolean[covered.length];
+			int[] stack = new int[covered.length];
+			int top = 0;
+			stack[top++] = 0;
+			outside[0] = true;
+			while (top > 0) {
+				int c = stack[--top];
+				int x = c % columns;
+				int y = c / columns;
+				for (int d = 0; d < 4; d++) {
+					int nx = x + DX[d];
+					int ny = y + DY[d];
+					if ((nx < 0) || (ny < 0) || (nx >= columns)
+							|| (ny >= rows)) {
+						continue;
+					}
+					int n = ny * columns + nx;
+					if (!outside[n] && !covered[n]) {
+						outside[n] = true;
+						stack[top++] = n;
+					}
+				}
+			}
+			for (int i = 0; i < outside.length; i++) {
+				outside[i] = !outside[i];
+			}
+			return outside;
+		}
+
+		/**
+		 * Follows the boundary edges from <code>first</code> until it is
+		 * reached again, removing the edges on the way. Where two rings touch
+		 * at a corner, the left turn is taken, so the cells of one ring are
+		 * connected by sides.
+		 *
+		 * @return the corners of the ring as latitude/longitude pairs
+		 */
+		private double[][] traceRing(byte[] outgoing, int first,
+				int cornerColumns) {
+			List<double[]> ring = new ArrayList<double[]>();
+			int corner = first;
+			int direction = Integer.numberOfTrailingZeros(outgoing[first]);
+			int previous = -1;
+			do {
+				int mask = outgoing[corner];
+				if (previous >= 0) {
+					for (int turn : new int[] { 1, 0, 3 }) {
+						int d = (previous + turn) & 3;
+						if ((mask & (1 << d)) != 0) {
+							direction = d;
+							break;
+						}
+					}
+				}
+				if (direction != previous) {
+					int x = corner % cornerColumns;
+					int y = corner / cornerColumns;
+					ring.add(new double[] { latitude(minY + y * size),
+							longitude(minX + x * size) });
+				}
+				outgoing[corner] &= ~(1 << direction);
+				corner += DX[direction] + DY[direction] * cornerColumns;
+				previous = direction;
+			} while (corner != first);
+			return ring.toArray(new double[ring.size()][]);
+		}
+
+		private int cell(double x, double y) {
+			int cx = Math.min(columns - 1, Math.max(0,
+					(int) ((x - minX) / size)));
+			int cy = Math.min(rows - 1, Math.max(0,
+					(int) ((y - minY) / size)));
+			return cy * columns + cx;
+		}
+
+		private double x(double lon) {
+			return (lon - originLon) * metersPerLon;
+		}
+
+		private double y(double lat) {
+			return (lat - originLat) * METERS_PER_DEGREE;
+		}
+
+		private double longitude(double x) {
+			return originLon + x / metersPerLon;
+		}
+
+		private double latitude(double y) {
+			return originLat + y / METERS_PER_DEGREE;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A bounded cache of routes keyed by start, target, rating and profile,
+ * which evicts the least recently used route. The routes are stored as
+ * arrays of segment incidence ids. Routes which couldn't be found are cached,
+ * too.
+ *
+ * For {@link EdgeRating#LENGTH} and {@link EdgeRating#TIME}, a miss is
+ * answered from a cached route passing start and target in this order, since
+ * each part of a best route is a best route itself. To find such routes, the
+ * cached routes are indexed by their vertices. This doesn't hold for routes
+ * whose ratings depend on the turns, see
+ * {@link RouteCalculator#isRatingTurns()}, so their queries disable it.
+ *
+ * The cache is cleared when the graph version or the traffic state of the
+ * queries changes, routes computed under an outdated traffic state aren't
+ * cached. All methods are
+ * synchronized, so a cache may be shared by several
+ * {@link CachingRouteCalculator}s.
+ */
+public class RouteCache {
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private static class Key {
+		final int start;
+		final int target;
+		final EdgeRating rating;
+		final RoutingProfile profile;
+
+		Key(int start, int target, EdgeRating rating, RoutingProfile profile) {
+			this.start = start;
+			this.target = target;
+			this.rating = rating;
+			this.profile = profile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return (start == k.start) && (target == k.target)
+					&& (rating == k.rating) && profile.equals(k.profile);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((start * 31 + target) * 31 + rating.ordinal()) * 31
+					+ profile.hashCode();
+		}
+	}
+
+	private static class CachedRoute {
+		final Key key;
+
+		/** the segment incidence ids, or null if there is no route */
+		final int[] segments;
+
+		/** the vertex ids along the route, one more than segments */
+		final int[] vertices;
+
+		CachedRoute(Key key, int[] segments, int[] vertices) {
+			this.key = key;
+			this.segments = segments;
+			this.vertices = vertices;
+		}
+	}
+
+	private final OsmGraph graph;
+	private final int capacity;
+	private final LinkedHashMap<Key, CachedRoute> entries;
+
+	/** the cached routes by the ids of the vertices on them */
+	private final Map<Integer, List<CachedRoute>> vertexIndex;
+
+	private long graphVersion;
+
+	/** the traffic state of the cached routes */
+	private TrafficState traffic = TrafficState.EMPTY;
+
+	private long hitCount;
+	private long subPathHitCount;
+	private long missCount;
+	private long evictionCount;
+
+	public RouteCache(OsmGraph graph) {
+		this(graph, DEFAULT_CAPACITY);
+	}
+
+	public RouteCache(OsmGraph graph, int capacity) {
+		this.graph = graph;
+		this.capacity = capacity;
+		vertexIndex = new HashMap<Integer, List<CachedRoute>>();
+		entries = new LinkedHashMap<Key, CachedRoute>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, CachedRoute> eldest) {
+				if (size() <= RouteCache.this.capacity) {
+					return false;
+				}
+				unindex(eldest.getValue());
+				evictionCount++;
+				return true;
+			}
+		};
+		graphVersion = graph.getGraphVersion();
+	}
+
+	/**
+	 * @return the cached route from <code>start</code> to <code>target</code>,
+	 *         whose route is null if there is none, or null on a cache miss
+	 */
+	public RoutingResult get(Node start, Node target, EdgeRating r,
+			RoutingProfile profile) {
+		return get(start, target, r, profile, TrafficState.EMPTY);
+	}
+
+	/**
+	 * @return the cached route from <code>start</code> to <code>target</code>
+	 *         under <code>traffic</code>, whose route is null if there is
+	 *         none, or null on a cache miss
+	 */
+	public RoutingResult get(Node start, Node target, EdgeRating r,
+			RoutingProfile profile, TrafficState traffic) {
+		return get(start, target, r, profile, traffic, true);
+	}
+
+	/**
+	 * @param subPaths
+	 *            if true, a miss may be answered from a part of a cached
+	 *            route
+	 * @return the cached route from <code>start</code> to <code>target</code>
+	 *         under <code>traffic</code>, whose route is null if there is
+	 *         none, or null on a cache miss
+	 */
+	public synchronized RoutingResult get(Node start, Node target,
+			EdgeRating r, RoutingProfile profile, TrafficState traffic,
+			boolean subPaths) {
+		long startTime = System.currentTimeMillis();
+		validate();
+		if (traffic != this.traffic) {
+			clear();
+			this.traffic = traffic;
+		}
+		Key key = new Key(start.getId(), target.getId(), r, profile);
+		CachedRoute e = entries.get(key);
+		if (e != null) {
+			hitCount++;
+			return new RoutingResult(graph, e.segments, System
+					.currentTimeMillis() - startTime);
+		}
+		if (subPaths && ((r == EdgeRating.LENGTH) || (r == EdgeRating.TIME))) {
+			e = findSubPath(key);
+			if (e != null) {
+				subPathHitCount++;
+				return new RoutingResult(graph, e.segments, System
+						.currentTimeMillis() - startTime);
+			}
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Caches <code>route</code>, which may be null, as route from
+	 * <code>start</code> to <code>target</code>.
+	 */
+	public void put(Node start, Node target, EdgeRating r,
+			RoutingProfile profile, List<Segment> route) {
+		put(start, target, r, profile, TrafficState.EMPTY, route);
+	}
+
+	/**
+	 * Caches <code>route</code>, which has been computed under
+	 * <code>traffic</code>, unless the cache holds the routes of another
+	 * traffic state.
+	 */
+	public synchronized void put(Node start, Node target, EdgeRating r,
+			RoutingProfile profile, TrafficState traffic, List<Segment> route) {
+		validate();
+		if (traffic != this.traffic) {
+			return;
+		}
+		Key key = new Key(start.getId(), target.getId(), r, profile);
+		if (route == null) {
+			add(new CachedRoute(key, null, null));
+			return;
+		}
+		int[] segments = new int[route.size()];
+		int[] vertices = new int[route.size() + 1];
+		vertices[0] = start.getId();
+		for (int i = 0; i < segments.length; i++) {
+			Segment s = route.get(i);
+			segments[i] = s.getId();
+			vertices[i + 1] = s.getThat().getId();
+		}
+		add(new CachedRoute(key, segments, vertices));
+	}
+
+	private void add(CachedRoute e) {
+		CachedRoute old = entries.put(e.key, e);
+		if (old != null) {
+			unindex(old);
+		}
+		if (e.vertices == null) {
+			return;
+		}
+		for (int v : e.vertices) {
+			List<CachedRoute> l = vertexIndex.get(v);
+			if (l == null) {
+				l = new ArrayList<CachedRoute>(2);
+				vertexIndex.put(v, l);
+			}
+			l.add(e);
+		}
+	}
+
+	private void unindex(CachedRoute e) {
+		if (e.vertices == null) {
+			return;
+		}
+		for (int v : e.vertices) {
+			List<CachedRoute> l = vertexIndex.get(v);
+			if (l != null) {
+				l.remove(e);
+				if (l.isEmpty()) {
+					vertexIndex.remove(v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks for a cached route with the rating and profile of
+	 * <code>key</code> passing its start and then its target, and caches the
+	 * part between them.
+	 *
+	 * @return the entry of the part, or null if there is no such route
+	 */
+	private CachedRoute findSubPath(Key key) {
+		List<CachedRoute> candidates = vertexIndex.get(key.start);
+		if (candidates == null) {
+			return null;
+		}
+		for (CachedRoute e : candidates) {
+			if ((e.key.rating != key.rating)
+					|| !e.key.profile.equals(key.profile)) {
+				continue;
+			}
+			int from = indexOf(e.vertices, key.start, 0);
+			int to = indexOf(e.vertices, key.target, from + 1);
+			if (to < 0) {
+				continue;
+			}
+			int[] segments = new int[to - from];
+			System.arraycopy(e.segments, from, segments, 0, segments.length);
+			int[] vertices = new int[segments.length + 1];
+			System.arraycopy(e.vertices, from, vertices, 0, vertices.length);
+			CachedRoute part = new CachedRoute(key, segments, vertices);
+			add(part);
+			return part;
+		}
+		return null;
+	}
+
+	private static int indexOf(int[] a, int value, int from) {
+		for (int i = from; i < a.length; i++) {
+			if (a[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Clears the cache if the graph has changed since the routes have been
+	 * cached.
+	 */
+	private void validate() {
+		if (graph.getGraphVersion() != graphVersion) {
+			clear();
+			graphVersion = graph.getGraphVersion();
+		}
+	}
+
+	/**
+	 * Removes all routes, the counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		vertexIndex.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of misses answered from a part of a cached route
+	 */
+	public synchronized long getSubPathHitCount() {
+		return subPathHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Resets all counters to 0.
+	 */
+	public synchronized void resetCounters() {
+		hitCount = 0;
+		subPathHitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+	}
+}
@@ -1,12 +1,20 @@
 package de.uni_koblenz.jgstreetmap.routing;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
 import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
 import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
 import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentIndex;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+import de.uni_koblenz.jgstreetmap.routing.traffic.LiveTraffic;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
 
 public abstract class RouteCalculator {
 	public static class Speed {
@@ -32,15 +40,58 @@ public abstract class RouteCalculator {
 	}
 
 	protected Set<SegmentType> relevantTypes;
+	protected RoutingRestriction restriction;
 	protected Node start;
 	protected Speed speeds;
 	protected OsmGraph graph;
-	protected static final double INCONVENIENCEVALUE = 100;
+
+	/** the profile of the queries, or null if restriction and speeds apply */
+	protected RoutingProfile profile;
+
+	/** the live closures and congestion, or null if there are none */
+	protected LiveTraffic traffic;
+
+	/** the traffic state of the current query, see {@link #fetchTrafficState()} */
+	protected TrafficState trafficState = TrafficState.EMPTY;
+
+	public static final double INCONVENIENCEVALUE = 100;
+
+	/** the weight tables by rating, created on first use */
+	private final Map<EdgeRating, WeightTable> weightTables =
+			new EnumMap<EdgeRating, WeightTable>(EdgeRating.class);
+
+	/**
+	 * the earth radius in meters that corresponds to the nautical mile used by
+	 * {@link Segmentator#distance(double, double, double, double)}, so that
+	 * great-circle distances never exceed segment lengths
+	 */
+	protected static final double EARTHRADIUS = 180 * 60
+			* GpsTools.MINUTEMETER / Math.PI;
 
 	public abstract RoutingResult getRoute(Node target, EdgeRating r);
 
 	protected double computeFactor(Segment s) {
-		switch (s.get_wayType()) {
+		return computeFactor(s.get_wayType());
+	}
+
+	/**
+	 * @return the factor converting a length in meters into the time in
+	 *         seconds needed on a segment of type <code>t</code>
+	 */
+	public double computeFactor(SegmentType t) {
+		if (profile != null) {
+			return profile.getFactor(t);
+		}
+		return computeFactor(t, speeds);
+	}
+
+	/**
+	 * @return the factor converting a length in meters into the time in
+	 *         seconds needed on a segment of type <code>t</code> with the
+	 *         given <code>speeds</code>
+	 */
+	public static double computeFactor(SegmentType t, Speed speeds) {
+		switch (t) {
 		case CYCLEWAY:
 			return 3.6 / speeds.cycle;
 		case MOTORWAY:
@@ -66,6 +117,80 @@ public abstract class RouteCalculator {
 		}
 	}
 
+	/**
+	 * Computes a lower bound for the rating of a route from <code>start</code>
+	 * to <code>target</code> based on the great-circle distance.
+	 */
+	protected double calculateHeuristic(Node start, Node target, EdgeRating r) {
+		if (start == target) {
+			return 0;
+		}
+
+		double dist = distance(start.get_latitude() * Math.PI / 180,
+				start.get_longitude() * Math.PI / 180,
+				target.get_latitude() * Math.PI / 180,
+				target.get_longitude() * Math.PI / 180);
+
+		// System.out.println("dist between " + start + " and target " + target
+		// + " = " + dist + " meters.");
+
+		return calculateHeuristic(dist, r);
+	}
+
+	/**
+	 * @return the lower bound for the rating of a route whose great-circle
+	 *         distance is <code>dist</code> meters
+	 */
+	protected double calculateHeuristic(double dist, EdgeRating r) {
+		switch (r) {
+		case LENGTH:
+			return dist;
+		case TIME:
+			// faster traffic than usual makes the bound smaller
+			if (profile != null) {
+				return dist * profile.getMinimalFactor()
+						/ trafficState.getMaxSpeedFactor();
+			}
+			return dist * 3.6 / speeds.motorway
+					/ trafficState.getMaxSpeedFactor();
+		case CONVENIENCE:
+			return 0;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the great-circle distance in meters between two points given in
+	 *         radians
+	 */
+	public static double distance(double sLat, double sLong, double tLat,
+			double tLong) {
+		// rounding may push the cosine of very small angles above 1
+		return Math.acos(Math.min(1.0, Math.sin(sLat) * Math.sin(tLat)
+				+ Math.cos(sLat) * Math.cos(tLat) * Math.cos(sLong - tLong)))
+				* EARTHRADIUS;
+	}
+
+	/**
+	 * @return true if the segment incidence <code>s</code> may be traversed
+	 *         from its this vertex to its that vertex under the current
+	 *         restriction and the traffic state of the last query
+	 */
+	public boolean isTraversable(Segment s) {
+		return relevantTypes.contains(s.get_wayType())
+				&& (s.isNormal() || !s.is_oneway())
+				&& !trafficState.isBlocked(s);
+	}
+
+	/**
+	 * @return the incidence of the segment <code>s</code> at its that vertex
+	 */
+	public static Segment opposite(Segment s) {
+		return (Segment) (s.isNormal() ? s.getReversedEdge() : s
+				.getNormalEdge());
+	}
+
 	public void setStart(Node start) {
 		this.start = start;
 	}
@@ -74,33 +199,286 @@ public abstract class RouteCalculator {
 		return start;
 	}
 
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	/**
+	 * @return the speeds used by {@link EdgeRating#TIME}, whose fields may be
+	 *         changed
+	 */
+	public Speed getSpeeds() {
+		return speeds;
+	}
+
+	/**
+	 * Sets the restriction of the following queries, which use the speeds
+	 * again if a profile has been set before.
+	 */
 	public void setRestriction(RoutingRestriction rest) {
+		restriction = rest;
+		profile = null;
+		relevantTypes.clear();
+		relevantTypes.addAll(getRelevantTypes(rest));
+	}
+
+	/**
+	 * Sets the profile of the following queries, which overrides the
+	 * restriction and the speeds until
+	 * {@link #setRestriction(RoutingRestriction)} is called. Calculators with
+	 * data precomputed per restriction, like contraction hierarchies and
+	 * landmarks, only use it while {@link #hasDefaultRatings(EdgeRating)}
+	 * holds, and search without it otherwise.
+	 */
+	public void setProfile(RoutingProfile profile) {
+		restriction = profile.getRestriction();
+		this.profile = profile;
+		relevantTypes.clear();
+		relevantTypes.addAll(profile.getAllowedTypes());
+	}
+
+	/**
+	 * @return the profile set by {@link #setProfile(RoutingProfile)}, or else
+	 *         a profile made of the current restriction and speeds
+	 */
+	public RoutingProfile getProfile() {
+		if (profile != null) {
+			return profile;
+		}
+		return new RoutingProfile(restriction.name().toLowerCase(),
+				restriction, speeds);
+	}
+
+	/**
+	 * @return true if the current profile rates all segments under
+	 *         <code>r</code> like the default profile of the restriction,
+	 *         with which data precomputed per rating and restriction has been
+	 *         built. Only {@link EdgeRating#TIME} depends on the speeds.
+	 */
+	protected boolean hasDefaultRatings(EdgeRating r) {
+		RoutingProfile p = getProfile();
+		RoutingProfile d = RoutingProfile.forRestriction(restriction);
+		if (r == EdgeRating.TIME) {
+			return p.equals(d);
+		}
+		return p.getAllowedTypes().equals(d.getAllowedTypes());
+	}
+
+	/**
+	 * Makes the calculator follow the closures and speed factors of
+	 * <code>traffic</code>, which may be shared with other calculators.
+	 * Every query uses the state current at its beginning.
+	 *
+	 * @param traffic
+	 *            the live traffic, or null to ignore it
+	 */
+	public void setTraffic(LiveTraffic traffic) {
+		this.traffic = traffic;
+	}
+
+	public LiveTraffic getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * Takes over the current traffic state for the query about to start, so
+	 * that its ratings and heuristics don't change while it runs. Called by
+	 * {@link #getWeightTable(EdgeRating)}.
+	 *
+	 * @return the state, empty if no traffic has been set
+	 */
+	protected TrafficState fetchTrafficState() {
+		trafficState = (traffic == null) ? TrafficState.EMPTY : traffic
+				.getState();
+		return trafficState;
+	}
+
+	/**
+	 * Computes the best route from the start vertex to <code>target</code>
+	 * under <code>profile</code>, which stays set for later queries.
+	 */
+	public RoutingResult getRoute(Node target, EdgeRating r,
+			RoutingProfile profile) {
+		if (!profile.equals(this.profile)) {
+			setProfile(profile);
+		}
+		return getRoute(target, r);
+	}
+
+	/**
+	 * Computes the rating of the best route from the start vertex to
+	 * <code>target</code>, for callers which don't need the route itself.
+	 * Calculators with a faster way than computing the route, like
+	 * {@link de.uni_koblenz.jgstreetmap.routing.hl.HubLabelRouteCalculator},
+	 * override this.
+	 *
+	 * @return the rating, 0 if <code>target</code> is the start vertex, or
+	 *         infinity if there is no route
+	 */
+	public double getDistance(Node target, EdgeRating r) {
+		if (target == start) {
+			return 0;
+		}
+		List<Segment> route = getRoute(target, r).getRoute();
+		return (route == null) ? Double.POSITIVE_INFINITY
+				: calculateCompleteWeight(route, r);
+	}
+
+	/**
+	 * Computes the best route between two points on segments, e.g. found by
+	 * {@link SegmentIndex#nearest(double, double, double, RoutingRestriction)}.
+	 * Unless the target lies ahead on the same segment, a route leaves the
+	 * segment of <code>from</code> at one of its ends and enters the segment
+	 * of <code>to</code> at one of its ends. So the best route is found by
+	 * searches from the traversable ends of the start segment, one of which
+	 * may be the start vertex afterwards.
+	 *
+	 * @return the route with partly travelled first and last segments, see
+	 *         {@link SnappedRoutingResult}. Its route is null if there is none.
+	 */
+	public SnappedRoutingResult getRoute(SegmentProjection from,
+			SegmentProjection to, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		fetchTrafficState();
+		Segment s = from.getSegment();
+		Segment t = to.getSegment();
+		double best = Double.POSITIVE_INFINITY;
+		List<Segment> bestRoute = null;
+		double bestStartFraction = 0;
+		double bestEndFraction = 0;
+
+		if (s.getId() == t.getId()) {
+			double along = to.getFraction() - from.getFraction();
+			Segment direction = (along >= 0) ? s : opposite(s);
+			if (isTraversable(direction)) {
+				best = rate(direction, r, null) * Math.abs(along);
+				bestRoute = new ArrayList<Segment>();
+				bestRoute.add(direction);
+				bestStartFraction = bestEndFraction = Math.abs(along);
+			}
+		}
+
+		for (Segment first : new Segment[] { s, opposite(s) }) {
+			if (!isTraversable(first)) {
+				continue;
+			}
+			double startFraction = first.isNormal() ? 1 - from.getFraction()
+					: from.getFraction();
+			double startWeight = rate(first, r, null) * startFraction;
+			if (startWeight >= best) {
+				continue;
+			}
+			for (Segment last : new Segment[] { t, opposite(t) }) {
+				if (!isTraversable(last)) {
+					continue;
+				}
+				List<Segment> route = getRouteBetween(first, last, r);
+				if (route == null) {
+					continue;
+				}
+				double endFraction = last.isNormal() ? to.getFraction()
+						: 1 - to.getFraction();
+				double weight = startWeight;
+				Segment previous = first;
+				for (Segment i : route.subList(1, route.size() - 1)) {
+					weight += rate(i, r, previous) + turnCost(previous, i, r);
+					previous = i;
+				}
+				weight += turnCost(previous, last, r) + rate(last, r, previous)
+						* endFraction;
+				if (weight < best) {
+					best = weight;
+					bestRoute = route;
+					bestStartFraction = startFraction;
+					bestEndFraction = endFraction;
+				}
+			}
+		}
+		return new SnappedRoutingResult(from, to, bestRoute,
+				bestStartFraction, bestEndFraction, System.currentTimeMillis()
+						- startTime);
+	}
+
+	/**
+	 * Computes the best route which starts with the segment incidence
+	 * <code>first</code> and ends with <code>last</code>, for
+	 * {@link #getRoute(SegmentProjection, SegmentProjection, EdgeRating)}.
+	 * The route between them is searched from the end of <code>first</code>,
+	 * which becomes the start vertex. Calculators which rate turns override
+	 * this to search onwards from <code>first</code> itself.
+	 *
+	 * @return the route including <code>first</code> and <code>last</code>,
+	 *         or null if there is none
+	 */
+	protected List<Segment> getRouteBetween(Segment first, Segment last,
+			EdgeRating r) {
+		Node exit = (Node) first.getThat();
+		Node entry = (Node) last.getThis();
+		List<Segment> route = new ArrayList<Segment>();
+		route.add(first);
+		if (entry != exit) {
+			setStart(exit);
+			List<Segment> inner = getRoute(entry, r).getRoute();
+			if (inner == null) {
+				return null;
+			}
+			route.addAll(inner);
+		}
+		route.add(last);
+		return route;
+	}
+
+	/**
+	 * @return true if the calculator rates or restricts the turns between
+	 *         segments, so that a part of a best route needn't be a best
+	 *         route itself
+	 */
+	public boolean isRatingTurns() {
+		return false;
+	}
+
+	/**
+	 * @return the cost of continuing with <code>out</code> after
+	 *         <code>in</code> in addition to the rating of <code>out</code>,
+	 *         which is 0 unless the calculator rates turns
+	 */
+	protected double turnCost(Segment in, Segment out, EdgeRating r) {
+		return 0;
+	}
+
+	/**
+	 * @return the segment types which may be used under the restriction
+	 *         <code>rest</code>
+	 */
+	public static Set<SegmentType> getRelevantTypes(RoutingRestriction rest) {
+		Set<SegmentType> types = EnumSet.noneOf(SegmentType.class);
 		if (rest == RoutingRestriction.CAR) {
-			relevantTypes.add(SegmentType.MOTORWAY);
-			relevantTypes.add(SegmentType.PRIMARY);
-			relevantTypes.add(SegmentType.SECONDARY);
-			relevantTypes.add(SegmentType.TERTIARY);
-			relevantTypes.add(SegmentType.RESIDENTIAL);
-			relevantTypes.add(SegmentType.WORMHOLE);
-			relevantTypes.add(SegmentType.SERVICE);
-			relevantTypes.add(SegmentType.UNSURFACED);
+			types.add(SegmentType.MOTORWAY);
+			types.add(SegmentType.PRIMARY);
+			types.add(SegmentType.SECONDARY);
+			types.add(SegmentType.TERTIARY);
+			types.add(SegmentType.RESIDENTIAL);
+			types.add(SegmentType.WORMHOLE);
+			types.add(SegmentType.SERVICE);
+			types.add(SegmentType.UNSURFACED);
 		} else if (rest == RoutingRestriction.BIKE) {
-			relevantTypes.add(SegmentType.CYCLEWAY);
-			relevantTypes.add(SegmentType.UNSURFACED);
-			relevantTypes.add(SegmentType.RESIDENTIAL);
-			relevantTypes.add(SegmentType.TERTIARY);
-			relevantTypes.add(SegmentType.SECONDARY);
-			relevantTypes.add(SegmentType.WORMHOLE);
-			relevantTypes.add(SegmentType.SERVICE);
+			types.add(SegmentType.CYCLEWAY);
+			types.add(SegmentType.UNSURFACED);
+			types.add(SegmentType.RESIDENTIAL);
+			types.add(SegmentType.TERTIARY);
+			types.add(SegmentType.SECONDARY);
+			types.add(SegmentType.WORMHOLE);
+			types.add(SegmentType.SERVICE);
 		} else if (rest == RoutingRestriction.FOOT) {
-			relevantTypes.add(SegmentType.CYCLEWAY);
-			relevantTypes.add(SegmentType.UNSURFACED);
-			relevantTypes.add(SegmentType.RESIDENTIAL);
-			relevantTypes.add(SegmentType.TERTIARY);
-			relevantTypes.add(SegmentType.SERVICE);
-			relevantTypes.add(SegmentType.WORMHOLE);
-			relevantTypes.add(SegmentType.FOOTWAY);
+			types.add(SegmentType.CYCLEWAY);
+			types.add(SegmentType.UNSURFACED);
+			types.add(SegmentType.RESIDENTIAL);
+			types.add(SegmentType.TERTIARY);
+			types.add(SegmentType.SERVICE);
+			types.add(SegmentType.WORMHOLE);
+			types.add(SegmentType.FOOTWAY);
 		}
+		return types;
 	}
 
 	public double calculateCompleteWeight(List<Segment> list, EdgeRating r) {
@@ -127,12 +505,54 @@ public abstract class RouteCalculator {
 		return out;
 	}
 
-	protected double rate(Segment s, EdgeRating r, Segment previous) {
+	/**
+	 * @return the weight table for <code>r</code> under the current profile
+	 *         and traffic state, which is recomputed if the profile or the
+	 *         graph have changed since its last use, and updated for the
+	 *         changed segments if only the traffic has. Searches fetch it
+	 *         once and use
+	 *         {@link WeightTable#isAllowed(Segment)} and
+	 *         {@link #rate(WeightTable, Segment, EdgeRating, Segment)} in
+	 *         their inner loop.
+	 */
+	public WeightTable getWeightTable(EdgeRating r) {
+		// the convenience rating adds its penalties to the lengths
+		EdgeRating base = (r == EdgeRating.CONVENIENCE) ? EdgeRating.LENGTH
+				: r;
+		WeightTable t = weightTables.get(base);
+		if (t == null) {
+			t = new WeightTable(graph, base);
+			weightTables.put(base, t);
+		}
+		t.update(getProfile(), fetchTrafficState());
+		return t;
+	}
+
+	/**
+	 * Rates <code>s</code> like {@link #rate(Segment, EdgeRating, Segment)},
+	 * but takes the rating without the convenience penalty from
+	 * <code>weights</code>, which must be the table for <code>r</code>.
+	 */
+	protected final double rate(WeightTable weights, Segment s, EdgeRating r,
+			Segment previous) {
+		if ((r == EdgeRating.CONVENIENCE) && (previous != null)
+				&& (previous.get_wayId() != s.get_wayId())) {
+			return weights.getWeight(s) + INCONVENIENCEVALUE;
+		}
+		return weights.getWeight(s);
+	}
+
+	/**
+	 * Rates <code>s</code>, with the speed factor of the traffic state of the
+	 * last query for {@link EdgeRating#TIME}.
+	 */
+	public double rate(Segment s, EdgeRating r, Segment previous) {
 		switch (r) {
 		case LENGTH:
 			return s.get_length();
 		case TIME:
-			return s.get_length() * computeFactor(s);
+			return s.get_length() * computeFactor(s)
+					/ trafficState.getSpeedFactor(s);
 		case CONVENIENCE:
 			// TODO comment here
 			// if (previous != null) {
@@ -0,0 +1,60 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Way;
+
+/**
+ * Length, travel time and street names of a route, as computed by
+ * {@link RoutingResult#summarize(RouteCalculator, AnnotatedOsmGraph)}.
+ */
+public class RouteSummary {
+	private final double length;
+	private final double time;
+	private final List<String> streetNames;
+
+	public RouteSummary(double length, double time, List<String> streetNames) {
+		this.length = length;
+		this.time = time;
+		this.streetNames = Collections.unmodifiableList(streetNames);
+	}
+
+	/**
+	 * @return the length in meters
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the travel time in seconds
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the names of the streets along the route in their order, a name
+	 *         is only repeated if another one lies in between
+	 */
+	public List<String> getStreetNames() {
+		return streetNames;
+	}
+
+	/**
+	 * @return the name of <code>way</code>, or its reference number if it has
+	 *         no name, or null if it has neither or <code>way</code> is null
+	 */
+	public static String getStreetName(Way way) {
+		if (way == null) {
+			return null;
+		}
+		String name = AnnotatedOsmGraph.getTag(way, "name");
+		if (name == null) {
+			name = AnnotatedOsmGraph.getTag(way, "ref");
+		}
+		return (name == null) ? null : name.trim();
+	}
+}
@@ -0,0 +1,191 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.Speed;
+
+/**
+ * An immutable vehicle profile: the segment types which may be used and the
+ * speed on each of them. A profile starts from a {@link RoutingRestriction}
+ * and {@link Speed}s, and is adapted by the <code>with...</code> methods,
+ * which return modified copies, e.g. for a truck
+ *
+ * <pre>
+ * RoutingProfile.CAR.withName(&quot;truck&quot;).withSpeed(SegmentType.MOTORWAY, 80)
+ * 		.withSpeed(SegmentType.PRIMARY, 60).withoutType(SegmentType.UNSURFACED)
+ * </pre>
+ *
+ * Profiles may be passed with each query, see
+ * {@link RouteCalculator#setProfile(RoutingProfile)}, and shared between
+ * threads. Two profiles are equal if they rate all segments the same, the name
+ * isn't compared.
+ */
+public final class RoutingProfile {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	public static final RoutingProfile CAR = new RoutingProfile("car",
+			RoutingRestriction.CAR, new Speed());
+	public static final RoutingProfile BIKE = new RoutingProfile("bike",
+			RoutingRestriction.BIKE, new Speed());
+	public static final RoutingProfile FOOT = new RoutingProfile("foot",
+			RoutingRestriction.FOOT, new Speed());
+
+	private final String name;
+	private final RoutingRestriction restriction;
+	private final Set<SegmentType> allowedTypes;
+
+	/** the seconds per meter by segment type ordinal */
+	private final double[] factors;
+
+	/**
+	 * Creates a profile allowing the segment types of
+	 * <code>restriction</code> with the given <code>speeds</code>, which are
+	 * copied.
+	 */
+	public RoutingProfile(String name, RoutingRestriction restriction,
+			Speed speeds) {
+		this.name = name;
+		this.restriction = restriction;
+		allowedTypes = Collections.unmodifiableSet(RouteCalculator
+				.getRelevantTypes(restriction));
+		factors = new double[SEGMENT_TYPES.length];
+		for (SegmentType t : SEGMENT_TYPES) {
+			factors[t.ordinal()] = RouteCalculator.computeFactor(t, speeds);
+		}
+	}
+
+	private RoutingProfile(String name, RoutingRestriction restriction,
+			Set<SegmentType> allowedTypes, double[] factors) {
+		this.name = name;
+		this.restriction = restriction;
+		this.allowedTypes = Collections.unmodifiableSet(allowedTypes);
+		this.factors = factors;
+	}
+
+	/**
+	 * @return the profile for <code>restriction</code> with the default speeds
+	 */
+	public static RoutingProfile forRestriction(RoutingRestriction restriction) {
+		switch (restriction) {
+		case BIKE:
+			return BIKE;
+		case FOOT:
+			return FOOT;
+		default:
+			return CAR;
+		}
+	}
+
+	public RoutingProfile withName(String name) {
+		return new RoutingProfile(name, restriction, EnumSet
+				.copyOf(allowedTypes), factors);
+	}
+
+	/**
+	 * @return a copy of this profile with <code>kmh</code> as speed on
+	 *         segments of type <code>t</code>
+	 */
+	public RoutingProfile withSpeed(SegmentType t, double kmh) {
+		if (kmh <= 0) {
+			throw new IllegalArgumentException("speed must be positive");
+		}
+		double[] f = factors.clone();
+		f[t.ordinal()] = 3.6 / kmh;
+		return new RoutingProfile(name, restriction, EnumSet
+				.copyOf(allowedTypes), f);
+	}
+
+	/**
+	 * @return a copy of this profile which avoids segments of type
+	 *         <code>t</code> completely
+	 */
+	public RoutingProfile withoutType(SegmentType t) {
+		Set<SegmentType> types = EnumSet.noneOf(SegmentType.class);
+		types.addAll(allowedTypes);
+		types.remove(t);
+		return new RoutingProfile(name, restriction, types, factors);
+	}
+
+	/**
+	 * @return a copy of this profile which may use segments of type
+	 *         <code>t</code>
+	 */
+	public RoutingProfile withType(SegmentType t) {
+		Set<SegmentType> types = EnumSet.noneOf(SegmentType.class);
+		types.addAll(allowedTypes);
+		types.add(t);
+		return new RoutingProfile(name, restriction, types, factors);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the restriction this profile has been derived from
+	 */
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	/**
+	 * @return the segment types which may be used, the set can't be modified
+	 */
+	public Set<SegmentType> getAllowedTypes() {
+		return allowedTypes;
+	}
+
+	public boolean isAllowed(SegmentType t) {
+		return allowedTypes.contains(t);
+	}
+
+	/**
+	 * @return the factor converting a length in meters into the time in
+	 *         seconds needed on a segment of type <code>t</code>
+	 */
+	public double getFactor(SegmentType t) {
+		return factors[t.ordinal()];
+	}
+
+	/**
+	 * @return the smallest positive factor of the allowed segment types,
+	 *         which turns great-circle distances into lower bounds for times
+	 */
+	public double getMinimalFactor() {
+		double min = Double.MAX_VALUE;
+		for (SegmentType t : allowedTypes) {
+			double f = factors[t.ordinal()];
+			if ((f > 0) && (f < min)) {
+				min = f;
+			}
+		}
+		return min;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RoutingProfile)) {
+			return false;
+		}
+		RoutingProfile p = (RoutingProfile) o;
+		return (restriction == p.restriction)
+				&& allowedTypes.equals(p.allowedTypes)
+				&& Arrays.equals(factors, p.factors);
+	}
+
+	@Override
+	public int hashCode() {
+		return (restriction.ordinal() * 31 + allowedTypes.hashCode()) * 31
+				+ Arrays.hashCode(factors);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -3,27 +3,169 @@
  */
 package de.uni_koblenz.jgstreetmap.routing;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
 import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
 
 /**
+ * The route found by a {@link RouteCalculator}. A route is either given as
+ * a list of segments or compactly as the ids of its segment incidences,
+ * which are only turned into {@link Segment}s when they are needed. The
+ * segments can be iterated without building the list, and
+ * {@link #summarize(RouteCalculator, AnnotatedOsmGraph)} computes length,
+ * time and street names in one pass.
+ *
  * @author horn
  * 
  */
-public class RoutingResult {
+public class RoutingResult implements Iterable<Segment> {
 	private List<Segment> route;
 	private long routeCalculationTime;
 
+	/** the graph and ids of the segment incidences of a compact route */
+	private final OsmGraph graph;
+	private final int[] incidences;
+
 	public RoutingResult(List<Segment> route, long calculationTime) {
 		this.route = route;
 		routeCalculationTime = calculationTime;
+		graph = null;
+		incidences = null;
 	}
 
+	/**
+	 * Creates a result for a compact route.
+	 *
+	 * @param incidences
+	 *            the ids of the segment incidences of the route in
+	 *            <code>graph</code>, or null if there is no route, must not be
+	 *            modified afterwards
+	 */
+	public RoutingResult(OsmGraph graph, int[] incidences, long calculationTime) {
+		this.graph = graph;
+		this.incidences = incidences;
+		routeCalculationTime = calculationTime;
+	}
+
+	/**
+	 * @return the segments of the route, or null if there is none. For a
+	 *         compact route, the list is built on the first call.
+	 */
 	public List<Segment> getRoute() {
+		if ((route == null) && (incidences != null)) {
+			List<Segment> segments = new ArrayList<Segment>(incidences.length);
+			for (Segment s : this) {
+				segments.add(s);
+			}
+			route = segments;
+		}
 		return route;
 	}
 
+	/**
+	 * @return true if a route has been found
+	 */
+	public boolean hasRoute() {
+		return (route != null) || (incidences != null);
+	}
+
+	/**
+	 * @return the number of segments of the route, 0 if there is none
+	 */
+	public int getSegmentCount() {
+		if (route != null) {
+			return route.size();
+		}
+		return (incidences == null) ? 0 : incidences.length;
+	}
+
+	/**
+	 * Iterates over the segments of the route, or over none if there is no
+	 * route. A compact route creates each {@link Segment} when it is reached.
+	 */
+	@Override
+	public Iterator<Segment> iterator() {
+		if (route != null) {
+			return Collections.unmodifiableList(route).iterator();
+		}
+		if (incidences == null) {
+			return Collections.<Segment> emptyList().iterator();
+		}
+		return new Iterator<Segment>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < incidences.length;
+			}
+
+			@Override
+			public Segment next() {
+				if (next >= incidences.length) {
+					throw new NoSuchElementException();
+				}
+				return (Segment) graph.getEdge(incidences[next++]);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return the travelled part of the <code>i</code>-th segment of the
+	 *         route, between 0 and 1
+	 */
+	protected double getFraction(int i) {
+		return 1;
+	}
+
+	/**
+	 * Computes length, travel time and street names of the route in one
+	 * pass over its segments. The times are rated by <code>calculator</code>
+	 * like {@link RouteCalculator#calculateCompleteWeight(List, EdgeRating)}
+	 * does, the ways are looked up by the way ids of the segments in
+	 * <code>graph</code>.
+	 *
+	 * @return the summary, or null if there is no route
+	 */
+	public RouteSummary summarize(RouteCalculator calculator,
+			AnnotatedOsmGraph graph) {
+		if (!hasRoute()) {
+			return null;
+		}
+		double length = 0;
+		double time = 0;
+		List<String> streetNames = new ArrayList<String>();
+		String lastName = null;
+		Segment previous = null;
+		int i = 0;
+		for (Segment s : this) {
+			double fraction = getFraction(i++);
+			length += s.get_length() * fraction;
+			time += calculator.rate(s, EdgeRating.TIME, previous) * fraction;
+			if ((previous == null) || (previous.get_wayId() != s.get_wayId())) {
+				String name = RouteSummary.getStreetName(graph.getWayById(s
+						.get_wayId()));
+				if ((name != null) && !name.equals(lastName)) {
+					streetNames.add(name);
+					lastName = name;
+				}
+			}
+			previous = s;
+		}
+		return new RouteSummary(length, time, streetNames);
+	}
+
 	public long getRouteCalculationTime() {
 		return routeCalculationTime;
 	}
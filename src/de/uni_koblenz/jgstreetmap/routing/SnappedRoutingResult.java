@@ -0,0 +1,100 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+
+/**
+ * A route between two points on segments, as computed by
+ * {@link RouteCalculator#getRoute(SegmentProjection, SegmentProjection, EdgeRating)}.
+ * The first segment incidence of the route starts at the segment of the
+ * start point and the last one ends at the segment of the target point, but
+ * only the parts between the points and the route are travelled. If both
+ * points lie on the same segment, the route consists of that segment alone.
+ */
+public class SnappedRoutingResult extends RoutingResult {
+	private final SegmentProjection from;
+	private final SegmentProjection to;
+	private final double startFraction;
+	private final double endFraction;
+
+	public SnappedRoutingResult(SegmentProjection from, SegmentProjection to,
+			List<Segment> route, double startFraction, double endFraction,
+			long calculationTime) {
+		super(route, calculationTime);
+		this.from = from;
+		this.to = to;
+		this.startFraction = startFraction;
+		this.endFraction = endFraction;
+	}
+
+	public SegmentProjection getFrom() {
+		return from;
+	}
+
+	public SegmentProjection getTo() {
+		return to;
+	}
+
+	/**
+	 * @return the travelled part of the first segment of the route, between
+	 *         0 and 1
+	 */
+	public double getStartFraction() {
+		return startFraction;
+	}
+
+	/**
+	 * @return the travelled part of the last segment of the route, between 0
+	 *         and 1
+	 */
+	public double getEndFraction() {
+		return endFraction;
+	}
+
+	/**
+	 * @return the length in meters of the travelled parts of the route, or
+	 *         infinity if there is no route
+	 */
+	public double getLength() {
+		List<Segment> route = getRoute();
+		if (route == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double length = 0;
+		for (int i = 0; i < route.size(); i++) {
+			length += route.get(i).get_length() * getFraction(i);
+		}
+		return length;
+	}
+
+	/**
+	 * @return the rating of the travelled parts of the route under
+	 *         <code>r</code> as rated by <code>calculator</code>, or infinity
+	 *         if there is no route
+	 */
+	public double calculateWeight(RouteCalculator calculator, EdgeRating r) {
+		List<Segment> route = getRoute();
+		if (route == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double weight = 0;
+		Segment previous = null;
+		for (int i = 0; i < route.size(); i++) {
+			Segment s = route.get(i);
+			weight += calculator.rate(s, r, previous) * getFraction(i);
+			previous = s;
+		}
+		return weight;
+	}
+
+	@Override
+	protected double getFraction(int i) {
+		if (i == 0) {
+			return startFraction;
+		}
+		return (i == getSegmentCount() - 1) ? endFraction : 1;
+	}
+}
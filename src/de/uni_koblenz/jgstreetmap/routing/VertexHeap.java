@@ -0,0 +1,228 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.Arrays;
+
+/**
+ * A d-ary min-heap of vertex ids with <code>double</code> keys. In contrast to
+ * {@link java.util.PriorityQueue} the position of every id in the heap is
+ * recorded in an array indexed by the id itself, so that
+ * {@link #decreaseKey(int, double)} and {@link #contains(int)} run in
+ * O(log n) and O(1) instead of O(n).
+ *
+ * Ids are expected to be small non-negative integers like JGraLab vertex ids.
+ * The index array grows on demand if an id exceeds the initial capacity.
+ */
+public class VertexHeap {
+	public static final int DEFAULT_ARITY = 4;
+
+	private static final int ABSENT = -1;
+
+	private final int arity;
+
+	/** the ids in heap order */
+	private int[] heap;
+
+	/** the keys, aligned with <code>heap</code> */
+	private double[] keys;
+
+	/** position of an id in <code>heap</code>, or ABSENT */
+	private int[] position;
+
+	private int size;
+
+	public VertexHeap(int capacity) {
+		this(capacity, DEFAULT_ARITY);
+	}
+
+	public VertexHeap(int capacity, int arity) {
+		if (arity < 2) {
+			throw new IllegalArgumentException("arity must be at least 2, was "
+					+ arity);
+		}
+		this.arity = arity;
+		capacity = Math.max(capacity, 16);
+		heap = new int[capacity];
+		keys = new double[capacity];
+		position = new int[capacity];
+		Arrays.fill(position, ABSENT);
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int id) {
+		return id < position.length && position[id] != ABSENT;
+	}
+
+	/**
+	 * @return the key of <code>id</code>, which must be contained in this heap
+	 */
+	public double getKey(int id) {
+		return keys[position[id]];
+	}
+
+	/**
+	 * @return the id with the smallest key without removing it
+	 */
+	public int peek() {
+		if (size == 0) {
+			throw new IllegalStateException("heap is empty");
+		}
+		return heap[0];
+	}
+
+	/**
+	 * @return the smallest key in this heap
+	 */
+	public double peekKey() {
+		if (size == 0) {
+			throw new IllegalStateException("heap is empty");
+		}
+		return keys[0];
+	}
+
+	/**
+	 * Inserts <code>id</code> with the given <code>key</code>. The id must not
+	 * be contained in this heap.
+	 */
+	public void insert(int id, double key) {
+		ensureIdCapacity(id);
+		if (position[id] != ABSENT) {
+			throw new IllegalArgumentException("id " + id
+					+ " is already contained in the heap");
+		}
+		if (size == heap.length) {
+			int newLength = heap.length + (heap.length >> 1);
+			heap = Arrays.copyOf(heap, newLength);
+			keys = Arrays.copyOf(keys, newLength);
+		}
+		siftUp(size++, id, key);
+	}
+
+	/**
+	 * Lowers the key of <code>id</code>, which must be contained in this heap,
+	 * to <code>key</code>. Larger keys are ignored.
+	 */
+	public void decreaseKey(int id, double key) {
+		int pos = position[id];
+		if (key < keys[pos]) {
+			siftUp(pos, id, key);
+		}
+	}
+
+	/**
+	 * Sets the key of <code>id</code>, which must be contained in this heap, to
+	 * <code>key</code>. In contrast to {@link #decreaseKey(int, double)} the key
+	 * may also grow.
+	 */
+	public void changeKey(int id, double key) {
+		int pos = position[id];
+		if (key < keys[pos]) {
+			siftUp(pos, id, key);
+		} else if (key > keys[pos]) {
+			siftDown(pos, id, key);
+		}
+	}
+
+	/**
+	 * Inserts <code>id</code> or lowers its key if it is already contained.
+	 *
+	 * @return true if <code>id</code> has been newly inserted
+	 */
+	public boolean insertOrDecrease(int id, double key) {
+		if (contains(id)) {
+			decreaseKey(id, key);
+			return false;
+		}
+		insert(id, key);
+		return true;
+	}
+
+	/**
+	 * Removes the id with the smallest key from this heap.
+	 *
+	 * @return the removed id
+	 */
+	public int poll() {
+		if (size == 0) {
+			throw new IllegalStateException("heap is empty");
+		}
+		int min = heap[0];
+		position[min] = ABSENT;
+		--size;
+		if (size > 0) {
+			siftDown(0, heap[size], keys[size]);
+		}
+		return min;
+	}
+
+	/**
+	 * Removes all ids. Only the positions of the contained ids are reset, so
+	 * this is O(size) and not O(capacity).
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = ABSENT;
+		}
+		size = 0;
+	}
+
+	private void ensureIdCapacity(int id) {
+		if (id >= position.length) {
+			int oldLength = position.length;
+			position = Arrays.copyOf(position,
+					Math.max(id + 1, oldLength + (oldLength >> 1)));
+			Arrays.fill(position, oldLength, position.length, ABSENT);
+		}
+	}
+
+	private void siftUp(int pos, int id, double key) {
+		while (pos > 0) {
+			int parent = (pos - 1) / arity;
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			keys[pos] = keys[parent];
+			position[heap[pos]] = pos;
+			pos = parent;
+		}
+		heap[pos] = id;
+		keys[pos] = key;
+		position[id] = pos;
+	}
+
+	private void siftDown(int pos, int id, double key) {
+		while (true) {
+			int first = pos * arity + 1;
+			if (first >= size) {
+				break;
+			}
+			int last = Math.min(first + arity, size);
+			int min = first;
+			double minKey = keys[first];
+			for (int c = first + 1; c < last; c++) {
+				if (keys[c] < minKey) {
+					min = c;
+					minKey = keys[c];
+				}
+			}
+			if (key <= minKey) {
+				break;
+			}
+			heap[pos] = heap[min];
+			keys[pos] = minKey;
+			position[heap[pos]] = pos;
+			pos = min;
+		}
+		heap[pos] = id;
+		keys[pos] = key;
+		position[id] = pos;
+	}
+}
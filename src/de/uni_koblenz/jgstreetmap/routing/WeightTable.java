@@ -0,0 +1,202 @@
+package de.uni_koblenz.jgstreetmap.routing;
+
+import java.util.BitSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The precomputed rating of all segments of a graph for one
+ * {@link EdgeRating}, together with the segment incidences which may be
+ * traversed, both under one {@link RoutingProfile} and {@link TrafficState}.
+ * The ratings are stored as
+ * floats by edge id, the traversable incidences as bits by state index, which
+ * is 2e for the normal and 2e+1 for the reversed incidence of the edge with id
+ * e. So rating a segment in the inner loop of a search is an array access
+ * instead of switches over the rating and the segment type.
+ *
+ * A table for {@link EdgeRating#LENGTH} serves
+ * {@link EdgeRating#CONVENIENCE}, too, since the penalty for changing the way
+ * depends on the previous segment. Tables are obtained by
+ * {@link RouteCalculator#getWeightTable(EdgeRating)}, which recomputes them
+ * when the profile or the graph have changed. If only the traffic state has
+ * changed, just the segments whose overrides differ are rated anew.
+ */
+public class WeightTable {
+	private final OsmGraph graph;
+	private final EdgeRating rating;
+
+	/** the state the table has been computed for */
+	private RoutingProfile profile;
+	private TrafficState traffic;
+	private long graphVersion;
+
+	/** the factors and allowed types of the profile by type ordinal */
+	private double[] factor;
+	private boolean[] typeAllowed;
+
+	private float[] weights;
+	private BitSet allowed;
+
+	/** the number of computations, see {@link #getRevision()} */
+	private int revision;
+
+	/**
+	 * Creates an empty table, which is computed by the first call of
+	 * {@link #update(RoutingProfile, TrafficState)}.
+	 */
+	public WeightTable(OsmGraph graph, EdgeRating rating) {
+		if (rating == EdgeRating.CONVENIENCE) {
+			throw new IllegalArgumentException(
+					"use a table for LENGTH with CONVENIENCE");
+		}
+		this.graph = graph;
+		this.rating = rating;
+	}
+
+	/**
+	 * Recomputes the table if it has been computed for another profile, or if
+	 * the graph has changed since. Tables for {@link EdgeRating#LENGTH} only
+	 * depend on the allowed segment types of the profile.
+	 *
+	 * @return true if the table has been recomputed
+	 */
+	public boolean update(RoutingProfile profile) {
+		return update(profile, TrafficState.EMPTY);
+	}
+
+	/**
+	 * Recomputes the table like {@link #update(RoutingProfile)}, or updates
+	 * the segments whose overrides differ if only <code>traffic</code> has
+	 * changed.
+	 *
+	 * @return true if any rating has been changed
+	 */
+	public boolean update(RoutingProfile profile, TrafficState traffic) {
+		if ((weights != null) && (graph.getGraphVersion() == graphVersion)) {
+			if ((rating == EdgeRating.TIME) ? profile.equals(this.profile)
+					: profile.getAllowedTypes().equals(
+							this.profile.getAllowedTypes())) {
+				if (traffic == this.traffic) {
+					return false;
+				}
+				for (int id : traffic.getChangedEdges(this.traffic)) {
+					Segment s = (Segment) graph.getEdge(id);
+					if (s != null) {
+						rate(s, traffic);
+					}
+				}
+				this.traffic = traffic;
+				revision++;
+				return true;
+			}
+		}
+		compute(profile, traffic);
+		return true;
+	}
+
+	private void compute(RoutingProfile profile, TrafficState traffic) {
+		SegmentType[] types = SegmentType.values();
+		factor = new double[types.length];
+		typeAllowed = new boolean[types.length];
+		for (SegmentType t : types) {
+			factor[t.ordinal()] = (rating == EdgeRating.TIME) ? profile
+					.getFactor(t) : 1;
+			typeAllowed[t.ordinal()] = profile.isAllowed(t);
+		}
+
+		int edgeCount = graph.getMaxECount() + 1;
+		if ((weights == null) || (weights.length < edgeCount)) {
+			weights = new float[edgeCount];
+			allowed = new BitSet(2 * edgeCount);
+		} else {
+			allowed.clear();
+		}
+		for (Segment s : graph.getSegmentEdges()) {
+			rate(s, traffic);
+		}
+
+		this.profile = profile;
+		this.traffic = traffic;
+		graphVersion = graph.getGraphVersion();
+		revision++;
+	}
+
+	/**
+	 * Sets weight and allowed bits of the edge <code>s</code>.
+	 */
+	private void rate(Segment s, TrafficState traffic) {
+		int t = s.get_wayType().ordinal();
+		int id = s.getId();
+		double w = s.get_length() * factor[t];
+		boolean normal = typeAllowed[t];
+		boolean reversed = typeAllowed[t] && !s.is_oneway();
+		if (traffic.isAffected(id)) {
+			if (rating == EdgeRating.TIME) {
+				w /= traffic.getSpeedFactor(id);
+			}
+			normal &= !traffic.isBlocked(id);
+			reversed &= !traffic.isBlocked(-id);
+		}
+		weights[id] = (float) w;
+		allowed.set(id << 1, normal);
+		allowed.set((id << 1) | 1, reversed);
+	}
+
+	/**
+	 * @return the rating of <code>s</code>, without the penalty of
+	 *         {@link EdgeRating#CONVENIENCE}
+	 */
+	public double getWeight(Segment s) {
+		int id = s.getId();
+		return weights[(id > 0) ? id : -id];
+	}
+
+	/**
+	 * @return true if the segment incidence <code>s</code> may be traversed
+	 *         from its this vertex to its that vertex, like
+	 *         {@link RouteCalculator#isTraversable(Segment)}
+	 */
+	public boolean isAllowed(Segment s) {
+		return allowed.get(getState(s));
+	}
+
+	/**
+	 * @return 2e for the normal and 2e+1 for the reversed incidence of the
+	 *         edge with id e
+	 */
+	public static int getState(Segment s) {
+		int id = s.getId();
+		return (id > 0) ? (id << 1) : ((-id << 1) | 1);
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	/**
+	 * @return the profile the table has been computed for last
+	 */
+	public RoutingProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the traffic state the table has been updated for last
+	 */
+	public TrafficState getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * @return a number which changes whenever the table is recomputed, so
+	 *         that searches keeping state between queries can tell whether the
+	 *         ratings are still the same
+	 */
+	public int getRevision() {
+		return revision;
+	}
+}
@@ -0,0 +1,148 @@
+package de.uni_koblenz.jgstreetmap.routing.alt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+
+/**
+ * An {@link AStarRouteCalculator} whose heuristic is the maximum of the
+ * great-circle estimate and the landmark bounds (ALT). The landmark bounds
+ * follow the road network, so they are much tighter for
+ * {@link EdgeRating#TIME}, where the great-circle estimate assumes motorway
+ * speed everywhere. For {@link EdgeRating#CONVENIENCE} the LENGTH landmarks
+ * are used, since a route is never less convenient than long.
+ *
+ * The landmarks are either added with {@link #addLandmarks(Landmarks)} or
+ * loaded on demand from the files written by {@link LandmarkTool} next to the
+ * graph file. Without landmarks the calculator behaves like a plain
+ * {@link AStarRouteCalculator}.
+ *
+ * The landmarks are computed with the default profile of their restriction.
+ * A profile which allows other segment types, or which is faster on some
+ * type for {@link EdgeRating#TIME}, may have shorter routes, so its queries
+ * use the great-circle estimate only.
+ *
+ * Live traffic needs no new landmarks: closures and slower traffic only make
+ * routes longer, so the bounds stay valid, and for speed factors above 1 the
+ * TIME bounds are divided by the largest one.
+ */
+public class LandmarkAStarRouteCalculator extends AStarRouteCalculator {
+
+	private String graphFile;
+
+	/** the landmarks by rating and restriction, null if none are available */
+	private Map<String, Landmarks> landmarks;
+
+	/** true if the landmark bounds are valid for the current query */
+	private boolean landmarksAdmissible = true;
+
+	public LandmarkAStarRouteCalculator(OsmGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * @param graphFile
+	 *            the file <code>graph</code> has been loaded from, used to
+	 *            find the landmark files, may be null
+	 */
+	public LandmarkAStarRouteCalculator(OsmGraph graph, String graphFile) {
+		super(graph);
+		this.graphFile = graphFile;
+		landmarks = new HashMap<String, Landmarks>();
+	}
+
+	public void addLandmarks(Landmarks l) {
+		if (!l.matches(graph)) {
+			throw new IllegalArgumentException("The landmarks for "
+					+ l.getRating() + "/" + l.getRestriction()
+					+ " do not match the graph");
+		}
+		landmarks.put(key(l.getRating(), l.getRestriction()), l);
+	}
+
+	/**
+	 * @return the landmarks used for <code>r</code> and the current
+	 *         restriction, or null if there are none
+	 */
+	public Landmarks getLandmarks(EdgeRating r) {
+		if (r == EdgeRating.CONVENIENCE) {
+			r = EdgeRating.LENGTH;
+		}
+		String key = key(r, restriction);
+		if (landmarks.containsKey(key)) {
+			return landmarks.get(key);
+		}
+		Landmarks l = null;
+		if (graphFile != null) {
+			String fileName = Landmarks.getFileName(graphFile, r, restriction);
+			if (new File(fileName).exists()) {
+				try {
+					l = Landmarks.load(fileName);
+					if (!l.matches(graph)) {
+						System.err.println(fileName
+								+ " does not match the graph, ignoring it.");
+						l = null;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		// remember missing landmarks, too, so the file is looked up only once
+		landmarks.put(key, l);
+		return l;
+	}
+
+	private static String key(EdgeRating r, RoutingRestriction restriction) {
+		return r + "/" + restriction;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		// the profile can't change during a query
+		landmarksAdmissible = isAdmissible(getProfile(), r);
+		return super.getRoute(target, r);
+	}
+
+	/**
+	 * @return true if no route is rated lower under <code>p</code> than under
+	 *         the default profile of its restriction, for which the landmarks
+	 *         have been computed
+	 */
+	private static boolean isAdmissible(RoutingProfile p, EdgeRating r) {
+		RoutingProfile d = RoutingProfile.forRestriction(p.getRestriction());
+		if (!d.getAllowedTypes().containsAll(p.getAllowedTypes())) {
+			return false;
+		}
+		if (r == EdgeRating.TIME) {
+			for (SegmentType t : p.getAllowedTypes()) {
+				if (p.getFactor(t) < d.getFactor(t)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected double calculateHeuristic(Node start, Node target, EdgeRating r) {
+		double h = super.calculateHeuristic(start, target, r);
+		Landmarks l = landmarksAdmissible ? getLandmarks(r) : null;
+		if (l != null) {
+			double bound = l.lowerBound(start.getId(), target.getId());
+			if (r == EdgeRating.TIME) {
+				bound /= trafficState.getMaxSpeedFactor();
+			}
+			h = Math.max(h, bound);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,162 @@
+package de.uni_koblenz.jgstreetmap.routing.alt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+
+/**
+ * Selects landmarks with the farthest heuristic and computes their distance
+ * tables. The first landmark is the vertex farthest away from a random
+ * vertex, every further landmark is the vertex whose distance to the nearest
+ * landmark chosen so far is maximal. Thereby the landmarks end up at the
+ * border of the map, where they give the best bounds.
+ *
+ * The segment ratings are taken from a {@link RouteCalculator}, so the
+ * landmarks respect its restriction. Only {@link EdgeRating#LENGTH} and
+ * {@link EdgeRating#TIME} are supported. The LENGTH tables are valid bounds
+ * for {@link EdgeRating#CONVENIENCE}, too.
+ */
+public class LandmarkBuilder {
+	public static final int DEFAULT_LANDMARK_COUNT = 8;
+
+	private static final long SEED = 4711;
+
+	private OsmGraph graph;
+	private RouteCalculator ratingSource;
+	private EdgeRating rating;
+	private int landmarkCount;
+
+	private int vertexCount;
+	private double[] distance;
+	private VertexHeap queue;
+
+	public LandmarkBuilder(OsmGraph graph, RouteCalculator ratingSource,
+			EdgeRating rating, int landmarkCount) {
+		if ((rating != EdgeRating.LENGTH) && (rating != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Landmarks support only LENGTH and TIME, not " + rating);
+		}
+		if (landmarkCount < 1) {
+			throw new IllegalArgumentException(
+					"At least one landmark is needed, not " + landmarkCount);
+		}
+		this.graph = graph;
+		this.ratingSource = ratingSource;
+		this.rating = rating;
+		this.landmarkCount = landmarkCount;
+	}
+
+	public Landmarks build() {
+		long startTime = System.currentTimeMillis();
+		vertexCount = graph.getMaxVCount() + 1;
+		distance = new double[vertexCount];
+		queue = new VertexHeap(vertexCount);
+
+		List<Node> candidates = new ArrayList<Node>();
+		for (Node n : graph.getNodeVertices()) {
+			if (n.getFirstSegmentIncidence() != null) {
+				candidates.add(n);
+			}
+		}
+		if (candidates.isEmpty()) {
+			throw new IllegalStateException("The graph contains no segments");
+		}
+
+		// minimal distance of each vertex to the landmarks chosen so far
+		double[] nearest = new double[vertexCount];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		search(candidates.get(new Random(SEED).nextInt(candidates.size())),
+				true);
+		int next = farthest(distance);
+
+		List<Integer> landmarks = new ArrayList<Integer>();
+		List<float[]> from = new ArrayList<float[]>();
+		List<float[]> to = new ArrayList<float[]>();
+		while ((next >= 0) && (landmarks.size() < landmarkCount)) {
+			Node landmark = (Node) graph.getVertex(next);
+			landmarks.add(next);
+			search(landmark, true);
+			from.add(toFloats(distance));
+			for (int v = 0; v < vertexCount; v++) {
+				nearest[v] = Math.min(nearest[v], distance[v]);
+			}
+			search(landmark, false);
+			to.add(toFloats(distance));
+			next = farthest(nearest);
+		}
+
+		int[] ids = new int[landmarks.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = landmarks.get(i);
+		}
+		System.out.println("Computed " + ids.length + " landmarks for "
+				+ rating + "/" + ratingSource.getRestriction() + " in "
+				+ (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+		return new Landmarks(rating, ratingSource.getRestriction(),
+				graph.getVCount(), graph.getECount(), ids,
+				from.toArray(new float[ids.length][]),
+				to.toArray(new float[ids.length][]));
+	}
+
+	/**
+	 * @return the id of the vertex with the largest finite value in
+	 *         <code>values</code>, or -1 if all finite values are 0
+	 */
+	private int farthest(double[] values) {
+		int best = -1;
+		double bestValue = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			double value = values[v];
+			if ((value > bestValue) && (value != Double.POSITIVE_INFINITY)) {
+				best = v;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+
+	private static float[] toFloats(double[] distances) {
+		float[] result = new float[distances.length];
+		for (int v = 0; v < distances.length; v++) {
+			result[v] = (float) distances[v];
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the distances from (<code>forward</code> is true) or to
+	 * <code>source</code> for all vertices into {@link #distance}.
+	 */
+	private void search(Node source, boolean forward) {
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		queue.clear();
+		distance[source.getId()] = 0;
+		queue.insert(source.getId(), 0);
+		while (!queue.isEmpty()) {
+			int id = queue.poll();
+			Node v = (Node) graph.getVertex(id);
+			for (Segment s : v.getSegmentIncidences()) {
+				// the backward search follows incoming segments
+				Segment segment = forward ? s : RouteCalculator.opposite(s);
+				if (!ratingSource.isTraversable(segment)) {
+					continue;
+				}
+				int w = s.getThat().getId();
+				double d = distance[id] + ratingSource.rate(segment, rating,
+						null);
+				if (d < distance[w]) {
+					distance[w] = d;
+					queue.insertOrDecrease(w, d);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package de.uni_koblenz.jgstreetmap.routing.alt;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * Computes the landmarks for an existing graph and stores them next to the
+ * graph file, where {@link LandmarkAStarRouteCalculator} finds them.
+ */
+public class LandmarkTool {
+
+	/** the ratings landmarks can be computed for */
+	public static final EdgeRating[] RATINGS = { EdgeRating.LENGTH,
+			EdgeRating.TIME };
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + LandmarkTool.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option count = new Option("k", "landmarks", true,
+				"(optional): number of landmarks, default: "
+						+ LandmarkBuilder.DEFAULT_LANDMARK_COUNT);
+		count.setRequired(false);
+		count.setArgName("number");
+		oh.addOption(count);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException {
+		CommandLine cl = processCommandLineOptions(args);
+		String graphFile = cl.getOptionValue("i");
+		int count = LandmarkBuilder.DEFAULT_LANDMARK_COUNT;
+		if (cl.hasOption("k")) {
+			count = Integer.parseInt(cl.getOptionValue("k"));
+		}
+
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+		buildLandmarks(graph, graphFile, count);
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Computes <code>count</code> landmarks for all ratings and restrictions
+	 * and saves them next to <code>graphFile</code>. The vertex ids of
+	 * <code>graph</code> must be the ones stored in <code>graphFile</code>.
+	 */
+	public static void buildLandmarks(OsmGraph graph, String graphFile,
+			int count) throws IOException {
+		DijkstraRouteCalculator ratingSource = new DijkstraRouteCalculator(
+				graph);
+		for (RoutingRestriction restriction : RoutingRestriction.values()) {
+			ratingSource.setRestriction(restriction);
+			for (EdgeRating rating : RATINGS) {
+				Landmarks l = new LandmarkBuilder(graph, ratingSource, rating,
+						count).build();
+				String fileName = Landmarks.getFileName(graphFile, rating,
+						restriction);
+				l.save(fileName);
+				System.out.println("Saved " + fileName);
+			}
+		}
+	}
+}
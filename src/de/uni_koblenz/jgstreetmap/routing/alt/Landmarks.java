@@ -0,0 +1,200 @@
+package de.uni_koblenz.jgstreetmap.routing.alt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * Precomputed distances from and to a small set of landmark vertices for one
+ * {@link EdgeRating} and one {@link RoutingRestriction}. By the triangle
+ * inequality, d(v,t) &gt;= d(L,t) - d(L,v) and d(v,t) &gt;= d(v,L) - d(t,L)
+ * for every landmark L, which yields the lower bounds used by
+ * {@link LandmarkAStarRouteCalculator}.
+ *
+ * The distances are indexed by vertex id and stored as floats to keep the
+ * tables small. Since each of them may be rounded by up to half an ulp, the
+ * bounds are lowered by the rounding error. Unreachable vertices get an
+ * infinite distance.
+ */
+public class Landmarks {
+	private static final int MAGIC = 0x4a47414c; // "JGAL"
+	private static final int VERSION = 1;
+
+	/** suffix of landmark files, which are stored next to the graph file */
+	public static final String FILE_SUFFIX = ".alt";
+
+	final EdgeRating rating;
+	final RoutingRestriction restriction;
+
+	/** vertex and edge count of the graph the landmarks were computed for */
+	final int graphVCount;
+	final int graphECount;
+
+	/** the vertex ids of the landmarks */
+	final int[] landmarks;
+
+	/** fromLandmark[i][v] is the distance from landmark i to vertex v */
+	final float[][] fromLandmark;
+
+	/** toLandmark[i][v] is the distance from vertex v to landmark i */
+	final float[][] toLandmark;
+
+	Landmarks(EdgeRating rating, RoutingRestriction restriction,
+			int graphVCount, int graphECount, int[] landmarks,
+			float[][] fromLandmark, float[][] toLandmark) {
+		this.rating = rating;
+		this.restriction = restriction;
+		this.graphVCount = graphVCount;
+		this.graphECount = graphECount;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	public int getLandmarkCount() {
+		return landmarks.length;
+	}
+
+	/**
+	 * @return the vertex id of the <code>i</code>-th landmark
+	 */
+	public int getLandmark(int i) {
+		return landmarks[i];
+	}
+
+	/**
+	 * @return a lower bound for the distance from the vertex with id
+	 *         <code>v</code> to the vertex with id <code>t</code>, which is 0
+	 *         if no landmark gives any information
+	 */
+	public double lowerBound(int v, int t) {
+		if ((v >= fromLandmark[0].length) || (t >= fromLandmark[0].length)) {
+			return 0;
+		}
+		double bound = 0;
+		for (int i = 0; i < landmarks.length; i++) {
+			float[] from = fromLandmark[i];
+			// both terms are only meaningful for finite distances
+			if (from[v] != Float.POSITIVE_INFINITY) {
+				bound = Math.max(bound, difference(from[t], from[v]));
+			}
+			float[] to = toLandmark[i];
+			if (to[t] != Float.POSITIVE_INFINITY) {
+				bound = Math.max(bound, difference(to[v], to[t]));
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * @return a lower bound for the difference of the exact distances that
+	 *         have been rounded to the finite float <code>b</code> and to
+	 *         <code>a</code>
+	 */
+	private static double difference(float a, float b) {
+		if (a == Float.POSITIVE_INFINITY) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return ((double) a - b) - (Math.ulp(a) + Math.ulp(b));
+	}
+
+	/**
+	 * @return true if the landmarks have been computed for a graph with the
+	 *         same number of vertices and edges as <code>graph</code>
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the name of the file the landmarks for <code>rating</code> and
+	 *         <code>restriction</code> of the graph stored in
+	 *         <code>graphFile</code> are saved to
+	 */
+	public static String getFileName(String graphFile, EdgeRating rating,
+			RoutingRestriction restriction) {
+		return graphFile + "." + rating.name().toLowerCase() + "-"
+				+ restriction.name().toLowerCase() + FILE_SUFFIX;
+	}
+
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(rating.name());
+			out.writeUTF(restriction.name());
+			out.writeInt(graphVCount);
+			out.writeInt(graphECount);
+			out.writeInt(landmarks.length);
+			out.writeInt(fromLandmark[0].length);
+			for (int i = 0; i < landmarks.length; i++) {
+				out.writeInt(landmarks[i]);
+				for (float d : fromLandmark[i]) {
+					out.writeFloat(d);
+				}
+				for (float d : toLandmark[i]) {
+					out.writeFloat(d);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static Landmarks load(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 65536));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(fileName + " is not a landmark file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version
+						+ " of landmark file " + fileName);
+			}
+			EdgeRating rating = EdgeRating.valueOf(in.readUTF());
+			RoutingRestriction restriction = RoutingRestriction.valueOf(in
+					.readUTF());
+			int vCount = in.readInt();
+			int eCount = in.readInt();
+			int k = in.readInt();
+			int n = in.readInt();
+			int[] landmarks = new int[k];
+			float[][] from = new float[k][n];
+			float[][] to = new float[k][n];
+			for (int i = 0; i < k; i++) {
+				landmarks[i] = in.readInt();
+				for (int v = 0; v < n; v++) {
+					from[i][v] = in.readFloat();
+				}
+				for (int v = 0; v < n; v++) {
+					to[i][v] = in.readFloat();
+				}
+			}
+			return new Landmarks(rating, restriction, vCount, eCount,
+					landmarks, from, to);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package de.uni_koblenz.jgstreetmap.routing.arcflags;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * Computes the {@link ArcFlags} of a graph. An incidence between two vertices
+ * of region R lies on a best route into R, so it gets the flag of R. Every
+ * other best route into R enters R at a boundary vertex, i.e. a vertex of R
+ * with an incoming incidence from another region. So one backward search per
+ * boundary vertex b finds the remaining flags: each incidence u-&gt;w with
+ * <code>d(u) = c(u, w) + d(w)</code>, where d is the distance to b, gets the
+ * flag of the region of b.
+ *
+ * The backward searches are independent and run in parallel on a
+ * {@link ForkJoinPool}. As the flags are only ever set, the result doesn't
+ * depend on the order the searches finish in. The vertex-sized arrays of a
+ * search are reused by later searches, so there are only as many of them as
+ * searches ran concurrently.
+ *
+ * Like for the contraction hierarchies, the segment ratings are taken from a
+ * {@link RouteCalculator}, and only {@link EdgeRating#LENGTH} and
+ * {@link EdgeRating#TIME} are supported.
+ */
+public class ArcFlagBuilder {
+	/** relative tolerance for the comparison of distances */
+	private static final double EPSILON = 1e-9;
+
+	private final RoutingGraph g;
+	private final RouteCalculator ratingSource;
+	private final EdgeRating rating;
+	private final Regions regions;
+	private final ForkJoinPool forkJoinPool;
+
+	private int words;
+
+	/** the rating of each arc, infinite if it can't be traversed */
+	private double[] arcWeight;
+
+	/** the arc of the opposite incidence, which runs from head to tail */
+	private int[] reverseArc;
+
+	/** the incidence state of each arc, see {@link ArcFlags} */
+	private int[] arcState;
+
+	private AtomicLongArray flags;
+
+	/** the searches not in use by a {@link BoundaryTask} */
+	private ConcurrentLinkedQueue<BackwardSearch> idleSearches;
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool running the backward searches, which the caller
+	 *            shuts down when it isn't needed anymore
+	 */
+	public ArcFlagBuilder(RoutingGraph g, RouteCalculator ratingSource,
+			EdgeRating rating, Regions regions, ForkJoinPool forkJoinPool) {
+		if ((rating != EdgeRating.LENGTH) && (rating != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Arc flags support only LENGTH and TIME, not " + rating);
+		}
+		this.g = g;
+		this.ratingSource = ratingSource;
+		this.rating = rating;
+		this.regions = regions;
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public ArcFlags build() {
+		long startTime = System.currentTimeMillis();
+		initialize();
+
+		int[] boundary = new int[g.getVertexCount()];
+		int boundaryCount = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			int r = regions.getRegion(v);
+			if (r < 0) {
+				continue;
+			}
+			boolean isBoundary = false;
+			for (int a = g.getFirstArc(v); a < g.getFirstArc(v + 1); a++) {
+				int ra = reverseArc[a];
+				if ((ra < 0) || (arcWeight[ra] == Double.POSITIVE_INFINITY)) {
+					continue;
+				}
+				if (regions.getRegion(g.getHead(a)) == r) {
+					// arcs within a region always get its flag
+					setFlag(arcState[ra], r);
+				} else {
+					isBoundary = true;
+				}
+			}
+			if (isBoundary) {
+				boundary[boundaryCount++] = v;
+			}
+		}
+		forkJoinPool.invoke(new BoundaryTask(boundary, 0, boundaryCount));
+
+		long[] result = new long[flags.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = flags.get(i);
+		}
+		OsmGraph graph = g.getGraph();
+		ArcFlags af = new ArcFlags(rating, ratingSource.getRestriction(),
+				graph.getVCount(), graph.getECount(), regions, result);
+		long possible = (long) g.getArcCount() * regions.getRegionCount();
+		System.out.println("Computed arc flags for " + rating + "/"
+				+ ratingSource.getRestriction() + " with "
+				+ regions.getRegionCount() + " regions and " + boundaryCount
+				+ " boundary vertices, " + af.getSetCount() + " of "
+				+ possible + " flags set, in "
+				+ (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+		arcWeight = null;
+		reverseArc = null;
+		arcState = null;
+		flags = null;
+		idleSearches = null;
+		return af;
+	}
+
+	private void initialize() {
+		words = ArcFlags.getWords(regions.getRegionCount());
+		int arcCount = g.getArcCount();
+		arcWeight = new double[arcCount];
+		reverseArc = new int[arcCount];
+		arcState = new int[arcCount];
+		for (int a = 0; a < arcCount; a++) {
+			Segment s = g.getSegment(a);
+			arcWeight[a] = ratingSource.isTraversable(s) ? ratingSource.rate(
+					s, rating, null) : Double.POSITIVE_INFINITY;
+			int incidence = g.getIncidence(a);
+			reverseArc[a] = g.getArc(-incidence);
+			arcState[a] = (incidence > 0) ? (incidence << 1)
+					: ((-incidence << 1) | 1);
+		}
+		flags = new AtomicLongArray(2 * (g.getGraph().getMaxECount() + 1)
+				* words);
+		idleSearches = new ConcurrentLinkedQueue<BackwardSearch>();
+	}
+
+	private void setFlag(int state, int region) {
+		int i = state * words + (region >>> 6);
+		long bit = 1L << region;
+		long old = flags.get(i);
+		while (((old & bit) == 0) && !flags.compareAndSet(i, old, old | bit)) {
+			old = flags.get(i);
+		}
+	}
+
+	/**
+	 * A backward Dijkstra search, whose arrays are indexed by vertex id and
+	 * reset lazily by a generation counter.
+	 */
+	private class BackwardSearch {
+		private int generation;
+		private final int[] visited;
+		private final double[] distance;
+		private final int[] settled;
+		private final VertexHeap queue;
+
+		BackwardSearch() {
+			int n = g.getVertexCount();
+			visited = new int[n];
+			distance = new double[n];
+			settled = new int[n];
+			queue = new VertexHeap(n);
+		}
+
+		/**
+		 * Computes the distances of all vertices to <code>b</code> and sets
+		 * the flag of its region at the arcs of the best routes to it.
+		 */
+		void search(int b) {
+			generation++;
+			queue.clear();
+			visited[b] = generation;
+			distance[b] = 0;
+			queue.insert(b, 0);
+			int settledCount = 0;
+			while (!queue.isEmpty()) {
+				int w = queue.poll();
+				settled[settledCount++] = w;
+				double d = distance[w];
+				// the arcs entering w are the opposites of the arcs leaving it
+				for (int a = g.getFirstArc(w); a < g.getFirstArc(w + 1); a++) {
+					int ra = reverseArc[a];
+					if ((ra < 0) || (arcWeight[ra] == Double.POSITIVE_INFINITY)) {
+						continue;
+					}
+					int u = g.getHead(a);
+					double newDist = d + arcWeight[ra];
+					if (visited[u] != generation) {
+						visited[u] = generation;
+						distance[u] = newDist;
+						queue.insert(u, newDist);
+					} else if (newDist < distance[u]) {
+						distance[u] = newDist;
+						queue.decreaseKey(u, newDist);
+					}
+				}
+			}
+
+			int region = regions.getRegion(b);
+			for (int i = 0; i < settledCount; i++) {
+				int w = settled[i];
+				double d = distance[w];
+				for (int a = g.getFirstArc(w); a < g.getFirstArc(w + 1); a++) {
+					int ra = reverseArc[a];
+					if ((ra < 0) || (arcWeight[ra] == Double.POSITIVE_INFINITY)) {
+						continue;
+					}
+					double du = distance[g.getHead(a)];
+					if (d + arcWeight[ra] - du <= EPSILON * Math.max(1, du)) {
+						setFlag(arcState[ra], region);
+					}
+				}
+			}
+		}
+	}
+
+	private class BoundaryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/** the boundary vertices to search from are boundary[from .. to - 1] */
+		private final int[] boundary;
+		private final int from;
+		private final int to;
+
+		BoundaryTask(int[] boundary, int from, int to) {
+			this.boundary = boundary;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 16) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BoundaryTask(boundary, from, middle),
+						new BoundaryTask(boundary, middle, to));
+				return;
+			}
+			BackwardSearch search = idleSearches.poll();
+			if (search == null) {
+				search = new BackwardSearch();
+			}
+			try {
+				for (int i = from; i < to; i++) {
+					search.search(boundary[i]);
+				}
+			} finally {
+				idleSearches.offer(search);
+			}
+		}
+	}
+}
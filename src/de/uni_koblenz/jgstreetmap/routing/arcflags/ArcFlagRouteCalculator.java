@@ -0,0 +1,204 @@
+package de.uni_koblenz.jgstreetmap.routing.arcflags;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+
+/**
+ * A Dijkstra search which only follows the segment incidences whose
+ * {@link ArcFlags arc flag} for the region of the target is set. Near the
+ * target all incidences of its region are followed, farther away mostly the
+ * ones leading towards it, so the search settles far fewer vertices than a
+ * plain Dijkstra.
+ *
+ * The flags are looked up by rating and restriction. They are either added
+ * with {@link #addFlags(ArcFlags)} or loaded on demand from the files written
+ * by {@link ArcFlagTool} next to the graph file. Since the flags were built
+ * with the default profile of their restriction, they are ignored under other
+ * speeds or segment types, as well as under live traffic which affects the
+ * rating and for targets outside of all regions.
+ */
+public class ArcFlagRouteCalculator extends RouteCalculator {
+
+	private String graphFile;
+	private Map<String, ArcFlags> flags;
+
+	// search state, indexed by vertex id and reset lazily by a generation
+	// counter
+	private int generation;
+	private int[] visited;
+	private double[] distance;
+	private int[] parent;
+	private VertexHeap queue;
+
+	/** number of vertices settled by the last query */
+	private int settledCount;
+
+	public ArcFlagRouteCalculator(OsmGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * @param graphFile
+	 *            the file <code>graph</code> has been loaded from, used to
+	 *            find the arc flag files, may be null
+	 */
+	public ArcFlagRouteCalculator(OsmGraph graph, String graphFile) {
+		this.graph = graph;
+		this.graphFile = graphFile;
+		flags = new HashMap<String, ArcFlags>();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public void addFlags(ArcFlags af) {
+		if (!af.matches(graph)) {
+			throw new IllegalArgumentException("The arc flags for "
+					+ af.getRating() + "/" + af.getRestriction()
+					+ " do not match the graph");
+		}
+		flags.put(key(af.getRating(), af.getRestriction()), af);
+	}
+
+	/**
+	 * @return the flags for <code>r</code> and the current restriction,
+	 *         loading them if necessary
+	 */
+	public ArcFlags getFlags(EdgeRating r) {
+		String key = key(r, restriction);
+		ArcFlags af = flags.get(key);
+		if (af != null) {
+			return af;
+		}
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Arc flags support only LENGTH and TIME, not " + r);
+		}
+		String fileName = (graphFile == null) ? null : ArcFlags.getFileName(
+				graphFile, r, restriction);
+		if ((fileName == null) || !new File(fileName).exists()) {
+			throw new IllegalStateException("No arc flags for " + r + "/"
+					+ restriction + " available");
+		}
+		try {
+			af = ArcFlags.load(fileName);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load " + fileName, e);
+		}
+		addFlags(af);
+		return af;
+	}
+
+	private static String key(EdgeRating r, RoutingRestriction restriction) {
+		return r + "/" + restriction;
+	}
+
+	/**
+	 * @return the number of vertices settled by the last query
+	 */
+	public int getSettledCount() {
+		return settledCount;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		ArcFlags af = getFlags(r);
+		WeightTable weights = getWeightTable(r);
+		int region = af.getRegion(target);
+		if ((region < 0) || trafficState.affects(r) || !hasDefaultRatings(r)) {
+			// the flags may not describe the best routes
+			af = null;
+		}
+
+		initialize();
+		int s = start.getId();
+		int t = target.getId();
+		visited[s] = generation;
+		distance[s] = 0;
+		parent[s] = 0;
+		queue.insert(s, 0);
+		settledCount = 0;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			settledCount++;
+			if (v == t) {
+				return new RoutingResult(createRoute(t), System
+						.currentTimeMillis()
+						- startTime);
+			}
+			double d = distance[v];
+			for (Segment seg = ((Node) graph.getVertex(v))
+					.getFirstSegmentIncidence(); seg != null; seg = seg
+					.getNextSegmentIncidence()) {
+				if (!weights.isAllowed(seg)
+						|| ((af != null) && !af.isSet(seg, region))) {
+					continue;
+				}
+				int w = seg.getThat().getId();
+				double newDist = d + weights.getWeight(seg);
+				if (visited[w] != generation) {
+					visited[w] = generation;
+					distance[w] = newDist;
+					parent[w] = seg.getId();
+					queue.insert(w, newDist);
+				} else if (newDist < distance[w] && queue.contains(w)) {
+					distance[w] = newDist;
+					parent[w] = seg.getId();
+					queue.decreaseKey(w, newDist);
+				}
+			}
+		}
+		return new RoutingResult(null, System.currentTimeMillis() - startTime);
+	}
+
+	private void initialize() {
+		int vertexCount = graph.getMaxVCount() + 1;
+		if ((visited == null) || (visited.length != vertexCount)) {
+			visited = new int[vertexCount];
+			distance = new double[vertexCount];
+			parent = new int[vertexCount];
+			queue = new VertexHeap(vertexCount);
+			generation = 0;
+		}
+		queue.clear();
+		generation++;
+	}
+
+	/**
+	 * @return the segments from the start to <code>t</code>, or null if
+	 *         <code>t</code> is the start
+	 */
+	private List<Segment> createRoute(int t) {
+		List<Segment> route = new ArrayList<Segment>();
+		for (int v = t; parent[v] != 0;) {
+			Segment s = (Segment) graph.getEdge(parent[v]);
+			route.add(s);
+			v = s.getThis().getId();
+		}
+		if (route.isEmpty()) {
+			return null;
+		}
+		Collections.reverse(route);
+		return route;
+	}
+}
@@ -0,0 +1,139 @@
+package de.uni_koblenz.jgstreetmap.routing.arcflags;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraphFactory;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.impl.std.OsmGraphFactoryImpl;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchyTool;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * Builds the arc flags for an existing graph and stores them next to the
+ * graph file, where {@link ArcFlagRouteCalculator} finds them. The regions
+ * are the leaves of the kd-tree of the graph, or, if it has none or a region
+ * count is given, the cells of a balanced partition.
+ */
+public class ArcFlagTool {
+	/** number of regions used if the graph has no kd-tree */
+	public static final int DEFAULT_REGION_COUNT = 64;
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + ArcFlagTool.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option ratings = new Option("r", "ratings", true,
+				"(optional): comma separated ratings, default: LENGTH,TIME");
+		ratings.setRequired(false);
+		ratings.setArgName("list");
+		oh.addOption(ratings);
+
+		Option restrictions = new Option("R", "restrictions", true,
+				"(optional): comma separated restrictions, default: CAR,BIKE,FOOT");
+		restrictions.setRequired(false);
+		restrictions.setArgName("list");
+		oh.addOption(restrictions);
+
+		Option regions = new Option("k", "regions", true,
+				"(optional): number of regions of a balanced partition, default: "
+						+ "the kd-tree leaves, or " + DEFAULT_REGION_COUNT
+						+ " without kd-tree");
+		regions.setRequired(false);
+		regions.setArgName("count");
+		oh.addOption(regions);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException {
+		CommandLine cl = processCommandLineOptions(args);
+		String graphFile = cl.getOptionValue("i");
+
+		EdgeRating[] ratings = ContractionHierarchyTool.RATINGS;
+		if (cl.hasOption("r")) {
+			String[] names = cl.getOptionValue("r").split(",");
+			ratings = new EdgeRating[names.length];
+			for (int i = 0; i < names.length; i++) {
+				ratings[i] = EdgeRating.valueOf(names[i].trim().toUpperCase());
+			}
+		}
+		RoutingRestriction[] restrictions = RoutingRestriction.values();
+		if (cl.hasOption("R")) {
+			String[] names = cl.getOptionValue("R").split(",");
+			restrictions = new RoutingRestriction[names.length];
+			for (int i = 0; i < names.length; i++) {
+				restrictions[i] = RoutingRestriction.valueOf(names[i].trim()
+						.toUpperCase());
+			}
+		}
+
+		OsmGraphFactory f = new OsmGraphFactoryImpl();
+		f.setGraphImplementationClass(OsmGraph.GC, AnnotatedOsmGraph.class);
+		AnnotatedOsmGraph graph = (AnnotatedOsmGraph) OsmSchema.instance()
+				.loadOsmGraph(graphFile, f, new ConsoleProgressFunction());
+		RoutingGraph g = new RoutingGraph(graph);
+		Regions regions;
+		if (cl.hasOption("k") || !graph.hasKDTree()) {
+			regions = Regions.balanced(g, Integer.parseInt(cl.getOptionValue(
+					"k", String.valueOf(DEFAULT_REGION_COUNT))));
+		} else {
+			regions = Regions.fromKDTree(graph);
+		}
+		buildFlags(g, graphFile, regions, ratings, restrictions);
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Builds the flags for all combinations of <code>ratings</code> and
+	 * <code>restrictions</code> and saves them next to <code>graphFile</code>.
+	 * The vertex and edge ids of the graph of <code>g</code> must be the ones
+	 * stored in <code>graphFile</code>.
+	 */
+	public static void buildFlags(RoutingGraph g, String graphFile,
+			Regions regions, EdgeRating[] ratings,
+			RoutingRestriction[] restrictions) throws IOException {
+		DijkstraRouteCalculator ratingSource = new DijkstraRouteCalculator(g
+				.getGraph());
+		ForkJoinPool forkJoinPool = new ForkJoinPool();
+		try {
+			for (RoutingRestriction restriction : restrictions) {
+				ratingSource.setRestriction(restriction);
+				for (EdgeRating rating : ratings) {
+					ArcFlags af = new ArcFlagBuilder(g, ratingSource, rating,
+							regions, forkJoinPool).build();
+					String fileName = ArcFlags.getFileName(graphFile, rating,
+							restriction);
+					af.save(fileName);
+					System.out.println("Saved " + fileName);
+				}
+			}
+		} finally {
+			forkJoinPool.shutdown();
+		}
+	}
+
+	public static void buildFlags(RoutingGraph g, String graphFile,
+			Regions regions) throws IOException {
+		buildFlags(g, graphFile, regions, ContractionHierarchyTool.RATINGS,
+				RoutingRestriction.values());
+	}
+}
@@ -0,0 +1,185 @@
+package de.uni_koblenz.jgstreetmap.routing.arcflags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * The arc flags of the segment graph for one {@link EdgeRating} and one
+ * {@link RoutingRestriction}. Every segment incidence carries one bit per
+ * {@link Regions region}, which is set if the incidence lies on a best route
+ * to some vertex of that region. A search for a target in region R may skip
+ * all incidences whose bit for R is unset.
+ *
+ * The flags of an incidence are stored in consecutive words of a long array,
+ * indexed by the state of the incidence as defined by
+ * {@link WeightTable#getState(Segment)}.
+ */
+public class ArcFlags {
+	private static final int MAGIC = 0x4a474146; // "JGAF"
+	private static final int VERSION = 1;
+
+	/** suffix of arc flag files, which are stored next to the graph file */
+	public static final String FILE_SUFFIX = ".af";
+
+	private final EdgeRating rating;
+	private final RoutingRestriction restriction;
+
+	/** vertex and edge count of the graph the flags were built for */
+	private final int graphVCount;
+	private final int graphECount;
+
+	private final Regions regions;
+
+	/** number of longs per incidence */
+	private final int words;
+	private final long[] flags;
+
+	ArcFlags(EdgeRating rating, RoutingRestriction restriction,
+			int graphVCount, int graphECount, Regions regions, long[] flags) {
+		this.rating = rating;
+		this.restriction = restriction;
+		this.graphVCount = graphVCount;
+		this.graphECount = graphECount;
+		this.regions = regions;
+		this.flags = flags;
+		words = getWords(regions.getRegionCount());
+	}
+
+	static int getWords(int regionCount) {
+		return (regionCount + 63) >>> 6;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	public Regions getRegions() {
+		return regions;
+	}
+
+	/**
+	 * @return the region of <code>n</code>, or -1 if it belongs to none
+	 */
+	public int getRegion(Node n) {
+		return regions.getRegion(n);
+	}
+
+	/**
+	 * @return true if the incidence with the given state may lie on a best
+	 *         route into <code>region</code>
+	 */
+	public boolean isSet(int state, int region) {
+		int i = state * words + (region >>> 6);
+		return (i < flags.length) && ((flags[i] & (1L << region)) != 0);
+	}
+
+	public boolean isSet(Segment s, int region) {
+		return isSet(WeightTable.getState(s), region);
+	}
+
+	/**
+	 * @return the number of set flags, a measure of how little the flags
+	 *         prune
+	 */
+	public long getSetCount() {
+		long count = 0;
+		for (long w : flags) {
+			count += Long.bitCount(w);
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if the flags have been built for a graph with the same
+	 *         number of vertices and edges as <code>graph</code>
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the name of the file the flags for <code>rating</code> and
+	 *         <code>restriction</code> of the graph stored in
+	 *         <code>graphFile</code> are saved to
+	 */
+	public static String getFileName(String graphFile, EdgeRating rating,
+			RoutingRestriction restriction) {
+		return graphFile + "." + rating.name().toLowerCase() + "-"
+				+ restriction.name().toLowerCase() + FILE_SUFFIX;
+	}
+
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(rating.name());
+			out.writeUTF(restriction.name());
+			out.writeInt(graphVCount);
+			out.writeInt(graphECount);
+			out.writeInt(regions.getRegionCount());
+			int[] region = regions.getRegions();
+			out.writeInt(region.length);
+			for (int r : region) {
+				out.writeInt(r);
+			}
+			out.writeInt(flags.length);
+			for (long w : flags) {
+				out.writeLong(w);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static ArcFlags load(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 65536));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(fileName + " is not an arc flag file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version
+						+ " of arc flag file " + fileName);
+			}
+			EdgeRating rating = EdgeRating.valueOf(in.readUTF());
+			RoutingRestriction restriction = RoutingRestriction.valueOf(in
+					.readUTF());
+			int vCount = in.readInt();
+			int eCount = in.readInt();
+			int regionCount = in.readInt();
+			int[] region = new int[in.readInt()];
+			for (int i = 0; i < region.length; i++) {
+				region[i] = in.readInt();
+			}
+			long[] flags = new long[in.readInt()];
+			for (int i = 0; i < flags.length; i++) {
+				flags[i] = in.readLong();
+			}
+			return new ArcFlags(rating, restriction, vCount, eCount,
+					new Regions(region, regionCount), flags);
+		} finally {
+			in.close();
+		}
+	}
+}
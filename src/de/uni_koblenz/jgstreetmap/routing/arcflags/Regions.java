@@ -0,0 +1,149 @@
+package de.uni_koblenz.jgstreetmap.routing.arcflags;
+
+import java.util.Arrays;
+import java.util.Stack;
+
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.HasElement;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.HasRoot;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.HasSet;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.Key;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.NodeSet;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.XKey;
+import de.uni_koblenz.jgstreetmap.osmschema.kdtree.YKey;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.overlay.Partition;
+
+/**
+ * An assignment of the vertices of the segment graph to the regions arc
+ * flags are computed for. Vertices are identified by their JGraLab vertex
+ * ids, vertices without segments belong to no region.
+ *
+ * Regions are taken either from the leaves of the kd-tree stored in the
+ * graph, see {@link #fromKDTree(AnnotatedOsmGraph)}, or from a balanced
+ * {@link Partition}, see {@link #fromPartition(Partition)}.
+ */
+public class Regions {
+	/** the region of each vertex, -1 for vertices without segments */
+	private final int[] region;
+	private final int regionCount;
+
+	Regions(int[] region, int regionCount) {
+		this.region = region;
+		this.regionCount = regionCount;
+	}
+
+	/**
+	 * @return the regions formed by the vertices of each non-empty
+	 *         {@link NodeSet} leaf of the kd-tree of <code>graph</code>
+	 */
+	public static Regions fromKDTree(AnnotatedOsmGraph graph) {
+		if (!graph.hasKDTree()) {
+			throw new IllegalArgumentException("The graph has no kd-tree");
+		}
+		int[] region = new int[graph.getMaxVCount() + 1];
+		Arrays.fill(region, -1);
+		int count = 0;
+		HasRoot root = graph.getKDTree().getFirstHasRootIncidence();
+		if (root == null) {
+			return new Regions(region, 0);
+		}
+		// depth first, so the leaves are numbered in the same order every
+		// time
+		Stack<Key> s = new Stack<Key>();
+		s.push((Key) root.getThat());
+		while (!s.empty()) {
+			Key current = s.pop();
+			HasSet hs = current.getFirstHasSetIncidence();
+			if (hs != null) {
+				if (addRegion((NodeSet) hs.getThat(), region, count)) {
+					count++;
+				}
+			} else if (current instanceof XKey) {
+				for (Key k : ((XKey) current).get_children()) {
+					s.push(k);
+				}
+			} else {
+				for (Key k : ((YKey) current).get_children()) {
+					s.push(k);
+				}
+			}
+		}
+		return new Regions(region, count);
+	}
+
+	/**
+	 * Assigns the nodes of <code>set</code> which have segments to region
+	 * <code>r</code>.
+	 *
+	 * @return false if there are no such nodes
+	 */
+	private static boolean addRegion(NodeSet set, int[] region, int r) {
+		boolean empty = true;
+		for (HasElement e : set.getHasElementIncidences()) {
+			Node n = (Node) e.getThat();
+			if (n.getFirstSegmentIncidence() != null) {
+				region[n.getId()] = r;
+				empty = false;
+			}
+		}
+		return !empty;
+	}
+
+	/**
+	 * @return the regions formed by the cells of <code>partition</code>
+	 */
+	public static Regions fromPartition(Partition partition) {
+		int[] vertices = partition.getVertices();
+		int max = -1;
+		for (int v : vertices) {
+			max = Math.max(max, v);
+		}
+		int[] region = new int[max + 1];
+		Arrays.fill(region, -1);
+		for (int v : vertices) {
+			region[v] = partition.getCell(v);
+		}
+		return new Regions(region, partition.getCellCount());
+	}
+
+	/**
+	 * @return about <code>regionCount</code> regions of equal size, split
+	 *         along the coordinates of the vertices of <code>g</code>
+	 */
+	public static Regions balanced(RoutingGraph g, int regionCount) {
+		if (regionCount < 1) {
+			throw new IllegalArgumentException(
+					"At least one region is needed, not " + regionCount);
+		}
+		int count = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (g.getFirstArc(v) < g.getFirstArc(v + 1)) {
+				count++;
+			}
+		}
+		return fromPartition(new Partition(g, Math.max(1,
+				(count + regionCount - 1) / regionCount)));
+	}
+
+	public int getRegionCount() {
+		return regionCount;
+	}
+
+	/**
+	 * @return the region of vertex <code>v</code>, or -1 if it belongs to
+	 *         none
+	 */
+	public int getRegion(int v) {
+		return (v < region.length) ? region[v] : -1;
+	}
+
+	public int getRegion(Node n) {
+		return getRegion(n.getId());
+	}
+
+	int[] getRegions() {
+		return region;
+	}
+}
@@ -0,0 +1,91 @@
+package de.uni_koblenz.jgstreetmap.routing.batch;
+
+/**
+ * One origin/destination pair read by a {@link QueryReader}. The end points
+ * are either given by coordinates, which are snapped to the nearest node, or
+ * by the OSM ids of nodes. Lines which couldn't be parsed become queries with
+ * an error message, so that they are reported in the output.
+ */
+public class BatchQuery {
+	private final String id;
+	private final long lineNumber;
+	private final double[] coordinates;
+	private final long[] osmIds;
+	private final String error;
+
+	private BatchQuery(String id, long lineNumber, double[] coordinates,
+			long[] osmIds, String error) {
+		this.id = id;
+		this.lineNumber = lineNumber;
+		this.coordinates = coordinates;
+		this.osmIds = osmIds;
+		this.error = error;
+	}
+
+	/**
+	 * Creates a query between two coordinates in degrees.
+	 */
+	public static BatchQuery fromCoordinates(String id, long lineNumber,
+			double fromLat, double fromLon, double toLat, double toLon) {
+		return new BatchQuery(id, lineNumber, new double[] { fromLat,
+				fromLon, toLat, toLon }, null, null);
+	}
+
+	/**
+	 * Creates a query between the nodes with the given OSM ids.
+	 */
+	public static BatchQuery fromOsmIds(String id, long lineNumber,
+			long fromOsmId, long toOsmId) {
+		return new BatchQuery(id, lineNumber, null, new long[] { fromOsmId,
+				toOsmId }, null);
+	}
+
+	/**
+	 * Creates a query standing for a line which couldn't be parsed.
+	 */
+	public static BatchQuery invalid(String id, long lineNumber, String error) {
+		return new BatchQuery(id, lineNumber, null, null, error);
+	}
+
+	/**
+	 * @return the id given in the input, or the line number if there is none
+	 */
+	public String getId() {
+		return (id != null) ? id : Long.toString(lineNumber);
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * @return the reason why the line couldn't be parsed, or null
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public boolean hasCoordinates() {
+		return coordinates != null;
+	}
+
+	/**
+	 * @return from latitude, from longitude, to latitude and to longitude, or
+	 *         null if the query is given by OSM ids
+	 */
+	public double[] getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * @return the OSM ids of origin and destination, or null if the query is
+	 *         given by coordinates
+	 */
+	public long[] getOsmIds() {
+		return osmIds;
+	}
+}
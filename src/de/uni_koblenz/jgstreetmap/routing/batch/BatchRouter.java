@@ -0,0 +1,528 @@
+package de.uni_koblenz.jgstreetmap.routing.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraphFactory;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.impl.std.OsmGraphFactoryImpl;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.map.OsmPrimitive;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.compact.MatrixCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.compact.SharedRouteCalculator;
+
+/**
+ * Routes origin/destination pairs read by a {@link QueryReader} without the
+ * GUI. The graph is loaded once, the queries are routed by a pool of worker
+ * threads sharing one {@link SharedRouteCalculator}, and the results are
+ * written in input order as soon as they are available.
+ *
+ * At most <code>window</code> queries are in flight: the reader blocks while
+ * the oldest of them hasn't been written, so memory stays bounded no matter
+ * how large the input is, and a slow output slows down reading. Each result
+ * line holds the query id, a status (<code>ok</code>, <code>no_route</code>,
+ * <code>not_found</code>, <code>invalid</code> or <code>error</code>), the
+ * length in meters, the duration in seconds and the latency of the query in
+ * milliseconds. A query whose routing throws an exception gets an
+ * <code>error</code> line, the other queries are routed anyway.
+ */
+public class BatchRouter {
+	/** the default number of queries in flight */
+	public static final int DEFAULT_WINDOW = 10000;
+
+	private final AnnotatedOsmGraph graph;
+	private final SharedRouteCalculator calculator;
+	private final EdgeRating rating;
+	private final RoutingProfile profile;
+
+	private int threadCount;
+	private int window;
+	private double snapRange;
+
+	/**
+	 * A summary of a batch run. The latencies measure the routing of a query
+	 * including snapping, without waiting for its turn in the output.
+	 */
+	public static class Summary {
+		private long queryCount;
+		private long routeCount;
+		private long failedCount;
+		private long elapsedTime;
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		public long getQueryCount() {
+			return queryCount;
+		}
+
+		/**
+		 * @return the number of queries for which a route has been found
+		 */
+		public long getRouteCount() {
+			return routeCount;
+		}
+
+		/**
+		 * @return the number of queries which are invalid, whose end points
+		 *         couldn't be found or whose routing has failed
+		 */
+		public long getFailedCount() {
+			return failedCount;
+		}
+
+		/**
+		 * @return the wall clock time of the run in milliseconds
+		 */
+		public long getElapsedTime() {
+			return elapsedTime;
+		}
+
+		/**
+		 * @return the queries per second
+		 */
+		public double getThroughput() {
+			return (elapsedTime == 0) ? 0 : queryCount * 1000.0 / elapsedTime;
+		}
+
+		public LatencyHistogram getLatencies() {
+			return latencies;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%d queries, %d routes, %d failed"
+					+ " in %.1f s (%.1f queries/s)%n"
+					+ "latency ms: mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f,"
+					+ " max %.3f", queryCount, routeCount, failedCount,
+					elapsedTime / 1000.0, getThroughput(),
+					latencies.getMean() / 1000, latencies.getPercentile(50)
+							/ 1000.0, latencies.getPercentile(90) / 1000.0,
+					latencies.getPercentile(99) / 1000.0, latencies.getMax()
+							/ 1000.0);
+		}
+	}
+
+	/** the result of one query, formatted by the worker */
+	private static class Result {
+		final String line;
+		final boolean routed;
+		final boolean failed;
+		final long latency;
+
+		Result(String line, boolean routed, boolean failed, long latency) {
+			this.line = line;
+			this.routed = routed;
+			this.failed = failed;
+			this.latency = latency;
+		}
+	}
+
+	/** marks the end of the queries in the queue of pending results */
+	private static final Future<Result> END = new FutureTask<Result>(
+			new Callable<Result>() {
+				@Override
+				public Result call() {
+					return null;
+				}
+			});
+
+	public BatchRouter(AnnotatedOsmGraph graph,
+			SharedRouteCalculator calculator, EdgeRating rating,
+			RoutingProfile profile) {
+		this.graph = graph;
+		this.calculator = calculator;
+		this.rating = rating;
+		this.profile = profile;
+		threadCount = Runtime.getRuntime().availableProcessors();
+		window = DEFAULT_WINDOW;
+		snapRange = MatrixCalculator.DEFAULT_SNAP_RANGE;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("at least one thread needed");
+		}
+		this.threadCount = threadCount;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Sets the number of queries which may be in flight, i.e. read but not
+	 * yet written.
+	 */
+	public void setWindow(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		this.window = window;
+	}
+
+	public double getSnapRange() {
+		return snapRange;
+	}
+
+	/**
+	 * Sets the radius in meters within which coordinates are snapped to
+	 * nodes.
+	 */
+	public void setSnapRange(double snapRange) {
+		this.snapRange = snapRange;
+	}
+
+	/**
+	 * Routes all queries of <code>reader</code> and writes the results to
+	 * <code>out</code>, as CSV with a header line or as JSON lines. An
+	 * exception of the reader is thrown after the results of the queries read
+	 * before have been written.
+	 */
+	public Summary run(final QueryReader reader, Writer out,
+			final boolean json) throws IOException, InterruptedException {
+		final Summary summary = new Summary();
+		long startTime = System.currentTimeMillis();
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(threadCount);
+		final BlockingQueue<Future<Result>> pending = new ArrayBlockingQueue<Future<Result>>(
+				window + 1);
+		final IOException[] readError = new IOException[1];
+		final RuntimeException[] readFailure = new RuntimeException[1];
+		Thread readerThread = new Thread("BatchRouter reader") {
+			@Override
+			public void run() {
+				try {
+					BatchQuery q;
+					while ((q = reader.next()) != null) {
+						pending.put(executor.submit(new RouteTask(q, json)));
+					}
+				} catch (IOException e) {
+					readError[0] = e;
+				} catch (RuntimeException e) {
+					readFailure[0] = e;
+				} catch (InterruptedException e) {
+					// the run has been aborted
+				} finally {
+					try {
+						pending.put(END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		};
+		readerThread.setDaemon(true);
+		readerThread.start();
+
+		try {
+			if (!json) {
+				out.write("id,status,length,duration,latency\n");
+			}
+			while (true) {
+				Future<Result> f = pending.take();
+				if (f == END) {
+					break;
+				}
+				Result r;
+				try {
+					r = f.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				out.write(r.line);
+				out.write('\n');
+				summary.queryCount++;
+				if (r.routed) {
+					summary.routeCount++;
+				}
+				if (r.failed) {
+					summary.failedCount++;
+				}
+				summary.latencies.record(r.latency);
+			}
+			out.flush();
+		} finally {
+			readerThread.interrupt();
+			executor.shutdownNow();
+		}
+		if (readError[0] != null) {
+			throw readError[0];
+		}
+		if (readFailure[0] != null) {
+			throw readFailure[0];
+		}
+		summary.elapsedTime = System.currentTimeMillis() - startTime;
+		return summary;
+	}
+
+	private class RouteTask implements Callable<Result> {
+		private final BatchQuery query;
+		private final boolean json;
+
+		RouteTask(BatchQuery query, boolean json) {
+			this.query = query;
+			this.json = json;
+		}
+
+		@Override
+		public Result call() {
+			long startTime = System.nanoTime();
+			try {
+				return route(startTime);
+			} catch (RuntimeException e) {
+				return result("error", e.toString(), startTime);
+			}
+		}
+
+		private Result route(long startTime) {
+			if (!query.isValid()) {
+				return result("invalid", query.getError(), startTime);
+			}
+			Node from;
+			Node to;
+			if (query.hasCoordinates()) {
+				double[] c = query.getCoordinates();
+				from = MatrixCalculator.snap(graph, c[0], c[1], snapRange);
+				to = MatrixCalculator.snap(graph, c[2], c[3], snapRange);
+			} else {
+				from = findNode(query.getOsmIds()[0]);
+				to = findNode(query.getOsmIds()[1]);
+			}
+			if ((from == null) || (to == null)) {
+				return result("not_found", (from == null) ? "origin"
+						: "destination", startTime);
+			}
+			RoutingResult route = calculator.getRoute(from, to, rating,
+					profile);
+			if (!route.hasRoute() && (from != to)) {
+				return result("no_route", null, startTime);
+			}
+			double length = 0;
+			double duration = 0;
+			for (Segment s : route) {
+				length += s.get_length();
+				duration += s.get_length() * profile.getFactor(s.get_wayType());
+			}
+			String line;
+			if (json) {
+				line = String.format(Locale.US, "{\"id\":%s,\"status\":\"ok\","
+						+ "\"length\":%.1f,\"duration\":%.1f,\"latency\":%.3f}",
+						quote(query.getId()), length, duration, millis(startTime));
+			} else {
+				line = String.format(Locale.US, "%s,ok,%.1f,%.1f,%.3f",
+						csvField(query.getId()), length, duration,
+						millis(startTime));
+			}
+			return new Result(line, true, false, System.nanoTime() - startTime);
+		}
+
+		private Result result(String status, String message, long startTime) {
+			String line;
+			if (json) {
+				line = String.format(Locale.US,
+						"{\"id\":%s,\"status\":\"%s\"%s,\"latency\":%.3f}",
+						quote(query.getId()), status, (message == null) ? ""
+								: ",\"error\":" + quote(message),
+						millis(startTime));
+			} else {
+				line = String.format(Locale.US, "%s,%s,,,%.3f",
+						csvField(query.getId()), status, millis(startTime));
+			}
+			return new Result(line, false, !"no_route".equals(status), System
+					.nanoTime()
+					- startTime);
+		}
+	}
+
+	private static double millis(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1e6;
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Encloses <code>s</code> in double quotes if it contains a comma, a
+	 * quote or a line break, doubling the quotes inside.
+	 */
+	private static String csvField(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c == ',') || (c == '"') || (c == '\n') || (c == '\r')) {
+				return "\"" + s.replace("\"", "\"\"") + "\"";
+			}
+		}
+		return s;
+	}
+
+	private Node findNode(long osmId) {
+		OsmPrimitive p = graph.getOsmPrimitiveById(osmId);
+		if (!(p instanceof Node)
+				|| (((Node) p).getFirstSegmentIncidence() == null)) {
+			return null;
+		}
+		return (Node) p;
+	}
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + BatchRouter.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option queries = new Option("q", "queries", true,
+				"(required): query file, - for standard input");
+		queries.setRequired(true);
+		queries.setArgName("file");
+		oh.addOption(queries);
+
+		Option output = new Option("o", "output", true,
+				"(optional): result file, default: standard output");
+		output.setRequired(false);
+		output.setArgName("file");
+		oh.addOption(output);
+
+		Option format = new Option("f", "format", true,
+				"(optional): csv or jsonl, default: by query file extension");
+		format.setRequired(false);
+		format.setArgName("format");
+		oh.addOption(format);
+
+		Option rating = new Option("r", "rating", true,
+				"(optional): LENGTH, TIME or CONVENIENCE, default: TIME");
+		rating.setRequired(false);
+		rating.setArgName("rating");
+		oh.addOption(rating);
+
+		Option restriction = new Option("R", "restriction", true,
+				"(optional): CAR, BIKE or FOOT, default: CAR");
+		restriction.setRequired(false);
+		restriction.setArgName("restriction");
+		oh.addOption(restriction);
+
+		Option threads = new Option("t", "threads", true,
+				"(optional): number of worker threads, default: number of cores");
+		threads.setRequired(false);
+		threads.setArgName("number");
+		oh.addOption(threads);
+
+		Option window = new Option("w", "window", true,
+				"(optional): maximal number of queries in flight, default: "
+						+ DEFAULT_WINDOW);
+		window.setRequired(false);
+		window.setArgName("number");
+		oh.addOption(window);
+
+		Option snap = new Option("s", "snap", true,
+				"(optional): snap range in meters, default: "
+						+ MatrixCalculator.DEFAULT_SNAP_RANGE);
+		snap.setRequired(false);
+		snap.setArgName("meters");
+		oh.addOption(snap);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException, InterruptedException {
+		CommandLine cl = processCommandLineOptions(args);
+		String graphFile = cl.getOptionValue("i");
+		String queryFile = cl.getOptionValue("q");
+		String outputFile = cl.getOptionValue("o");
+		boolean json = cl.hasOption("f") ? "jsonl".equalsIgnoreCase(cl
+				.getOptionValue("f")) : queryFile.endsWith(".jsonl")
+				|| queryFile.endsWith(".json");
+		EdgeRating rating = EdgeRating.valueOf(cl.getOptionValue("r", "TIME")
+				.trim().toUpperCase());
+		RoutingRestriction restriction = RoutingRestriction.valueOf(cl
+				.getOptionValue("R", "CAR").trim().toUpperCase());
+
+		// progress and summary go to standard error if the results are
+		// written to standard output
+		OsmGraphFactory f = new OsmGraphFactoryImpl();
+		f.setGraphImplementationClass(OsmGraph.GC, AnnotatedOsmGraph.class);
+		AnnotatedOsmGraph graph = (AnnotatedOsmGraph) OsmSchema.instance()
+				.loadOsmGraph(graphFile, f,
+						(outputFile != null) ? new ConsoleProgressFunction()
+								: null);
+		if (!graph.hasKDTree()) {
+			System.err.println("The graph has no KD tree, snapping will be "
+					+ "slow.");
+		}
+		SharedRouteCalculator calculator = new SharedRouteCalculator(
+				new RoutingGraph(graph));
+		BatchRouter router = new BatchRouter(graph, calculator, rating,
+				RoutingProfile.forRestriction(restriction));
+		if (cl.hasOption("t")) {
+			router.setThreadCount(Integer.parseInt(cl.getOptionValue("t")));
+		}
+		if (cl.hasOption("w")) {
+			router.setWindow(Integer.parseInt(cl.getOptionValue("w")));
+		}
+		if (cl.hasOption("s")) {
+			router.setSnapRange(Double.parseDouble(cl.getOptionValue("s")));
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				"-".equals(queryFile) ? System.in : new FileInputStream(
+						queryFile), "UTF-8"));
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				(outputFile == null) ? System.out : new FileOutputStream(
+						outputFile), "UTF-8"), 1 << 16);
+		try {
+			Summary summary = router.run(new QueryReader(in, json), out, json);
+			System.err.println(summary);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package de.uni_koblenz.jgstreetmap.routing.batch;
+
+/**
+ * A histogram of latencies with a fixed number of buckets, so that it needs
+ * the same memory for a thousand and for millions of values. Latencies are
+ * recorded in microseconds. Values below 32 get a bucket of their own, every
+ * greater power of two is split into 16 buckets, so percentiles are exact up
+ * to 1/16 of their value.
+ *
+ * Instances aren't synchronized.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 16;
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private final long[] counts = new long[LINEAR_LIMIT + 64 * SUB_BUCKETS];
+	private long count;
+	private long sum;
+	private long max;
+
+	/**
+	 * Adds a latency of <code>nanos</code> nanoseconds.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts[bucket(micros)]++;
+		count++;
+		sum += micros;
+		max = Math.max(max, micros);
+	}
+
+	private static int bucket(long micros) {
+		if (micros < LINEAR_LIMIT) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exponent - 5) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the greatest value falling into bucket <code>b</code>
+	 */
+	private static long upperBound(int b) {
+		if (b < LINEAR_LIMIT) {
+			return b;
+		}
+		int exponent = (b - LINEAR_LIMIT) / SUB_BUCKETS + 5;
+		long sub = (b - LINEAR_LIMIT) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - 4)) - 1;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean latency in microseconds
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @return the greatest latency in microseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return an upper bound in microseconds for <code>percent</code> percent
+	 *         of the latencies
+	 */
+	public long getPercentile(double percent) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percent / 100);
+		long seen = 0;
+		for (int b = 0; b < counts.length; b++) {
+			seen += counts[b];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBound(b), max);
+			}
+		}
+		return max;
+	}
+}
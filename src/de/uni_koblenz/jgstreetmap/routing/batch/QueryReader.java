@@ -0,0 +1,276 @@
+package de.uni_koblenz.jgstreetmap.routing.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads {@link BatchQuery}s one line at a time, so that inputs of any size
+ * are streamed. Empty lines and lines starting with <code>#</code> are
+ * skipped.
+ *
+ * CSV lines have the form <code>id,fromLat,fromLon,toLat,toLon</code> or
+ * <code>id,fromOsmId,toOsmId</code>. A first line which consists of exactly
+ * these column names is taken as header. JSON lines are flat objects like
+ * <code>{"id":"q1","from":[50.36,7.56],"to":[50.35,7.59]}</code> or
+ * <code>{"id":"q2","fromOsmId":240091,"toOsmId":2853915}</code>.
+ */
+public class QueryReader {
+	private static final String[] HEADERS = {
+			"id,fromLat,fromLon,toLat,toLon", "id,fromOsmId,toOsmId" };
+
+	private final BufferedReader in;
+	private final boolean json;
+	private long lineNumber;
+
+	/** true once the first line which isn't empty or a comment has been read */
+	private boolean started;
+
+	/**
+	 * @param json
+	 *            true for JSON lines, false for CSV
+	 */
+	public QueryReader(BufferedReader in, boolean json) {
+		this.in = in;
+		this.json = json;
+	}
+
+	/**
+	 * @return the next query, or null at the end of the input
+	 */
+	public BatchQuery next() throws IOException {
+		while (true) {
+			String line = in.readLine();
+			if (line == null) {
+				return null;
+			}
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			boolean first = !started;
+			started = true;
+			if (!json && first && isHeader(line)) {
+				continue;
+			}
+			return json ? parseJson(line) : parseCsv(line);
+		}
+	}
+
+	private static boolean isHeader(String line) {
+		return Arrays.asList(HEADERS).contains(
+				line.replaceAll("\\s*,\\s*", ","));
+	}
+
+	private BatchQuery parseCsv(String line) {
+		String[] fields = line.split(",");
+		String id = fields[0].trim();
+		try {
+			if (fields.length == 5) {
+				return BatchQuery.fromCoordinates(id, lineNumber, Double
+						.parseDouble(fields[1].trim()), Double
+						.parseDouble(fields[2].trim()), Double
+						.parseDouble(fields[3].trim()), Double
+						.parseDouble(fields[4].trim()));
+			}
+			if (fields.length == 3) {
+				return BatchQuery.fromOsmIds(id, lineNumber, Long
+						.parseLong(fields[1].trim()), Long.parseLong(fields[2]
+						.trim()));
+			}
+		} catch (NumberFormatException e) {
+			return BatchQuery.invalid(id, lineNumber, "invalid number: "
+					+ e.getMessage());
+		}
+		return BatchQuery.invalid(id, lineNumber, "expected 3 or 5 fields");
+	}
+
+	private BatchQuery parseJson(String line) {
+		Map<String, Object> values;
+		try {
+			values = new JsonLine(line).parseObject();
+		} catch (IllegalArgumentException e) {
+			return BatchQuery.invalid(null, lineNumber, e.getMessage());
+		}
+		Object id = values.get("id");
+		String idString;
+		if (id instanceof Double) {
+			idString = formatId((Double) id);
+		} else if ((id == null) || (id instanceof String)) {
+			idString = (String) id;
+		} else {
+			return BatchQuery.invalid(null, lineNumber,
+					"id must be a string or a number");
+		}
+		Object from = values.get("from");
+		Object to = values.get("to");
+		if ((from instanceof double[]) && (to instanceof double[])
+				&& (((double[]) from).length == 2)
+				&& (((double[]) to).length == 2)) {
+			double[] f = (double[]) from;
+			double[] t = (double[]) to;
+			return BatchQuery.fromCoordinates(idString, lineNumber, f[0], f[1],
+					t[0], t[1]);
+		}
+		Object fromOsmId = values.get("fromOsmId");
+		Object toOsmId = values.get("toOsmId");
+		if ((fromOsmId instanceof Double) && (toOsmId instanceof Double)) {
+			return BatchQuery.fromOsmIds(idString, lineNumber,
+					((Double) fromOsmId).longValue(), ((Double) toOsmId)
+							.longValue());
+		}
+		return BatchQuery.invalid(idString, lineNumber,
+				"expected from/to or fromOsmId/toOsmId");
+	}
+
+	private static String formatId(double id) {
+		return (id == Math.rint(id)) ? Long.toString((long) id) : Double
+				.toString(id);
+	}
+
+	/**
+	 * A parser for the flat JSON objects of the query lines, whose values are
+	 * strings, numbers or arrays of numbers. Numbers become {@link Double}s,
+	 * arrays <code>double[]</code>s.
+	 */
+	private static class JsonLine {
+		private final String s;
+		private int pos;
+
+		JsonLine(String s) {
+			this.s = s;
+		}
+
+		Map<String, Object> parseObject() {
+			Map<String, Object> values = new HashMap<String, Object>();
+			expect('{');
+			if (peek() == '}') {
+				pos++;
+				return values;
+			}
+			while (true) {
+				String key = parseString();
+				expect(':');
+				values.put(key, parseValue());
+				char c = next();
+				if (c == '}') {
+					return values;
+				}
+				if (c != ',') {
+					throw error("expected , or }");
+				}
+			}
+		}
+
+		private Object parseValue() {
+			char c = peek();
+			if (c == '"') {
+				return parseString();
+			}
+			if (c == '[') {
+				pos++;
+				List<Double> l = new ArrayList<Double>();
+				if (peek() == ']') {
+					pos++;
+				} else {
+					do {
+						l.add(parseNumber());
+					} while (next() == ',');
+					if (s.charAt(pos - 1) != ']') {
+						throw error("expected ]");
+					}
+				}
+				double[] a = new double[l.size()];
+				for (int i = 0; i < a.length; i++) {
+					a[i] = l.get(i);
+				}
+				return a;
+			}
+			return parseNumber();
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (pos >= s.length()) {
+					throw error("unterminated string");
+				}
+				char c = s.charAt(pos++);
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c == '\\') {
+					if (pos >= s.length()) {
+						throw error("unterminated string");
+					}
+					c = s.charAt(pos++);
+					if (c == 'u') {
+						if (pos + 4 > s.length()) {
+							throw error("invalid escape");
+						}
+						c = (char) Integer.parseInt(s.substring(pos, pos + 4),
+								16);
+						pos += 4;
+					} else if (c == 'n') {
+						c = '\n';
+					} else if (c == 't') {
+						c = '\t';
+					}
+				}
+				sb.append(c);
+			}
+		}
+
+		private Double parseNumber() {
+			skipWhitespace();
+			int start = pos;
+			while ((pos < s.length())
+					&& ("+-.eE".indexOf(s.charAt(pos)) >= 0 || Character
+							.isDigit(s.charAt(pos)))) {
+				pos++;
+			}
+			try {
+				return Double.valueOf(s.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error("expected a number");
+			}
+		}
+
+		private void expect(char c) {
+			if (next() != c) {
+				throw error("expected " + c);
+			}
+		}
+
+		private char next() {
+			char c = peek();
+			pos++;
+			return c;
+		}
+
+		private char peek() {
+			skipWhitespace();
+			if (pos >= s.length()) {
+				throw error("unexpected end of line");
+			}
+			return s.charAt(pos);
+		}
+
+		private void skipWhitespace() {
+			while ((pos < s.length()) && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at column "
+					+ (pos + 1));
+		}
+	}
+}
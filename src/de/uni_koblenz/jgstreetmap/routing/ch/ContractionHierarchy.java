@@ -0,0 +1,259 @@
+package de.uni_koblenz.jgstreetmap.routing.ch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * The result of contracting the segment graph for one {@link EdgeRating} and
+ * one {@link RoutingRestriction}. Vertices are identified by their JGraLab
+ * vertex ids.
+ *
+ * All arcs, original segments as well as shortcuts, are kept in an arc table.
+ * An original arc stores the id of the segment incidence it stands for, a
+ * shortcut stores the two arcs it bridges. For the query, the arcs are split
+ * into two upward graphs in CSR format: the forward graph holds the arcs
+ * leading from a vertex to a higher ranked vertex, the backward graph holds at
+ * each vertex the arcs coming in from higher ranked vertices.
+ */
+public class ContractionHierarchy {
+	private static final int MAGIC = 0x4a474348; // "JGCH"
+	private static final int VERSION = 1;
+
+	/** suffix of hierarchy files, which are stored next to the graph file */
+	public static final String FILE_SUFFIX = ".ch";
+
+	final EdgeRating rating;
+	final RoutingRestriction restriction;
+
+	/** vertex and edge count of the graph the hierarchy was built for */
+	final int graphVCount;
+	final int graphECount;
+
+	/** contraction order indexed by vertex id, -1 for unused ids */
+	final int[] rank;
+
+	/** the id of the segment incidence, or 0 for shortcuts */
+	final int[] arcSegment;
+	final int[] arcFirst;
+	final int[] arcSecond;
+
+	final int[] upFirst;
+	final int[] upHead;
+	final double[] upWeight;
+	final int[] upArc;
+
+	final int[] downFirst;
+	final int[] downTail;
+	final double[] downWeight;
+	final int[] downArc;
+
+	ContractionHierarchy(EdgeRating rating, RoutingRestriction restriction,
+			int graphVCount, int graphECount, int[] rank, int[] arcSegment,
+			int[] arcFirst, int[] arcSecond, int[] upFirst, int[] upHead,
+			double[] upWeight, int[] upArc, int[] downFirst, int[] downTail,
+			double[] downWeight, int[] downArc) {
+		this.rating = rating;
+		this.restriction = restriction;
+		this.graphVCount = graphVCount;
+		this.graphECount = graphECount;
+		this.rank = rank;
+		this.arcSegment = arcSegment;
+		this.arcFirst = arcFirst;
+		this.arcSecond = arcSecond;
+		this.upFirst = upFirst;
+		this.upHead = upHead;
+		this.upWeight = upWeight;
+		this.upArc = upArc;
+		this.downFirst = downFirst;
+		this.downTail = downTail;
+		this.downWeight = downWeight;
+		this.downArc = downArc;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	public int getArcCount() {
+		return arcSegment.length;
+	}
+
+	/**
+	 * @return the number of vertex ids, i.e. the largest vertex id plus one
+	 */
+	public int getVertexCount() {
+		return rank.length;
+	}
+
+	/**
+	 * @return the position of vertex <code>v</code> in the contraction order,
+	 *         or -1 if it is not part of the segment graph
+	 */
+	public int getRank(int v) {
+		return rank[v];
+	}
+
+	/**
+	 * @return the index of the first upward arc leaving <code>v</code>, or
+	 *         for <code>v == getVertexCount()</code> the number of upward arcs
+	 */
+	public int getFirstUpArc(int v) {
+		return upFirst[v];
+	}
+
+	public int getUpHead(int i) {
+		return upHead[i];
+	}
+
+	public double getUpWeight(int i) {
+		return upWeight[i];
+	}
+
+	/**
+	 * @return the index of the first arc entering <code>v</code> from a higher
+	 *         ranked vertex, or for <code>v == getVertexCount()</code> the
+	 *         number of these arcs
+	 */
+	public int getFirstDownArc(int v) {
+		return downFirst[v];
+	}
+
+	public int getDownTail(int i) {
+		return downTail[i];
+	}
+
+	public double getDownWeight(int i) {
+		return downWeight[i];
+	}
+
+	public int getShortcutCount() {
+		int count = 0;
+		for (int segment : arcSegment) {
+			if (segment == 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if this hierarchy has been built for a graph with the same
+	 *         number of vertices and edges as <code>graph</code>
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the name of the file the hierarchy for <code>rating</code> and
+	 *         <code>restriction</code> of the graph stored in
+	 *         <code>graphFile</code> is saved to
+	 */
+	public static String getFileName(String graphFile, EdgeRating rating,
+			RoutingRestriction restriction) {
+		return graphFile + "." + rating.name().toLowerCase() + "-"
+				+ restriction.name().toLowerCase() + FILE_SUFFIX;
+	}
+
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(rating.name());
+			out.writeUTF(restriction.name());
+			out.writeInt(graphVCount);
+			out.writeInt(graphECount);
+			writeArray(out, rank);
+			writeArray(out, arcSegment);
+			writeArray(out, arcFirst);
+			writeArray(out, arcSecond);
+			writeArray(out, upFirst);
+			writeArray(out, upHead);
+			writeArray(out, upWeight);
+			writeArray(out, upArc);
+			writeArray(out, downFirst);
+			writeArray(out, downTail);
+			writeArray(out, downWeight);
+			writeArray(out, downArc);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static ContractionHierarchy load(String fileName)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 65536));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(fileName
+						+ " is not a contraction hierarchy file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version
+						+ " of contraction hierarchy file " + fileName);
+			}
+			EdgeRating rating = EdgeRating.valueOf(in.readUTF());
+			RoutingRestriction restriction = RoutingRestriction.valueOf(in
+					.readUTF());
+			int vCount = in.readInt();
+			int eCount = in.readInt();
+			return new ContractionHierarchy(rating, restriction, vCount,
+					eCount, readIntArray(in), readIntArray(in),
+					readIntArray(in), readIntArray(in), readIntArray(in),
+					readIntArray(in), readDoubleArray(in), readIntArray(in),
+					readIntArray(in), readIntArray(in), readDoubleArray(in),
+					readIntArray(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	static void writeArray(DataOutputStream out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int x : a) {
+			out.writeInt(x);
+		}
+	}
+
+	static void writeArray(DataOutputStream out, double[] a)
+			throws IOException {
+		out.writeInt(a.length);
+		for (double x : a) {
+			out.writeDouble(x);
+		}
+	}
+
+	static int[] readIntArray(DataInputStream in) throws IOException {
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = in.readInt();
+		}
+		return a;
+	}
+
+	static double[] readDoubleArray(DataInputStream in) throws IOException {
+		double[] a = new double[in.readInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = in.readDouble();
+		}
+		return a;
+	}
+}
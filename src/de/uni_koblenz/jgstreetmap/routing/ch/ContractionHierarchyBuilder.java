@@ -0,0 +1,348 @@
+package de.uni_koblenz.jgstreetmap.routing.ch;
+
+import java.util.Arrays;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+
+/**
+ * Contracts the vertices of the segment graph one by one in the order of
+ * their edge difference. When a vertex v is contracted, a shortcut u-&gt;w is
+ * added for each pair of incoming arc u-&gt;v and outgoing arc v-&gt;w unless a
+ * local witness search finds a path from u to w avoiding v that is not longer.
+ *
+ * The segment ratings are taken from a {@link RouteCalculator}, so the
+ * hierarchy respects its restriction and speed settings. Only
+ * {@link EdgeRating#LENGTH} and {@link EdgeRating#TIME} are supported, since
+ * the convenience rating depends on the previous segment.
+ */
+public class ContractionHierarchyBuilder {
+	/** maximal number of vertices settled by a single witness search */
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private OsmGraph graph;
+	private RouteCalculator ratingSource;
+	private EdgeRating rating;
+
+	private int vertexCount;
+
+	// the arc table
+	private int arcCount;
+	private int[] arcTail;
+	private int[] arcHead;
+	private double[] arcWeight;
+	private int[] arcSegment;
+	private int[] arcFirst;
+	private int[] arcSecond;
+
+	// adjacency lists of arc indices, indexed by vertex id
+	private int[][] outArcs;
+	private int[] outDegree;
+	private int[][] inArcs;
+	private int[] inDegree;
+
+	private boolean[] contracted;
+	private int[] contractedNeighbours;
+	private int[] rank;
+
+	// witness search state, reset lazily by a generation counter
+	private double[] witnessDistance;
+	private int[] witnessGeneration;
+	private int generation;
+	private VertexHeap witnessQueue;
+
+	public ContractionHierarchyBuilder(OsmGraph graph,
+			RouteCalculator ratingSource, EdgeRating rating) {
+		if ((rating != EdgeRating.LENGTH) && (rating != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Contraction hierarchies support only LENGTH and TIME, not "
+							+ rating);
+		}
+		this.graph = graph;
+		this.ratingSource = ratingSource;
+		this.rating = rating;
+	}
+
+	public ContractionHierarchy build() {
+		long startTime = System.currentTimeMillis();
+		initialize();
+		int originalArcs = arcCount;
+
+		VertexHeap order = new VertexHeap(vertexCount);
+		for (int v = 0; v < vertexCount; v++) {
+			if ((outDegree[v] > 0) || (inDegree[v] > 0)) {
+				order.insert(v, priority(v));
+			}
+		}
+
+		int nextRank = 0;
+		while (!order.isEmpty()) {
+			int v = order.poll();
+			// lazy update: the priority may have grown since it was computed
+			double p = priority(v);
+			if (!order.isEmpty() && (p > order.peekKey())) {
+				order.insert(v, p);
+				continue;
+			}
+			contract(v);
+			rank[v] = nextRank++;
+
+			// update the priorities of the neighbours
+			for (int i = 0; i < outDegree[v]; i++) {
+				updateNeighbour(order, arcHead[outArcs[v][i]]);
+			}
+			for (int i = 0; i < inDegree[v]; i++) {
+				updateNeighbour(order, arcTail[inArcs[v][i]]);
+			}
+		}
+
+		System.out.println("Contracted " + nextRank + " vertices for "
+				+ rating + "/" + ratingSource.getRestriction() + ", added "
+				+ (arcCount - originalArcs) + " shortcuts to " + originalArcs
+				+ " arcs in " + (System.currentTimeMillis() - startTime)
+				/ 1000.0 + "s.");
+		return createHierarchy();
+	}
+
+	private void updateNeighbour(VertexHeap order, int u) {
+		if (contracted[u]) {
+			return;
+		}
+		contractedNeighbours[u]++;
+		if (order.contains(u)) {
+			order.changeKey(u, priority(u));
+		}
+	}
+
+	private void initialize() {
+		vertexCount = graph.getMaxVCount() + 1;
+		int capacity = 2 * graph.getECount() + 16;
+		arcCount = 0;
+		arcTail = new int[capacity];
+		arcHead = new int[capacity];
+		arcWeight = new double[capacity];
+		arcSegment = new int[capacity];
+		arcFirst = new int[capacity];
+		arcSecond = new int[capacity];
+		outArcs = new int[vertexCount][];
+		outDegree = new int[vertexCount];
+		inArcs = new int[vertexCount][];
+		inDegree = new int[vertexCount];
+		contracted = new boolean[vertexCount];
+		contractedNeighbours = new int[vertexCount];
+		rank = new int[vertexCount];
+		Arrays.fill(rank, -1);
+		witnessDistance = new double[vertexCount];
+		witnessGeneration = new int[vertexCount];
+		generation = 0;
+		witnessQueue = new VertexHeap(vertexCount);
+
+		for (Node n : graph.getNodeVertices()) {
+			for (Segment s : n.getSegmentIncidences()) {
+				if (ratingSource.isTraversable(s)) {
+					int tail = n.getId();
+					int head = s.getThat().getId();
+					if (tail != head) {
+						addArc(tail, head, ratingSource.rate(s, rating, null),
+								s.getId(), -1, -1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds an arc unless an arc between the same vertices with a smaller or
+	 * equal weight already exists.
+	 */
+	private void addArc(int tail, int head, double weight, int segment,
+			int first, int second) {
+		for (int i = 0; i < outDegree[tail]; i++) {
+			int a = outArcs[tail][i];
+			if ((arcHead[a] == head) && (arcWeight[a] <= weight)) {
+				return;
+			}
+		}
+		if (arcCount == arcTail.length) {
+			int newLength = arcCount + (arcCount >> 1);
+			arcTail = Arrays.copyOf(arcTail, newLength);
+			arcHead = Arrays.copyOf(arcHead, newLength);
+			arcWeight = Arrays.copyOf(arcWeight, newLength);
+			arcSegment = Arrays.copyOf(arcSegment, newLength);
+			arcFirst = Arrays.copyOf(arcFirst, newLength);
+			arcSecond = Arrays.copyOf(arcSecond, newLength);
+		}
+		int a = arcCount++;
+		arcTail[a] = tail;
+		arcHead[a] = head;
+		arcWeight[a] = weight;
+		arcSegment[a] = segment;
+		arcFirst[a] = first;
+		arcSecond[a] = second;
+		outArcs[tail] = append(outArcs[tail], outDegree[tail]++, a);
+		inArcs[head] = append(inArcs[head], inDegree[head]++, a);
+	}
+
+	private static int[] append(int[] list, int size, int value) {
+		if (list == null) {
+			list = new int[4];
+		} else if (size == list.length) {
+			list = Arrays.copyOf(list, size * 2);
+		}
+		list[size] = value;
+		return list;
+	}
+
+	private double priority(int v) {
+		int removed = 0;
+		for (int i = 0; i < outDegree[v]; i++) {
+			if (!contracted[arcHead[outArcs[v][i]]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inDegree[v]; i++) {
+			if (!contracted[arcTail[inArcs[v][i]]]) {
+				removed++;
+			}
+		}
+		int shortcuts = processShortcuts(v, false);
+		return shortcuts - removed + contractedNeighbours[v];
+	}
+
+	private void contract(int v) {
+		processShortcuts(v, true);
+		contracted[v] = true;
+	}
+
+	/**
+	 * Determines the shortcuts needed when <code>v</code> is contracted and
+	 * adds them if <code>add</code> is true.
+	 *
+	 * @return the number of needed shortcuts
+	 */
+	private int processShortcuts(int v, boolean add) {
+		int shortcuts = 0;
+		// copy the degrees, since adding shortcuts never touches v's lists
+		int ins = inDegree[v];
+		int outs = outDegree[v];
+		for (int i = 0; i < ins; i++) {
+			int in = inArcs[v][i];
+			int u = arcTail[in];
+			if (contracted[u]) {
+				continue;
+			}
+			double maxDistance = 0;
+			for (int j = 0; j < outs; j++) {
+				int out = outArcs[v][j];
+				int w = arcHead[out];
+				if (!contracted[w] && (w != u)) {
+					maxDistance = Math.max(maxDistance, arcWeight[in]
+							+ arcWeight[out]);
+				}
+			}
+			witnessSearch(u, v, maxDistance);
+			for (int j = 0; j < outs; j++) {
+				int out = outArcs[v][j];
+				int w = arcHead[out];
+				if (contracted[w] || (w == u)) {
+					continue;
+				}
+				double viaV = arcWeight[in] + arcWeight[out];
+				if ((witnessGeneration[w] == generation)
+						&& (witnessDistance[w] <= viaV)) {
+					continue;
+				}
+				shortcuts++;
+				if (add) {
+					addArc(u, w, viaV, 0, in, out);
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * A Dijkstra search from <code>source</code> on the uncontracted vertices
+	 * without <code>avoid</code>, which stops at <code>maxDistance</code> or
+	 * after settling {@link #WITNESS_SETTLE_LIMIT} vertices.
+	 */
+	private void witnessSearch(int source, int avoid, double maxDistance) {
+		generation++;
+		witnessQueue.clear();
+		witnessDistance[source] = 0;
+		witnessGeneration[source] = generation;
+		witnessQueue.insert(source, 0);
+		int settled = 0;
+		while (!witnessQueue.isEmpty()
+				&& (witnessQueue.peekKey() <= maxDistance)
+				&& (settled < WITNESS_SETTLE_LIMIT)) {
+			int u = witnessQueue.poll();
+			settled++;
+			for (int i = 0; i < outDegree[u]; i++) {
+				int a = outArcs[u][i];
+				int w = arcHead[a];
+				if (contracted[w] || (w == avoid)) {
+					continue;
+				}
+				double d = witnessDistance[u] + arcWeight[a];
+				if (witnessGeneration[w] != generation) {
+					witnessGeneration[w] = generation;
+					witnessDistance[w] = d;
+					witnessQueue.insert(w, d);
+				} else if (d < witnessDistance[w]) {
+					witnessDistance[w] = d;
+					if (witnessQueue.contains(w)) {
+						witnessQueue.decreaseKey(w, d);
+					}
+				}
+			}
+		}
+	}
+
+	private ContractionHierarchy createHierarchy() {
+		int[] upFirst = new int[vertexCount + 1];
+		int[] downFirst = new int[vertexCount + 1];
+		for (int a = 0; a < arcCount; a++) {
+			if (rank[arcHead[a]] > rank[arcTail[a]]) {
+				upFirst[arcTail[a] + 1]++;
+			} else {
+				downFirst[arcHead[a] + 1]++;
+			}
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			upFirst[v + 1] += upFirst[v];
+			downFirst[v + 1] += downFirst[v];
+		}
+		int[] upHead = new int[upFirst[vertexCount]];
+		double[] upWeight = new double[upHead.length];
+		int[] upArc = new int[upHead.length];
+		int[] downTail = new int[downFirst[vertexCount]];
+		double[] downWeight = new double[downTail.length];
+		int[] downArc = new int[downTail.length];
+		int[] upFill = Arrays.copyOf(upFirst, vertexCount);
+		int[] downFill = Arrays.copyOf(downFirst, vertexCount);
+		for (int a = 0; a < arcCount; a++) {
+			if (rank[arcHead[a]] > rank[arcTail[a]]) {
+				int i = upFill[arcTail[a]]++;
+				upHead[i] = arcHead[a];
+				upWeight[i] = arcWeight[a];
+				upArc[i] = a;
+			} else {
+				int i = downFill[arcHead[a]]++;
+				downTail[i] = arcTail[a];
+				downWeight[i] = arcWeight[a];
+				downArc[i] = a;
+			}
+		}
+		return new ContractionHierarchy(rating, ratingSource.getRestriction(),
+				graph.getVCount(), graph.getECount(), rank, Arrays.copyOf(
+						arcSegment, arcCount),
+				Arrays.copyOf(arcFirst, arcCount), Arrays.copyOf(arcSecond,
+						arcCount), upFirst, upHead, upWeight, upArc,
+				downFirst, downTail, downWeight, downArc);
+	}
+}
@@ -0,0 +1,333 @@
+package de.uni_koblenz.jgstreetmap.routing.ch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * Answers point-to-point queries with a precomputed
+ * {@link ContractionHierarchy}. A forward search from the start and a backward
+ * search from the target only follow arcs leading to higher ranked vertices.
+ * The shortcuts of the best route are unpacked into the original segments
+ * afterwards.
+ *
+ * The hierarchies are looked up by rating and restriction. They are either
+ * added with {@link #addHierarchy(ContractionHierarchy)} or loaded on demand
+ * from the files written by {@link ContractionHierarchyTool} next to the graph
+ * file. Since the hierarchies were built with the default profile of their
+ * restriction, queries under other speeds or segment types are answered by
+ * an {@link AStarRouteCalculator}.
+ *
+ * Live traffic is handled without rebuilding the hierarchy: closures and
+ * slower traffic only make routes worse, so a route of the hierarchy which
+ * contains no affected segment is still the best one. Otherwise, and if some
+ * segment got faster, the query is answered by an
+ * {@link AStarRouteCalculator} under the traffic state.
+ */
+public class ContractionHierarchyRouteCalculator extends RouteCalculator {
+
+	private String graphFile;
+	private Map<String, ContractionHierarchy> hierarchies;
+
+	// search state, indexed by vertex id and reset lazily by a generation
+	// counter
+	private int generation;
+	private int[] forwardGeneration;
+	private double[] forwardDistance;
+	private int[] forwardParent;
+	private int[] backwardGeneration;
+	private double[] backwardDistance;
+	private int[] backwardParent;
+	private VertexHeap forwardQueue;
+	private VertexHeap backwardQueue;
+
+	/** answers the queries whose routes are changed by the live traffic */
+	private AStarRouteCalculator fallback;
+
+	public ContractionHierarchyRouteCalculator(OsmGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * @param graphFile
+	 *            the file <code>graph</code> has been loaded from, used to
+	 *            find the hierarchy files, may be null
+	 */
+	public ContractionHierarchyRouteCalculator(OsmGraph graph, String graphFile) {
+		this.graph = graph;
+		this.graphFile = graphFile;
+		hierarchies = new HashMap<String, ContractionHierarchy>();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public void addHierarchy(ContractionHierarchy ch) {
+		if (!ch.matches(graph)) {
+			throw new IllegalArgumentException("The hierarchy for "
+					+ ch.getRating() + "/" + ch.getRestriction()
+					+ " does not match the graph");
+		}
+		hierarchies.put(key(ch.getRating(), ch.getRestriction()), ch);
+	}
+
+	/**
+	 * @return the hierarchy for <code>r</code> and the current restriction,
+	 *         loading it if necessary
+	 */
+	public ContractionHierarchy getHierarchy(EdgeRating r) {
+		String key = key(r, restriction);
+		ContractionHierarchy ch = hierarchies.get(key);
+		if (ch != null) {
+			return ch;
+		}
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Contraction hierarchies support only LENGTH and TIME, not "
+							+ r);
+		}
+		String fileName = (graphFile == null) ? null : ContractionHierarchy
+				.getFileName(graphFile, r, restriction);
+		if ((fileName == null) || !new File(fileName).exists()) {
+			throw new IllegalStateException("No contraction hierarchy for "
+					+ r + "/" + restriction + " available");
+		}
+		try {
+			ch = ContractionHierarchy.load(fileName);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load " + fileName, e);
+		}
+		addHierarchy(ch);
+		return ch;
+	}
+
+	private static String key(EdgeRating r, RoutingRestriction restriction) {
+		return r + "/" + restriction;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		if (!hasDefaultRatings(r)) {
+			return new RoutingResult(getFallback().getRoute(target, r)
+					.getRoute(), System.currentTimeMillis() - startTime);
+		}
+		List<Segment> route = search(getHierarchy(r), start.getId(), target
+				.getId());
+		TrafficState traffic = fetchTrafficState();
+		if (traffic.affects(r)
+				&& (!traffic.isSlowingOnly() || ((route != null) && isAffected(
+						route, traffic, r)))) {
+			// the hierarchy's route may not be the best one anymore
+			route = getFallback().getRoute(target, r).getRoute();
+		}
+		return new RoutingResult(route, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * @return true if <code>route</code> contains a segment which is blocked
+	 *         or rated differently under <code>r</code> in
+	 *         <code>traffic</code>
+	 */
+	private static boolean isAffected(List<Segment> route,
+			TrafficState traffic, EdgeRating r) {
+		for (Segment s : route) {
+			if (traffic.isBlocked(s)
+					|| ((r == EdgeRating.TIME) && (traffic
+							.getSpeedFactor(s) != 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private RouteCalculator getFallback() {
+		if (fallback == null) {
+			fallback = new AStarRouteCalculator(graph);
+		}
+		fallback.setProfile(getProfile());
+		fallback.setTraffic(traffic);
+		fallback.setStart(start);
+		return fallback;
+	}
+
+	/**
+	 * @return the route from <code>s</code> to <code>t</code> in
+	 *         <code>ch</code>, or null if there is none
+	 */
+	private List<Segment> search(ContractionHierarchy ch, int s, int t) {
+		// like the other calculators, there is no route from a vertex to itself
+		if ((s == t) || (s >= ch.rank.length) || (t >= ch.rank.length)
+				|| (ch.rank[s] < 0) || (ch.rank[t] < 0)) {
+			return null;
+		}
+
+		initialize(ch.rank.length);
+		forwardGeneration[s] = generation;
+		forwardDistance[s] = 0;
+		forwardParent[s] = -1;
+		forwardQueue.insert(s, 0);
+		backwardGeneration[t] = generation;
+		backwardDistance[t] = 0;
+		backwardParent[t] = -1;
+		backwardQueue.insert(t, 0);
+
+		double best = Double.POSITIVE_INFINITY;
+		int meetingVertex = -1;
+		boolean forward = true;
+		while (true) {
+			// a direction is finished once its queue cannot improve the route
+			boolean forwardActive = !forwardQueue.isEmpty()
+					&& (forwardQueue.peekKey() < best);
+			boolean backwardActive = !backwardQueue.isEmpty()
+					&& (backwardQueue.peekKey() < best);
+			if (!forwardActive && !backwardActive) {
+				break;
+			}
+			forward = forwardActive && (forward || !backwardActive);
+			if (forward) {
+				int v = forwardQueue.poll();
+				double d = forwardDistance[v];
+				if ((backwardGeneration[v] == generation)
+						&& (d + backwardDistance[v] < best)) {
+					best = d + backwardDistance[v];
+					meetingVertex = v;
+				}
+				for (int i = ch.upFirst[v]; i < ch.upFirst[v + 1]; i++) {
+					relax(forwardQueue, forwardGeneration, forwardDistance,
+							forwardParent, ch.upHead[i], d + ch.upWeight[i],
+							ch.upArc[i]);
+				}
+			} else {
+				int v = backwardQueue.poll();
+				double d = backwardDistance[v];
+				if ((forwardGeneration[v] == generation)
+						&& (d + forwardDistance[v] < best)) {
+					best = d + forwardDistance[v];
+					meetingVertex = v;
+				}
+				for (int i = ch.downFirst[v]; i < ch.downFirst[v + 1]; i++) {
+					relax(backwardQueue, backwardGeneration, backwardDistance,
+							backwardParent, ch.downTail[i], d
+									+ ch.downWeight[i], ch.downArc[i]);
+				}
+			}
+			forward = !forward;
+		}
+
+		if (meetingVertex < 0) {
+			return null;
+		}
+		return unpack(ch, meetingVertex);
+	}
+
+	private void relax(VertexHeap queue, int[] gen, double[] distance,
+			int[] parent, int w, double d, int arc) {
+		if (gen[w] != generation) {
+			gen[w] = generation;
+			distance[w] = d;
+			parent[w] = arc;
+			queue.insert(w, d);
+		} else if (d < distance[w]) {
+			distance[w] = d;
+			parent[w] = arc;
+			queue.insertOrDecrease(w, d);
+		}
+	}
+
+	private void initialize(int vertexCount) {
+		if ((forwardGeneration == null)
+				|| (forwardGeneration.length != vertexCount)) {
+			forwardGeneration = new int[vertexCount];
+			forwardDistance = new double[vertexCount];
+			forwardParent = new int[vertexCount];
+			backwardGeneration = new int[vertexCount];
+			backwardDistance = new double[vertexCount];
+			backwardParent = new int[vertexCount];
+			forwardQueue = new VertexHeap(vertexCount);
+			backwardQueue = new VertexHeap(vertexCount);
+			generation = 0;
+		}
+		forwardQueue.clear();
+		backwardQueue.clear();
+		generation++;
+	}
+
+	/**
+	 * Collects the arcs from the start to <code>meetingVertex</code> and from
+	 * there to the target and replaces each shortcut by the segments it
+	 * stands for.
+	 */
+	private List<Segment> unpack(ContractionHierarchy ch, int meetingVertex) {
+		ArrayList<Integer> arcs = new ArrayList<Integer>();
+		int v = meetingVertex;
+		while (forwardParent[v] >= 0) {
+			int arc = forwardParent[v];
+			arcs.add(arc);
+			v = tail(ch, arc);
+		}
+		Collections.reverse(arcs);
+		v = meetingVertex;
+		while (backwardParent[v] >= 0) {
+			int arc = backwardParent[v];
+			arcs.add(arc);
+			v = head(ch, arc);
+		}
+
+		List<Segment> route = new ArrayList<Segment>();
+		int[] stack = new int[16];
+		for (int arc : arcs) {
+			int top = 0;
+			stack[top++] = arc;
+			while (top > 0) {
+				int a = stack[--top];
+				if (ch.arcSegment[a] != 0) {
+					route.add((Segment) graph.getEdge(ch.arcSegment[a]));
+				} else {
+					if (top + 2 > stack.length) {
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					// push the second half first, so the first one is
+					// unpacked first
+					stack[top++] = ch.arcSecond[a];
+					stack[top++] = ch.arcFirst[a];
+				}
+			}
+		}
+		return route;
+	}
+
+	private int tail(ContractionHierarchy ch, int arc) {
+		while (ch.arcSegment[arc] == 0) {
+			arc = ch.arcFirst[arc];
+		}
+		return graph.getEdge(ch.arcSegment[arc]).getThis().getId();
+	}
+
+	private int head(ContractionHierarchy ch, int arc) {
+		while (ch.arcSegment[arc] == 0) {
+			arc = ch.arcSecond[arc];
+		}
+		return graph.getEdge(ch.arcSegment[arc]).getThat().getId();
+	}
+}
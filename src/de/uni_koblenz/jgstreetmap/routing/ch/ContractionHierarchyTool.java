@@ -0,0 +1,111 @@
+package de.uni_koblenz.jgstreetmap.routing.ch;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * Builds the contraction hierarchies for an existing graph and stores them
+ * next to the graph file, where {@link ContractionHierarchyRouteCalculator}
+ * finds them.
+ */
+public class ContractionHierarchyTool {
+
+	/** the ratings contraction hierarchies can be built for */
+	public static final EdgeRating[] RATINGS = { EdgeRating.LENGTH,
+			EdgeRating.TIME };
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + ContractionHierarchyTool.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option ratings = new Option("r", "ratings", true,
+				"(optional): comma separated ratings, default: LENGTH,TIME");
+		ratings.setRequired(false);
+		ratings.setArgName("list");
+		oh.addOption(ratings);
+
+		Option restrictions = new Option("R", "restrictions", true,
+				"(optional): comma separated restrictions, default: CAR,BIKE,FOOT");
+		restrictions.setRequired(false);
+		restrictions.setArgName("list");
+		oh.addOption(restrictions);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException {
+		CommandLine cl = processCommandLineOptions(args);
+		String graphFile = cl.getOptionValue("i");
+
+		EdgeRating[] ratings = RATINGS;
+		if (cl.hasOption("r")) {
+			String[] names = cl.getOptionValue("r").split(",");
+			ratings = new EdgeRating[names.length];
+			for (int i = 0; i < names.length; i++) {
+				ratings[i] = EdgeRating.valueOf(names[i].trim().toUpperCase());
+			}
+		}
+		RoutingRestriction[] restrictions = RoutingRestriction.values();
+		if (cl.hasOption("R")) {
+			String[] names = cl.getOptionValue("R").split(",");
+			restrictions = new RoutingRestriction[names.length];
+			for (int i = 0; i < names.length; i++) {
+				restrictions[i] = RoutingRestriction.valueOf(names[i].trim()
+						.toUpperCase());
+			}
+		}
+
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+		buildHierarchies(graph, graphFile, ratings, restrictions);
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Builds the hierarchies for all combinations of <code>ratings</code> and
+	 * <code>restrictions</code> and saves them next to <code>graphFile</code>.
+	 * The vertex and edge ids of <code>graph</code> must be the ones stored in
+	 * <code>graphFile</code>.
+	 */
+	public static void buildHierarchies(OsmGraph graph, String graphFile,
+			EdgeRating[] ratings, RoutingRestriction[] restrictions)
+			throws IOException {
+		DijkstraRouteCalculator ratingSource = new DijkstraRouteCalculator(
+				graph);
+		for (RoutingRestriction restriction : restrictions) {
+			ratingSource.setRestriction(restriction);
+			for (EdgeRating rating : ratings) {
+				ContractionHierarchy ch = new ContractionHierarchyBuilder(
+						graph, ratingSource, rating).build();
+				String fileName = ContractionHierarchy.getFileName(graphFile,
+						rating, restriction);
+				ch.save(fileName);
+				System.out.println("Saved " + fileName);
+			}
+		}
+	}
+
+	public static void buildHierarchies(OsmGraph graph, String graphFile)
+			throws IOException {
+		buildHierarchies(graph, graphFile, RATINGS,
+				RoutingRestriction.values());
+	}
+}
@@ -0,0 +1,18 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+/**
+ * An A* on a {@link RoutingGraph} using the great-circle heuristic of
+ * {@link de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator}.
+ */
+public class CompactAStarRouteCalculator extends CompactDijkstraRouteCalculator {
+
+	public CompactAStarRouteCalculator(RoutingGraph routingGraph) {
+		super(routingGraph);
+	}
+
+	@Override
+	protected double heuristicFactor(EdgeRating r) {
+		// the great-circle bound is linear in the distance
+		return calculateHeuristic(1.0, r);
+	}
+}
@@ -0,0 +1,78 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A point-to-point Dijkstra on a {@link RoutingGraph}. The search only touches
+ * primitive arrays; JGraLab objects are only created when the route is
+ * translated back into segments.
+ *
+ * {@link CompactAStarRouteCalculator} plugs in the great-circle heuristic via
+ * {@link #heuristicFactor(EdgeRating)}. Like all {@link RouteCalculator}s,
+ * instances must not be shared between threads, see
+ * {@link SharedRouteCalculator} for that.
+ */
+public class CompactDijkstraRouteCalculator extends RouteCalculator {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	protected RoutingGraph routingGraph;
+
+	// per query settings, indexed by the ordinal of the segment type
+	private boolean[] typeAllowed;
+	private double[] typeFactor;
+
+	private SearchWorkspace workspace;
+
+	public CompactDijkstraRouteCalculator(RoutingGraph routingGraph) {
+		this.routingGraph = routingGraph;
+		graph = routingGraph.getGraph();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+		typeAllowed = new boolean[SEGMENT_TYPES.length];
+		typeFactor = new double[SEGMENT_TYPES.length];
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return routingGraph;
+	}
+
+	/**
+	 * The factor turning the great-circle distance into a lower bound for the
+	 * rating.
+	 *
+	 * @return 0, which yields a plain Dijkstra
+	 */
+	protected double heuristicFactor(EdgeRating r) {
+		return 0;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		if (workspace == null) {
+			workspace = new SearchWorkspace(routingGraph.getVertexCount());
+		}
+		// restriction and speeds may have been changed since the last query
+		for (SegmentType type : SEGMENT_TYPES) {
+			typeAllowed[type.ordinal()] = relevantTypes.contains(type);
+			typeFactor[type.ordinal()] = computeFactor(type);
+		}
+		TrafficState traffic = fetchTrafficState();
+		workspace.search(routingGraph, start.getId(), target.getId(), r,
+				typeAllowed, typeFactor, heuristicFactor(r), traffic);
+		return new RoutingResult(graph, workspace.createIncidences(
+				routingGraph, target.getId()), System.currentTimeMillis()
+				- startTime);
+	}
+}
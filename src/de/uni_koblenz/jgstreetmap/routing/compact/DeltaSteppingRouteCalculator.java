@@ -0,0 +1,573 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+
+/**
+ * Computes the shortest routes from the start vertex to all vertices of a
+ * {@link RoutingGraph} by delta-stepping, the parallel counterpart of
+ * {@link DijkstraRouteCalculator#calculateShortestRoutes(EdgeRating)}.
+ *
+ * The tentative distances are sorted into buckets of a fixed width delta.
+ * The buckets are processed in ascending order, but all vertices of a bucket
+ * at once: the light arcs, rated at most delta, of its vertices are relaxed
+ * in parallel on a {@link ForkJoinPool} until no vertex enters the bucket
+ * anymore, then the heavy arcs of all vertices which have been in it. A
+ * small delta settles the vertices nearly in Dijkstra order, a large one
+ * gives the threads more vertices per step but relaxes arcs more often.
+ *
+ * The distances are kept in an array of atomic longs, which a relaxation
+ * lowers by compare-and-set without locks. The arcs are rated by the
+ * {@link WeightTable} like in the {@link DijkstraRouteCalculator}, and the
+ * final distance of a vertex is the minimum over its incoming arcs of the
+ * distance of the tail plus the rating of the arc, no matter in which order
+ * the relaxations happened. So the distances are identical to the ones of
+ * the {@link DijkstraRouteCalculator}. The parent arcs are chosen afterwards
+ * from the distances, so the shortest path tree doesn't depend on the
+ * scheduling of the threads either, only ties may be broken differently
+ * than by a Dijkstra.
+ */
+public class DeltaSteppingRouteCalculator extends RouteCalculator {
+	/** frontiers of at most this many vertices are relaxed by one thread */
+	private static final int SEQUENTIAL_THRESHOLD = 256;
+
+	/** the default bucket width as a multiple of the average arc rating */
+	private static final double DELTA_FACTOR = 4;
+
+	private static final long INFINITY_BITS = Double
+			.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+	private final RoutingGraph routingGraph;
+	private final ForkJoinPool forkJoinPool;
+
+	/** the bucket width, or 0 to derive it from the arc ratings */
+	private double delta;
+
+	/** the arc of the opposite incidence of each arc, or -1 */
+	private int[] oppositeArc;
+
+	/** true if the search tree belongs to the current start and delta */
+	private boolean routesCalculated;
+
+	/** the rating, weights and bucket width of the current search tree */
+	private EdgeRating searchRating;
+	private WeightTable weights;
+	private int weightRevision;
+	private double searchDelta;
+
+	/** the rating of each arc, infinity if it must not be used */
+	private double[] arcWeight;
+
+	/**
+	 * the tentative distances of the running search, as raw bits of the
+	 * doubles, which are ordered like the non-negative distances
+	 */
+	private AtomicLongArray tentative;
+
+	/** the bucket a vertex is queued in, or -1 */
+	private long[] vertexBucket;
+
+	/** the bucket in which a vertex has been relaxed last */
+	private int[] relaxedIn;
+	private int bucketNumber;
+
+	private double[] distance;
+	private int[] parentArc;
+	private int bucketCount;
+	private long searchTime;
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool relaxing the buckets, which the caller shuts down
+	 *            when the calculator isn't used anymore
+	 */
+	public DeltaSteppingRouteCalculator(RoutingGraph routingGraph,
+			ForkJoinPool forkJoinPool) {
+		this.routingGraph = routingGraph;
+		this.forkJoinPool = forkJoinPool;
+		graph = routingGraph.getGraph();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return routingGraph;
+	}
+
+	/**
+	 * @return the bucket width set by {@link #setDelta(double)}, 0 if it is
+	 *         derived from the arc ratings
+	 */
+	public double getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Sets the bucket width of the following searches, in the unit of their
+	 * rating. By default, or if <code>delta</code> is 0, it is a few times
+	 * the average rating of the usable arcs.
+	 */
+	public void setDelta(double delta) {
+		if (!(delta >= 0) || Double.isInfinite(delta)) {
+			throw new IllegalArgumentException(
+					"The bucket width must be finite and non-negative, not "
+							+ delta);
+		}
+		this.delta = delta;
+		routesCalculated = false;
+	}
+
+	/**
+	 * Computes the shortest routes from the start vertex to all reachable
+	 * vertices, unless they have already been computed for the same start,
+	 * rating and weights. Only {@link EdgeRating#LENGTH} and
+	 * {@link EdgeRating#TIME} are supported, since the rating of a segment
+	 * must not depend on its predecessor.
+	 */
+	public void calculateShortestRoutes(EdgeRating rating) {
+		if ((rating != EdgeRating.LENGTH) && (rating != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Delta-stepping supports only LENGTH and TIME, not "
+							+ rating);
+		}
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		WeightTable t = getWeightTable(rating);
+		if (routesCalculated && (rating == searchRating) && (t == weights)
+				&& (t.getRevision() == weightRevision)) {
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		if ((rating != searchRating) || (t != weights)
+				|| (t.getRevision() != weightRevision)) {
+			rateArcs(t);
+			searchRating = rating;
+			weights = t;
+			weightRevision = t.getRevision();
+		}
+		searchDelta = (delta > 0) ? delta : getDefaultDelta();
+		search(start.getId());
+		findParents(start.getId());
+		routesCalculated = true;
+		searchTime = System.currentTimeMillis() - startTime;
+	}
+
+	private void rateArcs(WeightTable t) {
+		if (arcWeight == null) {
+			arcWeight = new double[routingGraph.getArcCount()];
+		}
+		for (int a = 0; a < arcWeight.length; a++) {
+			Segment s = routingGraph.getSegment(a);
+			arcWeight[a] = t.isAllowed(s) ? t.getWeight(s)
+					: Double.POSITIVE_INFINITY;
+		}
+	}
+
+	private double getDefaultDelta() {
+		double sum = 0;
+		int count = 0;
+		for (double weight : arcWeight) {
+			if (weight != Double.POSITIVE_INFINITY) {
+				sum += weight;
+				count++;
+			}
+		}
+		return (sum > 0) ? DELTA_FACTOR * sum / count : 1;
+	}
+
+	private long getBucket(double d) {
+		return (long) (d / searchDelta);
+	}
+
+	private void search(int source) {
+		int vertexCount = routingGraph.getVertexCount();
+		if (tentative == null) {
+			tentative = new AtomicLongArray(vertexCount);
+			vertexBucket = new long[vertexCount];
+			relaxedIn = new int[vertexCount];
+			distance = new double[vertexCount];
+			parentArc = new int[vertexCount];
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			tentative.set(v, INFINITY_BITS);
+		}
+		Arrays.fill(vertexBucket, -1);
+		Arrays.fill(relaxedIn, 0);
+		bucketNumber = 0;
+		bucketCount = 0;
+
+		// buckets may hold vertices which have moved to a lower one since
+		TreeMap<Long, VertexList> buckets = new TreeMap<Long, VertexList>();
+		tentative.set(source, 0);
+		enqueue(buckets, source, 0);
+		while (!buckets.isEmpty()) {
+			Map.Entry<Long, VertexList> entry = buckets.pollFirstEntry();
+			long i = entry.getKey();
+			VertexList frontier = new VertexList();
+			for (int n = 0; n < entry.getValue().size; n++) {
+				int v = entry.getValue().items[n];
+				if (vertexBucket[v] == i) {
+					frontier.add(v);
+				}
+			}
+			if (frontier.size == 0) {
+				continue;
+			}
+			bucketCount++;
+			bucketNumber++;
+			VertexList removed = new VertexList();
+			while (frontier.size > 0) {
+				for (int n = 0; n < frontier.size; n++) {
+					int v = frontier.items[n];
+					vertexBucket[v] = -1;
+					if (relaxedIn[v] != bucketNumber) {
+						relaxedIn[v] = bucketNumber;
+						removed.add(v);
+					}
+				}
+				VertexList next = new VertexList();
+				for (VertexList updated : relax(frontier, true)) {
+					for (int n = 0; n < updated.size; n++) {
+						int w = updated.items[n];
+						long j = getBucket(getTentative(w));
+						if (j <= i) {
+							if (vertexBucket[w] != i) {
+								vertexBucket[w] = i;
+								next.add(w);
+							}
+						} else {
+							enqueue(buckets, w, j);
+						}
+					}
+				}
+				frontier = next;
+			}
+			for (VertexList updated : relax(removed, false)) {
+				for (int n = 0; n < updated.size; n++) {
+					int w = updated.items[n];
+					// a heavy arc always leads beyond the bucket, unless the
+					// division rounds down
+					enqueue(buckets, w, Math.max(getBucket(getTentative(w)),
+							i + 1));
+				}
+			}
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			distance[v] = getTentative(v);
+		}
+	}
+
+	private void enqueue(TreeMap<Long, VertexList> buckets, int v, long j) {
+		if (vertexBucket[v] == j) {
+			return;
+		}
+		vertexBucket[v] = j;
+		VertexList bucket = buckets.get(j);
+		if (bucket == null) {
+			bucket = new VertexList();
+			buckets.put(j, bucket);
+		}
+		bucket.add(v);
+	}
+
+	private double getTentative(int v) {
+		return Double.longBitsToDouble(tentative.get(v));
+	}
+
+	/**
+	 * Relaxes the light or the heavy arcs of the vertices of
+	 * <code>frontier</code>, in parallel if there are many.
+	 *
+	 * @return the lists of the vertices whose distance has been lowered,
+	 *         which may contain a vertex several times
+	 */
+	private List<VertexList> relax(VertexList frontier, boolean light) {
+		List<VertexList> updated = new ArrayList<VertexList>();
+		if (frontier.size <= SEQUENTIAL_THRESHOLD) {
+			VertexList list = new VertexList();
+			relax(frontier.items, 0, frontier.size, light, list);
+			updated.add(list);
+		} else {
+			forkJoinPool.invoke(new RelaxTask(frontier.items, 0,
+					frontier.size, light, updated));
+		}
+		return updated;
+	}
+
+	private void relax(int[] frontier, int from, int to, boolean light,
+			VertexList updated) {
+		int[] firstArc = routingGraph.firstArc;
+		int[] arcHead = routingGraph.arcHead;
+		for (int n = from; n < to; n++) {
+			int v = frontier[n];
+			double d = getTentative(v);
+			for (int a = firstArc[v]; a < firstArc[v + 1]; a++) {
+				double weight = arcWeight[a];
+				if ((weight == Double.POSITIVE_INFINITY)
+						|| ((weight <= searchDelta) != light)) {
+					continue;
+				}
+				int w = arcHead[a];
+				if (lower(w, d + weight)) {
+					updated.add(w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lowers the tentative distance of <code>w</code> to <code>d</code>
+	 * unless another thread has already lowered it further.
+	 *
+	 * @return true if the distance has been lowered
+	 */
+	private boolean lower(int w, double d) {
+		long bits = Double.doubleToRawLongBits(d);
+		while (true) {
+			long old = tentative.get(w);
+			if (bits >= old) {
+				return false;
+			}
+			if (tentative.compareAndSet(w, old, bits)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Chooses the parent arc of each reached vertex: the first incoming arc
+	 * whose tail is nearer and whose rating makes up the difference. Vertices
+	 * only reached over arcs whose rating doesn't change the distance, e.g.
+	 * segments of length 0, are attached afterwards to vertices which already
+	 * have a parent, so that the parent arcs never form a cycle.
+	 */
+	private void findParents(int source) {
+		if (oppositeArc == null) {
+			oppositeArc = new int[routingGraph.getArcCount()];
+			for (int a = 0; a < oppositeArc.length; a++) {
+				oppositeArc[a] = routingGraph.getArc(-routingGraph
+						.getIncidence(a));
+			}
+		}
+		forkJoinPool.invoke(new ParentTask(0, routingGraph.getVertexCount()));
+		VertexList unattached = new VertexList();
+		for (int v = 0; v < distance.length; v++) {
+			if ((v != source) && (parentArc[v] < 0)
+					&& (distance[v] != Double.POSITIVE_INFINITY)) {
+				unattached.add(v);
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int n = 0; n < unattached.size; n++) {
+				int v = unattached.items[n];
+				if (parentArc[v] < 0) {
+					parentArc[v] = findParentArc(v, source, false);
+					changed |= parentArc[v] >= 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param strict
+	 *            if true, only tails nearer than <code>v</code> are
+	 *            considered, else only the source and tails which already have
+	 *            a parent
+	 * @return the first arc into <code>v</code> on a shortest route, or -1
+	 */
+	private int findParentArc(int v, int source, boolean strict) {
+		for (int a = routingGraph.firstArc[v]; a < routingGraph.firstArc[v + 1]; a++) {
+			int opposite = oppositeArc[a];
+			if ((opposite < 0)
+					|| (arcWeight[opposite] == Double.POSITIVE_INFINITY)) {
+				continue;
+			}
+			int u = routingGraph.arcHead[a];
+			if (strict ? (distance[u] >= distance[v])
+					: ((u != source) && (parentArc[u] < 0))) {
+				continue;
+			}
+			if (distance[u] + arcWeight[opposite] == distance[v]) {
+				return opposite;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the distance of <code>v</code> from the start vertex, or
+	 *         infinity if it is unreachable or no routes have been calculated
+	 */
+	public double getDistance(Node v) {
+		return (distance == null) ? Double.POSITIVE_INFINITY : distance[v
+				.getId()];
+	}
+
+	/**
+	 * @return the distances from the start vertex indexed by vertex id,
+	 *         infinity for unreachable vertices, must not be modified and
+	 *         change with the next search
+	 */
+	public double[] getDistances() {
+		return distance;
+	}
+
+	/**
+	 * @return the last segment of the shortest route to <code>v</code>, or
+	 *         null if <code>v</code> is the start vertex or unreachable
+	 */
+	public Segment getParentSegment(Node v) {
+		if ((distance == null) || (parentArc[v.getId()] < 0)) {
+			return null;
+		}
+		return routingGraph.getSegment(parentArc[v.getId()]);
+	}
+
+	/**
+	 * @return the number of non-empty buckets processed by the last search
+	 */
+	public int getBucketCount() {
+		return bucketCount;
+	}
+
+	/**
+	 * @return the time in milliseconds the last search took
+	 */
+	public long getSearchTime() {
+		return searchTime;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		calculateShortestRoutes(r);
+		int[] incidences = null;
+		if (parentArc[target.getId()] >= 0) {
+			int count = 0;
+			for (int v = target.getId(); parentArc[v] >= 0; v = routingGraph
+					.getTail(parentArc[v])) {
+				count++;
+			}
+			incidences = new int[count];
+			for (int v = target.getId(); parentArc[v] >= 0; v = routingGraph
+					.getTail(parentArc[v])) {
+				incidences[--count] = routingGraph.getIncidence(parentArc[v]);
+			}
+		}
+		return new RoutingResult(graph, incidences, System.currentTimeMillis()
+				- startTime);
+	}
+
+	@Override
+	public double getDistance(Node target, EdgeRating r) {
+		calculateShortestRoutes(r);
+		return distance[target.getId()];
+	}
+
+	@Override
+	public void setRestriction(RoutingRestriction rest) {
+		super.setRestriction(rest);
+		routesCalculated = false;
+	}
+
+	@Override
+	public void setStart(Node start) {
+		if (start != this.start) {
+			this.start = start;
+			routesCalculated = false;
+		}
+	}
+
+	/** a growable list of vertex ids */
+	private static class VertexList {
+		int[] items = new int[16];
+		int size;
+
+		void add(int v) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = v;
+		}
+	}
+
+	private class RelaxTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] frontier;
+		private final int from;
+		private final int to;
+		private final boolean light;
+		private final List<VertexList> updated;
+
+		RelaxTask(int[] frontier, int from, int to, boolean light,
+				List<VertexList> updated) {
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.light = light;
+			this.updated = updated;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RelaxTask(frontier, from, middle, light, updated),
+						new RelaxTask(frontier, middle, to, light, updated));
+				return;
+			}
+			VertexList list = new VertexList();
+			relax(frontier, from, to, light, list);
+			synchronized (updated) {
+				updated.add(list);
+			}
+		}
+	}
+
+	private class ParentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		ParentTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 16 * SEQUENTIAL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ParentTask(from, middle), new ParentTask(middle,
+						to));
+				return;
+			}
+			for (int v = from; v < to; v++) {
+				parentArc[v] = (distance[v] == Double.POSITIVE_INFINITY) ? -1
+						: findParentArc(v, -1, true);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+
+/**
+ * The lengths and durations of the best routes between each source and each
+ * target, as computed by {@link MatrixCalculator}. Pairs without a route have
+ * infinite entries.
+ */
+public class DistanceMatrix {
+	private final List<Node> sources;
+	private final List<Node> targets;
+
+	/** lengths in meters, indexed by source and target index */
+	private final double[][] lengths;
+
+	/** durations in seconds, indexed by source and target index */
+	private final double[][] durations;
+
+	private final long calculationTime;
+
+	DistanceMatrix(List<Node> sources, List<Node> targets, double[][] lengths,
+			double[][] durations, long calculationTime) {
+		this.sources = sources;
+		this.targets = targets;
+		this.lengths = lengths;
+		this.durations = durations;
+		this.calculationTime = calculationTime;
+	}
+
+	public List<Node> getSources() {
+		return sources;
+	}
+
+	public List<Node> getTargets() {
+		return targets;
+	}
+
+	public int getSourceCount() {
+		return lengths.length;
+	}
+
+	public int getTargetCount() {
+		return targets.size();
+	}
+
+	/**
+	 * @return the length in meters of the route from source <code>i</code> to
+	 *         target <code>j</code>
+	 */
+	public double getLength(int i, int j) {
+		return lengths[i][j];
+	}
+
+	/**
+	 * @return the duration in seconds of the route from source <code>i</code>
+	 *         to target <code>j</code>
+	 */
+	public double getDuration(int i, int j) {
+		return durations[i][j];
+	}
+
+	public long getCalculationTime() {
+		return calculationTime;
+	}
+}
@@ -0,0 +1,189 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph.Neighbour;
+import de.uni_koblenz.jgstreetmap.model.kdtree.KDTreeQueries;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * Computes many-to-many matrices of route lengths and durations. Each source
+ * runs one Dijkstra search, which stops as soon as all targets are settled,
+ * and records length and duration along the shortest path tree instead of
+ * building routes. The sources are processed in parallel on a
+ * {@link ForkJoinPool}, each task with a workspace of the
+ * {@link SharedRouteCalculator}'s pool. All searches of a matrix use the
+ * traffic state of the calculator current at its beginning.
+ */
+public class MatrixCalculator {
+	/** the default radius for snapping coordinates to nodes */
+	public static final double DEFAULT_SNAP_RANGE = 500;
+
+	private final SharedRouteCalculator calculator;
+	private final ForkJoinPool forkJoinPool;
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool running the searches, which the caller shuts down
+	 *            when it isn't needed anymore
+	 */
+	public MatrixCalculator(SharedRouteCalculator calculator,
+			ForkJoinPool forkJoinPool) {
+		this.calculator = calculator;
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Computes the matrix between <code>sources</code> and
+	 * <code>targets</code>, where the routes are chosen according to
+	 * <code>r</code>. Null entries have no routes.
+	 */
+	public DistanceMatrix calculate(List<Node> sources, List<Node> targets,
+			EdgeRating r, RoutingRestriction restriction) {
+		long startTime = System.currentTimeMillis();
+		RoutingGraph g = calculator.getRoutingGraph();
+		boolean[] isTarget = new boolean[g.getVertexCount()];
+		int targetCount = 0;
+		for (Node t : targets) {
+			if ((t != null) && !isTarget[t.getId()]) {
+				isTarget[t.getId()] = true;
+				targetCount++;
+			}
+		}
+		double[][] lengths = new double[sources.size()][targets.size()];
+		double[][] durations = new double[sources.size()][targets.size()];
+		forkJoinPool.invoke(new SourceTask(sources, targets, isTarget,
+				targetCount, r, restriction, calculator.getTrafficState(),
+				lengths, durations, 0, sources.size()));
+		return new DistanceMatrix(sources, targets, lengths, durations,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Computes the matrix between the nodes nearest to the given coordinates,
+	 * see {@link #snap(AnnotatedOsmGraph, double, double, double)}.
+	 *
+	 * @param sourceCoordinates
+	 *            pairs of latitude and longitude
+	 * @param targetCoordinates
+	 *            pairs of latitude and longitude
+	 */
+	public DistanceMatrix calculate(AnnotatedOsmGraph graph,
+			double[][] sourceCoordinates, double[][] targetCoordinates,
+			EdgeRating r, RoutingRestriction restriction) {
+		return calculate(snap(graph, sourceCoordinates), snap(graph,
+				targetCoordinates), r, restriction);
+	}
+
+	private static List<Node> snap(AnnotatedOsmGraph graph,
+			double[][] coordinates) {
+		List<Node> nodes = new ArrayList<Node>(coordinates.length);
+		for (double[] c : coordinates) {
+			nodes.add(snap(graph, c[0], c[1], DEFAULT_SNAP_RANGE));
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the node with segments nearest to the given coordinates within
+	 *         <code>maxRange</code> meters, or null if there is none. Graphs
+	 *         without KD tree are searched linearly.
+	 */
+	public static Node snap(AnnotatedOsmGraph graph, double lat, double lon,
+			double maxRange) {
+		List<Neighbour> neighbours = graph.hasKDTree() ? KDTreeQueries
+				.neighboursKD(graph, lat, lon, maxRange) : graph.neighbours(
+				lat, lon, maxRange);
+		if (neighbours.isEmpty()
+				|| (neighbours.get(0).getDistance() > maxRange)) {
+			return null;
+		}
+		return neighbours.get(0).getNode();
+	}
+
+	private class SourceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Node> sources;
+		private final List<Node> targets;
+		private final boolean[] isTarget;
+		private final int targetCount;
+		private final EdgeRating rating;
+		private final RoutingRestriction restriction;
+		private final TrafficState traffic;
+		private final double[][] lengths;
+		private final double[][] durations;
+		private final int from;
+		private final int to;
+
+		SourceTask(List<Node> sources, List<Node> targets,
+				boolean[] isTarget, int targetCount, EdgeRating rating,
+				RoutingRestriction restriction, TrafficState traffic,
+				double[][] lengths, double[][] durations, int from, int to) {
+			this.sources = sources;
+			this.targets = targets;
+			this.isTarget = isTarget;
+			this.targetCount = targetCount;
+			this.rating = rating;
+			this.restriction = restriction;
+			this.traffic = traffic;
+			this.lengths = lengths;
+			this.durations = durations;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SourceTask(sources, targets, isTarget,
+						targetCount, rating, restriction, traffic, lengths,
+						durations, from, middle), new SourceTask(sources,
+						targets, isTarget, targetCount, rating, restriction,
+						traffic, lengths, durations, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				computeSource(i);
+			}
+		}
+
+		private void computeSource(int i) {
+			Node source = sources.get(i);
+			if (source == null) {
+				Arrays.fill(lengths[i], Double.POSITIVE_INFINITY);
+				Arrays.fill(durations[i], Double.POSITIVE_INFINITY);
+				return;
+			}
+			RoutingGraph g = calculator.getRoutingGraph();
+			WorkspacePool pool = calculator.getWorkspacePool();
+			SearchWorkspace w = pool.acquire();
+			try {
+				w.searchTargets(g, source.getId(), isTarget, targetCount,
+						rating, calculator.getTypeAllowed(restriction),
+						calculator.getTypeFactor(), traffic);
+				for (int j = 0; j < targets.size(); j++) {
+					Node target = targets.get(j);
+					if (target == null) {
+						lengths[i][j] = Double.POSITIVE_INFINITY;
+						durations[i][j] = Double.POSITIVE_INFINITY;
+					} else {
+						lengths[i][j] = w.getLength(target.getId());
+						durations[i][j] = w.getDuration(target.getId());
+					}
+				}
+			} finally {
+				pool.release(w);
+			}
+		}
+	}
+}
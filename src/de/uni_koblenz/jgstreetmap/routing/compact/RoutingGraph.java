@@ -0,0 +1,204 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+
+/**
+ * A read-only snapshot of the segment graph in compressed sparse row format,
+ * so that route calculators can relax segments on primitive arrays instead of
+ * JGraLab objects.
+ *
+ * Vertices are identified by their JGraLab vertex ids. Every segment incidence
+ * at a vertex becomes an outgoing arc of that vertex, the arcs of vertex v are
+ * <code>getFirstArc(v) .. getFirstArc(v + 1) - 1</code>. Arcs running against
+ * a oneway segment are kept but flagged, so one snapshot serves all
+ * restrictions. Each arc remembers the id of its segment incidence, which maps
+ * it back to the {@link Segment}.
+ *
+ * The snapshot doesn't follow later changes of the graph.
+ */
+public class RoutingGraph {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	private final OsmGraph graph;
+	private final int graphVCount;
+	private final int graphECount;
+
+	final int vertexCount;
+	final int[] firstArc;
+	final int[] arcHead;
+	final float[] arcLength;
+	final byte[] arcWayType;
+	final BitSet againstOneway;
+	final int[] arcIncidence;
+	final long[] arcWayId;
+
+	/** the arc of each segment incidence by 2e, or 2e+1 if reversed, or -1 */
+	private final int[] incidenceArc;
+
+	/** latitude and longitude of the vertices in radians */
+	final double[] latitude;
+	final double[] longitude;
+
+	public RoutingGraph(OsmGraph graph) {
+		this.graph = graph;
+		graphVCount = graph.getVCount();
+		graphECount = graph.getECount();
+		vertexCount = graph.getMaxVCount() + 1;
+		firstArc = new int[vertexCount + 1];
+		latitude = new double[vertexCount];
+		longitude = new double[vertexCount];
+
+		for (Node n : graph.getNodeVertices()) {
+			int v = n.getId();
+			latitude[v] = n.get_latitude() * Math.PI / 180;
+			longitude[v] = n.get_longitude() * Math.PI / 180;
+			int degree = 0;
+			for (Segment s = n.getFirstSegmentIncidence(); s != null; s = s
+					.getNextSegmentIncidence()) {
+				degree++;
+			}
+			firstArc[v + 1] = degree;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			firstArc[v + 1] += firstArc[v];
+		}
+
+		int arcCount = firstArc[vertexCount];
+		arcHead = new int[arcCount];
+		arcLength = new float[arcCount];
+		arcWayType = new byte[arcCount];
+		againstOneway = new BitSet(arcCount);
+		arcIncidence = new int[arcCount];
+		arcWayId = new long[arcCount];
+		incidenceArc = new int[2 * (graph.getMaxECount() + 1)];
+		Arrays.fill(incidenceArc, -1);
+		for (Node n : graph.getNodeVertices()) {
+			int a = firstArc[n.getId()];
+			for (Segment s : n.getSegmentIncidences()) {
+				arcHead[a] = s.getThat().getId();
+				arcLength[a] = (float) s.get_length();
+				arcWayType[a] = (byte) s.get_wayType().ordinal();
+				if (!s.isNormal() && s.is_oneway()) {
+					againstOneway.set(a);
+				}
+				arcIncidence[a] = s.getId();
+				incidenceArc[WeightTable.getState(s)] = a;
+				arcWayId[a] = s.get_wayId();
+				a++;
+			}
+		}
+	}
+
+	public OsmGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return true if this snapshot has been taken from <code>graph</code>
+	 *         and its number of vertices and edges hasn't changed since
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph == this.graph) && (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the number of vertex ids, i.e. the largest vertex id plus one
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getArcCount() {
+		return arcHead.length;
+	}
+
+	/**
+	 * @return the index of the first arc of vertex <code>v</code>, or for
+	 *         <code>v == getVertexCount()</code> the number of arcs
+	 */
+	public int getFirstArc(int v) {
+		return firstArc[v];
+	}
+
+	public int getHead(int arc) {
+		return arcHead[arc];
+	}
+
+	/**
+	 * @return the vertex <code>arc</code> starts at, the head of the arc of
+	 *         the opposite incidence
+	 */
+	public int getTail(int arc) {
+		return arcHead[getArc(-arcIncidence[arc])];
+	}
+
+	public double getLength(int arc) {
+		return arcLength[arc];
+	}
+
+	public SegmentType getWayType(int arc) {
+		return SEGMENT_TYPES[arcWayType[arc]];
+	}
+
+	public long getWayId(int arc) {
+		return arcWayId[arc];
+	}
+
+	/**
+	 * @return true if <code>arc</code> runs against the direction of a oneway
+	 *         segment
+	 */
+	public boolean isAgainstOneway(int arc) {
+		return againstOneway.get(arc);
+	}
+
+	/**
+	 * @return the id of the segment incidence <code>arc</code> stands for
+	 */
+	public int getIncidence(int arc) {
+		return arcIncidence[arc];
+	}
+
+	/**
+	 * @return the arc standing for the segment incidence with id
+	 *         <code>incidence</code>, or -1 if there is none
+	 */
+	public int getArc(int incidence) {
+		int state = (incidence > 0) ? (incidence << 1)
+				: ((-incidence << 1) | 1);
+		return (state < incidenceArc.length) ? incidenceArc[state] : -1;
+	}
+
+	/**
+	 * @return the segment incidence <code>arc</code> stands for
+	 */
+	public Segment getSegment(int arc) {
+		return (Segment) graph.getEdge(arcIncidence[arc]);
+	}
+
+	public Node getNode(int v) {
+		return (Node) graph.getVertex(v);
+	}
+
+	/**
+	 * @return the latitude of vertex <code>v</code> in radians
+	 */
+	public double getLatitude(int v) {
+		return latitude[v];
+	}
+
+	/**
+	 * @return the longitude of vertex <code>v</code> in radians
+	 */
+	public double getLongitude(int v) {
+		return longitude[v];
+	}
+}
@@ -0,0 +1,392 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The mutable state of a Dijkstra or A* search on a {@link RoutingGraph}:
+ * tentative distances, parent arcs and the queue, all indexed by vertex id.
+ *
+ * Instead of clearing the arrays before each search, every search gets a new
+ * generation number, and an entry only counts if it carries the current
+ * generation. So starting a search costs O(1) instead of O(vertices).
+ *
+ * A workspace must only be used by one thread at a time, see
+ * {@link WorkspacePool}.
+ */
+public class SearchWorkspace {
+	private final int vertexCount;
+
+	private int generation;
+
+	/** the generation in which a vertex has been reached */
+	private final int[] visited;
+
+	/** the generation in which a vertex has been settled */
+	private final int[] settled;
+
+	private final double[] distance;
+	private final int[] parentArc;
+	private final VertexHeap queue;
+
+	/**
+	 * length and duration of the route to a vertex in one-to-many searches,
+	 * allocated on first use
+	 */
+	private double[] length;
+	private double[] duration;
+
+	public SearchWorkspace(int vertexCount) {
+		this.vertexCount = vertexCount;
+		visited = new int[vertexCount];
+		settled = new int[vertexCount];
+		distance = new double[vertexCount];
+		parentArc = new int[vertexCount];
+		queue = new VertexHeap(vertexCount);
+		generation = 0;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Starts a new generation, which invalidates all entries of the former
+	 * search.
+	 */
+	public void reset() {
+		queue.clear();
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	/**
+	 * Runs a search from <code>source</code> to <code>target</code>, which
+	 * stops once <code>target</code> is settled. With a
+	 * <code>heuristicFactor</code> greater than 0, the great-circle distance
+	 * times that factor is used as A* heuristic. It must not exceed the rating
+	 * of one meter.
+	 *
+	 * @param typeAllowed
+	 *            tells by the ordinal of the segment type whether an arc may
+	 *            be used
+	 * @param typeFactor
+	 *            the factors for the TIME rating by the ordinal of the
+	 *            segment type
+	 * @return true if <code>target</code> has been reached
+	 */
+	public boolean search(RoutingGraph g, int source, int target,
+			EdgeRating r, boolean[] typeAllowed, double[] typeFactor,
+			double heuristicFactor) {
+		return search(g, source, target, r, typeAllowed, typeFactor,
+				heuristicFactor, TrafficState.EMPTY);
+	}
+
+	/**
+	 * Runs a search like
+	 * {@link #search(RoutingGraph, int, int, EdgeRating, boolean[], double[], double)}
+	 * which skips the arcs blocked in <code>traffic</code> and applies its
+	 * speed factors. The <code>heuristicFactor</code> must take the largest
+	 * speed factor into account.
+	 */
+	public boolean search(RoutingGraph g, int source, int target,
+			EdgeRating r, boolean[] typeAllowed, double[] typeFactor,
+			double heuristicFactor, TrafficState traffic) {
+		reset();
+		visit(source, 0, -1);
+		queue.insert(source, heuristic(g, source, target, heuristicFactor));
+
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			settled[v] = generation;
+			if (v == target) {
+				return true;
+			}
+			double d = distance[v];
+			int parent = parentArc[v];
+			for (int a = g.firstArc[v]; a < g.firstArc[v + 1]; a++) {
+				if (!typeAllowed[g.arcWayType[a]] || g.againstOneway.get(a)) {
+					continue;
+				}
+				int w = g.arcHead[a];
+				double weight = rate(g, a, r, parent, typeFactor);
+				if (traffic.isAffected(g.arcIncidence[a])) {
+					if (traffic.isBlocked(g.arcIncidence[a])) {
+						continue;
+					}
+					weight *= traffic.getRatingFactor(g.arcIncidence[a], r);
+				}
+				double newDist = d + weight;
+				if (visited[w] != generation) {
+					visit(w, newDist, a);
+					queue.insert(w, newDist
+							+ heuristic(g, w, target, heuristicFactor));
+				} else if ((settled[w] != generation)
+						&& (newDist < distance[w])) {
+					// the heuristic part of the key doesn't change
+					double key = queue.getKey(w) + newDist - distance[w];
+					distance[w] = newDist;
+					parentArc[w] = a;
+					queue.decreaseKey(w, key);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs a search from <code>source</code>, which stops once all vertices
+	 * with <code>isTarget[v]</code> are settled. Besides the rating, the
+	 * length and duration of the routes are recorded, see
+	 * {@link #getLength(int)} and {@link #getDuration(int)}.
+	 *
+	 * @param targetCount
+	 *            the number of vertices with <code>isTarget[v]</code>
+	 * @return the number of targets reached
+	 */
+	public int searchTargets(RoutingGraph g, int source, boolean[] isTarget,
+			int targetCount, EdgeRating r, boolean[] typeAllowed,
+			double[] typeFactor) {
+		return searchTargets(g, source, isTarget, targetCount, r,
+				typeAllowed, typeFactor, TrafficState.EMPTY);
+	}
+
+	/**
+	 * Runs a search like
+	 * {@link #searchTargets(RoutingGraph, int, boolean[], int, EdgeRating, boolean[], double[])}
+	 * which skips the arcs blocked in <code>traffic</code> and applies its
+	 * speed factors to ratings and durations.
+	 */
+	public int searchTargets(RoutingGraph g, int source, boolean[] isTarget,
+			int targetCount, EdgeRating r, boolean[] typeAllowed,
+			double[] typeFactor, TrafficState traffic) {
+		if (length == null) {
+			length = new double[vertexCount];
+			duration = new double[vertexCount];
+		}
+		reset();
+		visit(source, 0, -1);
+		length[source] = 0;
+		duration[source] = 0;
+		queue.insert(source, 0);
+
+		int reached = 0;
+		while (!queue.isEmpty() && (reached < targetCount)) {
+			int v = queue.poll();
+			settled[v] = generation;
+			if (isTarget[v]) {
+				reached++;
+			}
+			double d = distance[v];
+			int parent = parentArc[v];
+			for (int a = g.firstArc[v]; a < g.firstArc[v + 1]; a++) {
+				if (!typeAllowed[g.arcWayType[a]] || g.againstOneway.get(a)) {
+					continue;
+				}
+				int w = g.arcHead[a];
+				double weight = rate(g, a, r, parent, typeFactor);
+				double time = g.arcLength[a] * typeFactor[g.arcWayType[a]];
+				if (traffic.isAffected(g.arcIncidence[a])) {
+					if (traffic.isBlocked(g.arcIncidence[a])) {
+						continue;
+					}
+					weight *= traffic.getRatingFactor(g.arcIncidence[a], r);
+					time /= traffic.getSpeedFactor(g.arcIncidence[a]);
+				}
+				double newDist = d + weight;
+				boolean seen = visited[w] == generation;
+				if (!seen
+						|| ((settled[w] != generation) && (newDist < distance[w]))) {
+					visit(w, newDist, a);
+					length[w] = length[v] + g.arcLength[a];
+					duration[w] = duration[v] + time;
+					if (seen) {
+						queue.decreaseKey(w, newDist);
+					} else {
+						queue.insert(w, newDist);
+					}
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Runs a search for the shortest lengths from several sources, each with
+	 * an initial distance, which stops once all <code>targets</code> are
+	 * settled or no vertex within <code>limit</code> meters is left. The
+	 * distances of the targets are then available by
+	 * {@link #getDistance(int)}, where values above <code>limit</code> don't
+	 * count.
+	 *
+	 * @param typeAllowed
+	 *            tells by the ordinal of the segment type whether an arc may
+	 *            be used
+	 * @return the number of targets settled
+	 */
+	public int searchWithin(RoutingGraph g, int[] sources,
+			double[] initialDistances, int[] targets, double limit,
+			boolean[] typeAllowed) {
+		reset();
+		for (int i = 0; i < sources.length; i++) {
+			int s = sources[i];
+			double d = initialDistances[i];
+			if (visited[s] != generation) {
+				visit(s, d, -1);
+				queue.insert(s, d);
+			} else if (d < distance[s]) {
+				visit(s, d, -1);
+				queue.decreaseKey(s, d);
+			}
+		}
+
+		int reached = 0;
+		while (!queue.isEmpty() && (reached < targets.length)
+				&& (queue.peekKey() <= limit)) {
+			int v = queue.poll();
+			settled[v] = generation;
+			for (int t : targets) {
+				if (t == v) {
+					reached++;
+				}
+			}
+			double d = distance[v];
+			for (int a = g.firstArc[v]; a < g.firstArc[v + 1]; a++) {
+				if (!typeAllowed[g.arcWayType[a]] || g.againstOneway.get(a)) {
+					continue;
+				}
+				int w = g.arcHead[a];
+				double newDist = d + g.arcLength[a];
+				if (visited[w] != generation) {
+					visit(w, newDist, a);
+					queue.insert(w, newDist);
+				} else if ((settled[w] != generation)
+						&& (newDist < distance[w])) {
+					visit(w, newDist, a);
+					queue.decreaseKey(w, newDist);
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * @return the length in meters of the route to <code>v</code> found by
+	 *         the last {@link #searchTargets} call, or infinity if
+	 *         <code>v</code> has not been settled
+	 */
+	public double getLength(int v) {
+		return (settled[v] == generation) ? length[v]
+				: Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the duration in seconds of the route to <code>v</code> found by
+	 *         the last {@link #searchTargets} call, or infinity if
+	 *         <code>v</code> has not been settled
+	 */
+	public double getDuration(int v) {
+		return (settled[v] == generation) ? duration[v]
+				: Double.POSITIVE_INFINITY;
+	}
+
+	private void visit(int v, double d, int arc) {
+		visited[v] = generation;
+		distance[v] = d;
+		parentArc[v] = arc;
+	}
+
+	private static double heuristic(RoutingGraph g, int v, int target,
+			double factor) {
+		if ((factor == 0) || (v == target)) {
+			return 0;
+		}
+		return factor
+				* RouteCalculator.distance(g.latitude[v], g.longitude[v],
+						g.latitude[target], g.longitude[target]);
+	}
+
+	/**
+	 * Rates <code>arc</code> like
+	 * {@link RouteCalculator#rate(Segment, EdgeRating, Segment)} rates the
+	 * segment it stands for.
+	 */
+	static double rate(RoutingGraph g, int arc, EdgeRating r,
+			int previousArc, double[] typeFactor) {
+		switch (r) {
+		case LENGTH:
+			return g.arcLength[arc];
+		case TIME:
+			return g.arcLength[arc] * typeFactor[g.arcWayType[arc]];
+		case CONVENIENCE:
+			if ((previousArc >= 0)
+					&& (g.arcWayId[previousArc] != g.arcWayId[arc])) {
+				return g.arcLength[arc] + RouteCalculator.INCONVENIENCEVALUE;
+			}
+			return g.arcLength[arc];
+		default:
+			return Double.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return the distance of <code>v</code> found by the last search, or
+	 *         infinity if it has not been reached
+	 */
+	public double getDistance(int v) {
+		return (visited[v] == generation) ? distance[v]
+				: Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the route to <code>target</code> found by the last search, or
+	 *         null if there is none
+	 */
+	public List<Segment> createRoute(RoutingGraph g, int target) {
+		if ((settled[target] != generation) || (parentArc[target] < 0)) {
+			return null;
+		}
+		List<Segment> route = new ArrayList<Segment>();
+		int v = target;
+		while (parentArc[v] >= 0) {
+			Segment s = g.getSegment(parentArc[v]);
+			route.add(s);
+			v = s.getThis().getId();
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	/**
+	 * @return the ids of the segment incidences of the route to
+	 *         <code>target</code> found by the last search, or null if there
+	 *         is none, for a compact {@link RoutingResult}
+	 */
+	public int[] createIncidences(RoutingGraph g, int target) {
+		if ((settled[target] != generation) || (parentArc[target] < 0)) {
+			return null;
+		}
+		int count = 0;
+		for (int v = target; parentArc[v] >= 0; v = g.getTail(parentArc[v])) {
+			count++;
+		}
+		int[] incidences = new int[count];
+		for (int v = target; parentArc[v] >= 0; v = g.getTail(parentArc[v])) {
+			incidences[--count] = g.getIncidence(parentArc[v]);
+		}
+		return incidences;
+	}
+}
@@ -0,0 +1,253 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.Speed;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.traffic.LiveTraffic;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A route calculator which may be used by many threads at the same time. In
+ * contrast to the {@link RouteCalculator}s, it keeps no per-query state:
+ * start, rating and restriction are passed with each query, and the speeds
+ * are fixed at construction time unless a {@link RoutingProfile} is passed.
+ * The search state lives in {@link SearchWorkspace}s taken from a
+ * {@link WorkspacePool} for the duration of a query.
+ */
+public class SharedRouteCalculator {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	private final RoutingGraph routingGraph;
+	private final WorkspacePool pool;
+	private final boolean goalDirected;
+
+	private final Map<RoutingRestriction, boolean[]> typeAllowed;
+	private final double[] typeFactor;
+
+	/**
+	 * the great-circle bound factor for TIME by restriction, one meter at the
+	 * highest speed of the allowed types
+	 */
+	private final Map<RoutingRestriction, Double> timeHeuristicFactor;
+
+	private volatile LiveTraffic traffic;
+
+	/**
+	 * Creates an A* calculator with the default speeds.
+	 */
+	public SharedRouteCalculator(RoutingGraph routingGraph) {
+		this(routingGraph, new Speed(), true);
+	}
+
+	/**
+	 * @param speeds
+	 *            the speeds for the TIME rating, which are copied
+	 * @param goalDirected
+	 *            if true, the queries use A* with the great-circle heuristic,
+	 *            otherwise Dijkstra
+	 */
+	public SharedRouteCalculator(RoutingGraph routingGraph, Speed speeds,
+			boolean goalDirected) {
+		this.routingGraph = routingGraph;
+		this.goalDirected = goalDirected;
+		pool = new WorkspacePool(routingGraph);
+
+		typeFactor = new double[SEGMENT_TYPES.length];
+		for (SegmentType type : SEGMENT_TYPES) {
+			typeFactor[type.ordinal()] = RouteCalculator.computeFactor(type,
+					speeds);
+		}
+		typeAllowed = new EnumMap<RoutingRestriction, boolean[]>(
+				RoutingRestriction.class);
+		timeHeuristicFactor = new EnumMap<RoutingRestriction, Double>(
+				RoutingRestriction.class);
+		for (RoutingRestriction restriction : RoutingRestriction.values()) {
+			Set<SegmentType> types = RouteCalculator
+					.getRelevantTypes(restriction);
+			boolean[] allowed = new boolean[SEGMENT_TYPES.length];
+			double min = Double.POSITIVE_INFINITY;
+			for (SegmentType type : types) {
+				allowed[type.ordinal()] = true;
+				double f = typeFactor[type.ordinal()];
+				if ((f > 0) && (f < min)) {
+					min = f;
+				}
+			}
+			typeAllowed.put(restriction, allowed);
+			timeHeuristicFactor.put(restriction,
+					(min == Double.POSITIVE_INFINITY) ? 0 : min);
+		}
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return routingGraph;
+	}
+
+	public WorkspacePool getWorkspacePool() {
+		return pool;
+	}
+
+	/**
+	 * Makes the queries follow the closures and speed factors of
+	 * <code>traffic</code>. Each query uses the state current at its
+	 * beginning, so updates never disturb running queries.
+	 *
+	 * @param traffic
+	 *            the live traffic, or null to ignore it
+	 */
+	public void setTraffic(LiveTraffic traffic) {
+		this.traffic = traffic;
+	}
+
+	public LiveTraffic getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * @return the current traffic state, empty if no traffic has been set
+	 */
+	public TrafficState getTrafficState() {
+		LiveTraffic t = traffic;
+		return (t == null) ? TrafficState.EMPTY : t.getState();
+	}
+
+	public RoutingResult getRoute(Node start, Node target, EdgeRating r,
+			RoutingRestriction restriction) {
+		long startTime = System.currentTimeMillis();
+		SearchWorkspace w = pool.acquire();
+		try {
+			search(w, start, target, r, restriction);
+			int[] incidences = w.createIncidences(routingGraph, target.getId());
+			return new RoutingResult(routingGraph.getGraph(), incidences,
+					System.currentTimeMillis() - startTime);
+		} finally {
+			pool.release(w);
+		}
+	}
+
+	/**
+	 * Computes a route under <code>profile</code>, whose allowed types and
+	 * speeds replace the restriction and speeds of this calculator.
+	 */
+	public RoutingResult getRoute(Node start, Node target, EdgeRating r,
+			RoutingProfile profile) {
+		return getRoute(start, target, r, profile, getTrafficState());
+	}
+
+	/**
+	 * Computes a route under <code>profile</code> and the traffic state
+	 * <code>t</code>, e.g. one the caller rates the route with afterwards.
+	 */
+	public RoutingResult getRoute(Node start, Node target, EdgeRating r,
+			RoutingProfile profile, TrafficState t) {
+		long startTime = System.currentTimeMillis();
+		SearchWorkspace w = pool.acquire();
+		try {
+			search(w, start, target, r, profile, t);
+			int[] incidences = w.createIncidences(routingGraph, target.getId());
+			return new RoutingResult(routingGraph.getGraph(), incidences,
+					System.currentTimeMillis() - startTime);
+		} finally {
+			pool.release(w);
+		}
+	}
+
+	/**
+	 * @return the rating of the best route from <code>start</code> to
+	 *         <code>target</code>, or infinity if there is none
+	 */
+	public double getDistance(Node start, Node target, EdgeRating r,
+			RoutingRestriction restriction) {
+		SearchWorkspace w = pool.acquire();
+		try {
+			if (search(w, start, target, r, restriction)) {
+				return w.getDistance(target.getId());
+			}
+			return Double.POSITIVE_INFINITY;
+		} finally {
+			pool.release(w);
+		}
+	}
+
+	/**
+	 * @return the rating of the best route from <code>start</code> to
+	 *         <code>target</code> under <code>profile</code>, or infinity if
+	 *         there is none
+	 */
+	public double getDistance(Node start, Node target, EdgeRating r,
+			RoutingProfile profile) {
+		SearchWorkspace w = pool.acquire();
+		try {
+			if (search(w, start, target, r, profile, getTrafficState())) {
+				return w.getDistance(target.getId());
+			}
+			return Double.POSITIVE_INFINITY;
+		} finally {
+			pool.release(w);
+		}
+	}
+
+	/**
+	 * @return the table telling by segment type ordinal which segments may be
+	 *         used under <code>restriction</code>, must not be modified
+	 */
+	boolean[] getTypeAllowed(RoutingRestriction restriction) {
+		return typeAllowed.get(restriction);
+	}
+
+	/**
+	 * @return the TIME factors by segment type ordinal, must not be modified
+	 */
+	double[] getTypeFactor() {
+		return typeFactor;
+	}
+
+	private boolean search(SearchWorkspace w, Node start, Node target,
+			EdgeRating r, RoutingRestriction restriction) {
+		TrafficState t = getTrafficState();
+		return w.search(routingGraph, start.getId(), target.getId(), r,
+				typeAllowed.get(restriction), typeFactor, heuristicFactor(r,
+						restriction, t), t);
+	}
+
+	private boolean search(SearchWorkspace w, Node start, Node target,
+			EdgeRating r, RoutingProfile profile, TrafficState t) {
+		// the tables are small, so they are built per query
+		boolean[] allowed = new boolean[SEGMENT_TYPES.length];
+		double[] factor = new double[SEGMENT_TYPES.length];
+		for (SegmentType type : SEGMENT_TYPES) {
+			allowed[type.ordinal()] = profile.isAllowed(type);
+			factor[type.ordinal()] = profile.getFactor(type);
+		}
+		double h = heuristicFactor(r, profile.getRestriction(), t);
+		if ((h != 0) && (r == EdgeRating.TIME)) {
+			h = profile.getMinimalFactor() / t.getMaxSpeedFactor();
+		}
+		return w.search(routingGraph, start.getId(), target.getId(), r,
+				allowed, factor, h, t);
+	}
+
+	private double heuristicFactor(EdgeRating r,
+			RoutingRestriction restriction, TrafficState t) {
+		if (!goalDirected) {
+			return 0;
+		}
+		switch (r) {
+		case LENGTH:
+			return 1;
+		case TIME:
+			return timeHeuristicFactor.get(restriction) / t.getMaxSpeedFactor();
+		default:
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package de.uni_koblenz.jgstreetmap.routing.compact;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of {@link SearchWorkspace}s for one {@link RoutingGraph}. A thread
+ * acquires a workspace for the duration of one search and releases it
+ * afterwards, so the pool holds as many workspaces as searches ran
+ * concurrently at peak. In contrast to a {@link ThreadLocal}, workspaces
+ * don't stay attached to idle threads of large pools.
+ */
+public class WorkspacePool {
+	private final int vertexCount;
+	private final ConcurrentLinkedQueue<SearchWorkspace> idle;
+
+	public WorkspacePool(RoutingGraph g) {
+		vertexCount = g.getVertexCount();
+		idle = new ConcurrentLinkedQueue<SearchWorkspace>();
+	}
+
+	/**
+	 * @return an idle workspace, or a new one if there is none
+	 */
+	public SearchWorkspace acquire() {
+		SearchWorkspace w = idle.poll();
+		return (w != null) ? w : new SearchWorkspace(vertexCount);
+	}
+
+	/**
+	 * Returns <code>w</code> to the pool. It must not be used afterwards.
+	 */
+	public void release(SearchWorkspace w) {
+		idle.offer(w);
+	}
+
+	/**
+	 * @return the number of idle workspaces
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
@@ -0,0 +1,199 @@
+package de.uni_koblenz.jgstreetmap.routing.hl;
+
+import java.util.Arrays;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchy;
+
+/**
+ * Derives {@link HubLabels} from the vertex order of a
+ * {@link ContractionHierarchy}. The hubs of a vertex are the vertices its
+ * upward search in the hierarchy reaches, which always include the highest
+ * ranked vertex of a best route to any target.
+ *
+ * The labels are computed top-down: the most important vertex only has
+ * itself as hub, and the forward label of every other vertex is the union of
+ * the forward labels of the heads of its upward arcs, with the arc weights
+ * added, plus the vertex itself. Backward labels are built alike from the
+ * arcs coming in from higher ranked vertices. Then an entry whose distance
+ * can be undercut by a query against the label of its hub, which exists
+ * already, is pruned, as no best route runs via that hub. This usually
+ * removes most entries.
+ */
+public class HubLabelBuilder {
+	private final OsmGraph graph;
+	private final ContractionHierarchy ch;
+
+	// the labels by rank, hubs are ranks in ascending order
+	private int[][] forwardHubs;
+	private double[][] forwardDistances;
+	private int[][] backwardHubs;
+	private double[][] backwardDistances;
+
+	// the candidates of the label being built, indexed by hub rank
+	private double[] candidate;
+	private int[] candidates;
+	private int candidateCount;
+
+	public HubLabelBuilder(OsmGraph graph, ContractionHierarchy ch) {
+		if (!ch.matches(graph)) {
+			throw new IllegalArgumentException("The hierarchy for "
+					+ ch.getRating() + "/" + ch.getRestriction()
+					+ " does not match the graph");
+		}
+		this.graph = graph;
+		this.ch = ch;
+	}
+
+	public HubLabels build() {
+		long startTime = System.currentTimeMillis();
+		int vertexCount = ch.getVertexCount();
+		int rankCount = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			if (ch.getRank(v) >= 0) {
+				rankCount++;
+			}
+		}
+		int[] vertexOfRank = new int[rankCount];
+		for (int v = 0; v < vertexCount; v++) {
+			if (ch.getRank(v) >= 0) {
+				vertexOfRank[ch.getRank(v)] = v;
+			}
+		}
+
+		forwardHubs = new int[rankCount][];
+		forwardDistances = new double[rankCount][];
+		backwardHubs = new int[rankCount][];
+		backwardDistances = new double[rankCount][];
+		candidate = new double[rankCount];
+		Arrays.fill(candidate, Double.POSITIVE_INFINITY);
+		candidates = new int[16];
+
+		long entries = 0;
+		for (int r = rankCount - 1; r >= 0; r--) {
+			int v = vertexOfRank[r];
+
+			addCandidate(r, 0);
+			for (int i = ch.getFirstUpArc(v); i < ch.getFirstUpArc(v + 1); i++) {
+				int w = ch.getRank(ch.getUpHead(i));
+				addLabel(forwardHubs[w], forwardDistances[w], ch
+						.getUpWeight(i));
+			}
+			createLabel(r, true);
+
+			addCandidate(r, 0);
+			for (int i = ch.getFirstDownArc(v); i < ch.getFirstDownArc(v + 1); i++) {
+				int u = ch.getRank(ch.getDownTail(i));
+				addLabel(backwardHubs[u], backwardDistances[u], ch
+						.getDownWeight(i));
+			}
+			createLabel(r, false);
+			entries += forwardHubs[r].length + backwardHubs[r].length;
+		}
+
+		byte[][] labels = new byte[2 * vertexCount][];
+		byte[] empty = new byte[0];
+		for (int v = 0; v < vertexCount; v++) {
+			int r = ch.getRank(v);
+			if (r < 0) {
+				labels[2 * v] = empty;
+				labels[2 * v + 1] = empty;
+			} else {
+				labels[2 * v] = encode(forwardHubs[r], forwardDistances[r]);
+				labels[2 * v + 1] = encode(backwardHubs[r],
+						backwardDistances[r]);
+			}
+		}
+		forwardHubs = backwardHubs = null;
+		forwardDistances = backwardDistances = null;
+		candidate = null;
+
+		HubLabels hl = HubLabels.create(ch.getRating(), ch.getRestriction(),
+				graph.getVCount(), graph.getECount(), labels);
+		System.out.println("Computed hub labels for " + ch.getRating() + "/"
+				+ ch.getRestriction() + " with " + entries + " entries ("
+				+ (rankCount == 0 ? 0 : entries / (2 * rankCount))
+				+ " per label, " + hl.getSize() + " bytes) in "
+				+ (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+		return hl;
+	}
+
+	private void addCandidate(int hub, double distance) {
+		if (candidate[hub] == Double.POSITIVE_INFINITY) {
+			if (candidateCount == candidates.length) {
+				candidates = Arrays.copyOf(candidates, candidateCount * 2);
+			}
+			candidates[candidateCount++] = hub;
+			candidate[hub] = distance;
+		} else if (distance < candidate[hub]) {
+			candidate[hub] = distance;
+		}
+	}
+
+	private void addLabel(int[] hubs, double[] distances, double weight) {
+		for (int i = 0; i < hubs.length; i++) {
+			addCandidate(hubs[i], distances[i] + weight);
+		}
+	}
+
+	/**
+	 * Turns the candidates into the label of rank <code>r</code>, without
+	 * the entries a query against the opposite label of their hub undercuts.
+	 */
+	private void createLabel(int r, boolean forward) {
+		Arrays.sort(candidates, 0, candidateCount);
+		int[] hubs = Arrays.copyOf(candidates, candidateCount);
+		double[] distances = new double[candidateCount];
+		for (int i = 0; i < candidateCount; i++) {
+			distances[i] = candidate[hubs[i]];
+		}
+		int[] keptHubs = new int[hubs.length];
+		double[] keptDistances = new double[hubs.length];
+		int size = 0;
+		for (int i = 0; i < hubs.length; i++) {
+			int h = hubs[i];
+			double via = (h == r) ? distances[i] : forward ? query(hubs,
+					distances, backwardHubs[h], backwardDistances[h]) : query(
+					forwardHubs[h], forwardDistances[h], hubs, distances);
+			if (via >= distances[i]) {
+				keptHubs[size] = h;
+				keptDistances[size] = distances[i];
+				size++;
+			}
+			candidate[h] = Double.POSITIVE_INFINITY;
+		}
+		candidateCount = 0;
+		if (forward) {
+			forwardHubs[r] = Arrays.copyOf(keptHubs, size);
+			forwardDistances[r] = Arrays.copyOf(keptDistances, size);
+		} else {
+			backwardHubs[r] = Arrays.copyOf(keptHubs, size);
+			backwardDistances[r] = Arrays.copyOf(keptDistances, size);
+		}
+	}
+
+	private static double query(int[] fHubs, double[] fDistances,
+			int[] bHubs, double[] bDistances) {
+		double best = Double.POSITIVE_INFINITY;
+		int i = 0;
+		int j = 0;
+		while ((i < fHubs.length) && (j < bHubs.length)) {
+			if (fHubs[i] < bHubs[j]) {
+				i++;
+			} else if (fHubs[i] > bHubs[j]) {
+				j++;
+			} else {
+				best = Math.min(best, fDistances[i++] + bDistances[j++]);
+			}
+		}
+		return best;
+	}
+
+	private static byte[] encode(int[] hubs, double[] distances) {
+		float[] d = new float[distances.length];
+		for (int i = 0; i < d.length; i++) {
+			d[i] = (float) distances[i];
+		}
+		return HubLabels.encode(hubs, d, hubs.length);
+	}
+}
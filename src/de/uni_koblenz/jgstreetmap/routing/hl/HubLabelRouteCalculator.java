@@ -0,0 +1,123 @@
+package de.uni_koblenz.jgstreetmap.routing.hl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * Answers {@link #getDistance(Node, EdgeRating)} with precomputed
+ * {@link HubLabels}, i.e. by merging two labels without any search. The
+ * labels don't contain the routes, so {@link #getRoute(Node, EdgeRating)} is
+ * answered by an {@link AStarRouteCalculator}.
+ *
+ * The labels are looked up by rating and restriction. They are either added
+ * with {@link #addLabels(HubLabels)} or mapped on demand from the files
+ * written by {@link HubLabelTool} next to the graph file. Like contraction
+ * hierarchies, they were built with the default profile of their
+ * restriction. Distances under other speeds or segment types, and under live
+ * traffic which affects the rating, are computed by the A*, too.
+ */
+public class HubLabelRouteCalculator extends RouteCalculator {
+	private String graphFile;
+	private Map<String, HubLabels> labels;
+
+	/** computes the routes and the distances under live traffic */
+	private AStarRouteCalculator routeCalculator;
+
+	public HubLabelRouteCalculator(OsmGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * @param graphFile
+	 *            the file <code>graph</code> has been loaded from, used to
+	 *            find the label files, may be null
+	 */
+	public HubLabelRouteCalculator(OsmGraph graph, String graphFile) {
+		this.graph = graph;
+		this.graphFile = graphFile;
+		labels = new HashMap<String, HubLabels>();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public void addLabels(HubLabels hl) {
+		if (!hl.matches(graph)) {
+			throw new IllegalArgumentException("The hub labels for "
+					+ hl.getRating() + "/" + hl.getRestriction()
+					+ " do not match the graph");
+		}
+		labels.put(key(hl.getRating(), hl.getRestriction()), hl);
+	}
+
+	/**
+	 * @return the labels for <code>r</code> and the current restriction,
+	 *         mapping them if necessary
+	 */
+	public HubLabels getLabels(EdgeRating r) {
+		String key = key(r, restriction);
+		HubLabels hl = labels.get(key);
+		if (hl != null) {
+			return hl;
+		}
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Hub labels support only LENGTH and TIME, not " + r);
+		}
+		String fileName = (graphFile == null) ? null : HubLabels.getFileName(
+				graphFile, r, restriction);
+		if ((fileName == null) || !new File(fileName).exists()) {
+			throw new IllegalStateException("No hub labels for " + r + "/"
+					+ restriction + " available");
+		}
+		try {
+			hl = HubLabels.load(fileName);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load " + fileName, e);
+		}
+		addLabels(hl);
+		return hl;
+	}
+
+	private static String key(EdgeRating r, RoutingRestriction restriction) {
+		return r + "/" + restriction;
+	}
+
+	@Override
+	public double getDistance(Node target, EdgeRating r) {
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		TrafficState traffic = fetchTrafficState();
+		if (traffic.affects(r) || !hasDefaultRatings(r)) {
+			// the labels may not describe the best routes
+			return super.getDistance(target, r);
+		}
+		return getLabels(r).distance(start, target);
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		if (routeCalculator == null) {
+			routeCalculator = new AStarRouteCalculator(graph);
+		}
+		routeCalculator.setProfile(getProfile());
+		routeCalculator.setTraffic(traffic);
+		routeCalculator.setStart(start);
+		// rate the route like the A* does
+		fetchTrafficState();
+		return routeCalculator.getRoute(target, r);
+	}
+}
@@ -0,0 +1,122 @@
+package de.uni_koblenz.jgstreetmap.routing.hl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchy;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchyBuilder;
+import de.uni_koblenz.jgstreetmap.routing.ch.ContractionHierarchyTool;
+
+/**
+ * Builds the hub labels for an existing graph and stores them next to the
+ * graph file, where {@link HubLabelRouteCalculator} finds them. The vertex
+ * order is taken from the contraction hierarchy files written by
+ * {@link ContractionHierarchyTool}, hierarchies which don't exist yet are
+ * built on the fly.
+ */
+public class HubLabelTool {
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + HubLabelTool.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option ratings = new Option("r", "ratings", true,
+				"(optional): comma separated ratings, default: LENGTH,TIME");
+		ratings.setRequired(false);
+		ratings.setArgName("list");
+		oh.addOption(ratings);
+
+		Option restrictions = new Option("R", "restrictions", true,
+				"(optional): comma separated restrictions, default: CAR,BIKE,FOOT");
+		restrictions.setRequired(false);
+		restrictions.setArgName("list");
+		oh.addOption(restrictions);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException {
+		CommandLine cl = processCommandLineOptions(args);
+		String graphFile = cl.getOptionValue("i");
+
+		EdgeRating[] ratings = ContractionHierarchyTool.RATINGS;
+		if (cl.hasOption("r")) {
+			String[] names = cl.getOptionValue("r").split(",");
+			ratings = new EdgeRating[names.length];
+			for (int i = 0; i < names.length; i++) {
+				ratings[i] = EdgeRating.valueOf(names[i].trim().toUpperCase());
+			}
+		}
+		RoutingRestriction[] restrictions = RoutingRestriction.values();
+		if (cl.hasOption("R")) {
+			String[] names = cl.getOptionValue("R").split(",");
+			restrictions = new RoutingRestriction[names.length];
+			for (int i = 0; i < names.length; i++) {
+				restrictions[i] = RoutingRestriction.valueOf(names[i].trim()
+						.toUpperCase());
+			}
+		}
+
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+		buildLabels(graph, graphFile, ratings, restrictions);
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Builds the labels for all combinations of <code>ratings</code> and
+	 * <code>restrictions</code> and saves them next to <code>graphFile</code>.
+	 * The vertex and edge ids of <code>graph</code> must be the ones stored in
+	 * <code>graphFile</code>.
+	 */
+	public static void buildLabels(OsmGraph graph, String graphFile,
+			EdgeRating[] ratings, RoutingRestriction[] restrictions)
+			throws IOException {
+		DijkstraRouteCalculator ratingSource = new DijkstraRouteCalculator(
+				graph);
+		for (RoutingRestriction restriction : restrictions) {
+			ratingSource.setRestriction(restriction);
+			for (EdgeRating rating : ratings) {
+				ContractionHierarchy ch = null;
+				String chFile = ContractionHierarchy.getFileName(graphFile,
+						rating, restriction);
+				if (new File(chFile).exists()) {
+					ch = ContractionHierarchy.load(chFile);
+				}
+				if ((ch == null) || !ch.matches(graph)) {
+					ch = new ContractionHierarchyBuilder(graph, ratingSource,
+							rating).build();
+				}
+				HubLabels hl = new HubLabelBuilder(graph, ch).build();
+				String fileName = HubLabels.getFileName(graphFile, rating,
+						restriction);
+				hl.save(fileName);
+				System.out.println("Saved " + fileName);
+			}
+		}
+	}
+
+	public static void buildLabels(OsmGraph graph, String graphFile)
+			throws IOException {
+		buildLabels(graph, graphFile, ContractionHierarchyTool.RATINGS,
+				RoutingRestriction.values());
+	}
+}
@@ -0,0 +1,335 @@
+package de.uni_koblenz.jgstreetmap.routing.hl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * A distance oracle made of two hub labels per vertex, built by
+ * {@link HubLabelBuilder} for one {@link EdgeRating} and one
+ * {@link RoutingRestriction}. The forward label of a vertex lists hubs
+ * together with the distance from the vertex to them, the backward label
+ * the distance from them to the vertex. Every pair of vertices with a route
+ * shares a hub on a best route, so the distance from s to t is the minimum
+ * of the sums over the common hubs of the forward label of s and the
+ * backward label of t, see {@link #distance(int, int)}.
+ *
+ * Hubs are identified by their rank and sorted ascending, so two labels are
+ * merged in one pass. A label is stored as a sequence of entries, each the
+ * varint coded difference to the rank of the previous hub followed by the
+ * distance as float. Labels take the largest part of the index, and most
+ * rank differences fit into one or two bytes.
+ *
+ * The file written by {@link #save(String)} contains a header, the offsets
+ * of the labels and the labels themselves, so that {@link #load(String)}
+ * simply maps it into memory: queries read the labels directly from the
+ * mapping and leave caching to the operating system. This limits an index to
+ * 2 GB. All methods are thread-safe.
+ */
+public class HubLabels {
+	private static final int MAGIC = 0x4a47484c; // "JGHL"
+	private static final int VERSION = 1;
+
+	/** suffix of label files, which are stored next to the graph file */
+	public static final String FILE_SUFFIX = ".hl";
+
+	/** magic, version, rating, restriction, vCount, eCount, vertexCount */
+	private static final int HEADER_SIZE = 7 * 4;
+
+	private final EdgeRating rating;
+	private final RoutingRestriction restriction;
+	private final int graphVCount;
+	private final int graphECount;
+	private final int vertexCount;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * the position of the label offsets, which are relative to
+	 * <code>labelStart</code>: forward label of v at 2v, backward at 2v+1,
+	 * and the end of the labels at 2 * vertexCount
+	 */
+	private final int offsetStart;
+	private final int labelStart;
+
+	private HubLabels(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC)) {
+			throw new IllegalArgumentException("Not a hub label index");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported version "
+					+ version + " of hub label index");
+		}
+		rating = EdgeRating.values()[buffer.getInt(8)];
+		restriction = RoutingRestriction.values()[buffer.getInt(12)];
+		graphVCount = buffer.getInt(16);
+		graphECount = buffer.getInt(20);
+		vertexCount = buffer.getInt(24);
+		offsetStart = HEADER_SIZE;
+		labelStart = offsetStart + 4 * (2 * vertexCount + 1);
+	}
+
+	/**
+	 * Creates the index from the encoded labels of all vertices.
+	 *
+	 * @param labels
+	 *            the forward label of vertex v at 2v, the backward label at
+	 *            2v+1, as produced by {@link #encode(int[], float[], int)}
+	 */
+	static HubLabels create(EdgeRating rating, RoutingRestriction restriction,
+			int graphVCount, int graphECount, byte[][] labels) {
+		int vertexCount = labels.length / 2;
+		long size = HEADER_SIZE + 4L * (labels.length + 1);
+		for (byte[] l : labels) {
+			size += l.length;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The hub labels take " + size
+					+ " bytes, more than an index can hold");
+		}
+		ByteBuffer b = ByteBuffer.allocate((int) size);
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		b.putInt(rating.ordinal());
+		b.putInt(restriction.ordinal());
+		b.putInt(graphVCount);
+		b.putInt(graphECount);
+		b.putInt(vertexCount);
+		int offset = 0;
+		for (byte[] l : labels) {
+			b.putInt(offset);
+			offset += l.length;
+		}
+		b.putInt(offset);
+		for (byte[] l : labels) {
+			b.put(l);
+		}
+		return new HubLabels(b);
+	}
+
+	/**
+	 * @return the entries of a label in the stored format
+	 */
+	static byte[] encode(int[] hubs, float[] distances, int size) {
+		// at most 5 bytes per varint
+		ByteBuffer b = ByteBuffer.allocate(size * 9);
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			int delta = hubs[i] - previous;
+			previous = hubs[i];
+			while ((delta & ~0x7f) != 0) {
+				b.put((byte) ((delta & 0x7f) | 0x80));
+				delta >>>= 7;
+			}
+			b.put((byte) delta);
+			b.putFloat(distances[i]);
+		}
+		byte[] l = new byte[b.position()];
+		b.flip();
+		b.get(l);
+		return l;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * @return the size of the index in bytes
+	 */
+	public int getSize() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * @return the number of entries of the forward and backward labels of all
+	 *         vertices
+	 */
+	public long getEntryCount() {
+		long count = 0;
+		for (int l = 0; l < 2 * vertexCount; l++) {
+			int end = labelEnd(l);
+			for (int pos = labelBegin(l); pos < end; pos += 4) {
+				while ((buffer.get(pos++) & 0x80) != 0) {
+					// skip the varint
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if the labels have been built for a graph with the same
+	 *         number of vertices and edges as <code>graph</code>
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the rating of the best route from vertex <code>s</code> to
+	 *         vertex <code>t</code>, 0 if they are equal, or infinity if
+	 *         there is no route
+	 */
+	public double distance(int s, int t) {
+		if (s == t) {
+			return 0;
+		}
+		if ((s < 0) || (t < 0) || (s >= vertexCount) || (t >= vertexCount)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int i = labelBegin(2 * s);
+		int iEnd = labelEnd(2 * s);
+		int j = labelBegin(2 * t + 1);
+		int jEnd = labelEnd(2 * t + 1);
+		if ((i == iEnd) || (j == jEnd)) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double best = Double.POSITIVE_INFINITY;
+		int hubS = 0;
+		int hubT = 0;
+		// positions after the varints, i.e. of the distances
+		int posS = -1;
+		int posT = -1;
+		boolean advanceS = true;
+		boolean advanceT = true;
+		while (true) {
+			if (advanceS) {
+				if (posS >= 0) {
+					i = posS + 4;
+				}
+				if (i == iEnd) {
+					break;
+				}
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = buffer.get(i++);
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+				hubS += delta;
+				posS = i;
+			}
+			if (advanceT) {
+				if (posT >= 0) {
+					j = posT + 4;
+				}
+				if (j == jEnd) {
+					break;
+				}
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = buffer.get(j++);
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+				hubT += delta;
+				posT = j;
+			}
+			advanceS = hubS <= hubT;
+			advanceT = hubT <= hubS;
+			if (hubS == hubT) {
+				double d = (double) buffer.getFloat(posS)
+						+ buffer.getFloat(posT);
+				if (d < best) {
+					best = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the rating of the best route from <code>s</code> to
+	 *         <code>t</code>, 0 if they are equal, or infinity if there is
+	 *         no route
+	 */
+	public double distance(Node s, Node t) {
+		return distance(s.getId(), t.getId());
+	}
+
+	private int labelBegin(int label) {
+		return labelStart + buffer.getInt(offsetStart + 4 * label);
+	}
+
+	private int labelEnd(int label) {
+		return labelStart + buffer.getInt(offsetStart + 4 * label + 4);
+	}
+
+	/**
+	 * @return the name of the file the labels for <code>rating</code> and
+	 *         <code>restriction</code> of the graph stored in
+	 *         <code>graphFile</code> are saved to
+	 */
+	public static String getFileName(String graphFile, EdgeRating rating,
+			RoutingRestriction restriction) {
+		return graphFile + "." + rating.name().toLowerCase() + "-"
+				+ restriction.name().toLowerCase() + FILE_SUFFIX;
+	}
+
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 65536));
+		try {
+			ByteBuffer b = buffer.duplicate();
+			b.clear();
+			byte[] chunk = new byte[65536];
+			while (b.hasRemaining()) {
+				int n = Math.min(chunk.length, b.remaining());
+				b.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Maps the index stored in <code>fileName</code> into memory.
+	 */
+	public static HubLabels load(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(fileName + " is too large");
+			}
+			// the mapping stays valid after the file is closed
+			ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			try {
+				return new HubLabels(b);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage() + ": " + fileName);
+			}
+		} finally {
+			file.close();
+		}
+	}
+}
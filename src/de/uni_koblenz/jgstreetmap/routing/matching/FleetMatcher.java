@@ -0,0 +1,195 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches the traces of many vehicles in parallel as their points arrive.
+ * Each vehicle has its own {@link MatchingSession} and queue of points. A
+ * vehicle with queued points is processed by one task of the executor at a
+ * time, so its points are matched in order while different vehicles are
+ * matched concurrently. The final matches are passed to a
+ * {@link MatchListener}.
+ *
+ * Points older than the previous point of their vehicle are dropped. An
+ * exception thrown while processing a point, e.g. by the listener, is passed
+ * to the uncaught exception handler of the thread and counted by
+ * {@link #getFailureCount()}, and the vehicle goes on with its next point.
+ */
+public class FleetMatcher {
+	/** queued to end the trace of a vehicle */
+	private static final Object FINISH = new Object();
+
+	private final MapMatcher matcher;
+	private final Executor executor;
+	private final MatchListener listener;
+	private final ConcurrentHashMap<String, Vehicle> vehicles;
+
+	/** the number of queued points and trace ends not yet processed */
+	private long pending;
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private class Vehicle implements Runnable {
+		private final String id;
+		private final MatchingSession session;
+		private final ConcurrentLinkedQueue<Object> queue;
+		private final AtomicBoolean scheduled;
+
+		Vehicle(String id) {
+			this.id = id;
+			session = matcher.createSession();
+			queue = new ConcurrentLinkedQueue<Object>();
+			scheduled = new AtomicBoolean();
+		}
+
+		void offer(Object o) {
+			synchronized (FleetMatcher.this) {
+				pending++;
+			}
+			queue.offer(o);
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				Object o;
+				while ((o = queue.poll()) != null) {
+					try {
+						process(o);
+					} catch (RuntimeException e) {
+						failed(e);
+					} finally {
+						processed();
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				// points offered after the last poll but before the flag was
+				// reset
+				if (!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+
+		private void process(Object o) {
+			List<MatchedPoint> matched;
+			if (o == FINISH) {
+				matched = session.finish();
+			} else {
+				GpsPoint p = (GpsPoint) o;
+				if (!session.isInOrder(p)) {
+					return;
+				}
+				matched = session.add(p);
+			}
+			if (!matched.isEmpty()) {
+				listener.matched(id, matched);
+			}
+		}
+	}
+
+	/**
+	 * @param executor
+	 *            runs the matching tasks, e.g. a thread pool with one thread
+	 *            per core
+	 */
+	public FleetMatcher(MapMatcher matcher, Executor executor,
+			MatchListener listener) {
+		this.matcher = matcher;
+		this.executor = executor;
+		this.listener = listener;
+		vehicles = new ConcurrentHashMap<String, Vehicle>();
+	}
+
+	public MapMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Queues the next point of the trace of <code>vehicle</code>.
+	 */
+	public void submit(String vehicle, GpsPoint point) {
+		getVehicle(vehicle).offer(point);
+	}
+
+	/**
+	 * Ends the current trace of <code>vehicle</code>, so that its open points
+	 * are decided. Later points start a new trace.
+	 */
+	public void finish(String vehicle) {
+		Vehicle v = vehicles.get(vehicle);
+		if (v != null) {
+			v.offer(FINISH);
+		}
+	}
+
+	/**
+	 * Ends the current traces of all vehicles.
+	 */
+	public void finishAll() {
+		for (Vehicle v : vehicles.values()) {
+			v.offer(FINISH);
+		}
+	}
+
+	/**
+	 * @return the number of vehicles seen so far
+	 */
+	public int getVehicleCount() {
+		return vehicles.size();
+	}
+
+	/**
+	 * @return the number of points and trace ends whose processing has
+	 *         thrown an exception
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * Waits until all queued points have been processed.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (pending > 0) {
+			wait();
+		}
+	}
+
+	private void failed(RuntimeException e) {
+		failureCount.incrementAndGet();
+		Thread t = Thread.currentThread();
+		t.getUncaughtExceptionHandler().uncaughtException(t, e);
+	}
+
+	private synchronized void processed() {
+		if (--pending == 0) {
+			notifyAll();
+		}
+	}
+
+	private Vehicle getVehicle(String id) {
+		Vehicle v = vehicles.get(id);
+		if (v == null) {
+			Vehicle created = new Vehicle(id);
+			v = vehicles.putIfAbsent(id, created);
+			if (v == null) {
+				v = created;
+			}
+		}
+		return v;
+	}
+}
@@ -0,0 +1,37 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+/**
+ * A position of a GPS trace with the time it has been recorded.
+ */
+public class GpsPoint {
+	private final long time;
+	private final double latitude;
+	private final double longitude;
+
+	/**
+	 * @param time
+	 *            the time of the fix in milliseconds
+	 */
+	public GpsPoint(long time, double latitude, double longitude) {
+		this.time = time;
+		this.latitude = latitude;
+		this.longitude = longitude;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	@Override
+	public String toString() {
+		return "GpsPoint[" + time + ": " + latitude + ", " + longitude + "]";
+	}
+}
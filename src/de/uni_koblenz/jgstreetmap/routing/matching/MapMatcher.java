@@ -0,0 +1,331 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.Segmentator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.compact.SearchWorkspace;
+import de.uni_koblenz.jgstreetmap.routing.compact.SharedRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.WorkspacePool;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentIndex;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+
+/**
+ * Matches GPS traces onto the segments of a graph with a hidden Markov model
+ * after Newson and Krumm, "Hidden Markov Map Matching Through Noise and
+ * Sparseness" (2009). The hidden states of a GPS point are its projections
+ * onto the segments within the search radius, taken from a
+ * {@link SegmentIndex}. Their emission probability falls with the distance
+ * to the point as a Gaussian with deviation <code>sigma</code>. The
+ * transition probability between candidates of consecutive points falls
+ * exponentially, with scale <code>beta</code>, in the difference between the
+ * length of the shortest route connecting them and the straight distance of
+ * the points. The routes come from length searches which give up beyond a
+ * bound, so candidates which can't be connected by a plausible route are
+ * never connected.
+ *
+ * The most likely sequence of candidates is found with the Viterbi algorithm
+ * by {@link MatchingSession}s, one per trace. The matcher itself only holds
+ * the shared, read-only data and the search workspaces, so sessions of many
+ * vehicles may run in parallel, see {@link FleetMatcher}.
+ */
+public class MapMatcher {
+	/** the default deviation of GPS positions in meters */
+	public static final double DEFAULT_SIGMA = 10;
+
+	/** the default scale of route length differences in meters */
+	public static final double DEFAULT_BETA = 10;
+
+	/** the default radius in meters around a point searched for candidates */
+	public static final double DEFAULT_RADIUS = 50;
+
+	public static final int DEFAULT_MAX_CANDIDATES = 8;
+
+	/** the default number of points whose match may still change */
+	public static final int DEFAULT_WINDOW = 30;
+
+	/** the default speed in m/s above which routes are implausible */
+	public static final double DEFAULT_MAX_SPEED = 60;
+
+	/** routes longer than this factor times the point distance are ignored */
+	private static final double MAX_DETOUR_FACTOR = 3;
+
+	private final SegmentIndex index;
+	private final RoutingGraph routingGraph;
+	private final WorkspacePool pool;
+	private final RoutingRestriction restriction;
+	private final Set<SegmentType> types;
+	private final boolean[] typeAllowed;
+
+	private double sigma;
+	private double beta;
+	private double radius;
+	private int maxCandidates;
+	private int window;
+	private double maxSpeed;
+
+	/**
+	 * Creates a matcher whose route searches run on the routing graph and
+	 * workspaces of <code>calculator</code>.
+	 *
+	 * @param restriction
+	 *            decides which segments may be candidates and which routes
+	 *            connect them
+	 */
+	public MapMatcher(SegmentIndex index, SharedRouteCalculator calculator,
+			RoutingRestriction restriction) {
+		this.index = index;
+		this.restriction = restriction;
+		routingGraph = calculator.getRoutingGraph();
+		pool = calculator.getWorkspacePool();
+		types = RouteCalculator.getRelevantTypes(restriction);
+		SegmentType[] values = SegmentType.values();
+		typeAllowed = new boolean[values.length];
+		for (SegmentType t : types) {
+			typeAllowed[t.ordinal()] = true;
+		}
+		sigma = DEFAULT_SIGMA;
+		beta = DEFAULT_BETA;
+		radius = DEFAULT_RADIUS;
+		maxCandidates = DEFAULT_MAX_CANDIDATES;
+		window = DEFAULT_WINDOW;
+		maxSpeed = DEFAULT_MAX_SPEED;
+	}
+
+	public SegmentIndex getIndex() {
+		return index;
+	}
+
+	public RoutingRestriction getRestriction() {
+		return restriction;
+	}
+
+	public double getSigma() {
+		return sigma;
+	}
+
+	/**
+	 * Sets the standard deviation of the GPS positions in meters.
+	 */
+	public void setSigma(double sigma) {
+		if (sigma <= 0) {
+			throw new IllegalArgumentException("sigma must be positive");
+		}
+		this.sigma = sigma;
+	}
+
+	public double getBeta() {
+		return beta;
+	}
+
+	/**
+	 * Sets the scale in meters of the exponential distribution of the
+	 * differences between route lengths and point distances. Smaller values
+	 * prefer direct routes more strongly.
+	 */
+	public void setBeta(double beta) {
+		if (beta <= 0) {
+			throw new IllegalArgumentException("beta must be positive");
+		}
+		this.beta = beta;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 * Sets the radius in meters around a point searched for candidates.
+	 */
+	public void setRadius(double radius) {
+		if (radius <= 0) {
+			throw new IllegalArgumentException("radius must be positive");
+		}
+		this.radius = radius;
+	}
+
+	public int getMaxCandidates() {
+		return maxCandidates;
+	}
+
+	/**
+	 * Sets the number of nearest segments considered per point.
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		if (maxCandidates < 1) {
+			throw new IllegalArgumentException(
+					"at least one candidate needed");
+		}
+		this.maxCandidates = maxCandidates;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Sets the number of points a session keeps open. When all candidates of
+	 * the newest point agree on the match of an older point, that match is
+	 * final anyway; otherwise the oldest point beyond the window is decided
+	 * by the currently most likely sequence.
+	 */
+	public void setWindow(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		this.window = window;
+	}
+
+	public double getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	/**
+	 * Sets the speed in m/s above which a route between two points is
+	 * implausible given the time between them.
+	 */
+	public void setMaxSpeed(double maxSpeed) {
+		if (maxSpeed <= 0) {
+			throw new IllegalArgumentException("speed must be positive");
+		}
+		this.maxSpeed = maxSpeed;
+	}
+
+	/**
+	 * @return a session for matching one trace
+	 */
+	public MatchingSession createSession() {
+		return new MatchingSession(this);
+	}
+
+	/**
+	 * Matches a complete trace.
+	 *
+	 * @return the matches of all points of <code>trace</code>
+	 */
+	public List<MatchedPoint> match(List<GpsPoint> trace) {
+		MatchingSession session = createSession();
+		List<MatchedPoint> result = new ArrayList<MatchedPoint>(trace
+				.size());
+		for (GpsPoint p : trace) {
+			result.addAll(session.add(p));
+		}
+		result.addAll(session.finish());
+		return result;
+	}
+
+	/**
+	 * @return the nearest candidates of <code>p</code>, at most
+	 *         <code>maxCandidates</code>
+	 */
+	SegmentProjection[] getCandidates(GpsPoint p) {
+		List<SegmentProjection> l = index.query(p.getLatitude(), p
+				.getLongitude(), radius, types);
+		if (l.size() > maxCandidates) {
+			l = l.subList(0, maxCandidates);
+		}
+		return l.toArray(new SegmentProjection[l.size()]);
+	}
+
+	/**
+	 * @return the logarithm of the emission probability of <code>c</code>
+	 *         up to a constant
+	 */
+	double emission(SegmentProjection c) {
+		double d = c.getDistance() / sigma;
+		return -0.5 * d * d;
+	}
+
+	/**
+	 * @return the logarithm of the transition probability for a route of
+	 *         length <code>route</code> between points
+	 *         <code>distance</code> meters apart, up to a constant
+	 */
+	double transition(double route, double distance) {
+		if (Double.isInfinite(route)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return -Math.abs(route - distance) / beta;
+	}
+
+	static double distance(GpsPoint p, GpsPoint q) {
+		return Segmentator.distance(p.getLatitude(), p.getLongitude(), q
+				.getLatitude(), q.getLongitude());
+	}
+
+	/**
+	 * @return the length bound for routes between the points <code>p</code>
+	 *         and <code>q</code>
+	 */
+	double getRouteLimit(GpsPoint p, GpsPoint q) {
+		double limit = MAX_DETOUR_FACTOR * distance(p, q) + 2 * radius;
+		long time = q.getTime() - p.getTime();
+		if (time > 0) {
+			limit = Math.min(limit, maxSpeed * time / 1000 + 2 * radius);
+		}
+		return limit;
+	}
+
+	/**
+	 * Computes the lengths of the shortest routes from <code>from</code> to
+	 * each of <code>to</code>. A route leaves the segment of
+	 * <code>from</code> at one of its ends, unless both lie on the same
+	 * segment in driving order.
+	 *
+	 * @return the route lengths, infinite where they exceed
+	 *         <code>limit</code>
+	 */
+	double[] routeDistances(SegmentProjection from, SegmentProjection[] to,
+			double limit) {
+		Segment s = from.getSegment();
+		int[] sources;
+		double[] initial;
+		if (s.is_oneway()) {
+			sources = new int[] { s.getOmega().getId() };
+			initial = new double[] { from.getLengthToOmega() };
+		} else {
+			sources = new int[] { s.getOmega().getId(), s.getAlpha().getId() };
+			initial = new double[] { from.getLengthToOmega(),
+					from.getLengthFromAlpha() };
+		}
+		int[] targets = new int[2 * to.length];
+		for (int j = 0; j < to.length; j++) {
+			targets[2 * j] = to[j].getSegment().getAlpha().getId();
+			targets[2 * j + 1] = to[j].getSegment().getOmega().getId();
+		}
+
+		double[] result = new double[to.length];
+		SearchWorkspace w = pool.acquire();
+		try {
+			w.searchWithin(routingGraph, sources, initial, targets, limit,
+					typeAllowed);
+			for (int j = 0; j < to.length; j++) {
+				SegmentProjection c = to[j];
+				Segment t = c.getSegment();
+				double d = w.getDistance(targets[2 * j])
+						+ c.getLengthFromAlpha();
+				if (!t.is_oneway()) {
+					d = Math.min(d, w.getDistance(targets[2 * j + 1])
+							+ c.getLengthToOmega());
+				}
+				if (t.getId() == s.getId()) {
+					double along = (c.getFraction() - from.getFraction())
+							* s.get_length();
+					if ((along >= 0) || !s.is_oneway()) {
+						d = Math.min(d, Math.abs(along));
+					}
+				}
+				result[j] = (d <= limit) ? d : Double.POSITIVE_INFINITY;
+			}
+		} finally {
+			pool.release(w);
+		}
+		return result;
+	}
+}
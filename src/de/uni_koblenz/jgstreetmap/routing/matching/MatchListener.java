@@ -0,0 +1,15 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+import java.util.List;
+
+/**
+ * Receives the matched points of the vehicles of a {@link FleetMatcher}.
+ */
+public interface MatchListener {
+	/**
+	 * Called with the points of <code>vehicle</code> whose match has become
+	 * final, in the order of the trace. Calls for different vehicles may
+	 * happen at the same time, calls for one vehicle never do.
+	 */
+	void matched(String vehicle, List<MatchedPoint> points);
+}
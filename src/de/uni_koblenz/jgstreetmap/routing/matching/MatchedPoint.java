@@ -0,0 +1,50 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+
+/**
+ * A GPS point together with the position on the road network it has been
+ * matched to. Points without candidate segments within the search radius
+ * stay unmatched.
+ */
+public class MatchedPoint {
+	private final GpsPoint point;
+	private final SegmentProjection projection;
+	private final double routeDistance;
+
+	MatchedPoint(GpsPoint point, SegmentProjection projection,
+			double routeDistance) {
+		this.point = point;
+		this.projection = projection;
+		this.routeDistance = routeDistance;
+	}
+
+	public GpsPoint getPoint() {
+		return point;
+	}
+
+	public boolean isMatched() {
+		return projection != null;
+	}
+
+	/**
+	 * @return the matched position, or null if the point is unmatched
+	 */
+	public SegmentProjection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * @return the length in meters of the route from the previous matched
+	 *         point, or NaN if this point starts a new part of the trace
+	 */
+	public double getRouteDistance() {
+		return routeDistance;
+	}
+
+	@Override
+	public String toString() {
+		return "MatchedPoint[" + point + " -> " + projection + ", route "
+				+ routeDistance + " m]";
+	}
+}
@@ -0,0 +1,285 @@
+package de.uni_koblenz.jgstreetmap.routing.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentProjection;
+
+/**
+ * Matches one trace online, point by point, with the Viterbi algorithm of a
+ * {@link MapMatcher}. Only the points whose match may still change are kept:
+ * as soon as all surviving candidate sequences of the newest point go back to
+ * the same candidate of an older point, that point and its predecessors are
+ * final and returned. Points beyond the window of the matcher are decided by
+ * the currently most likely sequence.
+ *
+ * Where no candidates of two consecutive points can be connected, or a point
+ * has no candidates at all, the trace is split: the open points are decided
+ * and matching starts anew.
+ *
+ * A session must only be used by one thread at a time.
+ */
+public class MatchingSession {
+	private final MapMatcher matcher;
+
+	/** the points whose match isn't final yet, oldest first */
+	private final List<Step> steps;
+
+	/**
+	 * the last final point whose candidates the first open point continues,
+	 * with all but the chosen candidate ruled out, or null at the start of a
+	 * part of the trace
+	 */
+	private Step anchor;
+
+	/** a point with its candidates and their Viterbi state */
+	private static class Step {
+		final GpsPoint point;
+		final SegmentProjection[] candidates;
+
+		/** log probability of the best sequence ending in a candidate */
+		final double[] score;
+
+		/** the candidate of the previous point in that sequence, or -1 */
+		final int[] back;
+
+		/** the route length from that candidate */
+		final double[] routeDistance;
+
+		Step(GpsPoint point, SegmentProjection[] candidates) {
+			this.point = point;
+			this.candidates = candidates;
+			score = new double[candidates.length];
+			back = new int[candidates.length];
+			routeDistance = new double[candidates.length];
+		}
+	}
+
+	MatchingSession(MapMatcher matcher) {
+		this.matcher = matcher;
+		steps = new ArrayList<Step>();
+	}
+
+	/**
+	 * @return the number of points whose match isn't final yet
+	 */
+	public int getOpenPointCount() {
+		return steps.size();
+	}
+
+	/**
+	 * @return true if <code>p</code> isn't older than the previous point, so
+	 *         that it may be added
+	 */
+	public boolean isInOrder(GpsPoint p) {
+		Step previous = steps.isEmpty() ? anchor : steps.get(steps.size() - 1);
+		return (previous == null) || (p.getTime() >= previous.point.getTime());
+	}
+
+	/**
+	 * Adds the next point of the trace.
+	 *
+	 * @return the points whose match has become final, in trace order
+	 * @throws IllegalArgumentException
+	 *             if <code>p</code> is older than the previous point
+	 */
+	public List<MatchedPoint> add(GpsPoint p) {
+		if (!isInOrder(p)) {
+			throw new IllegalArgumentException("point " + p
+					+ " is older than the previous point");
+		}
+		Step previous = steps.isEmpty() ? anchor : steps.get(steps.size() - 1);
+		List<MatchedPoint> result = new ArrayList<MatchedPoint>();
+		SegmentProjection[] candidates = matcher.getCandidates(p);
+		if (candidates.length == 0) {
+			decideAll(result);
+			result.add(new MatchedPoint(p, null, Double.NaN));
+			return result;
+		}
+
+		Step step = new Step(p, candidates);
+		if ((previous == null) || !connect(previous, step)) {
+			if (previous != null) {
+				decideAll(result);
+			}
+			for (int j = 0; j < candidates.length; j++) {
+				step.score[j] = matcher.emission(candidates[j]);
+				step.back[j] = -1;
+				step.routeDistance[j] = Double.NaN;
+			}
+		}
+		normalize(step);
+		steps.add(step);
+
+		decideConverged(result);
+		if (steps.size() > matcher.getWindow()) {
+			// the candidate of the oldest point beyond the window on the most
+			// likely sequence of the newest point
+			int k = steps.size() - matcher.getWindow() - 1;
+			int c = best(steps.get(steps.size() - 1));
+			for (int i = steps.size() - 1; i > k; i--) {
+				c = steps.get(i).back[c];
+			}
+			decide(k, c, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Decides all open points by the most likely sequence. The session may be
+	 * used for a new trace afterwards.
+	 *
+	 * @return the remaining points in trace order
+	 */
+	public List<MatchedPoint> finish() {
+		List<MatchedPoint> result = new ArrayList<MatchedPoint>();
+		decideAll(result);
+		return result;
+	}
+
+	/**
+	 * Computes the Viterbi scores of <code>step</code> from the candidates of
+	 * <code>previous</code>.
+	 *
+	 * @return false if none of the candidates can be reached
+	 */
+	private boolean connect(Step previous, Step step) {
+		double distance = MapMatcher.distance(previous.point, step.point);
+		double limit = matcher.getRouteLimit(previous.point, step.point);
+		Arrays.fill(step.score, Double.NEGATIVE_INFINITY);
+		boolean reached = false;
+		for (int i = 0; i < previous.candidates.length; i++) {
+			if (previous.score[i] == Double.NEGATIVE_INFINITY) {
+				continue;
+			}
+			double[] routes = matcher.routeDistances(previous.candidates[i],
+					step.candidates, limit);
+			for (int j = 0; j < step.candidates.length; j++) {
+				double score = previous.score[i]
+						+ matcher.transition(routes[j], distance);
+				if (score > step.score[j]) {
+					step.score[j] = score;
+					step.back[j] = i;
+					step.routeDistance[j] = routes[j];
+					reached = true;
+				}
+			}
+		}
+		if (!reached) {
+			return false;
+		}
+		for (int j = 0; j < step.candidates.length; j++) {
+			step.score[j] += matcher.emission(step.candidates[j]);
+		}
+		return true;
+	}
+
+	/**
+	 * Shifts the scores so that the best one is 0, which keeps them from
+	 * drifting out of the range of doubles on long traces.
+	 */
+	private static void normalize(Step step) {
+		double max = step.score[best(step)];
+		for (int j = 0; j < step.score.length; j++) {
+			step.score[j] -= max;
+		}
+	}
+
+	private static int best(Step step) {
+		int best = 0;
+		for (int j = 1; j < step.score.length; j++) {
+			if (step.score[j] > step.score[best]) {
+				best = j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the newest open point on which all surviving sequences agree and
+	 * decides it together with its predecessors.
+	 */
+	private void decideConverged(List<MatchedPoint> result) {
+		int k = steps.size() - 1;
+		Step step = steps.get(k);
+		boolean[] alive = new boolean[step.candidates.length];
+		for (int j = 0; j < alive.length; j++) {
+			alive[j] = step.score[j] != Double.NEGATIVE_INFINITY;
+		}
+		while (true) {
+			int single = -1;
+			int count = 0;
+			for (int j = 0; j < alive.length; j++) {
+				if (alive[j]) {
+					single = j;
+					count++;
+				}
+			}
+			if (count == 1) {
+				decide(k, single, result);
+				return;
+			}
+			if (k == 0) {
+				return;
+			}
+			boolean[] parents = new boolean[steps.get(k - 1).candidates.length];
+			for (int j = 0; j < alive.length; j++) {
+				if (alive[j]) {
+					if (step.back[j] < 0) {
+						return;
+					}
+					parents[step.back[j]] = true;
+				}
+			}
+			k--;
+			step = steps.get(k);
+			alive = parents;
+		}
+	}
+
+	private void decideAll(List<MatchedPoint> result) {
+		if (!steps.isEmpty()) {
+			decide(steps.size() - 1, best(steps.get(steps.size() - 1)),
+					result);
+		}
+		anchor = null;
+	}
+
+	/**
+	 * Makes the match of the open points up to index <code>k</code> final,
+	 * following the sequence which ends in <code>candidate</code> of point
+	 * <code>k</code>. Sequences of the remaining points which don't go
+	 * through it are ruled out.
+	 */
+	private void decide(int k, int candidate, List<MatchedPoint> result) {
+		int[] chosen = new int[k + 1];
+		chosen[k] = candidate;
+		for (int i = k; i > 0; i--) {
+			chosen[i - 1] = steps.get(i).back[chosen[i]];
+		}
+		for (int i = 0; i <= k; i++) {
+			Step s = steps.get(i);
+			result.add(new MatchedPoint(s.point, s.candidates[chosen[i]],
+					s.routeDistance[chosen[i]]));
+		}
+		anchor = steps.get(k);
+		for (int j = 0; j < anchor.score.length; j++) {
+			if (j != candidate) {
+				anchor.score[j] = Double.NEGATIVE_INFINITY;
+			}
+		}
+		steps.subList(0, k + 1).clear();
+
+		Step previous = anchor;
+		for (Step s : steps) {
+			for (int j = 0; j < s.score.length; j++) {
+				if ((s.back[j] < 0)
+						|| (previous.score[s.back[j]] == Double.NEGATIVE_INFINITY)) {
+					s.score[j] = Double.NEGATIVE_INFINITY;
+				}
+			}
+			previous = s;
+		}
+	}
+}
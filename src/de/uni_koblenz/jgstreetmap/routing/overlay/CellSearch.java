@@ -0,0 +1,125 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * A Dijkstra search which doesn't leave the cell of its source vertex. The
+ * arrays are indexed by the index of a vertex within its cell, so they only
+ * need the size of the largest cell. Like in the
+ * {@link de.uni_koblenz.jgstreetmap.routing.compact.SearchWorkspace}, entries
+ * carry a generation number instead of being cleared.
+ */
+class CellSearch {
+	private final Overlay overlay;
+	private final RoutingGraph graph;
+	private final Partition partition;
+
+	private int generation;
+	private final int[] visited;
+	private final int[] settled;
+	private final double[] distance;
+	private final int[] parentArc;
+	private final int[] parentVertex;
+	private final VertexHeap queue;
+
+	private int cell;
+
+	CellSearch(Overlay overlay) {
+		this.overlay = overlay;
+		graph = overlay.getRoutingGraph();
+		partition = overlay.getPartition();
+		int size = partition.getMaxCellSize();
+		visited = new int[size];
+		settled = new int[size];
+		distance = new double[size];
+		parentArc = new int[size];
+		parentVertex = new int[size];
+		queue = new VertexHeap(size);
+	}
+
+	/**
+	 * Searches from <code>source</code> until <code>target</code> is settled
+	 * or, if <code>target</code> is -1, the whole cell is settled.
+	 */
+	void search(float[] arcWeight, int source, int target) {
+		queue.clear();
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+		cell = partition.getCell(source);
+		int s = overlay.localIndex[source];
+		visited[s] = generation;
+		distance[s] = 0;
+		parentArc[s] = -1;
+		parentVertex[s] = -1;
+		queue.insert(s, 0);
+
+		int[] vertices = partition.getVertices();
+		int first = partition.getFirstVertex(cell);
+		while (!queue.isEmpty()) {
+			int u = queue.poll();
+			settled[u] = generation;
+			int v = vertices[first + u];
+			if (v == target) {
+				return;
+			}
+			double d = distance[u];
+			for (int a = graph.getFirstArc(v); a < graph.getFirstArc(v + 1); a++) {
+				int head = graph.getHead(a);
+				if ((partition.getCell(head) != cell)
+						|| (arcWeight[a] == Float.POSITIVE_INFINITY)) {
+					continue;
+				}
+				int w = overlay.localIndex[head];
+				double newDist = d + arcWeight[a];
+				if (visited[w] != generation) {
+					visited[w] = generation;
+					distance[w] = newDist;
+					parentArc[w] = a;
+					parentVertex[w] = v;
+					queue.insert(w, newDist);
+				} else if ((settled[w] != generation)
+						&& (newDist < distance[w])) {
+					distance[w] = newDist;
+					parentArc[w] = a;
+					parentVertex[w] = v;
+					queue.decreaseKey(w, newDist);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the distance of <code>v</code> from the source within the cell,
+	 *         or infinity if it hasn't been settled
+	 */
+	double getDistance(int v) {
+		int i = overlay.localIndex[v];
+		if ((partition.getCell(v) != cell) || (settled[i] != generation)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return distance[i];
+	}
+
+	/**
+	 * @return the last arc of the path to the settled vertex <code>v</code>,
+	 *         or -1 for the source
+	 */
+	int getParentArc(int v) {
+		return parentArc[overlay.localIndex[v]];
+	}
+
+	/**
+	 * @return the predecessor of the settled vertex <code>v</code>, or -1 for
+	 *         the source
+	 */
+	int getParentVertex(int v) {
+		return parentVertex[overlay.localIndex[v]];
+	}
+}
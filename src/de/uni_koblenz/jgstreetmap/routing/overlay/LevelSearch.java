@@ -0,0 +1,159 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * A Dijkstra search which doesn't leave the cell of its source vertex on one
+ * level of a {@link MultilevelOverlay}. On level 0 it relaxes the arcs of the
+ * routing graph like a {@link CellSearch}. On a higher level l it runs on the
+ * overlay graph of level l - 1: the clique arcs of the subcells and the arcs
+ * between different subcells. The arrays are indexed by the position of a
+ * vertex within the cell, so they only need the size of the largest cell of
+ * the level.
+ */
+class LevelSearch {
+	private final MultilevelOverlay overlay;
+	private final RoutingGraph graph;
+	private final MultilevelPartition partition;
+	private final int level;
+
+	private int generation;
+	private final int[] visited;
+	private final int[] settled;
+	private final double[] distance;
+	private final int[] parentArc;
+	private final int[] parentVertex;
+	private final VertexHeap queue;
+
+	private int cell;
+	private int firstVertex;
+
+	LevelSearch(MultilevelOverlay overlay, int level) {
+		this.overlay = overlay;
+		this.level = level;
+		graph = overlay.getRoutingGraph();
+		partition = overlay.getPartition();
+		int size = partition.getMaxCellSize(level);
+		visited = new int[size];
+		settled = new int[size];
+		distance = new double[size];
+		parentArc = new int[size];
+		parentVertex = new int[size];
+		queue = new VertexHeap(size);
+	}
+
+	/**
+	 * Searches from <code>source</code> until <code>target</code> is settled
+	 * or, if <code>target</code> is -1, the whole cell is settled. Above
+	 * level 0, <code>source</code> must be a boundary vertex of its subcell.
+	 *
+	 * @param cliqueWeight
+	 *            the clique ratings by level, those of the levels below this
+	 *            one must be computed
+	 */
+	void search(float[] arcWeight, float[][] cliqueWeight, int source,
+			int target) {
+		queue.clear();
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+		cell = partition.getCell(level, source);
+		firstVertex = partition.getFirstVertex(level, cell);
+		int s = partition.getPosition(source) - firstVertex;
+		visited[s] = generation;
+		distance[s] = 0;
+		parentArc[s] = -1;
+		parentVertex[s] = -1;
+		queue.insert(s, 0);
+
+		int[] vertices = partition.getVertices();
+		int sub = level - 1;
+		while (!queue.isEmpty()) {
+			int u = queue.poll();
+			settled[u] = generation;
+			int v = vertices[firstVertex + u];
+			if (v == target) {
+				return;
+			}
+			double d = distance[u];
+			int subcell = (sub < 0) ? -1 : partition.getCell(sub, v);
+			for (int a = graph.getFirstArc(v); a < graph.getFirstArc(v + 1); a++) {
+				int w = graph.getHead(a);
+				// above level 0, the arcs within a subcell are replaced by
+				// its clique
+				if ((partition.getCell(level, w) != cell)
+						|| ((sub >= 0) && (partition.getCell(sub, w) == subcell))
+						|| (arcWeight[a] == Float.POSITIVE_INFINITY)) {
+					continue;
+				}
+				relax(w, d + arcWeight[a], a, v);
+			}
+			if ((sub >= 0) && (overlay.boundaryIndex[sub][v] >= 0)) {
+				int first = overlay.firstBoundary[sub][subcell];
+				int b = overlay.firstBoundary[sub][subcell + 1] - first;
+				int offset = overlay.firstClique[sub][subcell]
+						+ overlay.boundaryIndex[sub][v] * b;
+				for (int j = 0; j < b; j++) {
+					float weight = cliqueWeight[sub][offset + j];
+					if (weight != Float.POSITIVE_INFINITY) {
+						relax(overlay.boundaryVertices[sub][first + j], d
+								+ weight, -1, v);
+					}
+				}
+			}
+		}
+	}
+
+	private void relax(int w, double newDist, int arc, int v) {
+		int i = partition.getPosition(w) - firstVertex;
+		if (visited[i] != generation) {
+			visited[i] = generation;
+			distance[i] = newDist;
+			parentArc[i] = arc;
+			parentVertex[i] = v;
+			queue.insert(i, newDist);
+		} else if ((settled[i] != generation) && (newDist < distance[i])) {
+			distance[i] = newDist;
+			parentArc[i] = arc;
+			parentVertex[i] = v;
+			queue.decreaseKey(i, newDist);
+		}
+	}
+
+	/**
+	 * @return the distance of <code>v</code> from the source within the cell,
+	 *         or infinity if it hasn't been settled
+	 */
+	double getDistance(int v) {
+		if (partition.getCell(level, v) != cell) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int i = partition.getPosition(v) - firstVertex;
+		if (settled[i] != generation) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return distance[i];
+	}
+
+	/**
+	 * @return the last arc of the path to the settled vertex <code>v</code>,
+	 *         -1 for a clique arc of the level below or for the source
+	 */
+	int getParentArc(int v) {
+		return parentArc[partition.getPosition(v) - firstVertex];
+	}
+
+	/**
+	 * @return the predecessor of the settled vertex <code>v</code>, or -1 for
+	 *         the source
+	 */
+	int getParentVertex(int v) {
+		return parentVertex[partition.getPosition(v) - firstVertex];
+	}
+}
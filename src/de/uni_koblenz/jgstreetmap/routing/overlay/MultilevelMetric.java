@@ -0,0 +1,88 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The ratings of the arcs and of the clique arcs of all levels of a
+ * {@link MultilevelOverlay} under one {@link RoutingProfile},
+ * {@link EdgeRating} and {@link TrafficState}, the multilevel counterpart of
+ * an {@link OverlayMetric}. A metric is never changed after its
+ * customization, so it may be shared by the calculators of many threads.
+ */
+public class MultilevelMetric {
+	private final MultilevelOverlay overlay;
+	private final RoutingProfile profile;
+	private final EdgeRating rating;
+	private final TrafficState traffic;
+	private final int customizedCellCount;
+	private final long customizationTime;
+
+	/** the rating of each arc of the routing graph */
+	final float[] arcWeight;
+
+	/**
+	 * the rating of the clique arcs by level, see
+	 * {@link MultilevelOverlay#firstClique}
+	 */
+	final float[][] cliqueWeight;
+
+	MultilevelMetric(MultilevelOverlay overlay, RoutingProfile profile,
+			EdgeRating rating, TrafficState traffic, float[] arcWeight,
+			float[][] cliqueWeight, int customizedCellCount,
+			long customizationTime) {
+		this.overlay = overlay;
+		this.profile = profile;
+		this.rating = rating;
+		this.traffic = traffic;
+		this.arcWeight = arcWeight;
+		this.cliqueWeight = cliqueWeight;
+		this.customizedCellCount = customizedCellCount;
+		this.customizationTime = customizationTime;
+	}
+
+	public MultilevelOverlay getOverlay() {
+		return overlay;
+	}
+
+	public RoutingProfile getProfile() {
+		return profile;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	/**
+	 * @return the traffic state the metric has been customized for
+	 */
+	public TrafficState getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * @return true if this metric rates all arcs like a customization for
+	 *         <code>profile</code> and <code>r</code> would, see
+	 *         {@link OverlayMetric#matches(RoutingProfile, EdgeRating)}
+	 */
+	public boolean matches(RoutingProfile profile, EdgeRating r) {
+		return OverlayMetric.matches(this.profile, rating, profile, r);
+	}
+
+	/**
+	 * @return the number of cells of all levels whose cliques have been
+	 *         computed for this metric, the others have been taken over from
+	 *         the metric it was derived from
+	 */
+	public int getCustomizedCellCount() {
+		return customizedCellCount;
+	}
+
+	/**
+	 * @return the time in milliseconds the customization took
+	 */
+	public long getCustomizationTime() {
+		return customizationTime;
+	}
+}
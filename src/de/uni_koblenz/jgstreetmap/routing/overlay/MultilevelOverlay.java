@@ -0,0 +1,318 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * An {@link Overlay} with several levels of cells, given by a
+ * {@link MultilevelPartition}. On each level, the boundary vertices of a cell
+ * are the vertices with a segment into another cell of that level, and they
+ * are connected by a clique. As the cells are nested, the boundary vertices
+ * of a level are boundary vertices of all levels below it.
+ *
+ * The customization works bottom-up: the cliques of level 0 are computed by
+ * searches on the segments within the cell, the cliques of a higher level by
+ * searches on the cliques of its subcells and the segments between them. The
+ * cells of one level are customized in parallel on a {@link ForkJoinPool}.
+ * With a few levels, a query only searches the segments of the cells of
+ * start and target on level 0 and the cliques of ever larger cells farther
+ * away, so it stays fast on graphs of the size of several countries.
+ */
+public class MultilevelOverlay {
+	private final RoutingGraph graph;
+	private final MultilevelPartition partition;
+	private final ForkJoinPool forkJoinPool;
+
+	/**
+	 * by level, the index of each vertex among the boundary vertices of its
+	 * cell, or -1
+	 */
+	final int[][] boundaryIndex;
+
+	/**
+	 * by level, the boundary vertices of cell c are
+	 * firstBoundary[c]..firstBoundary[c+1]-1
+	 */
+	final int[][] firstBoundary;
+	final int[][] boundaryVertices;
+
+	/**
+	 * by level, the clique of cell c with b boundary vertices starts at
+	 * firstClique[c], the arc from the i-th to the j-th boundary vertex is at
+	 * firstClique[c] + i * b + j
+	 */
+	final int[][] firstClique;
+
+	public MultilevelOverlay(RoutingGraph graph, int[] maxCellSizes,
+			ForkJoinPool forkJoinPool) {
+		this(graph, new MultilevelPartition(graph, maxCellSizes,
+				forkJoinPool), forkJoinPool);
+	}
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool customizing the cells, which the caller shuts down
+	 *            when the overlay isn't customized anymore
+	 */
+	public MultilevelOverlay(RoutingGraph graph,
+			MultilevelPartition partition, ForkJoinPool forkJoinPool) {
+		this.graph = graph;
+		this.partition = partition;
+		this.forkJoinPool = forkJoinPool;
+
+		int levels = partition.getLevelCount();
+		int[] vertices = partition.getVertices();
+		boundaryIndex = new int[levels][];
+		firstBoundary = new int[levels][];
+		boundaryVertices = new int[levels][];
+		firstClique = new int[levels][];
+		for (int l = 0; l < levels; l++) {
+			int cellCount = partition.getCellCount(l);
+			boundaryIndex[l] = new int[graph.getVertexCount()];
+			Arrays.fill(boundaryIndex[l], -1);
+			firstBoundary[l] = new int[cellCount + 1];
+			firstClique[l] = new int[cellCount + 1];
+			for (int c = 0; c < cellCount; c++) {
+				int b = 0;
+				for (int i = partition.getFirstVertex(l, c); i < partition
+						.getFirstVertex(l, c + 1); i++) {
+					if (hasCutArc(vertices[i], l, c)) {
+						boundaryIndex[l][vertices[i]] = b++;
+					}
+				}
+				firstBoundary[l][c + 1] = firstBoundary[l][c] + b;
+				long cliqueEnd = firstClique[l][c] + (long) b * b;
+				if (cliqueEnd > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException(
+							"The cliques of level " + l
+									+ " are too large, use smaller cells");
+				}
+				firstClique[l][c + 1] = (int) cliqueEnd;
+			}
+			boundaryVertices[l] = new int[firstBoundary[l][cellCount]];
+			for (int v : vertices) {
+				if (boundaryIndex[l][v] >= 0) {
+					int c = partition.getCell(l, v);
+					boundaryVertices[l][firstBoundary[l][c]
+							+ boundaryIndex[l][v]] = v;
+				}
+			}
+		}
+	}
+
+	private boolean hasCutArc(int v, int level, int c) {
+		for (int a = graph.getFirstArc(v); a < graph.getFirstArc(v + 1); a++) {
+			if (partition.getCell(level, graph.getHead(a)) != c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return graph;
+	}
+
+	public MultilevelPartition getPartition() {
+		return partition;
+	}
+
+	public int getLevelCount() {
+		return partition.getLevelCount();
+	}
+
+	public int getBoundaryVertexCount(int level) {
+		return boundaryVertices[level].length;
+	}
+
+	/**
+	 * @return the number of clique arcs of all cells of <code>level</code>
+	 */
+	public int getCliqueArcCount(int level) {
+		return firstClique[level][partition.getCellCount(level)];
+	}
+
+	/**
+	 * Computes the ratings of all arcs and clique arcs under
+	 * <code>profile</code>. Only {@link EdgeRating#LENGTH} and
+	 * {@link EdgeRating#TIME} are supported, since the rating of a segment
+	 * must not depend on its predecessor.
+	 */
+	public MultilevelMetric customize(RoutingProfile profile, EdgeRating r) {
+		return customize(profile, r, TrafficState.EMPTY);
+	}
+
+	/**
+	 * Computes the ratings of all arcs and clique arcs under
+	 * <code>profile</code> and <code>traffic</code>, see
+	 * {@link #customize(RoutingProfile, EdgeRating)}.
+	 */
+	public MultilevelMetric customize(RoutingProfile profile, EdgeRating r,
+			TrafficState traffic) {
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Overlays support only LENGTH and TIME, not " + r);
+		}
+		long startTime = System.currentTimeMillis();
+		double[] factor = Overlay.getFactors(profile, r);
+		float[] arcWeight = new float[graph.getArcCount()];
+		for (int a = 0; a < arcWeight.length; a++) {
+			arcWeight[a] = Overlay.rate(graph, a, factor, r, traffic);
+		}
+		int levels = partition.getLevelCount();
+		float[][] cliqueWeight = new float[levels][];
+		int customized = 0;
+		for (int l = 0; l < levels; l++) {
+			cliqueWeight[l] = new float[getCliqueArcCount(l)];
+			int[] cells = new int[partition.getCellCount(l)];
+			for (int c = 0; c < cells.length; c++) {
+				cells[c] = c;
+			}
+			forkJoinPool.invoke(new CustomizeTask(l, arcWeight, cliqueWeight,
+					cells, 0, cells.length));
+			customized += cells.length;
+		}
+		return new MultilevelMetric(this, profile, r, traffic, arcWeight,
+				cliqueWeight, customized, System.currentTimeMillis()
+						- startTime);
+	}
+
+	/**
+	 * Derives the metric for <code>traffic</code> from <code>metric</code>,
+	 * which belongs to this overlay. Only the arcs of the segments whose
+	 * overrides differ are rated anew, and only the cliques of the cells
+	 * containing such arcs are customized again, on each level. The cliques
+	 * of levels without such cells are shared with <code>metric</code>.
+	 */
+	public MultilevelMetric customize(MultilevelMetric metric,
+			TrafficState traffic) {
+		if (metric.getOverlay() != this) {
+			throw new IllegalArgumentException(
+					"The metric belongs to another overlay");
+		}
+		long startTime = System.currentTimeMillis();
+		EdgeRating r = metric.getRating();
+		double[] factor = Overlay.getFactors(metric.getProfile(), r);
+		float[] arcWeight = metric.arcWeight.clone();
+		int levels = partition.getLevelCount();
+		boolean[][] dirty = new boolean[levels][];
+		for (int l = 0; l < levels; l++) {
+			dirty[l] = new boolean[partition.getCellCount(l)];
+		}
+		for (int e : traffic.getChangedEdges(metric.getTraffic())) {
+			for (int incidence : new int[] { e, -e }) {
+				int a = graph.getArc(incidence);
+				if (a < 0) {
+					continue;
+				}
+				arcWeight[a] = Overlay.rate(graph, a, factor, r, traffic);
+				int head = graph.getHead(a);
+				int tail = graph.getSegment(a).getThis().getId();
+				// the arc is searched by the cliques of the cells containing
+				// both ends
+				for (int l = 0; l < levels; l++) {
+					int c = partition.getCell(l, head);
+					if ((c >= 0) && (partition.getCell(l, tail) == c)) {
+						dirty[l][c] = true;
+					}
+				}
+			}
+		}
+		float[][] cliqueWeight = new float[levels][];
+		int customized = 0;
+		for (int l = 0; l < levels; l++) {
+			int dirtyCount = 0;
+			for (boolean d : dirty[l]) {
+				if (d) {
+					dirtyCount++;
+				}
+			}
+			if (dirtyCount == 0) {
+				cliqueWeight[l] = metric.cliqueWeight[l];
+				continue;
+			}
+			int[] cells = new int[dirtyCount];
+			dirtyCount = 0;
+			for (int c = 0; c < dirty[l].length; c++) {
+				if (dirty[l][c]) {
+					cells[dirtyCount++] = c;
+				}
+			}
+			cliqueWeight[l] = metric.cliqueWeight[l].clone();
+			forkJoinPool.invoke(new CustomizeTask(l, arcWeight, cliqueWeight,
+					cells, 0, cells.length));
+			customized += cells.length;
+		}
+		return new MultilevelMetric(this, metric.getProfile(), r, traffic,
+				arcWeight, cliqueWeight, customized, System
+						.currentTimeMillis()
+						- startTime);
+	}
+
+	/**
+	 * Computes the clique of cell <code>c</code> of the level of
+	 * <code>search</code> with one search per boundary vertex.
+	 */
+	void customizeCell(int level, int c, LevelSearch search,
+			float[] arcWeight, float[][] cliqueWeight) {
+		int first = firstBoundary[level][c];
+		int b = firstBoundary[level][c + 1] - first;
+		for (int i = 0; i < b; i++) {
+			search.search(arcWeight, cliqueWeight,
+					boundaryVertices[level][first + i], -1);
+			int offset = firstClique[level][c] + i * b;
+			for (int j = 0; j < b; j++) {
+				cliqueWeight[level][offset + j] = (float) search
+						.getDistance(boundaryVertices[level][first + j]);
+			}
+		}
+	}
+
+	private class CustomizeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int level;
+		private final float[] arcWeight;
+		private final float[][] cliqueWeight;
+
+		/** the cells to customize are cells[from .. to - 1] */
+		private final int[] cells;
+		private final int from;
+		private final int to;
+
+		CustomizeTask(int level, float[] arcWeight, float[][] cliqueWeight,
+				int[] cells, int from, int to) {
+			this.level = level;
+			this.arcWeight = arcWeight;
+			this.cliqueWeight = cliqueWeight;
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			// the few cells of the upper levels are large, so they are
+			// customized one per task
+			if (to - from > ((level == 0) ? 8 : 1)) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new CustomizeTask(level, arcWeight, cliqueWeight,
+						cells, from, middle), new CustomizeTask(level,
+						arcWeight, cliqueWeight, cells, middle, to));
+				return;
+			}
+			LevelSearch search = new LevelSearch(MultilevelOverlay.this,
+					level);
+			for (int i = from; i < to; i++) {
+				customizeCell(level, cells[i], search, arcWeight,
+						cliqueWeight);
+			}
+		}
+	}
+}
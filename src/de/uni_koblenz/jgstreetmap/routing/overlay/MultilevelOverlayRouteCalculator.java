@@ -0,0 +1,277 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A Dijkstra on a {@link MultilevelOverlay}. The query level of a vertex is
+ * the highest level on which its cell contains neither start nor target.
+ * Vertices without a query level, i.e. in the cells of start and target on
+ * level 0, relax all their arcs. All other vertices relax the clique arcs of
+ * their cell on the query level and the arcs leaving it. So the segments are
+ * only searched near start and target, and the cliques of ever larger cells
+ * farther away. Clique arcs on the route are unpacked level by level by
+ * searches within their cells.
+ *
+ * Metrics are handled like by the {@link OverlayRouteCalculator}: customized
+ * on the first query after a change of the profile, partially customized
+ * after a change of the live traffic, or set by
+ * {@link #setMetric(MultilevelMetric)}.
+ */
+public class MultilevelOverlayRouteCalculator extends RouteCalculator {
+	private final MultilevelOverlay overlay;
+	private final RoutingGraph routingGraph;
+	private final MultilevelPartition partition;
+
+	private final Map<EdgeRating, MultilevelMetric> metrics;
+
+	private int generation;
+	private int[] visited;
+	private int[] settled;
+	private double[] distance;
+
+	/** the arc over which a vertex is reached, or -1 for a clique arc */
+	private int[] parentArc;
+	private int[] parentVertex;
+	private VertexHeap queue;
+
+	/** the cells of start and target of the current query by level */
+	private int[] startCell;
+	private int[] targetCell;
+
+	/** the searches unpacking the clique arcs by level */
+	private LevelSearch[] levelSearches;
+
+	public MultilevelOverlayRouteCalculator(MultilevelOverlay overlay) {
+		this.overlay = overlay;
+		routingGraph = overlay.getRoutingGraph();
+		partition = overlay.getPartition();
+		graph = routingGraph.getGraph();
+		metrics = new EnumMap<EdgeRating, MultilevelMetric>(EdgeRating.class);
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public MultilevelOverlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return the metric for <code>r</code> under the current profile and
+	 *         traffic state, which is customized if the profile has changed
+	 *         since the last query, and customized partially if only the
+	 *         traffic has
+	 */
+	public MultilevelMetric getMetric(EdgeRating r) {
+		RoutingProfile p = getProfile();
+		TrafficState t = fetchTrafficState();
+		MultilevelMetric m = metrics.get(r);
+		if ((m == null) || !m.matches(p, r)) {
+			m = overlay.customize(p, r, t);
+			metrics.put(r, m);
+		} else if (m.getTraffic() != t) {
+			m = overlay.customize(m, t);
+			metrics.put(r, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Uses <code>metric</code>, which must belong to the overlay of this
+	 * calculator, for the queries with its rating and profile.
+	 */
+	public void setMetric(MultilevelMetric metric) {
+		if (metric.getOverlay() != overlay) {
+			throw new IllegalArgumentException(
+					"The metric belongs to another overlay");
+		}
+		metrics.put(metric.getRating(), metric);
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		MultilevelMetric metric = getMetric(r);
+		List<Segment> route = null;
+		if ((start != target) && search(metric, target.getId())) {
+			route = createRoute(metric, target.getId());
+		}
+		return new RoutingResult(route, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * @return true if <code>target</code> has been reached
+	 */
+	private boolean search(MultilevelMetric metric, int target) {
+		prepare();
+		int source = start.getId();
+		if ((partition.getCell(0, source) < 0)
+				|| (partition.getCell(0, target) < 0)) {
+			return false;
+		}
+		for (int l = 0; l < startCell.length; l++) {
+			startCell[l] = partition.getCell(l, source);
+			targetCell[l] = partition.getCell(l, target);
+		}
+		visited[source] = generation;
+		distance[source] = 0;
+		parentArc[source] = -1;
+		parentVertex[source] = -1;
+		queue.insert(source, 0);
+
+		float[] arcWeight = metric.arcWeight;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			settled[v] = generation;
+			if (v == target) {
+				return true;
+			}
+			double d = distance[v];
+			int level = getQueryLevel(v);
+			int c = (level < 0) ? -1 : partition.getCell(level, v);
+			for (int a = routingGraph.getFirstArc(v); a < routingGraph
+					.getFirstArc(v + 1); a++) {
+				int w = routingGraph.getHead(a);
+				if (((level >= 0) && (partition.getCell(level, w) == c))
+						|| (arcWeight[a] == Float.POSITIVE_INFINITY)) {
+					continue;
+				}
+				relax(w, d + arcWeight[a], a, v);
+			}
+			if ((level >= 0) && (overlay.boundaryIndex[level][v] >= 0)) {
+				// v is a boundary vertex, reached over a cut or clique arc
+				int first = overlay.firstBoundary[level][c];
+				int b = overlay.firstBoundary[level][c + 1] - first;
+				int offset = overlay.firstClique[level][c]
+						+ overlay.boundaryIndex[level][v] * b;
+				float[] cliqueWeight = metric.cliqueWeight[level];
+				for (int j = 0; j < b; j++) {
+					float weight = cliqueWeight[offset + j];
+					if (weight != Float.POSITIVE_INFINITY) {
+						relax(overlay.boundaryVertices[level][first + j], d
+								+ weight, -1, v);
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the highest level on which the cell of <code>v</code> contains
+	 *         neither start nor target, or -1 if there is none
+	 */
+	private int getQueryLevel(int v) {
+		// the cells are nested, so the levels with such a cell are 0..l
+		for (int l = startCell.length - 1; l >= 0; l--) {
+			int c = partition.getCell(l, v);
+			if ((c != startCell[l]) && (c != targetCell[l])) {
+				return l;
+			}
+		}
+		return -1;
+	}
+
+	private void relax(int w, double newDist, int arc, int v) {
+		if (visited[w] != generation) {
+			visited[w] = generation;
+			distance[w] = newDist;
+			parentArc[w] = arc;
+			parentVertex[w] = v;
+			queue.insert(w, newDist);
+		} else if ((settled[w] != generation) && (newDist < distance[w])) {
+			distance[w] = newDist;
+			parentArc[w] = arc;
+			parentVertex[w] = v;
+			queue.decreaseKey(w, newDist);
+		}
+	}
+
+	private void prepare() {
+		int vertexCount = routingGraph.getVertexCount();
+		if (visited == null) {
+			visited = new int[vertexCount];
+			settled = new int[vertexCount];
+			distance = new double[vertexCount];
+			parentArc = new int[vertexCount];
+			parentVertex = new int[vertexCount];
+			queue = new VertexHeap(vertexCount);
+			int levels = partition.getLevelCount();
+			startCell = new int[levels];
+			targetCell = new int[levels];
+			levelSearches = new LevelSearch[levels];
+		} else {
+			queue.clear();
+		}
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	/**
+	 * @return the segments from the start to <code>target</code>, with the
+	 *         clique arcs replaced by the paths within their cells
+	 */
+	private List<Segment> createRoute(MultilevelMetric metric, int target) {
+		List<Segment> route = new ArrayList<Segment>();
+		for (int v = target; parentVertex[v] >= 0; v = parentVertex[v]) {
+			int a = parentArc[v];
+			if (a >= 0) {
+				route.add(routingGraph.getSegment(a));
+			} else {
+				int u = parentVertex[v];
+				unpack(metric, getQueryLevel(u), u, v, route);
+			}
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	/**
+	 * Appends the segments of the best path from <code>u</code> to
+	 * <code>v</code> within their cell on <code>level</code> to
+	 * <code>route</code>, in reverse order.
+	 */
+	private void unpack(MultilevelMetric metric, int level, int u, int v,
+			List<Segment> route) {
+		if (levelSearches[level] == null) {
+			levelSearches[level] = new LevelSearch(overlay, level);
+		}
+		// the levels below use their own searches, so this one stays intact
+		LevelSearch search = levelSearches[level];
+		search.search(metric.arcWeight, metric.cliqueWeight, u, v);
+		for (int w = v; w != u;) {
+			int p = search.getParentVertex(w);
+			int a = search.getParentArc(w);
+			if (a >= 0) {
+				route.add(routingGraph.getSegment(a));
+			} else {
+				unpack(metric, level - 1, p, w, route);
+			}
+			w = p;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * A nested partition of the vertices of a {@link RoutingGraph} into several
+ * levels of cells. Level 0 has the smallest cells, every cell of level l is
+ * the union of some cells of level l - 1. Like in a {@link Partition}, the
+ * vertices are split recursively at the median of the longer side of their
+ * bounding box, and the cells of a level are the first ranges of the
+ * recursion which fit into its maximal cell size.
+ *
+ * The halves of a split are processed in parallel on a {@link ForkJoinPool}.
+ * They are disjoint ranges of the vertex array, ties are broken by vertex id
+ * and the cells are numbered afterwards in the order of the vertices, so the
+ * result neither depends on the number of threads nor on their scheduling.
+ *
+ * All levels share one vertex order: the vertices of cell c of level l are
+ * <code>getVertices()[getFirstVertex(l, c) .. getFirstVertex(l, c + 1) - 1]</code>,
+ * and its subcells are the cells
+ * <code>getFirstSubcell(l, c) .. getFirstSubcell(l, c + 1) - 1</code> of level
+ * l - 1. Vertices without arcs belong to no cell.
+ */
+public class MultilevelPartition {
+	/** ranges of at most this many vertices are split sequentially */
+	private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+	private final int[] maxCellSize;
+
+	/** the vertices ordered by cell */
+	private final int[] vertices;
+
+	/** the index of each vertex in {@link #vertices}, -1 for vertices without arcs */
+	private final int[] position;
+
+	/** the cell of each vertex by level, -1 for vertices without arcs */
+	private final int[][] cell;
+
+	private final int[][] firstVertex;
+	private final int[][] firstSubcell;
+
+	/** the highest level of the cells starting at each vertex position */
+	private byte[] startLevel;
+
+	/**
+	 * @param maxCellSizes
+	 *            the maximal number of vertices of the cells of each level,
+	 *            strictly increasing
+	 * @param forkJoinPool
+	 *            the pool partitioning the cells, which the caller shuts down
+	 *            when it isn't needed anymore
+	 */
+	public MultilevelPartition(RoutingGraph g, int[] maxCellSizes,
+			ForkJoinPool forkJoinPool) {
+		if ((maxCellSizes.length == 0) || (maxCellSizes.length > 127)) {
+			throw new IllegalArgumentException(
+					"between 1 and 127 levels are supported, not "
+							+ maxCellSizes.length);
+		}
+		for (int l = 0; l < maxCellSizes.length; l++) {
+			if ((maxCellSizes[l] < 1)
+					|| ((l > 0) && (maxCellSizes[l] <= maxCellSizes[l - 1]))) {
+				throw new IllegalArgumentException(
+						"cell sizes must be positive and strictly increasing: "
+								+ Arrays.toString(maxCellSizes));
+			}
+		}
+		maxCellSize = maxCellSizes.clone();
+		int levels = maxCellSize.length;
+
+		position = new int[g.getVertexCount()];
+		Arrays.fill(position, -1);
+		int count = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (g.getFirstArc(v) < g.getFirstArc(v + 1)) {
+				count++;
+			}
+		}
+		vertices = new int[count];
+		count = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (g.getFirstArc(v) < g.getFirstArc(v + 1)) {
+				vertices[count++] = v;
+			}
+		}
+
+		startLevel = new byte[count];
+		Arrays.fill(startLevel, (byte) -1);
+		if (count > 0) {
+			forkJoinPool.invoke(new SplitTask(g, 0, count, levels - 1));
+		}
+
+		// number the cells in the order of the vertices
+		int[] cellCount = new int[levels];
+		for (int i = 0; i < count; i++) {
+			for (int l = 0; l <= startLevel[i]; l++) {
+				cellCount[l]++;
+			}
+		}
+		cell = new int[levels][];
+		firstVertex = new int[levels][];
+		firstSubcell = new int[levels][];
+		for (int l = 0; l < levels; l++) {
+			cell[l] = new int[g.getVertexCount()];
+			Arrays.fill(cell[l], -1);
+			firstVertex[l] = new int[cellCount[l] + 1];
+			firstVertex[l][cellCount[l]] = count;
+			if (l > 0) {
+				firstSubcell[l] = new int[cellCount[l] + 1];
+				firstSubcell[l][cellCount[l]] = cellCount[l - 1];
+			}
+		}
+		int[] current = new int[levels];
+		Arrays.fill(current, -1);
+		for (int i = 0; i < count; i++) {
+			for (int l = 0; l <= startLevel[i]; l++) {
+				int c = ++current[l];
+				firstVertex[l][c] = i;
+				if (l > 0) {
+					firstSubcell[l][c] = current[l - 1];
+				}
+			}
+			int v = vertices[i];
+			position[v] = i;
+			for (int l = 0; l < levels; l++) {
+				cell[l][v] = current[l];
+			}
+		}
+		startLevel = null;
+	}
+
+	/**
+	 * Marks the cells of the levels up to <code>level</code> which
+	 * <code>vertices[from .. to - 1]</code> fits into as starting at
+	 * <code>from</code>, and splits the range until it fits into a cell of
+	 * level 0.
+	 */
+	private void split(RoutingGraph g, int from, int to, int level) {
+		while ((level >= 0) && (to - from <= maxCellSize[level])) {
+			// the parent range, if it starts here, has marked a higher level
+			if (startLevel[from] < level) {
+				startLevel[from] = (byte) level;
+			}
+			level--;
+		}
+		if (level < 0) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		Partition.select(g, vertices, from, to, middle, Partition
+				.isLatitudeLonger(g, vertices, from, to));
+		if (to - from > SEQUENTIAL_THRESHOLD) {
+			RecursiveAction.invokeAll(new SplitTask(g, from, middle, level),
+					new SplitTask(g, middle, to, level));
+		} else {
+			split(g, from, middle, level);
+			split(g, middle, to, level);
+		}
+	}
+
+	private class SplitTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RoutingGraph g;
+		private final int from;
+		private final int to;
+		private final int level;
+
+		SplitTask(RoutingGraph g, int from, int to, int level) {
+			this.g = g;
+			this.from = from;
+			this.to = to;
+			this.level = level;
+		}
+
+		@Override
+		protected void compute() {
+			split(g, from, to, level);
+		}
+	}
+
+	public int getLevelCount() {
+		return maxCellSize.length;
+	}
+
+	public int getMaxCellSize(int level) {
+		return maxCellSize[level];
+	}
+
+	public int getCellCount(int level) {
+		return firstVertex[level].length - 1;
+	}
+
+	/**
+	 * @return the cell of vertex <code>v</code> on <code>level</code>, or -1
+	 *         if it has no arcs
+	 */
+	public int getCell(int level, int v) {
+		return cell[level][v];
+	}
+
+	/**
+	 * @return the index of the first vertex of cell <code>c</code> of
+	 *         <code>level</code> in {@link #getVertices()}, or for
+	 *         <code>c == getCellCount(level)</code> the number of vertices in
+	 *         cells
+	 */
+	public int getFirstVertex(int level, int c) {
+		return firstVertex[level][c];
+	}
+
+	/**
+	 * @return the first cell of level <code>level - 1</code> within cell
+	 *         <code>c</code> of <code>level</code>, or for
+	 *         <code>c == getCellCount(level)</code> the number of cells of
+	 *         level <code>level - 1</code>
+	 */
+	public int getFirstSubcell(int level, int c) {
+		if (level == 0) {
+			throw new IllegalArgumentException("level 0 has no subcells");
+		}
+		return firstSubcell[level][c];
+	}
+
+	/**
+	 * @return the vertices ordered by cell, must not be modified
+	 */
+	public int[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * @return the index of <code>v</code> in {@link #getVertices()}, or -1 if
+	 *         it has no arcs
+	 */
+	public int getPosition(int v) {
+		return position[v];
+	}
+
+	/**
+	 * @return the cells of <code>level</code> as a {@link Partition}, which
+	 *         shares the arrays of this partition
+	 */
+	public Partition getPartition(int level) {
+		return new Partition(maxCellSize[level], cell[level], vertices,
+				firstVertex[level]);
+	}
+}
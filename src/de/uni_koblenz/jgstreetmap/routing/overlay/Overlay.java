@@ -0,0 +1,297 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The metric independent part of a customizable route planning overlay: a
+ * {@link Partition} of the routing graph and the boundary vertices of its
+ * cells, i.e. the vertices with a segment into another cell. Within each cell,
+ * every boundary vertex is connected to every other one by a clique arc.
+ *
+ * The rating of the clique arcs depends on the profile and is computed by
+ * {@link #customize(RoutingProfile, EdgeRating)}, which runs one search per
+ * boundary vertex restricted to its cell. The cells are customized in parallel
+ * on a {@link ForkJoinPool}, so applying a new profile takes a fraction of the
+ * time a full preprocessing would need. The overlay itself is built once per
+ * graph. Live traffic updates are cheaper still: they only customize the
+ * cells containing changed segments again, see
+ * {@link #customize(OverlayMetric, TrafficState)}.
+ */
+public class Overlay {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	private final RoutingGraph graph;
+	private final Partition partition;
+	private final ForkJoinPool forkJoinPool;
+
+	/** the index of each vertex among the vertices of its cell */
+	final int[] localIndex;
+
+	/** the index of each vertex among the boundary vertices of its cell, or -1 */
+	final int[] boundaryIndex;
+
+	/** boundary vertices of cell c are firstBoundary[c]..firstBoundary[c+1]-1 */
+	final int[] firstBoundary;
+	final int[] boundaryVertices;
+
+	/**
+	 * the clique of cell c with b boundary vertices starts at firstClique[c],
+	 * the arc from the i-th to the j-th boundary vertex is at
+	 * firstClique[c] + i * b + j
+	 */
+	final int[] firstClique;
+
+	public Overlay(RoutingGraph graph, int maxCellSize,
+			ForkJoinPool forkJoinPool) {
+		this(graph, new Partition(graph, maxCellSize), forkJoinPool);
+	}
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool customizing the cells, which the caller shuts down
+	 *            when the overlay isn't customized anymore
+	 */
+	public Overlay(RoutingGraph graph, Partition partition,
+			ForkJoinPool forkJoinPool) {
+		this.graph = graph;
+		this.partition = partition;
+		this.forkJoinPool = forkJoinPool;
+
+		int cellCount = partition.getCellCount();
+		int[] vertices = partition.getVertices();
+		localIndex = new int[graph.getVertexCount()];
+		boundaryIndex = new int[graph.getVertexCount()];
+		Arrays.fill(boundaryIndex, -1);
+		firstBoundary = new int[cellCount + 1];
+		firstClique = new int[cellCount + 1];
+		int boundaryCount = 0;
+		for (int c = 0; c < cellCount; c++) {
+			int b = 0;
+			int first = partition.getFirstVertex(c);
+			for (int i = first; i < partition.getFirstVertex(c + 1); i++) {
+				int v = vertices[i];
+				localIndex[v] = i - first;
+				if (hasCutArc(v, c)) {
+					boundaryIndex[v] = b++;
+				}
+			}
+			firstBoundary[c + 1] = firstBoundary[c] + b;
+			firstClique[c + 1] = firstClique[c] + b * b;
+			boundaryCount += b;
+		}
+		boundaryVertices = new int[boundaryCount];
+		for (int v : vertices) {
+			if (boundaryIndex[v] >= 0) {
+				boundaryVertices[firstBoundary[partition.getCell(v)]
+						+ boundaryIndex[v]] = v;
+			}
+		}
+	}
+
+	private boolean hasCutArc(int v, int c) {
+		for (int a = graph.getFirstArc(v); a < graph.getFirstArc(v + 1); a++) {
+			if (partition.getCell(graph.getHead(a)) != c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return graph;
+	}
+
+	public Partition getPartition() {
+		return partition;
+	}
+
+	public int getBoundaryVertexCount() {
+		return boundaryVertices.length;
+	}
+
+	/**
+	 * @return the number of clique arcs of all cells
+	 */
+	public int getCliqueArcCount() {
+		return firstClique[partition.getCellCount()];
+	}
+
+	/**
+	 * Computes the ratings of all arcs and clique arcs under
+	 * <code>profile</code>. Only {@link EdgeRating#LENGTH} and
+	 * {@link EdgeRating#TIME} are supported, since the rating of a segment
+	 * must not depend on its predecessor.
+	 */
+	public OverlayMetric customize(RoutingProfile profile, EdgeRating r) {
+		return customize(profile, r, TrafficState.EMPTY);
+	}
+
+	/**
+	 * Computes the ratings of all arcs and clique arcs under
+	 * <code>profile</code> and <code>traffic</code>, see
+	 * {@link #customize(RoutingProfile, EdgeRating)}.
+	 */
+	public OverlayMetric customize(RoutingProfile profile, EdgeRating r,
+			TrafficState traffic) {
+		if ((r != EdgeRating.LENGTH) && (r != EdgeRating.TIME)) {
+			throw new IllegalArgumentException(
+					"Overlays support only LENGTH and TIME, not " + r);
+		}
+		long startTime = System.currentTimeMillis();
+		double[] factor = getFactors(profile, r);
+		float[] arcWeight = new float[graph.getArcCount()];
+		for (int a = 0; a < arcWeight.length; a++) {
+			arcWeight[a] = rate(graph, a, factor, r, traffic);
+		}
+		float[] cliqueWeight = new float[getCliqueArcCount()];
+		int[] cells = new int[partition.getCellCount()];
+		for (int c = 0; c < cells.length; c++) {
+			cells[c] = c;
+		}
+		forkJoinPool.invoke(new CustomizeTask(arcWeight, cliqueWeight, cells,
+				0, cells.length));
+		return new OverlayMetric(this, profile, r, traffic, arcWeight,
+				cliqueWeight, cells.length, System.currentTimeMillis()
+						- startTime);
+	}
+
+	/**
+	 * Derives the metric for <code>traffic</code> from <code>metric</code>,
+	 * which belongs to this overlay. Only the arcs of the segments whose
+	 * overrides differ are rated anew, and only the cliques of the cells
+	 * containing such arcs are customized again. Changed arcs between cells
+	 * just change their own rating.
+	 */
+	public OverlayMetric customize(OverlayMetric metric, TrafficState traffic) {
+		if (metric.getOverlay() != this) {
+			throw new IllegalArgumentException(
+					"The metric belongs to another overlay");
+		}
+		long startTime = System.currentTimeMillis();
+		EdgeRating r = metric.getRating();
+		double[] factor = getFactors(metric.getProfile(), r);
+		float[] arcWeight = metric.arcWeight.clone();
+		boolean[] dirty = new boolean[partition.getCellCount()];
+		int dirtyCount = 0;
+		for (int e : traffic.getChangedEdges(metric.getTraffic())) {
+			for (int incidence : new int[] { e, -e }) {
+				int a = graph.getArc(incidence);
+				if (a < 0) {
+					continue;
+				}
+				arcWeight[a] = rate(graph, a, factor, r, traffic);
+				int c = partition.getCell(graph.getHead(a));
+				int tail = graph.getSegment(a).getThis().getId();
+				if ((c >= 0) && (partition.getCell(tail) == c) && !dirty[c]) {
+					dirty[c] = true;
+					dirtyCount++;
+				}
+			}
+		}
+		int[] cells = new int[dirtyCount];
+		dirtyCount = 0;
+		for (int c = 0; c < dirty.length; c++) {
+			if (dirty[c]) {
+				cells[dirtyCount++] = c;
+			}
+		}
+		float[] cliqueWeight = metric.cliqueWeight.clone();
+		if (cells.length > 0) {
+			forkJoinPool.invoke(new CustomizeTask(arcWeight, cliqueWeight,
+					cells, 0, cells.length));
+		}
+		return new OverlayMetric(this, metric.getProfile(), r, traffic,
+				arcWeight, cliqueWeight, cells.length,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * @return the rating of one meter by segment type ordinal, infinite for
+	 *         types which may not be used
+	 */
+	static double[] getFactors(RoutingProfile profile, EdgeRating r) {
+		double[] factor = new double[SEGMENT_TYPES.length];
+		for (SegmentType t : SEGMENT_TYPES) {
+			factor[t.ordinal()] = !profile.isAllowed(t) ? Double.POSITIVE_INFINITY
+					: ((r == EdgeRating.TIME) ? profile.getFactor(t) : 1);
+		}
+		return factor;
+	}
+
+	/**
+	 * @return the rating of arc <code>a</code> of <code>graph</code>,
+	 *         infinite if it may not be used
+	 */
+	static float rate(RoutingGraph graph, int a, double[] factor,
+			EdgeRating r, TrafficState traffic) {
+		int incidence = graph.getIncidence(a);
+		if (graph.isAgainstOneway(a) || traffic.isBlocked(incidence)) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return (float) (graph.getLength(a)
+				* factor[graph.getWayType(a).ordinal()] * traffic
+				.getRatingFactor(incidence, r));
+	}
+
+	/**
+	 * Computes the clique of cell <code>c</code> with one search per
+	 * boundary vertex.
+	 */
+	void customizeCell(int c, CellSearch search, float[] arcWeight,
+			float[] cliqueWeight) {
+		int first = firstBoundary[c];
+		int b = firstBoundary[c + 1] - first;
+		for (int i = 0; i < b; i++) {
+			search.search(arcWeight, boundaryVertices[first + i], -1);
+			int offset = firstClique[c] + i * b;
+			for (int j = 0; j < b; j++) {
+				cliqueWeight[offset + j] = (float) search
+						.getDistance(boundaryVertices[first + j]);
+			}
+		}
+	}
+
+	private class CustomizeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[] arcWeight;
+		private final float[] cliqueWeight;
+
+		/** the cells to customize are cells[from .. to - 1] */
+		private final int[] cells;
+		private final int from;
+		private final int to;
+
+		CustomizeTask(float[] arcWeight, float[] cliqueWeight, int[] cells,
+				int from, int to) {
+			this.arcWeight = arcWeight;
+			this.cliqueWeight = cliqueWeight;
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 8) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new CustomizeTask(arcWeight, cliqueWeight, cells,
+						from, middle), new CustomizeTask(arcWeight,
+						cliqueWeight, cells, middle, to));
+				return;
+			}
+			CellSearch search = new CellSearch(Overlay.this);
+			for (int i = from; i < to; i++) {
+				customizeCell(cells[i], search, arcWeight, cliqueWeight);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The ratings of the arcs and clique arcs of an {@link Overlay} under one
+ * {@link RoutingProfile}, {@link EdgeRating} and {@link TrafficState}, as
+ * computed by
+ * {@link Overlay#customize(RoutingProfile, EdgeRating)}. Arcs which may not
+ * be used are rated infinite. A metric is never changed after its
+ * customization, so it may be shared by the calculators of many threads.
+ */
+public class OverlayMetric {
+	private final Overlay overlay;
+	private final RoutingProfile profile;
+	private final EdgeRating rating;
+	private final TrafficState traffic;
+	private final int customizedCellCount;
+	private final long customizationTime;
+
+	/** the rating of each arc of the routing graph */
+	final float[] arcWeight;
+
+	/** the rating of the clique arcs, see {@link Overlay#firstClique} */
+	final float[] cliqueWeight;
+
+	OverlayMetric(Overlay overlay, RoutingProfile profile, EdgeRating rating,
+			TrafficState traffic, float[] arcWeight, float[] cliqueWeight,
+			int customizedCellCount, long customizationTime) {
+		this.overlay = overlay;
+		this.profile = profile;
+		this.rating = rating;
+		this.traffic = traffic;
+		this.customizedCellCount = customizedCellCount;
+		this.arcWeight = arcWeight;
+		this.cliqueWeight = cliqueWeight;
+		this.customizationTime = customizationTime;
+	}
+
+	public Overlay getOverlay() {
+		return overlay;
+	}
+
+	public RoutingProfile getProfile() {
+		return profile;
+	}
+
+	public EdgeRating getRating() {
+		return rating;
+	}
+
+	/**
+	 * @return the traffic state the metric has been customized for
+	 */
+	public TrafficState getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * @return true if this metric rates all arcs like a customization for
+	 *         <code>profile</code> and <code>r</code> would. Metrics for
+	 *         {@link EdgeRating#LENGTH} only depend on the allowed types.
+	 */
+	public boolean matches(RoutingProfile profile, EdgeRating r) {
+		return matches(this.profile, rating, profile, r);
+	}
+
+	/**
+	 * @return true if a metric for <code>profile</code> and
+	 *         <code>rating</code> rates all arcs like one for <code>p</code>
+	 *         and <code>r</code>
+	 */
+	static boolean matches(RoutingProfile profile, EdgeRating rating,
+			RoutingProfile p, EdgeRating r) {
+		if (r != rating) {
+			return false;
+		}
+		if (r == EdgeRating.LENGTH) {
+			return p.getAllowedTypes().equals(profile.getAllowedTypes());
+		}
+		return p.equals(profile);
+	}
+
+	/**
+	 * @return the number of cells whose cliques have been computed for this
+	 *         metric, the others have been taken over from the metric it was
+	 *         derived from
+	 */
+	public int getCustomizedCellCount() {
+		return customizedCellCount;
+	}
+
+	/**
+	 * @return the time in milliseconds the customization took
+	 */
+	public long getCustomizationTime() {
+		return customizationTime;
+	}
+}
@@ -0,0 +1,225 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A Dijkstra on an {@link Overlay}: in the cells of start and target, all
+ * arcs are relaxed, in all other cells only the clique arcs and the arcs
+ * leaving the cell. Clique arcs on the route are unpacked by a search within
+ * their cell.
+ *
+ * The metric for the current profile and rating is customized on the first
+ * query after the profile has changed, or may be set by
+ * {@link #setMetric(OverlayMetric)} to share it between calculators. After
+ * a change of the live traffic, only the affected cells are customized again.
+ */
+public class OverlayRouteCalculator extends RouteCalculator {
+	private final Overlay overlay;
+	private final RoutingGraph routingGraph;
+	private final Partition partition;
+
+	private final Map<EdgeRating, OverlayMetric> metrics;
+
+	private int generation;
+	private int[] visited;
+	private int[] settled;
+	private double[] distance;
+
+	/** the arc over which a vertex is reached, or -1 for a clique arc */
+	private int[] parentArc;
+	private int[] parentVertex;
+	private VertexHeap queue;
+
+	private CellSearch cellSearch;
+
+	public OverlayRouteCalculator(Overlay overlay) {
+		this.overlay = overlay;
+		routingGraph = overlay.getRoutingGraph();
+		partition = overlay.getPartition();
+		graph = routingGraph.getGraph();
+		metrics = new EnumMap<EdgeRating, OverlayMetric>(EdgeRating.class);
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+	}
+
+	public Overlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return the metric for <code>r</code> under the current profile and
+	 *         traffic state, which is customized if the profile has changed
+	 *         since the last query, and customized partially if only the
+	 *         traffic has
+	 */
+	public OverlayMetric getMetric(EdgeRating r) {
+		RoutingProfile p = getProfile();
+		TrafficState t = fetchTrafficState();
+		OverlayMetric m = metrics.get(r);
+		if ((m == null) || !m.matches(p, r)) {
+			m = overlay.customize(p, r, t);
+			metrics.put(r, m);
+		} else if (m.getTraffic() != t) {
+			m = overlay.customize(m, t);
+			metrics.put(r, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Uses <code>metric</code>, which must belong to the overlay of this
+	 * calculator, for the queries with its rating and profile.
+	 */
+	public void setMetric(OverlayMetric metric) {
+		if (metric.getOverlay() != overlay) {
+			throw new IllegalArgumentException(
+					"The metric belongs to another overlay");
+		}
+		metrics.put(metric.getRating(), metric);
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		OverlayMetric metric = getMetric(r);
+		List<Segment> route = null;
+		if ((start != target) && search(metric, target.getId())) {
+			route = createRoute(metric, target.getId());
+		}
+		return new RoutingResult(route, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * @return true if <code>target</code> has been reached
+	 */
+	private boolean search(OverlayMetric metric, int target) {
+		prepare();
+		int source = start.getId();
+		int sourceCell = partition.getCell(source);
+		int targetCell = partition.getCell(target);
+		if ((sourceCell < 0) || (targetCell < 0)) {
+			return false;
+		}
+		visited[source] = generation;
+		distance[source] = 0;
+		parentArc[source] = -1;
+		parentVertex[source] = -1;
+		queue.insert(source, 0);
+
+		float[] arcWeight = metric.arcWeight;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			settled[v] = generation;
+			if (v == target) {
+				return true;
+			}
+			double d = distance[v];
+			int c = partition.getCell(v);
+			boolean local = (c == sourceCell) || (c == targetCell);
+			for (int a = routingGraph.getFirstArc(v); a < routingGraph
+					.getFirstArc(v + 1); a++) {
+				int w = routingGraph.getHead(a);
+				if ((!local && (partition.getCell(w) == c))
+						|| (arcWeight[a] == Float.POSITIVE_INFINITY)) {
+					continue;
+				}
+				relax(w, d + arcWeight[a], a, v);
+			}
+			if (!local) {
+				// v is a boundary vertex, reached over a cut or clique arc
+				int first = overlay.firstBoundary[c];
+				int b = overlay.firstBoundary[c + 1] - first;
+				int offset = overlay.firstClique[c] + overlay.boundaryIndex[v]
+						* b;
+				for (int j = 0; j < b; j++) {
+					float weight = metric.cliqueWeight[offset + j];
+					if (weight != Float.POSITIVE_INFINITY) {
+						relax(overlay.boundaryVertices[first + j], d + weight,
+								-1, v);
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void relax(int w, double newDist, int arc, int v) {
+		if (visited[w] != generation) {
+			visited[w] = generation;
+			distance[w] = newDist;
+			parentArc[w] = arc;
+			parentVertex[w] = v;
+			queue.insert(w, newDist);
+		} else if ((settled[w] != generation) && (newDist < distance[w])) {
+			distance[w] = newDist;
+			parentArc[w] = arc;
+			parentVertex[w] = v;
+			queue.decreaseKey(w, newDist);
+		}
+	}
+
+	private void prepare() {
+		int vertexCount = routingGraph.getVertexCount();
+		if (visited == null) {
+			visited = new int[vertexCount];
+			settled = new int[vertexCount];
+			distance = new double[vertexCount];
+			parentArc = new int[vertexCount];
+			parentVertex = new int[vertexCount];
+			queue = new VertexHeap(vertexCount);
+			cellSearch = new CellSearch(overlay);
+		} else {
+			queue.clear();
+		}
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	/**
+	 * @return the segments from the start to <code>target</code>, with the
+	 *         clique arcs replaced by the paths within their cells
+	 */
+	private List<Segment> createRoute(OverlayMetric metric, int target) {
+		List<Segment> route = new ArrayList<Segment>();
+		for (int v = target; parentVertex[v] >= 0; v = parentVertex[v]) {
+			int a = parentArc[v];
+			if (a >= 0) {
+				route.add(routingGraph.getSegment(a));
+				continue;
+			}
+			int u = parentVertex[v];
+			cellSearch.search(metric.arcWeight, u, v);
+			// the path within the cell, from v back to u
+			for (int w = v; w != u; w = cellSearch.getParentVertex(w)) {
+				route.add(routingGraph.getSegment(cellSearch.getParentArc(w)));
+			}
+		}
+		Collections.reverse(route);
+		return route;
+	}
+}
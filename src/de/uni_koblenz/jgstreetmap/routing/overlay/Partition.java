@@ -0,0 +1,185 @@
+package de.uni_koblenz.jgstreetmap.routing.overlay;
+
+import java.util.Arrays;
+
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * A partition of the vertices of a {@link RoutingGraph} into cells of at most
+ * a given number of vertices. The vertices are split recursively at the
+ * median of the longer side of their bounding box, like the leaves of a
+ * kd-tree. The partition only depends on the coordinates, so it is computed
+ * once and serves all profiles and ratings.
+ *
+ * Cells are numbered in the order of the recursion, so the vertices of cell
+ * c are <code>getVertices()[getFirstVertex(c) .. getFirstVertex(c + 1) - 1]</code>.
+ * Vertices without arcs belong to no cell.
+ */
+public class Partition {
+	private final int maxCellSize;
+
+	/** the cell of each vertex, -1 for vertices without arcs */
+	private final int[] cell;
+
+	/** the vertices ordered by cell */
+	private final int[] vertices;
+
+	private final int[] firstVertex;
+	private int cellCount;
+
+	public Partition(RoutingGraph g, int maxCellSize) {
+		if (maxCellSize < 1) {
+			throw new IllegalArgumentException(
+					"cells must contain at least one vertex");
+		}
+		this.maxCellSize = maxCellSize;
+		cell = new int[g.getVertexCount()];
+		Arrays.fill(cell, -1);
+		int count = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (g.getFirstArc(v) < g.getFirstArc(v + 1)) {
+				count++;
+			}
+		}
+		vertices = new int[count];
+		count = 0;
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (g.getFirstArc(v) < g.getFirstArc(v + 1)) {
+				vertices[count++] = v;
+			}
+		}
+		int[] first = new int[count + 1];
+		split(g, 0, count, first);
+		first[cellCount] = count;
+		firstVertex = Arrays.copyOf(first, cellCount + 1);
+	}
+
+	/**
+	 * Creates the view of one level of a {@link MultilevelPartition}, which
+	 * shares the arrays.
+	 */
+	Partition(int maxCellSize, int[] cell, int[] vertices, int[] firstVertex) {
+		this.maxCellSize = maxCellSize;
+		this.cell = cell;
+		this.vertices = vertices;
+		this.firstVertex = firstVertex;
+		cellCount = firstVertex.length - 1;
+	}
+
+	/**
+	 * Assigns <code>vertices[from .. to - 1]</code> to one cell, or splits
+	 * them at the median of the longer side of their bounding box.
+	 */
+	private void split(RoutingGraph g, int from, int to, int[] first) {
+		if (to - from <= maxCellSize) {
+			first[cellCount] = from;
+			for (int i = from; i < to; i++) {
+				cell[vertices[i]] = cellCount;
+			}
+			cellCount++;
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		select(g, vertices, from, to, middle, isLatitudeLonger(g, vertices,
+				from, to));
+		split(g, from, middle, first);
+		split(g, middle, to, first);
+	}
+
+	/**
+	 * @return true if the bounding box of <code>vertices[from .. to - 1]</code>
+	 *         is higher than wide
+	 */
+	static boolean isLatitudeLonger(RoutingGraph g, int[] vertices,
+			int from, int to) {
+		double minLat = Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE;
+		double maxLon = -Double.MAX_VALUE;
+		for (int i = from; i < to; i++) {
+			double lat = g.getLatitude(vertices[i]);
+			double lon = g.getLongitude(vertices[i]);
+			minLat = Math.min(minLat, lat);
+			maxLat = Math.max(maxLat, lat);
+			minLon = Math.min(minLon, lon);
+			maxLon = Math.max(maxLon, lon);
+		}
+		return (maxLat - minLat) >= (maxLon - minLon)
+				* Math.cos((minLat + maxLat) / 2);
+	}
+
+	/**
+	 * Reorders <code>vertices[from .. to - 1]</code> such that the vertex at
+	 * <code>k</code> has no greater coordinate before and no smaller after
+	 * it. Ties are broken by the vertex id, so the result is deterministic.
+	 */
+	static void select(RoutingGraph g, int[] vertices, int from, int to,
+			int k, boolean byLatitude) {
+		int left = from;
+		int right = to - 1;
+		while (left < right) {
+			int pivot = vertices[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (compare(g, vertices[i], pivot, byLatitude) < 0) {
+					i++;
+				}
+				while (compare(g, vertices[j], pivot, byLatitude) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					int v = vertices[i];
+					vertices[i++] = vertices[j];
+					vertices[j--] = v;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static int compare(RoutingGraph g, int v, int w,
+			boolean byLatitude) {
+		int c = byLatitude ? Double.compare(g.getLatitude(v), g
+				.getLatitude(w)) : Double.compare(g.getLongitude(v), g
+				.getLongitude(w));
+		return (c != 0) ? c : ((v < w) ? -1 : ((v == w) ? 0 : 1));
+	}
+
+	public int getMaxCellSize() {
+		return maxCellSize;
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * @return the cell of vertex <code>v</code>, or -1 if it has no arcs
+	 */
+	public int getCell(int v) {
+		return cell[v];
+	}
+
+	/**
+	 * @return the index of the first vertex of cell <code>c</code> in
+	 *         {@link #getVertices()}, or for <code>c == getCellCount()</code>
+	 *         the number of vertices in cells
+	 */
+	public int getFirstVertex(int c) {
+		return firstVertex[c];
+	}
+
+	/**
+	 * @return the vertices ordered by cell, must not be modified
+	 */
+	public int[] getVertices() {
+		return vertices;
+	}
+}
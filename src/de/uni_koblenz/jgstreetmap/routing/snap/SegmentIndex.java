@@ -0,0 +1,289 @@
+package de.uni_koblenz.jgstreetmap.routing.snap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.GpsTools;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+
+/**
+ * A spatial index of the segments of a graph. The bounding box of the graph
+ * is divided into a grid of square cells, and every segment is registered in
+ * the cells its bounding box overlaps. Since segments are straight lines
+ * between two nodes, a query projects the position onto each segment in the
+ * cells around it.
+ *
+ * The grid is stored in compressed sparse row format: the segments of cell c
+ * are <code>cellSegments[firstEntry[c] .. firstEntry[c + 1] - 1]</code>. The
+ * index is a snapshot, it doesn't follow later changes of the graph, and may
+ * be queried by many threads at the same time.
+ */
+public class SegmentIndex {
+	/** the default edge length in meters of the grid cells */
+	public static final double DEFAULT_CELL_SIZE = 100;
+
+	private static final double METERS_PER_DEGREE = 60 * GpsTools.MINUTEMETER;
+
+	private final OsmGraph graph;
+	private final double cellSize;
+
+	/** the segments and their end points in degrees, alpha first */
+	private final Segment[] segments;
+	private final double[] coordinates;
+
+	private final double minLat;
+	private final double minLon;
+	private final double cellLat;
+	private final double cellLon;
+	private final int columns;
+	private final int rows;
+	private final int[] firstEntry;
+	private final int[] cellSegments;
+
+	public SegmentIndex(OsmGraph graph) {
+		this(graph, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize
+	 *            the edge length of the grid cells in meters. It is increased
+	 *            if the grid would get more than twice as many cells as there
+	 *            are segments.
+	 */
+	public SegmentIndex(OsmGraph graph, double cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("cell size must be positive");
+		}
+		this.graph = graph;
+		List<Segment> l = new ArrayList<Segment>();
+		for (Segment s : graph.getSegmentEdges()) {
+			l.add(s);
+		}
+		segments = l.toArray(new Segment[l.size()]);
+		coordinates = new double[4 * segments.length];
+		double minLat = Double.POSITIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < segments.length; i++) {
+			Node a = (Node) segments[i].getAlpha();
+			Node b = (Node) segments[i].getOmega();
+			coordinates[4 * i] = a.get_latitude();
+			coordinates[4 * i + 1] = a.get_longitude();
+			coordinates[4 * i + 2] = b.get_latitude();
+			coordinates[4 * i + 3] = b.get_longitude();
+			minLat = Math.min(minLat, Math.min(a.get_latitude(), b
+					.get_latitude()));
+			maxLat = Math.max(maxLat, Math.max(a.get_latitude(), b
+					.get_latitude()));
+			minLon = Math.min(minLon, Math.min(a.get_longitude(), b
+					.get_longitude()));
+			maxLon = Math.max(maxLon, Math.max(a.get_longitude(), b
+					.get_longitude()));
+		}
+		if (segments.length == 0) {
+			minLat = maxLat = minLon = maxLon = 0;
+		}
+		this.minLat = minLat;
+		this.minLon = minLon;
+
+		// cells are square at the middle latitude of the graph
+		double cos = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+		double height = (maxLat - minLat) * METERS_PER_DEGREE;
+		double width = (maxLon - minLon) * METERS_PER_DEGREE * cos;
+		double maxCells = Math.max(1024, 2.0 * segments.length);
+		while ((height / cellSize + 1) * (width / cellSize + 1) > maxCells) {
+			cellSize *= 1.5;
+		}
+		this.cellSize = cellSize;
+		cellLat = cellSize / METERS_PER_DEGREE;
+		cellLon = cellSize / (METERS_PER_DEGREE * cos);
+		rows = (int) ((maxLat - minLat) / cellLat) + 1;
+		columns = (int) ((maxLon - minLon) / cellLon) + 1;
+
+		// count the entries per cell, then fill them in
+		firstEntry = new int[rows * columns + 1];
+		for (int i = 0; i < segments.length; i++) {
+			int[] b = cellBounds(i);
+			for (int r = b[0]; r <= b[1]; r++) {
+				for (int c = b[2]; c <= b[3]; c++) {
+					firstEntry[r * columns + c + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < rows * columns; c++) {
+			firstEntry[c + 1] += firstEntry[c];
+		}
+		cellSegments = new int[firstEntry[rows * columns]];
+		int[] next = firstEntry.clone();
+		for (int i = 0; i < segments.length; i++) {
+			int[] b = cellBounds(i);
+			for (int r = b[0]; r <= b[1]; r++) {
+				for (int c = b[2]; c <= b[3]; c++) {
+					cellSegments[next[r * columns + c]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return first row, last row, first column and last column of the cells
+	 *         overlapped by the bounding box of segment <code>i</code>
+	 */
+	private int[] cellBounds(int i) {
+		return new int[] {
+				row(Math.min(coordinates[4 * i], coordinates[4 * i + 2])),
+				row(Math.max(coordinates[4 * i], coordinates[4 * i + 2])),
+				column(Math.min(coordinates[4 * i + 1], coordinates[4 * i + 3])),
+				column(Math.max(coordinates[4 * i + 1], coordinates[4 * i + 3])) };
+	}
+
+	public OsmGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the edge length of the grid cells in meters
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * @return the projections of the given position onto all segments within
+	 *         <code>radius</code> meters, nearest first
+	 */
+	public List<SegmentProjection> query(double lat, double lon, double radius) {
+		return query(lat, lon, radius, null);
+	}
+
+	/**
+	 * @param types
+	 *            the segment types to consider, or null for all types
+	 * @return the projections of the given position onto the segments of the
+	 *         given types within <code>radius</code> meters, nearest first
+	 */
+	public List<SegmentProjection> query(double lat, double lon,
+			double radius, Set<SegmentType> types) {
+		List<SegmentProjection> result = new ArrayList<SegmentProjection>();
+		if (segments.length == 0) {
+			return result;
+		}
+		double metersPerLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+		double dLat = radius / METERS_PER_DEGREE;
+		double dLon = radius / metersPerLon;
+		int r1 = row(lat - dLat);
+		int r2 = row(lat + dLat);
+		int c1 = column(lon - dLon);
+		int c2 = column(lon + dLon);
+		for (int r = r1; r <= r2; r++) {
+			for (int c = c1; c <= c2; c++) {
+				int cell = r * columns + c;
+				for (int e = firstEntry[cell]; e < firstEntry[cell + 1]; e++) {
+					int i = cellSegments[e];
+					// a segment spanning several cells is only checked in the
+					// first of them within the query range
+					int[] b = cellBounds(i);
+					if ((Math.max(r1, b[0]) != r) || (Math.max(c1, b[2]) != c)) {
+						continue;
+					}
+					if ((types != null)
+							&& !types.contains(segments[i].get_wayType())) {
+						continue;
+					}
+					SegmentProjection p = project(i, lat, lon, metersPerLon);
+					if (p.getDistance() <= radius) {
+						result.add(p);
+					}
+				}
+			}
+		}
+		Collections.sort(result, new Comparator<SegmentProjection>() {
+			@Override
+			public int compare(SegmentProjection p1, SegmentProjection p2) {
+				return Double.compare(p1.getDistance(), p2.getDistance());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the projection onto the nearest segment which may be used under
+	 *         <code>restriction</code> within <code>maxDistance</code>
+	 *         meters, or null if there is none
+	 */
+	public SegmentProjection nearest(double lat, double lon,
+			double maxDistance, RoutingRestriction restriction) {
+		return nearest(lat, lon, maxDistance, RouteCalculator
+				.getRelevantTypes(restriction));
+	}
+
+	/**
+	 * Finds the nearest segment with a search radius growing from the cell
+	 * size, so that segments far away are only looked at if there are no
+	 * near ones.
+	 *
+	 * @param types
+	 *            the segment types to consider, or null for all types
+	 * @return the projection onto the nearest segment of the given types
+	 *         within <code>maxDistance</code> meters, or null if there is
+	 *         none
+	 */
+	public SegmentProjection nearest(double lat, double lon,
+			double maxDistance, Set<SegmentType> types) {
+		double radius = Math.min(cellSize, maxDistance);
+		while (true) {
+			List<SegmentProjection> l = query(lat, lon, radius, types);
+			if (!l.isEmpty()) {
+				return l.get(0);
+			}
+			if (radius >= maxDistance) {
+				return null;
+			}
+			radius = Math.min(2 * radius, maxDistance);
+		}
+	}
+
+	/**
+	 * Projects the position onto segment <code>i</code> in a plane tangent at
+	 * the position, which is exact enough for the lengths of segments.
+	 */
+	private SegmentProjection project(int i, double lat, double lon,
+			double metersPerLon) {
+		double ax = (coordinates[4 * i + 1] - lon) * metersPerLon;
+		double ay = (coordinates[4 * i] - lat) * METERS_PER_DEGREE;
+		double bx = (coordinates[4 * i + 3] - lon) * metersPerLon;
+		double by = (coordinates[4 * i + 2] - lat) * METERS_PER_DEGREE;
+		double dx = bx - ax;
+		double dy = by - ay;
+		double square = dx * dx + dy * dy;
+		double t = (square == 0) ? 0 : Math.max(0, Math.min(1,
+				-(ax * dx + ay * dy) / square));
+		double px = ax + t * dx;
+		double py = ay + t * dy;
+		return new SegmentProjection(segments[i], t, lat + py
+				/ METERS_PER_DEGREE, lon + px / metersPerLon, Math.hypot(px,
+				py));
+	}
+
+	private int row(double lat) {
+		return Math.min(rows - 1, Math.max(0, (int) ((lat - minLat) / cellLat)));
+	}
+
+	private int column(double lon) {
+		return Math.min(columns - 1, Math.max(0,
+				(int) ((lon - minLon) / cellLon)));
+	}
+}
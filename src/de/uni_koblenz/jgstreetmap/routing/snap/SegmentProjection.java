@@ -0,0 +1,86 @@
+package de.uni_koblenz.jgstreetmap.routing.snap;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+
+/**
+ * The point on a segment closest to a query position, as found by a
+ * {@link SegmentIndex}. Its place on the segment is given as fraction of the
+ * way from the alpha node to the omega node.
+ */
+public class SegmentProjection {
+	private final Segment segment;
+	private final double fraction;
+	private final double latitude;
+	private final double longitude;
+	private final double distance;
+
+	SegmentProjection(Segment segment, double fraction, double latitude,
+			double longitude, double distance) {
+		this.segment = segment;
+		this.fraction = fraction;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.distance = distance;
+	}
+
+	/**
+	 * @return the segment in its normal direction
+	 */
+	public Segment getSegment() {
+		return segment;
+	}
+
+	public Node getAlpha() {
+		return (Node) segment.getAlpha();
+	}
+
+	public Node getOmega() {
+		return (Node) segment.getOmega();
+	}
+
+	/**
+	 * @return the position on the segment between 0 (alpha) and 1 (omega)
+	 */
+	public double getFraction() {
+		return fraction;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * @return the distance in meters between the query position and the
+	 *         projected point
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return the length in meters of the part of the segment between alpha
+	 *         and the projected point
+	 */
+	public double getLengthFromAlpha() {
+		return fraction * segment.get_length();
+	}
+
+	/**
+	 * @return the length in meters of the part of the segment between the
+	 *         projected point and omega
+	 */
+	public double getLengthToOmega() {
+		return (1 - fraction) * segment.get_length();
+	}
+
+	@Override
+	public String toString() {
+		return "SegmentProjection[e" + segment.getId() + " @ " + fraction
+				+ ", " + distance + " m]";
+	}
+}
@@ -0,0 +1,277 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.util.Arrays;
+
+/**
+ * The arrival time at a vertex as a function of the departure time at the
+ * start of a profile query, defined for the departures of a window. The
+ * function is piecewise linear between its points, which are ordered by
+ * departure. Times are given in seconds since a Monday 0:00.
+ *
+ * Following a segment is {@link #link(TravelTimeProfile, double)}, combining
+ * the functions of two routes to the same vertex is
+ * {@link #min(ArrivalFunction, ArrivalFunction)}. Both keep the functions
+ * exact, points which add no information are dropped.
+ */
+public final class ArrivalFunction {
+	/** seconds below which arrivals count as equal */
+	private static final double EPSILON = 1e-6;
+
+	private final double[] departures;
+	private final double[] arrivals;
+
+	private ArrivalFunction(double[] departures, double[] arrivals) {
+		this.departures = departures;
+		this.arrivals = arrivals;
+	}
+
+	/**
+	 * @return the function of the start vertex, where one arrives when one
+	 *         departs
+	 */
+	static ArrivalFunction identity(double from, double to) {
+		double[] times = (from == to) ? new double[] { from } : new double[] {
+				from, to };
+		return new ArrivalFunction(times, times.clone());
+	}
+
+	/**
+	 * @return the first departure of the window
+	 */
+	public double getFrom() {
+		return departures[0];
+	}
+
+	/**
+	 * @return the last departure of the window
+	 */
+	public double getTo() {
+		return departures[departures.length - 1];
+	}
+
+	public int getPointCount() {
+		return departures.length;
+	}
+
+	public double getDeparture(int i) {
+		return departures[i];
+	}
+
+	public double getArrival(int i) {
+		return arrivals[i];
+	}
+
+	/**
+	 * @return the arrival when departing at <code>departure</code>, which
+	 *         must lie within the window
+	 */
+	public double getArrivalTime(double departure) {
+		if ((departure < getFrom()) || (departure > getTo())) {
+			throw new IllegalArgumentException("departure " + departure
+					+ " is outside of " + getFrom() + ".." + getTo());
+		}
+		int i = Arrays.binarySearch(departures, departure);
+		if (i >= 0) {
+			return arrivals[i];
+		}
+		i = -i - 2;
+		return arrivals[i] + (arrivals[i + 1] - arrivals[i])
+				* (departure - departures[i])
+				/ (departures[i + 1] - departures[i]);
+	}
+
+	/**
+	 * @return the earliest arrival for any departure of the window
+	 */
+	public double getEarliestArrival() {
+		double min = Double.POSITIVE_INFINITY;
+		for (double a : arrivals) {
+			min = Math.min(min, a);
+		}
+		return min;
+	}
+
+	/**
+	 * @return the latest arrival for any departure of the window
+	 */
+	public double getLatestArrival() {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double a : arrivals) {
+			max = Math.max(max, a);
+		}
+		return max;
+	}
+
+	/**
+	 * @return the earliest departure of the window with the shortest travel
+	 *         time
+	 */
+	public double getBestDeparture() {
+		// the travel time is piecewise linear, so its minimum is at a point
+		int best = 0;
+		for (int i = 1; i < departures.length; i++) {
+			if (arrivals[i] - departures[i] < arrivals[best]
+					- departures[best] - EPSILON) {
+				best = i;
+			}
+		}
+		return departures[best];
+	}
+
+	/**
+	 * @return the shortest travel time in seconds for a departure of the
+	 *         window
+	 */
+	public double getMinTravelTime() {
+		double best = getBestDeparture();
+		return getArrivalTime(best) - best;
+	}
+
+	/**
+	 * @return the function of the routes extended by a segment with the given
+	 *         free-flow time and profile
+	 */
+	ArrivalFunction link(TravelTimeProfile profile, double freeFlowTime) {
+		int n = departures.length;
+		if ((freeFlowTime == 0) || (profile.getPointCount() == 1)) {
+			double[] a = new double[n];
+			for (int i = 0; i < n; i++) {
+				a[i] = arrivals[i]
+						+ profile.getTravelTime(freeFlowTime, arrivals[i]);
+			}
+			return new ArrivalFunction(departures, a);
+		}
+		Builder b = new Builder(n * 2);
+		for (int i = 0; i < n; i++) {
+			b.add(departures[i], arrivals[i]
+					+ profile.getTravelTime(freeFlowTime, arrivals[i]));
+			if ((i + 1 == n) || (arrivals[i + 1] <= arrivals[i])) {
+				continue;
+			}
+			// departures reaching the vertex where the travel time changes
+			// its slope
+			for (double x = profile.nextPoint(arrivals[i], freeFlowTime); x < arrivals[i + 1]; x = profile
+					.nextPoint(x, freeFlowTime)) {
+				double t = departures[i] + (departures[i + 1] - departures[i])
+						* (x - arrivals[i]) / (arrivals[i + 1] - arrivals[i]);
+				b.add(t, x + profile.getTravelTime(freeFlowTime, x));
+			}
+		}
+		return b.build();
+	}
+
+	/**
+	 * @return true if <code>this</code> arrives earlier than
+	 *         <code>other</code> for some departure, which must be defined
+	 *         for the same window
+	 */
+	boolean improves(ArrivalFunction other) {
+		// the difference is piecewise linear, so its minimum is at a point
+		for (int i = 0; i < departures.length; i++) {
+			if (arrivals[i] < other.getArrivalTime(departures[i]) - EPSILON) {
+				return true;
+			}
+		}
+		for (int i = 0; i < other.departures.length; i++) {
+			if (getArrivalTime(other.departures[i]) < other.arrivals[i]
+					- EPSILON) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the pointwise minimum of <code>f</code> and <code>g</code>,
+	 *         which must be defined for the same window
+	 */
+	static ArrivalFunction min(ArrivalFunction f, ArrivalFunction g) {
+		double[] d = new double[f.departures.length + g.departures.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < f.departures.length) || (j < g.departures.length)) {
+			double t;
+			if ((j == g.departures.length)
+					|| ((i < f.departures.length) && (f.departures[i] <= g.departures[j]))) {
+				t = f.departures[i++];
+			} else {
+				t = g.departures[j++];
+			}
+			if ((n == 0) || (t > d[n - 1])) {
+				d[n++] = t;
+			}
+		}
+
+		Builder b = new Builder(n + 4);
+		double previous = 0;
+		for (int k = 0; k < n; k++) {
+			double fa = f.getArrivalTime(d[k]);
+			double ga = g.getArrivalTime(d[k]);
+			double diff = fa - ga;
+			if ((k > 0) && (previous * diff < 0)) {
+				// the functions cross between the two departures
+				double x = d[k - 1] + (d[k] - d[k - 1]) * previous
+						/ (previous - diff);
+				if ((x > d[k - 1]) && (x < d[k])) {
+					b.add(x, f.getArrivalTime(x));
+				}
+			}
+			b.add(d[k], Math.min(fa, ga));
+			previous = diff;
+		}
+		return b.build();
+	}
+
+	@Override
+	public String toString() {
+		return "ArrivalFunction[" + departures.length + " points, "
+				+ getFrom() + ".." + getTo() + " -> " + getEarliestArrival()
+				+ ".." + getLatestArrival() + "]";
+	}
+
+	/**
+	 * Collects the points of a function in order of departure and drops
+	 * points lying on the line between their neighbours.
+	 */
+	private static class Builder {
+		private double[] d;
+		private double[] a;
+		private int size;
+
+		Builder(int capacity) {
+			d = new double[Math.max(capacity, 2)];
+			a = new double[d.length];
+		}
+
+		void add(double departure, double arrival) {
+			if ((size > 0) && (departure <= d[size - 1])) {
+				// rounding may repeat a departure
+				a[size - 1] = Math.min(a[size - 1], arrival);
+				return;
+			}
+			if ((size >= 2) && isOnLine(size - 2, size - 1, departure, arrival)) {
+				size--;
+			}
+			if (size == d.length) {
+				d = Arrays.copyOf(d, size * 2);
+				a = Arrays.copyOf(a, size * 2);
+			}
+			d[size] = departure;
+			a[size] = arrival;
+			size++;
+		}
+
+		private boolean isOnLine(int i, int j, double departure,
+				double arrival) {
+			double expected = a[i] + (arrival - a[i]) * (d[j] - d[i])
+					/ (departure - d[i]);
+			return Math.abs(expected - a[j]) < EPSILON;
+		}
+
+		ArrivalFunction build() {
+			return new ArrivalFunction(Arrays.copyOf(d, size), Arrays.copyOf(
+					a, size));
+		}
+	}
+}
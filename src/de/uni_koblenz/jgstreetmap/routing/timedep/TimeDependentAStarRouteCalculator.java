@@ -0,0 +1,26 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * A time-dependent A* using the great-circle heuristic of
+ * {@link de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator}. For
+ * {@link EdgeRating#TIME} the bound is scaled by the smallest factor of all
+ * profiles, so it holds at any time of the week.
+ */
+public class TimeDependentAStarRouteCalculator extends
+		TimeDependentRouteCalculator {
+
+	public TimeDependentAStarRouteCalculator(RoutingGraph routingGraph,
+			TravelTimeProfiles profiles) {
+		super(routingGraph, profiles);
+	}
+
+	@Override
+	protected double heuristicFactor(EdgeRating r) {
+		// the great-circle bound is linear in the distance
+		double factor = calculateHeuristic(1.0, r);
+		return (r == EdgeRating.TIME) ? factor * profiles.getMinFactor()
+				: factor;
+	}
+}
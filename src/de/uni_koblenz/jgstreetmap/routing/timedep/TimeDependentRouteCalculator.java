@@ -0,0 +1,202 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.compact.SearchWorkspace;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * A route calculator whose travel times depend on the time of day and week.
+ * The time needed on a segment is its free-flow time, computed from the
+ * speeds or the profile like for {@link EdgeRating#TIME}, times the factor
+ * its {@link TravelTimeProfile} has at the moment the segment is entered.
+ * Times are given in seconds since a Monday 0:00.
+ *
+ * For {@link EdgeRating#TIME}, {@link #getRoute(Node, EdgeRating)} finds the
+ * route with the earliest arrival for the departure set by
+ * {@link #setDepartureTime(double)}. Other ratings don't depend on time, so
+ * their routes are found as usual and only their arrival is computed.
+ * {@link #getArrivalFunction(Node, double, double)} answers profile queries:
+ * the arrival for every departure of a window, e.g. to find the best time to
+ * leave.
+ *
+ * The searches run on a {@link RoutingGraph} and follow live traffic like
+ * {@link de.uni_koblenz.jgstreetmap.routing.compact.CompactDijkstraRouteCalculator},
+ * whose speed factors divide the free-flow times.
+ * {@link TimeDependentAStarRouteCalculator} adds the great-circle heuristic.
+ */
+public class TimeDependentRouteCalculator extends RouteCalculator {
+	private static final SegmentType[] SEGMENT_TYPES = SegmentType.values();
+
+	protected RoutingGraph routingGraph;
+	protected TravelTimeProfiles profiles;
+
+	private double departureTime;
+
+	// per query settings, indexed by the ordinal of the segment type
+	private boolean[] typeAllowed;
+	private double[] typeFactor;
+
+	private TimeDependentSearch search;
+	private SearchWorkspace workspace;
+
+	public TimeDependentRouteCalculator(RoutingGraph routingGraph,
+			TravelTimeProfiles profiles) {
+		if (!profiles.matches(routingGraph.getGraph())) {
+			throw new IllegalArgumentException(
+					"The travel time profiles don't match the graph");
+		}
+		this.routingGraph = routingGraph;
+		this.profiles = profiles;
+		graph = routingGraph.getGraph();
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+		typeAllowed = new boolean[SEGMENT_TYPES.length];
+		typeFactor = new double[SEGMENT_TYPES.length];
+	}
+
+	public RoutingGraph getRoutingGraph() {
+		return routingGraph;
+	}
+
+	public TravelTimeProfiles getProfiles() {
+		return profiles;
+	}
+
+	/**
+	 * Sets the departure at the start vertex for the following queries.
+	 */
+	public void setDepartureTime(double departureTime) {
+		this.departureTime = departureTime;
+	}
+
+	public double getDepartureTime() {
+		return departureTime;
+	}
+
+	/**
+	 * The factor turning the great-circle distance into a lower bound for the
+	 * rating, which must hold for every time for {@link EdgeRating#TIME}.
+	 *
+	 * @return 0, which yields a plain Dijkstra
+	 */
+	protected double heuristicFactor(EdgeRating r) {
+		return 0;
+	}
+
+	@Override
+	public TimeDependentRoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		TrafficState traffic = prepareQuery();
+		List<Segment> route;
+		double arrival;
+		if (r == EdgeRating.TIME) {
+			if (search == null) {
+				search = new TimeDependentSearch(routingGraph.getVertexCount());
+			}
+			search.search(routingGraph, profiles, start.getId(),
+					target.getId(), departureTime, typeAllowed, typeFactor,
+					heuristicFactor(r), traffic);
+			route = search.createRoute(routingGraph, target.getId());
+			arrival = search.getArrival(target.getId());
+		} else {
+			if (workspace == null) {
+				workspace = new SearchWorkspace(routingGraph.getVertexCount());
+			}
+			workspace.search(routingGraph, start.getId(), target.getId(), r,
+					typeAllowed, typeFactor, heuristicFactor(r), traffic);
+			route = workspace.createRoute(routingGraph, target.getId());
+			arrival = (route == null) ? Double.POSITIVE_INFINITY
+					: getArrivalTime(route, departureTime, traffic);
+		}
+		if ((route == null) && (start == target)) {
+			arrival = departureTime;
+		}
+		return new TimeDependentRoutingResult(route, departureTime, arrival,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Computes the best route from the start vertex to <code>target</code>
+	 * when departing at <code>departure</code>, which stays set for later
+	 * queries.
+	 */
+	public TimeDependentRoutingResult getRoute(Node target, EdgeRating r,
+			double departure) {
+		setDepartureTime(departure);
+		return getRoute(target, r);
+	}
+
+	/**
+	 * Computes the earliest arrival at <code>target</code> for every
+	 * departure from the start vertex between <code>from</code> and
+	 * <code>to</code>. The route for a departure, e.g. for
+	 * {@link ArrivalFunction#getBestDeparture()}, is then found by
+	 * {@link #getRoute(Node, EdgeRating, double)}.
+	 *
+	 * @return the arrival function, or null if <code>target</code> can't be
+	 *         reached
+	 */
+	public ArrivalFunction getArrivalFunction(Node target, double from,
+			double to) {
+		if (to < from) {
+			throw new IllegalArgumentException("The departure window " + from
+					+ ".." + to + " is empty");
+		}
+		TrafficState traffic = prepareQuery();
+		if (search == null) {
+			search = new TimeDependentSearch(routingGraph.getVertexCount());
+		}
+		return search.searchProfile(routingGraph, profiles, start.getId(),
+				target.getId(), from, to, typeAllowed, typeFactor,
+				heuristicFactor(EdgeRating.TIME), traffic);
+	}
+
+	/**
+	 * @return the arrival at the end of <code>route</code>, which must start
+	 *         at the start vertex, when departing at <code>departure</code>
+	 *         under the current restriction and traffic state, or infinity if
+	 *         it contains a segment which may not be used
+	 */
+	public double getArrivalTime(List<Segment> route, double departure) {
+		return getArrivalTime(route, departure, prepareQuery());
+	}
+
+	private double getArrivalTime(List<Segment> route, double departure,
+			TrafficState traffic) {
+		double time = departure;
+		for (Segment s : route) {
+			int arc = routingGraph.getArc(s.getId());
+			if (arc < 0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			time += TimeDependentSearch.travelTime(routingGraph, profiles,
+					arc, time, typeAllowed, typeFactor, traffic);
+		}
+		return time;
+	}
+
+	/**
+	 * Takes over restriction, speeds and traffic state for the query about
+	 * to start.
+	 */
+	private TrafficState prepareQuery() {
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		// restriction and speeds may have been changed since the last query
+		for (SegmentType type : SEGMENT_TYPES) {
+			typeAllowed[type.ordinal()] = relevantTypes.contains(type);
+			typeFactor[type.ordinal()] = computeFactor(type);
+		}
+		return fetchTrafficState();
+	}
+}
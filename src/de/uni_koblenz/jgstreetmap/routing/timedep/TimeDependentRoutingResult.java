@@ -0,0 +1,41 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+
+/**
+ * A route computed by a {@link TimeDependentRouteCalculator}, together with
+ * the departure at its start and the arrival at its target. Both are given in
+ * seconds since a Monday 0:00.
+ */
+public class TimeDependentRoutingResult extends RoutingResult {
+	private final double departureTime;
+	private final double arrivalTime;
+
+	public TimeDependentRoutingResult(List<Segment> route,
+			double departureTime, double arrivalTime, long calculationTime) {
+		super(route, calculationTime);
+		this.departureTime = departureTime;
+		this.arrivalTime = arrivalTime;
+	}
+
+	public double getDepartureTime() {
+		return departureTime;
+	}
+
+	/**
+	 * @return the arrival at the target, or infinity if there is no route
+	 */
+	public double getArrivalTime() {
+		return arrivalTime;
+	}
+
+	/**
+	 * @return the travel time in seconds, or infinity if there is no route
+	 */
+	public double getTravelTime() {
+		return arrivalTime - departureTime;
+	}
+}
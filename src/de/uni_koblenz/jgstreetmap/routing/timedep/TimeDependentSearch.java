@@ -0,0 +1,252 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+
+/**
+ * The searches of a {@link TimeDependentRouteCalculator} on a
+ * {@link RoutingGraph}, with their state indexed by vertex id and reused by
+ * generations like in
+ * {@link de.uni_koblenz.jgstreetmap.routing.compact.SearchWorkspace}.
+ *
+ * The earliest arrival search is a Dijkstra on arrival times, which is exact
+ * as long as all segments are FIFO. The profile search labels vertices with
+ * {@link ArrivalFunction}s over a window of departures instead. As these are
+ * only partially ordered, it corrects labels: a vertex is queued again
+ * whenever its function improves, keyed by its earliest arrival, and the
+ * search stops once no queued vertex can arrive before the latest arrival at
+ * the target.
+ */
+class TimeDependentSearch {
+	private final int vertexCount;
+
+	private int generation;
+	private final int[] visited;
+	private final int[] settled;
+	private final double[] arrival;
+	private final int[] parentArc;
+	private final VertexHeap queue;
+
+	/** the labels of the last profile search, allocated on first use */
+	private ArrivalFunction[] functions;
+
+	TimeDependentSearch(int vertexCount) {
+		this.vertexCount = vertexCount;
+		visited = new int[vertexCount];
+		settled = new int[vertexCount];
+		arrival = new double[vertexCount];
+		parentArc = new int[vertexCount];
+		queue = new VertexHeap(vertexCount);
+	}
+
+	private void reset() {
+		queue.clear();
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	/**
+	 * Computes the earliest arrivals when departing from <code>source</code>
+	 * at <code>departure</code>, until <code>target</code> is settled. The
+	 * great-circle distance times <code>heuristicFactor</code> must be a
+	 * lower bound of the travel time.
+	 *
+	 * @return true if <code>target</code> has been reached
+	 */
+	boolean search(RoutingGraph g, TravelTimeProfiles profiles, int source,
+			int target, double departure, boolean[] typeAllowed,
+			double[] typeFactor, double heuristicFactor, TrafficState traffic) {
+		reset();
+		visit(source, departure, -1);
+		queue.insert(source, departure
+				+ heuristic(g, source, target, heuristicFactor));
+
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			settled[v] = generation;
+			if (v == target) {
+				return true;
+			}
+			double t = arrival[v];
+			for (int a = g.getFirstArc(v); a < g.getFirstArc(v + 1); a++) {
+				double freeFlowTime = freeFlowTime(g, a, typeAllowed,
+						typeFactor, traffic);
+				if (freeFlowTime < 0) {
+					continue;
+				}
+				int w = g.getHead(a);
+				double newArrival = t
+						+ profiles.getProfile(g.getIncidence(a),
+								g.getWayType(a)).getTravelTime(freeFlowTime,
+								t);
+				if (visited[w] != generation) {
+					visit(w, newArrival, a);
+					queue.insert(w, newArrival
+							+ heuristic(g, w, target, heuristicFactor));
+				} else if ((settled[w] != generation)
+						&& (newArrival < arrival[w])) {
+					double key = queue.getKey(w) + newArrival - arrival[w];
+					visit(w, newArrival, a);
+					queue.decreaseKey(w, key);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the arrival functions for the departures from
+	 * <code>source</code> between <code>from</code> and <code>to</code>,
+	 * until the function of <code>target</code> can't improve any more.
+	 *
+	 * @return the function of <code>target</code>, or null if it can't be
+	 *         reached
+	 */
+	ArrivalFunction searchProfile(RoutingGraph g, TravelTimeProfiles profiles,
+			int source, int target, double from, double to,
+			boolean[] typeAllowed, double[] typeFactor,
+			double heuristicFactor, TrafficState traffic) {
+		if (functions == null) {
+			functions = new ArrivalFunction[vertexCount];
+		}
+		reset();
+		visit(source, from, -1);
+		functions[source] = ArrivalFunction.identity(from, to);
+		queue.insert(source, from
+				+ heuristic(g, source, target, heuristicFactor));
+
+		while (!queue.isEmpty()) {
+			if ((visited[target] == generation)
+					&& (queue.peekKey() >= functions[target]
+							.getLatestArrival())) {
+				break;
+			}
+			int v = queue.poll();
+			ArrivalFunction f = functions[v];
+			for (int a = g.getFirstArc(v); a < g.getFirstArc(v + 1); a++) {
+				double freeFlowTime = freeFlowTime(g, a, typeAllowed,
+						typeFactor, traffic);
+				if (freeFlowTime < 0) {
+					continue;
+				}
+				int w = g.getHead(a);
+				ArrivalFunction linked = f.link(profiles.getProfile(g
+						.getIncidence(a), g.getWayType(a)), freeFlowTime);
+				if (visited[w] != generation) {
+					visited[w] = generation;
+					functions[w] = linked;
+				} else if (linked.improves(functions[w])) {
+					functions[w] = ArrivalFunction.min(functions[w], linked);
+				} else {
+					continue;
+				}
+				double key = functions[w].getEarliestArrival()
+						+ heuristic(g, w, target, heuristicFactor);
+				if (queue.contains(w)) {
+					queue.decreaseKey(w, key);
+				} else {
+					queue.insert(w, key);
+				}
+			}
+		}
+		ArrivalFunction result = (visited[target] == generation) ? functions[target]
+				: null;
+		// don't keep the labels of this search alive
+		Arrays.fill(functions, null);
+		return result;
+	}
+
+	/**
+	 * @return the free-flow time of <code>arc</code> in seconds, or -1 if it
+	 *         may not be used
+	 */
+	private static double freeFlowTime(RoutingGraph g, int arc,
+			boolean[] typeAllowed, double[] typeFactor, TrafficState traffic) {
+		SegmentType type = g.getWayType(arc);
+		if (!typeAllowed[type.ordinal()] || g.isAgainstOneway(arc)) {
+			return -1;
+		}
+		double time = g.getLength(arc) * typeFactor[type.ordinal()];
+		int incidence = g.getIncidence(arc);
+		if (traffic.isAffected(incidence)) {
+			if (traffic.isBlocked(incidence)) {
+				return -1;
+			}
+			time /= traffic.getSpeedFactor(incidence);
+		}
+		return time;
+	}
+
+	/**
+	 * @return the travel time in seconds on <code>arc</code> when entering it
+	 *         at <code>time</code>, or infinity if it may not be used
+	 */
+	static double travelTime(RoutingGraph g, TravelTimeProfiles profiles,
+			int arc, double time, boolean[] typeAllowed, double[] typeFactor,
+			TrafficState traffic) {
+		double freeFlowTime = freeFlowTime(g, arc, typeAllowed, typeFactor,
+				traffic);
+		if (freeFlowTime < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return profiles.getProfile(g.getIncidence(arc), g.getWayType(arc))
+				.getTravelTime(freeFlowTime, time);
+	}
+
+	/**
+	 * @return the earliest arrival at <code>v</code> found by the last
+	 *         {@link #search}, or infinity if it has not been reached
+	 */
+	double getArrival(int v) {
+		return (visited[v] == generation) ? arrival[v]
+				: Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the route to <code>target</code> found by the last
+	 *         {@link #search}, or null if there is none
+	 */
+	List<Segment> createRoute(RoutingGraph g, int target) {
+		if ((settled[target] != generation) || (parentArc[target] < 0)) {
+			return null;
+		}
+		List<Segment> route = new ArrayList<Segment>();
+		int v = target;
+		while (parentArc[v] >= 0) {
+			Segment s = g.getSegment(parentArc[v]);
+			route.add(s);
+			v = s.getThis().getId();
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	private void visit(int v, double time, int arc) {
+		visited[v] = generation;
+		arrival[v] = time;
+		parentArc[v] = arc;
+	}
+
+	private static double heuristic(RoutingGraph g, int v, int target,
+			double factor) {
+		if ((factor == 0) || (v == target)) {
+			return 0;
+		}
+		return factor
+				* RouteCalculator.distance(g.getLatitude(v), g.getLongitude(v),
+						g.getLatitude(target), g.getLongitude(target));
+	}
+}
@@ -0,0 +1,249 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.util.Arrays;
+
+/**
+ * A weekly profile of the travel time on a segment relative to its free-flow
+ * time, e.g. 2 during the rush hour if traffic needs twice as long as at
+ * night. The profile is piecewise linear between its points, which are given
+ * in seconds since Monday 0:00, and repeats every week, so the last point is
+ * connected with the first one of the next week.
+ *
+ * Profiles are immutable and compare by value, so that segments with equal
+ * profiles share one instance, see {@link TravelTimeProfiles}.
+ *
+ * Time-dependent searches need the FIFO property: leaving later must not get
+ * one there earlier. This holds on a segment as long as its free-flow time
+ * times the steepest descent of the profile doesn't exceed 1, see
+ * {@link #isFifo(double)}. Otherwise the travel times include waiting at the
+ * start of the segment if entering it later arrives earlier, which makes
+ * them FIFO again.
+ */
+public final class TravelTimeProfile {
+	/** the length of a week in seconds */
+	public static final int WEEK = 7 * 24 * 3600;
+
+	/** the profile of segments whose travel time doesn't change */
+	public static final TravelTimeProfile CONSTANT = new TravelTimeProfile(
+			new int[] { 0 }, new double[] { 1 });
+
+	/** seconds since Monday 0:00, ascending */
+	private final int[] times;
+	private final float[] factors;
+
+	private final double minFactor;
+	private final double maxFactor;
+
+	/** the smallest slope in factor per second, at most 0 */
+	private final double minSlope;
+
+	/**
+	 * @param times
+	 *            the times of the points in seconds since Monday 0:00,
+	 *            strictly ascending and less than {@link #WEEK}
+	 * @param factors
+	 *            the travel time factors at the points, which must be
+	 *            positive
+	 */
+	public TravelTimeProfile(int[] times, double[] factors) {
+		if ((times.length == 0) || (times.length != factors.length)) {
+			throw new IllegalArgumentException(
+					"a profile needs as many factors as times, at least one");
+		}
+		this.times = times.clone();
+		this.factors = new float[factors.length];
+		double min = Double.POSITIVE_INFINITY;
+		double max = 0;
+		for (int i = 0; i < times.length; i++) {
+			if ((times[i] < 0) || (times[i] >= WEEK)
+					|| ((i > 0) && (times[i] <= times[i - 1]))) {
+				throw new IllegalArgumentException(
+						"times must be ascending seconds within one week");
+			}
+			if (!(factors[i] > 0) || Double.isInfinite(factors[i])) {
+				throw new IllegalArgumentException(
+						"factors must be positive, but got " + factors[i]);
+			}
+			this.factors[i] = (float) factors[i];
+			min = Math.min(min, this.factors[i]);
+			max = Math.max(max, this.factors[i]);
+		}
+		minFactor = min;
+		maxFactor = max;
+
+		double slope = 0;
+		for (int i = 0; i < times.length; i++) {
+			int next = (i + 1) % times.length;
+			int duration = (next > i) ? times[next] - times[i] : times[next]
+					+ WEEK - times[i];
+			if (duration > 0) {
+				slope = Math.min(slope, (this.factors[next] - this.factors[i])
+						/ duration);
+			}
+		}
+		minSlope = slope;
+	}
+
+	/**
+	 * @return the time in seconds since Monday 0:00 of the given
+	 *         <code>day</code> (0 is Monday), <code>hour</code> and
+	 *         <code>minute</code>
+	 */
+	public static int timeOfWeek(int day, int hour, int minute) {
+		return ((day * 24 + hour) * 60 + minute) * 60;
+	}
+
+	public int getPointCount() {
+		return times.length;
+	}
+
+	/**
+	 * @return the time of point <code>i</code> in seconds since Monday 0:00
+	 */
+	public int getPointTime(int i) {
+		return times[i];
+	}
+
+	public double getPointFactor(int i) {
+		return factors[i];
+	}
+
+	/**
+	 * @return the travel time factor at <code>time</code>, given in seconds
+	 *         since any Monday 0:00
+	 */
+	public double getFactor(double time) {
+		if (times.length == 1) {
+			return factors[0];
+		}
+		double week = Math.floor(time / WEEK) * WEEK;
+		double t = time - week;
+		int i = Arrays.binarySearch(times, (int) t);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		double t0;
+		double f0;
+		if (i < 0) {
+			// before the first point, coming from the last one
+			t0 = times[times.length - 1] - WEEK;
+			f0 = factors[times.length - 1];
+			i = -1;
+		} else {
+			t0 = times[i];
+			f0 = factors[i];
+		}
+		double t1;
+		double f1;
+		if (i + 1 < times.length) {
+			t1 = times[i + 1];
+			f1 = factors[i + 1];
+		} else {
+			t1 = times[0] + WEEK;
+			f1 = factors[0];
+		}
+		return f0 + (f1 - f0) * (t - t0) / (t1 - t0);
+	}
+
+	/** departures closer than this in seconds are considered equal */
+	private static final double EPSILON = 1e-6;
+
+	/**
+	 * @return the time needed on a segment with the given free-flow time in
+	 *         seconds when entering it at <code>departure</code>, including
+	 *         the waiting for a later departure which arrives earlier
+	 */
+	public double getTravelTime(double freeFlowTime, double departure) {
+		double time = freeFlowTime * getFactor(departure);
+		if (isFifo(freeFlowTime)) {
+			return time;
+		}
+		// the arrival is linear between the points of the profile, so the
+		// earliest one is found at a point before it
+		double arrival = departure + time;
+		for (double p = nextPoint(departure); p < arrival; p = nextPoint(p)) {
+			arrival = Math.min(arrival, p + freeFlowTime * getFactor(p));
+		}
+		return arrival - departure;
+	}
+
+	/**
+	 * @return the first time after <code>time</code> at which the profile has
+	 *         a point, or infinity if the profile is constant
+	 */
+	public double nextPoint(double time) {
+		if (times.length == 1) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double week = Math.floor(time / WEEK) * WEEK;
+		double t = time - week;
+		int i = Arrays.binarySearch(times, (int) Math.floor(t));
+		i = (i < 0) ? -i - 1 : i + 1;
+		while ((i < times.length) && (times[i] <= t)) {
+			i++;
+		}
+		return (i < times.length) ? week + times[i] : week + WEEK + times[0];
+	}
+
+	/**
+	 * @return the first time after <code>time</code> at which the travel time
+	 *         on a segment with the given free-flow time changes its slope,
+	 *         which is either a point of the profile or, if the segment isn't
+	 *         FIFO, the first departure which waits
+	 */
+	public double nextPoint(double time, double freeFlowTime) {
+		double next = nextPoint(time);
+		if (isFifo(freeFlowTime) || (next == Double.POSITIVE_INFINITY)) {
+			return next;
+		}
+		// up to the next point, the arrival is the minimum of the linear one
+		// without waiting and the one of departing at the next point
+		double a0 = time + freeFlowTime * getFactor(time);
+		double a1 = next + freeFlowTime * getFactor(next);
+		double waiting = next + getTravelTime(freeFlowTime, next);
+		if (a1 != a0) {
+			double x = time + (waiting - a0) * (next - time) / (a1 - a0);
+			if ((x > time + EPSILON) && (x < next)) {
+				return x;
+			}
+		}
+		return next;
+	}
+
+	public double getMinFactor() {
+		return minFactor;
+	}
+
+	public double getMaxFactor() {
+		return maxFactor;
+	}
+
+	/**
+	 * @return true if leaving a segment with the given free-flow time in
+	 *         seconds later never gets one to its end earlier
+	 */
+	public boolean isFifo(double freeFlowTime) {
+		return freeFlowTime * minSlope >= -1;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TravelTimeProfile)) {
+			return false;
+		}
+		TravelTimeProfile p = (TravelTimeProfile) o;
+		return Arrays.equals(times, p.times)
+				&& Arrays.equals(factors, p.factors);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(times) + Arrays.hashCode(factors);
+	}
+
+	@Override
+	public String toString() {
+		return "TravelTimeProfile[" + times.length + " points, factors "
+				+ minFactor + ".." + maxFactor + "]";
+	}
+}
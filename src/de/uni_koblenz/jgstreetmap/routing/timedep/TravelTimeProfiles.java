@@ -0,0 +1,270 @@
+package de.uni_koblenz.jgstreetmap.routing.timedep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+
+/**
+ * Assigns {@link TravelTimeProfile}s to the segment incidences of a graph.
+ * Every segment type has a default profile, initially
+ * {@link TravelTimeProfile#CONSTANT}, which single incidences may override,
+ * e.g. with measured profiles for the two directions of a commuter road.
+ *
+ * Equal profiles are stored once and referred to by their index, so
+ * thousands of segments with the same typical rush hour cost one int each.
+ * The table of overrides is only allocated with the first override.
+ */
+public class TravelTimeProfiles {
+	private static final int MAGIC = 0x4a475444; // "JGTD"
+	private static final int VERSION = 1;
+
+	public static final String FILE_SUFFIX = ".td";
+
+	private static final int NONE = -1;
+
+	private final int graphVCount;
+	private final int graphECount;
+	private final int incidenceCount;
+
+	private final List<TravelTimeProfile> profiles =
+			new ArrayList<TravelTimeProfile>();
+	private final Map<TravelTimeProfile, Integer> indices =
+			new HashMap<TravelTimeProfile, Integer>();
+
+	/** the profile index by the ordinal of the segment type */
+	private final int[] typeProfile = new int[SegmentType.values().length];
+
+	/** the profile index by 2e, or 2e+1 if reversed, or NONE */
+	private int[] incidenceProfile;
+
+	private double minFactor = Double.POSITIVE_INFINITY;
+
+	public TravelTimeProfiles(OsmGraph graph) {
+		this(graph.getVCount(), graph.getECount(),
+				2 * (graph.getMaxECount() + 1));
+	}
+
+	private TravelTimeProfiles(int graphVCount, int graphECount,
+			int incidenceCount) {
+		this.graphVCount = graphVCount;
+		this.graphECount = graphECount;
+		this.incidenceCount = incidenceCount;
+		Arrays.fill(typeProfile, add(TravelTimeProfile.CONSTANT));
+	}
+
+	/**
+	 * @return the index of <code>profile</code>, which is added if no equal
+	 *         profile is known yet
+	 */
+	private int add(TravelTimeProfile profile) {
+		Integer i = indices.get(profile);
+		if (i == null) {
+			i = profiles.size();
+			profiles.add(profile);
+			indices.put(profile, i);
+			minFactor = Math.min(minFactor, profile.getMinFactor());
+		}
+		return i;
+	}
+
+	/**
+	 * Sets the default profile of the segments of type <code>type</code>.
+	 */
+	public void setProfile(SegmentType type, TravelTimeProfile profile) {
+		typeProfile[type.ordinal()] = add(profile);
+	}
+
+	/**
+	 * Sets the profile of the segment incidence <code>s</code>, i.e. of the
+	 * segment traversed from its this vertex to its that vertex.
+	 *
+	 * @param profile
+	 *            the profile, or null for the default of its type
+	 */
+	public void setProfile(Segment s, TravelTimeProfile profile) {
+		if (incidenceProfile == null) {
+			if (profile == null) {
+				return;
+			}
+			incidenceProfile = new int[incidenceCount];
+			Arrays.fill(incidenceProfile, NONE);
+		}
+		incidenceProfile[WeightTable.getState(s)] = (profile == null) ? NONE
+				: add(profile);
+	}
+
+	/**
+	 * @return the default profile of the segments of type <code>type</code>
+	 */
+	public TravelTimeProfile getProfile(SegmentType type) {
+		return profiles.get(typeProfile[type.ordinal()]);
+	}
+
+	public TravelTimeProfile getProfile(Segment s) {
+		return getProfile(s.getId(), s.get_wayType());
+	}
+
+	/**
+	 * @return the profile of the segment incidence with id
+	 *         <code>incidence</code>, whose segment has type
+	 *         <code>type</code>
+	 */
+	public TravelTimeProfile getProfile(int incidence, SegmentType type) {
+		if (incidenceProfile != null) {
+			int i = incidenceProfile[(incidence > 0) ? (incidence << 1)
+					: ((-incidence << 1) | 1)];
+			if (i != NONE) {
+				return profiles.get(i);
+			}
+		}
+		return profiles.get(typeProfile[type.ordinal()]);
+	}
+
+	/**
+	 * @return the number of distinct profiles
+	 */
+	public int getProfileCount() {
+		return profiles.size();
+	}
+
+	/**
+	 * @return the smallest factor of all profiles, which turns lower bounds
+	 *         of free-flow times into lower bounds of travel times
+	 */
+	public double getMinFactor() {
+		return minFactor;
+	}
+
+	/**
+	 * @return true if the profiles have been assigned for a graph with the
+	 *         same number of vertices and edges as <code>graph</code>
+	 */
+	public boolean matches(OsmGraph graph) {
+		return (graph.getVCount() == graphVCount)
+				&& (graph.getECount() == graphECount);
+	}
+
+	/**
+	 * @return the name of the file the profiles of the graph stored in
+	 *         <code>graphFile</code> are saved to
+	 */
+	public static String getFileName(String graphFile) {
+		return graphFile + FILE_SUFFIX;
+	}
+
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(graphVCount);
+			out.writeInt(graphECount);
+			out.writeInt(incidenceCount);
+			out.writeInt(profiles.size());
+			for (TravelTimeProfile p : profiles) {
+				out.writeInt(p.getPointCount());
+				for (int i = 0; i < p.getPointCount(); i++) {
+					out.writeInt(p.getPointTime(i));
+					out.writeFloat((float) p.getPointFactor(i));
+				}
+			}
+			out.writeInt(typeProfile.length);
+			for (int i : typeProfile) {
+				out.writeInt(i);
+			}
+			// only the overrides, as pairs of incidence state and index
+			int overrides = 0;
+			if (incidenceProfile != null) {
+				for (int i : incidenceProfile) {
+					if (i != NONE) {
+						overrides++;
+					}
+				}
+			}
+			out.writeInt(overrides);
+			for (int s = 0; overrides > 0 && s < incidenceCount; s++) {
+				if (incidenceProfile[s] != NONE) {
+					out.writeInt(s);
+					out.writeInt(incidenceProfile[s]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static TravelTimeProfiles load(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 65536));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(fileName
+						+ " is not a travel time profile file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version
+						+ " of travel time profile file " + fileName);
+			}
+			TravelTimeProfiles p = new TravelTimeProfiles(in.readInt(),
+					in.readInt(), in.readInt());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int n = in.readInt();
+				int[] times = new int[n];
+				double[] factors = new double[n];
+				for (int j = 0; j < n; j++) {
+					times[j] = in.readInt();
+					factors[j] = in.readFloat();
+				}
+				// the constant profile comes first and is already there
+				if (p.add(new TravelTimeProfile(times, factors)) != i) {
+					throw new IOException("Duplicate profile in " + fileName);
+				}
+			}
+			int types = in.readInt();
+			if (types != p.typeProfile.length) {
+				throw new IOException("Segment types of " + fileName
+						+ " don't match");
+			}
+			for (int i = 0; i < types; i++) {
+				p.typeProfile[i] = p.checkIndex(in.readInt(), fileName);
+			}
+			int overrides = in.readInt();
+			if (overrides > 0) {
+				p.incidenceProfile = new int[p.incidenceCount];
+				Arrays.fill(p.incidenceProfile, NONE);
+			}
+			for (int i = 0; i < overrides; i++) {
+				int s = in.readInt();
+				p.incidenceProfile[s] = p.checkIndex(in.readInt(), fileName);
+			}
+			return p;
+		} finally {
+			in.close();
+		}
+	}
+
+	private int checkIndex(int i, String fileName) throws IOException {
+		if ((i < 0) || (i >= profiles.size())) {
+			throw new IOException("Invalid profile index " + i + " in "
+					+ fileName);
+		}
+		return i;
+	}
+}
@@ -0,0 +1,46 @@
+package de.uni_koblenz.jgstreetmap.routing.traffic;
+
+/**
+ * The current {@link TrafficState} of a graph, shared by all route
+ * calculators which should follow the live closures and congestion, see
+ * {@link de.uni_koblenz.jgstreetmap.routing.RouteCalculator#setTraffic(LiveTraffic)}.
+ *
+ * Updates replace the state as a whole, so a query which has fetched the
+ * state once rates all segments consistently, while the next query sees the
+ * update. Updates are serialized, queries never wait for them.
+ */
+public class LiveTraffic {
+	private volatile TrafficState state = TrafficState.EMPTY;
+
+	public TrafficState getState() {
+		return state;
+	}
+
+	/**
+	 * Applies <code>update</code> to the current state.
+	 *
+	 * @return the new state
+	 */
+	public synchronized TrafficState update(TrafficUpdate update) {
+		state = state.apply(update);
+		return state;
+	}
+
+	/**
+	 * Replaces the current state, e.g. by one prepared with
+	 * {@link TrafficState#apply(TrafficUpdate)}.
+	 */
+	public synchronized void setState(TrafficState state) {
+		if (state == null) {
+			throw new IllegalArgumentException("state must not be null");
+		}
+		this.state = state;
+	}
+
+	/**
+	 * Removes all overrides.
+	 */
+	public synchronized void clear() {
+		state = TrafficState.EMPTY;
+	}
+}
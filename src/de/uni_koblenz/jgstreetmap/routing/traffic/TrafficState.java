@@ -0,0 +1,253 @@
+package de.uni_koblenz.jgstreetmap.routing.traffic;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+
+/**
+ * An immutable set of live overrides of segment ratings: segments blocked in
+ * one or both directions, and speed factors which divide the
+ * {@link EdgeRating#TIME} rating of a segment. Segments without an override
+ * are rated as usual.
+ *
+ * Only the overridden segments are stored, sorted by edge id, plus a bit set
+ * telling which edges have overrides at all. So the inner loop of a search
+ * costs one bit test per segment, and the rare overridden segments are looked
+ * up by binary search. A new state is derived by
+ * {@link #apply(TrafficUpdate)} in time linear in the number of overrides,
+ * which keeps updates cheap, and {@link #getChangedEdges(TrafficState)} tells
+ * precomputed data which segments need to be rated anew.
+ */
+public final class TrafficState {
+	public static final TrafficState EMPTY = new TrafficState(new int[0],
+			new byte[0], new double[0]);
+
+	private static final byte BLOCKED_NORMAL = 1;
+	private static final byte BLOCKED_REVERSED = 2;
+
+	/** the edge ids with overrides, ascending */
+	private final int[] edges;
+
+	/** the blocked directions of the edges, see BLOCKED_NORMAL/REVERSED */
+	private final byte[] blocked;
+	private final double[] speedFactors;
+
+	private final BitSet affected;
+	private final double maxSpeedFactor;
+	private final int blockedCount;
+
+	private TrafficState(int[] edges, byte[] blocked, double[] speedFactors) {
+		this.edges = edges;
+		this.blocked = blocked;
+		this.speedFactors = speedFactors;
+		affected = new BitSet((edges.length == 0) ? 0
+				: edges[edges.length - 1] + 1);
+		double max = 1;
+		int count = 0;
+		for (int i = 0; i < edges.length; i++) {
+			affected.set(edges[i]);
+			max = Math.max(max, speedFactors[i]);
+			if (blocked[i] != 0) {
+				count++;
+			}
+		}
+		maxSpeedFactor = max;
+		blockedCount = count;
+	}
+
+	/**
+	 * @return a new state with the changes of <code>update</code> applied in
+	 *         their order
+	 */
+	public TrafficState apply(TrafficUpdate update) {
+		if (update.isEmpty()) {
+			return this;
+		}
+		// entries are {blocked, speed factor}
+		Map<Integer, double[]> m = new TreeMap<Integer, double[]>();
+		for (int i = 0; i < edges.length; i++) {
+			m.put(edges[i], new double[] { blocked[i], speedFactors[i] });
+		}
+		for (TrafficUpdate.Change c : update.changes) {
+			int e = Math.abs(c.id);
+			double[] entry = m.get(e);
+			if (entry == null) {
+				entry = new double[] { 0, 1 };
+				m.put(e, entry);
+			}
+			switch (c.operation) {
+			case BLOCK:
+				entry[0] = (int) entry[0]
+						| ((c.id > 0) ? BLOCKED_NORMAL : BLOCKED_REVERSED);
+				break;
+			case OPEN:
+				entry[0] = 0;
+				break;
+			case SPEED_FACTOR:
+				entry[1] = c.speedFactor;
+				break;
+			case RESET:
+				entry[0] = 0;
+				entry[1] = 1;
+				break;
+			}
+		}
+
+		int size = 0;
+		for (double[] entry : m.values()) {
+			if ((entry[0] != 0) || (entry[1] != 1)) {
+				size++;
+			}
+		}
+		int[] e = new int[size];
+		byte[] b = new byte[size];
+		double[] f = new double[size];
+		int i = 0;
+		for (Map.Entry<Integer, double[]> entry : m.entrySet()) {
+			double[] v = entry.getValue();
+			if ((v[0] != 0) || (v[1] != 1)) {
+				e[i] = entry.getKey();
+				b[i] = (byte) v[0];
+				f[i] = v[1];
+				i++;
+			}
+		}
+		return new TrafficState(e, b, f);
+	}
+
+	/**
+	 * @return true if the edge with id <code>|id|</code> has an override
+	 */
+	public boolean isAffected(int id) {
+		return affected.get((id > 0) ? id : -id);
+	}
+
+	public boolean isAffected(Segment s) {
+		return isAffected(s.getId());
+	}
+
+	/**
+	 * @return true if the segment incidence with id <code>incidence</code>
+	 *         is blocked, i.e. its segment may not be used from the this
+	 *         vertex to the that vertex of the incidence
+	 */
+	public boolean isBlocked(int incidence) {
+		if (!isAffected(incidence)) {
+			return false;
+		}
+		int i = Arrays.binarySearch(edges, Math.abs(incidence));
+		return (blocked[i] & ((incidence > 0) ? BLOCKED_NORMAL
+				: BLOCKED_REVERSED)) != 0;
+	}
+
+	public boolean isBlocked(Segment s) {
+		return isBlocked(s.getId());
+	}
+
+	/**
+	 * @return the factor for the speed on the edge with id <code>|id|</code>,
+	 *         1 if there is no override
+	 */
+	public double getSpeedFactor(int id) {
+		if (!isAffected(id)) {
+			return 1;
+		}
+		return speedFactors[Arrays.binarySearch(edges, Math.abs(id))];
+	}
+
+	public double getSpeedFactor(Segment s) {
+		return getSpeedFactor(s.getId());
+	}
+
+	/**
+	 * @return the factor by which the rating <code>r</code> of the segment
+	 *         incidence with id <code>incidence</code> is multiplied, which
+	 *         is infinite if it is blocked
+	 */
+	public double getRatingFactor(int incidence, EdgeRating r) {
+		if (!isAffected(incidence)) {
+			return 1;
+		}
+		if (isBlocked(incidence)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return (r == EdgeRating.TIME) ? 1 / getSpeedFactor(incidence) : 1;
+	}
+
+	/**
+	 * @return the largest speed factor, but at least 1. Lower bounds for
+	 *         {@link EdgeRating#TIME} computed without overrides stay valid
+	 *         when divided by it.
+	 */
+	public double getMaxSpeedFactor() {
+		return maxSpeedFactor;
+	}
+
+	/**
+	 * @return true if no segment gets a better rating than without overrides,
+	 *         so that routes rated the same as before are still optimal
+	 */
+	public boolean isSlowingOnly() {
+		return maxSpeedFactor == 1;
+	}
+
+	/**
+	 * @return true if the state changes some ratings under <code>r</code>
+	 */
+	public boolean affects(EdgeRating r) {
+		return (blockedCount > 0)
+				|| ((r == EdgeRating.TIME) && (edges.length > 0));
+	}
+
+	public boolean isEmpty() {
+		return edges.length == 0;
+	}
+
+	/**
+	 * @return the number of edges with overrides
+	 */
+	public int size() {
+		return edges.length;
+	}
+
+	public int getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * @return the ids of the edges whose overrides differ between this state
+	 *         and <code>other</code>, ascending
+	 */
+	public int[] getChangedEdges(TrafficState other) {
+		int[] changed = new int[edges.length + other.edges.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < edges.length) || (j < other.edges.length)) {
+			if ((j == other.edges.length)
+					|| ((i < edges.length) && (edges[i] < other.edges[j]))) {
+				changed[count++] = edges[i++];
+			} else if ((i == edges.length) || (other.edges[j] < edges[i])) {
+				changed[count++] = other.edges[j++];
+			} else {
+				if ((blocked[i] != other.blocked[j])
+						|| (speedFactors[i] != other.speedFactors[j])) {
+					changed[count++] = edges[i];
+				}
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(changed, count);
+	}
+
+	@Override
+	public String toString() {
+		return "TrafficState[" + edges.length + " segments, " + blockedCount
+				+ " blocked]";
+	}
+}
@@ -0,0 +1,96 @@
+package de.uni_koblenz.jgstreetmap.routing.traffic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+
+/**
+ * A batch of changes to a {@link TrafficState}, e.g. the closures and
+ * congestion reports of one feed message. The changes are recorded in order
+ * and applied together by {@link LiveTraffic#update(TrafficUpdate)}, so
+ * queries either see all of them or none.
+ */
+public class TrafficUpdate {
+	enum Operation {
+		BLOCK, OPEN, SPEED_FACTOR, RESET
+	}
+
+	static class Change {
+		final Operation operation;
+
+		/** the segment incidence id for BLOCK, else the edge id */
+		final int id;
+		final double speedFactor;
+
+		Change(Operation operation, int id, double speedFactor) {
+			this.operation = operation;
+			this.id = id;
+			this.speedFactor = speedFactor;
+		}
+	}
+
+	final List<Change> changes = new ArrayList<Change>();
+
+	/**
+	 * Closes the segment <code>s</code> in both directions.
+	 */
+	public TrafficUpdate block(Segment s) {
+		changes.add(new Change(Operation.BLOCK, s.getId(), 1));
+		changes.add(new Change(Operation.BLOCK, -s.getId(), 1));
+		return this;
+	}
+
+	/**
+	 * Closes the segment incidence <code>s</code>, i.e. the segment from its
+	 * this vertex to its that vertex only.
+	 */
+	public TrafficUpdate blockDirection(Segment s) {
+		changes.add(new Change(Operation.BLOCK, s.getId(), 1));
+		return this;
+	}
+
+	/**
+	 * Opens the segment <code>s</code> in both directions again. Its speed
+	 * factor is kept.
+	 */
+	public TrafficUpdate open(Segment s) {
+		changes.add(new Change(Operation.OPEN, edgeId(s), 1));
+		return this;
+	}
+
+	/**
+	 * Sets the factor for the speed on segment <code>s</code> in both
+	 * directions, e.g. 0.5 if traffic moves at half the usual speed. Only
+	 * {@link de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating#TIME}
+	 * is affected.
+	 */
+	public TrafficUpdate setSpeedFactor(Segment s, double factor) {
+		if (!(factor > 0) || Double.isInfinite(factor)) {
+			throw new IllegalArgumentException(
+					"speed factor must be positive, use block() for closures");
+		}
+		changes.add(new Change(Operation.SPEED_FACTOR, edgeId(s), factor));
+		return this;
+	}
+
+	/**
+	 * Removes all overrides of segment <code>s</code>.
+	 */
+	public TrafficUpdate reset(Segment s) {
+		changes.add(new Change(Operation.RESET, edgeId(s), 1));
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	public int size() {
+		return changes.size();
+	}
+
+	private static int edgeId(Segment s) {
+		return Math.abs(s.getId());
+	}
+}
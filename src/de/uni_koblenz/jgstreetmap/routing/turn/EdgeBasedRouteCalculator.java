@@ -0,0 +1,297 @@
+package de.uni_koblenz.jgstreetmap.routing.turn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.SegmentType;
+import de.uni_koblenz.jgstreetmap.routing.GpsTools;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.VertexHeap;
+import de.uni_koblenz.jgstreetmap.routing.WeightTable;
+
+/**
+ * An A* whose states are segment incidences instead of nodes, i.e. the
+ * segment over which a node has been reached. This allows to rate turns: a
+ * turn forbidden by the {@link TurnRestrictions} is never taken, and turns at
+ * intersections cost time (and convenience) proportional to their angle, see
+ * {@link GpsTools#getAngleBetweenSegments(Segment, Segment)}. U-turns are
+ * only allowed at dead ends.
+ *
+ * An incidence with edge id e has the state index 2e if it is normal, and
+ * 2e+1 if it is reversed. Like in the
+ * {@link de.uni_koblenz.jgstreetmap.routing.compact.SearchWorkspace}, the
+ * per-state arrays carry a generation number instead of being cleared.
+ */
+public class EdgeBasedRouteCalculator extends RouteCalculator {
+	/** the default cost in seconds of a turn by one degree */
+	public static final double DEFAULT_TIME_PER_DEGREE = 0.1;
+
+	/** the default inconvenience of a turn by one degree */
+	public static final double DEFAULT_INCONVENIENCE_PER_DEGREE =
+			INCONVENIENCEVALUE / 90;
+
+	private final TurnRestrictions restrictions;
+	private double timePerDegree;
+	private double inconveniencePerDegree;
+
+	private int generation;
+	private int[] visited;
+	private int[] settled;
+	private double[] distance;
+	private int[] parent;
+	private VertexHeap queue;
+
+	/**
+	 * Creates a calculator with the turn restrictions of <code>graph</code>.
+	 */
+	public EdgeBasedRouteCalculator(OsmGraph graph) {
+		this(graph, new TurnRestrictions(graph));
+	}
+
+	/**
+	 * @param restrictions
+	 *            the turn restrictions of <code>graph</code>, which may be
+	 *            shared by many calculators
+	 */
+	public EdgeBasedRouteCalculator(OsmGraph graph,
+			TurnRestrictions restrictions) {
+		this.graph = graph;
+		this.restrictions = restrictions;
+		relevantTypes = new TreeSet<SegmentType>();
+		setRestriction(RoutingRestriction.CAR);
+		speeds = new Speed();
+		timePerDegree = DEFAULT_TIME_PER_DEGREE;
+		inconveniencePerDegree = DEFAULT_INCONVENIENCE_PER_DEGREE;
+	}
+
+	public TurnRestrictions getTurnRestrictions() {
+		return restrictions;
+	}
+
+	public double getTimePerDegree() {
+		return timePerDegree;
+	}
+
+	/**
+	 * Sets the seconds a turn by one degree costs with
+	 * {@link EdgeRating#TIME}. 0 disables the turn costs, but the
+	 * restrictions still apply.
+	 */
+	public void setTimePerDegree(double timePerDegree) {
+		this.timePerDegree = timePerDegree;
+	}
+
+	public double getInconveniencePerDegree() {
+		return inconveniencePerDegree;
+	}
+
+	/**
+	 * Sets what a turn by one degree costs with {@link EdgeRating#CONVENIENCE}
+	 * in addition to the penalty for changing the way.
+	 */
+	public void setInconveniencePerDegree(double inconveniencePerDegree) {
+		this.inconveniencePerDegree = inconveniencePerDegree;
+	}
+
+	@Override
+	public RoutingResult getRoute(Node target, EdgeRating r) {
+		long startTime = System.currentTimeMillis();
+		if (start == null) {
+			throw new IllegalStateException(
+					"setStart() must be called before invoking this method!");
+		}
+		List<Segment> route = null;
+		if (start != target) {
+			int last = search(null, target, -1, r);
+			if (last >= 0) {
+				route = createRoute(last);
+			}
+		}
+		return new RoutingResult(route, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Searches onwards from the state <code>first</code> up to the state
+	 * <code>last</code>, so the turns out of <code>first</code> and into
+	 * <code>last</code> are checked and rated like all others. The start
+	 * vertex is not needed.
+	 */
+	@Override
+	protected List<Segment> getRouteBetween(Segment first, Segment last,
+			EdgeRating r) {
+		int state = search(first, (Node) last.getThat(), WeightTable
+				.getState(last), r);
+		if (state < 0) {
+			return null;
+		}
+		List<Segment> route = createRoute(state);
+		route.add(0, first);
+		return route;
+	}
+
+	/**
+	 * Runs the search from the start vertex if <code>first</code> is null,
+	 * or else from the end of the state <code>first</code>, whose turns are
+	 * rated but which isn't part of the route.
+	 *
+	 * @param targetState
+	 *            the state to reach, or -1 to reach <code>target</code> over
+	 *            any segment
+	 * @return the state over which the target has been reached first, or -1
+	 *         if it can't be reached
+	 */
+	private int search(Segment first, Node target, int targetState,
+			EdgeRating r) {
+		prepare();
+		WeightTable weights = getWeightTable(r);
+
+		if (first == null) {
+			for (Segment s : start.getSegmentIncidences()) {
+				if (weights.isAllowed(s)) {
+					relax(s, rate(weights, s, r, null), -1, target, r);
+				}
+			}
+		} else {
+			expand(first, 0, -1, weights, target, r);
+		}
+
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			settled[state] = generation;
+			Segment in = getSegment(state);
+			if ((targetState >= 0) ? (state == targetState)
+					: (in.getThat() == target)) {
+				return state;
+			}
+			expand(in, distance[state], state, weights, target, r);
+		}
+		return -1;
+	}
+
+	/**
+	 * Relaxes all allowed turns after <code>in</code>, which has been reached
+	 * with the rating <code>d</code> in the state <code>parentState</code>.
+	 */
+	private void expand(Segment in, double d, int parentState,
+			WeightTable weights, Node target, EdgeRating r) {
+		Node v = (Node) in.getThat();
+		int degree = getDegree(v);
+		boolean checkRestrictions = restrictions.hasRestrictions(v.getId());
+		Segment back = opposite(in);
+		for (Segment out : v.getSegmentIncidences()) {
+			if (!weights.isAllowed(out)) {
+				continue;
+			}
+			if (((out == back) && (degree > 1))
+					|| (checkRestrictions && restrictions.isForbidden(in, out))) {
+				continue;
+			}
+			relax(out, d + rate(weights, out, r, in)
+					+ turnCost(in, out, r, degree), parentState, target, r);
+		}
+	}
+
+	private static int getDegree(Node v) {
+		int degree = 0;
+		for (Segment s = v.getFirstSegmentIncidence(); s != null; s = s
+				.getNextSegmentIncidence()) {
+			degree++;
+		}
+		return degree;
+	}
+
+	@Override
+	public boolean isRatingTurns() {
+		return true;
+	}
+
+	@Override
+	protected double turnCost(Segment in, Segment out, EdgeRating r) {
+		return turnCost(in, out, r, getDegree((Node) in.getThat()));
+	}
+
+	/**
+	 * @return the cost of continuing with <code>out</code> after
+	 *         <code>in</code> at a node with <code>degree</code> segment
+	 *         incidences. Following a road through a node which isn't an
+	 *         intersection is free.
+	 */
+	protected double turnCost(Segment in, Segment out, EdgeRating r,
+			int degree) {
+		double perDegree;
+		switch (r) {
+		case TIME:
+			perDegree = timePerDegree;
+			break;
+		case CONVENIENCE:
+			perDegree = inconveniencePerDegree;
+			break;
+		default:
+			return 0;
+		}
+		if ((perDegree == 0) || (degree <= 2)) {
+			return (degree == 1) ? 180 * perDegree : 0;
+		}
+		return GpsTools.getAngleBetweenSegments(in, out) * perDegree;
+	}
+
+	private void relax(Segment s, double newDist, int parentState,
+			Node target, EdgeRating r) {
+		int state = WeightTable.getState(s);
+		if (visited[state] != generation) {
+			visited[state] = generation;
+			distance[state] = newDist;
+			parent[state] = parentState;
+			queue.insert(state, newDist
+					+ calculateHeuristic((Node) s.getThat(), target, r));
+		} else if ((settled[state] != generation)
+				&& (newDist < distance[state])) {
+			// the heuristic part of the key doesn't change
+			double key = queue.getKey(state) + newDist - distance[state];
+			distance[state] = newDist;
+			parent[state] = parentState;
+			queue.decreaseKey(state, key);
+		}
+	}
+
+	private void prepare() {
+		int stateCount = 2 * (graph.getMaxECount() + 1);
+		if ((visited == null) || (visited.length < stateCount)) {
+			visited = new int[stateCount];
+			settled = new int[stateCount];
+			distance = new double[stateCount];
+			parent = new int[stateCount];
+			queue = new VertexHeap(stateCount);
+			generation = 0;
+		} else {
+			queue.clear();
+		}
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	private List<Segment> createRoute(int last) {
+		List<Segment> route = new ArrayList<Segment>();
+		for (int state = last; state >= 0; state = parent[state]) {
+			route.add(getSegment(state));
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	private Segment getSegment(int state) {
+		int id = state >> 1;
+		return (Segment) graph.getEdge(((state & 1) == 0) ? id : -id);
+	}
+}
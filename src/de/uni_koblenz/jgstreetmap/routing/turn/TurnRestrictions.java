@@ -0,0 +1,179 @@
+package de.uni_koblenz.jgstreetmap.routing.turn;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.map.HasMember;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.map.OsmPrimitive;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Relation;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Way;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+
+/**
+ * The turn restrictions of a graph, read once from its
+ * <code>type=restriction</code> relations. Each restriction is stored as
+ * (from way, to way, only) entry, and the entries are grouped by the id of
+ * their via node like the arcs of a
+ * {@link de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph}. So a turn
+ * at a node without restrictions is checked by comparing two array entries.
+ *
+ * <code>no_*</code> restrictions forbid the turn from the from way into the to
+ * way, <code>only_*</code> restrictions forbid all turns from the from way
+ * except the one into the to way. If from and to way are the same, only the
+ * u-turn is forbidden. Restrictions with a way as via member aren't
+ * supported and ignored.
+ */
+public class TurnRestrictions {
+	/** entries of the via node with id v are firstEntry[v]..firstEntry[v+1]-1 */
+	private final int[] firstEntry;
+	private final long[] fromWay;
+	private final long[] toWay;
+	private final BitSet only;
+
+	private int ignoredRelationCount;
+
+	public TurnRestrictions(OsmGraph graph) {
+		List<long[]> entries = new ArrayList<long[]>();
+		for (Relation r : graph.getRelationVertices()) {
+			if (!"restriction".equals(AnnotatedOsmGraph.getTag(r, "type"))) {
+				continue;
+			}
+			if (!readRestriction(r, entries)) {
+				ignoredRelationCount++;
+			}
+		}
+
+		int vertexCount = graph.getMaxVCount() + 1;
+		firstEntry = new int[vertexCount + 1];
+		for (long[] e : entries) {
+			firstEntry[(int) e[0] + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			firstEntry[v + 1] += firstEntry[v];
+		}
+		int[] next = new int[vertexCount];
+		System.arraycopy(firstEntry, 0, next, 0, vertexCount);
+		fromWay = new long[entries.size()];
+		toWay = new long[entries.size()];
+		only = new BitSet(entries.size());
+		for (long[] e : entries) {
+			int i = next[(int) e[0]]++;
+			fromWay[i] = e[1];
+			toWay[i] = e[2];
+			only.set(i, e[3] != 0);
+		}
+	}
+
+	/**
+	 * Adds the (via, from, to, only) entries of the restriction relation
+	 * <code>r</code> to <code>entries</code>.
+	 *
+	 * @return false if <code>r</code> isn't a supported restriction
+	 */
+	private static boolean readRestriction(Relation r, List<long[]> entries) {
+		String value = AnnotatedOsmGraph.getTag(r, "restriction");
+		if (value == null) {
+			return false;
+		}
+		long isOnly;
+		if (value.startsWith("no_")) {
+			isOnly = 0;
+		} else if (value.startsWith("only_")) {
+			isOnly = 1;
+		} else {
+			return false;
+		}
+		List<Way> from = new ArrayList<Way>();
+		List<Way> to = new ArrayList<Way>();
+		Node via = null;
+		for (HasMember m = r.getFirstHasMemberIncidence(); m != null; m = m
+				.getNextHasMemberIncidence()) {
+			if (!m.isNormal()) {
+				// r is a member of another relation
+				continue;
+			}
+			OsmPrimitive p = (OsmPrimitive) m.getThat();
+			String role = m.get_memberRole();
+			if ("from".equals(role) && (p instanceof Way)) {
+				from.add((Way) p);
+			} else if ("to".equals(role) && (p instanceof Way)) {
+				to.add((Way) p);
+			} else if ("via".equals(role)) {
+				if (!(p instanceof Node) || (via != null)) {
+					return false;
+				}
+				via = (Node) p;
+			}
+		}
+		if ((via == null) || from.isEmpty() || to.isEmpty()) {
+			return false;
+		}
+		for (Way f : from) {
+			for (Way t : to) {
+				entries.add(new long[] { via.getId(), f.get_osmId(),
+						t.get_osmId(), isOnly });
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if a restriction forbids to continue with the segment
+	 *         incidence <code>out</code> after having arrived over
+	 *         <code>in</code>
+	 */
+	public boolean isForbidden(Segment in, Segment out) {
+		int via = in.getThat().getId();
+		if (via >= firstEntry.length - 1) {
+			return false;
+		}
+		int last = firstEntry[via + 1];
+		boolean onlyFound = false;
+		long fromId = in.get_wayId();
+		long toId = out.get_wayId();
+		for (int i = firstEntry[via]; i < last; i++) {
+			if (fromWay[i] != fromId) {
+				continue;
+			}
+			if (only.get(i)) {
+				if (toWay[i] == toId) {
+					return false;
+				}
+				onlyFound = true;
+			} else if ((toWay[i] == toId)
+					&& ((fromId != toId) || (out == RouteCalculator
+							.opposite(in)))) {
+				return true;
+			}
+		}
+		return onlyFound;
+	}
+
+	/**
+	 * @return true if there are restrictions at the node with id
+	 *         <code>via</code>
+	 */
+	public boolean hasRestrictions(int via) {
+		return (via < firstEntry.length - 1)
+				&& (firstEntry[via] != firstEntry[via + 1]);
+	}
+
+	/**
+	 * @return the number of (from way, to way) entries
+	 */
+	public int size() {
+		return fromWay.length;
+	}
+
+	/**
+	 * @return the number of restriction relations which couldn't be used
+	 */
+	public int getIgnoredRelationCount() {
+		return ignoredRelationCount;
+	}
+}
@@ -0,0 +1,97 @@
+package de.uni_koblenz.jgstreetmap.server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.uni_koblenz.jgstreetmap.routing.batch.LatencyHistogram;
+
+/**
+ * Counts the requests of one endpoint of a {@link RoutingServer} by outcome
+ * and keeps a histogram of their latencies. Instances may be updated by many
+ * threads.
+ */
+public class EndpointMetrics {
+	private final String path;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong clientErrors = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong serverErrors = new AtomicLong();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	EndpointMetrics(String path) {
+		this.path = path;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Records a request answered with <code>status</code> after
+	 * <code>nanos</code> nanoseconds.
+	 */
+	void record(int status, long nanos) {
+		requests.incrementAndGet();
+		if (status == 503) {
+			rejected.incrementAndGet();
+		} else if (status == 504) {
+			timeouts.incrementAndGet();
+		} else if (status >= 500) {
+			serverErrors.incrementAndGet();
+		} else if (status >= 400) {
+			clientErrors.incrementAndGet();
+		}
+		synchronized (latencies) {
+			latencies.record(nanos);
+		}
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of requests answered with a 4xx status
+	 */
+	public long getClientErrorCount() {
+		return clientErrors.get();
+	}
+
+	/**
+	 * @return the number of requests rejected because the server was busy
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return the number of requests which failed with an unexpected error
+	 */
+	public long getServerErrorCount() {
+		return serverErrors.get();
+	}
+
+	/**
+	 * @return the metrics as JSON object, latencies in milliseconds
+	 */
+	String toJson() {
+		synchronized (latencies) {
+			return String.format(Locale.US, "{\"requests\":%d,"
+					+ "\"clientErrors\":%d,\"rejected\":%d,\"timeouts\":%d,"
+					+ "\"serverErrors\":%d,\"latency\":{\"mean\":%.3f,"
+					+ "\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}}",
+					requests.get(), clientErrors.get(), rejected.get(),
+					timeouts.get(), serverErrors.get(),
+					latencies.getMean() / 1000,
+					latencies.getPercentile(50) / 1000.0, latencies
+							.getPercentile(90) / 1000.0, latencies
+							.getPercentile(99) / 1000.0,
+					latencies.getMax() / 1000.0);
+		}
+	}
+}
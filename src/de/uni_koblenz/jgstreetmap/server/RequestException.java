@@ -0,0 +1,20 @@
+package de.uni_koblenz.jgstreetmap.server;
+
+/**
+ * Ends the handling of a request with an HTTP error status. The message is
+ * sent to the client.
+ */
+class RequestException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	RequestException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	int getStatus() {
+		return status;
+	}
+}
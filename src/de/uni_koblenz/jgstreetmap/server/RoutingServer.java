@@ -0,0 +1,855 @@
+package de.uni_koblenz.jgstreetmap.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.uni_koblenz.ist.utilities.option_handler.OptionHandler;
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.model.AnnotatedOsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraphFactory;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.impl.std.OsmGraphFactoryImpl;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.Isochrone;
+import de.uni_koblenz.jgstreetmap.routing.IsochroneCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.RoutingProfile;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.Segmentator;
+import de.uni_koblenz.jgstreetmap.routing.compact.DistanceMatrix;
+import de.uni_koblenz.jgstreetmap.routing.compact.MatrixCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.compact.SharedRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.traffic.LiveTraffic;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficState;
+import de.uni_koblenz.jgstreetmap.routing.traffic.TrafficUpdate;
+
+/**
+ * An HTTP service answering routing queries on one graph, built on the HTTP
+ * server of the JDK. The graph is loaded once and only read; routes and
+ * matrices are computed by a {@link SharedRouteCalculator} whose search state
+ * is pooled, isochrones by pooled {@link IsochroneCalculator}s.
+ *
+ * Every request is handled on a thread of its own, a virtual thread if the
+ * JVM supports them. At most <code>concurrency</code> computations run at the
+ * same time; a request waits for a free slot until its timeout and is then
+ * rejected with 503. A request whose computation doesn't finish in time is
+ * answered with 504. The searches can't be interrupted, so a timed out
+ * computation finishes in the background and keeps its slot until then.
+ *
+ * All endpoints answer GET requests with JSON. Points are given as
+ * <code>lat,lon</code> in degrees and snapped to the nearest node with
+ * segments. <code>rating</code> (default TIME) and <code>restriction</code>
+ * (default CAR) are optional.
+ * <ul>
+ * <li><code>/route?from=..&amp;to=..</code> the best route with its length in
+ * meters, duration in seconds and points</li>
+ * <li><code>/nearest?point=..</code> the node a point is snapped to</li>
+ * <li><code>/matrix?sources=..;..&amp;targets=..;..</code> lengths and
+ * durations between all sources and targets</li>
+ * <li><code>/isochrone?point=..&amp;limit=..</code> the polygons reachable
+ * within <code>limit</code> seconds (or meters for LENGTH)</li>
+ * <li><code>/metrics</code> request counts and latencies per endpoint</li>
+ * <li><code>/traffic</code> the number of live traffic overrides, see
+ * {@link #updateTraffic(Map)} for the POST requests changing them</li>
+ * </ul>
+ *
+ * Durations are rated under the traffic state the route has been computed
+ * with.
+ */
+public class RoutingServer {
+	public static final int DEFAULT_PORT = 8080;
+
+	/** the default timeout of a request in milliseconds */
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	/** the maximal number of entries of a matrix request */
+	public static final int MAX_MATRIX_ENTRIES = 10000;
+
+	private final AnnotatedOsmGraph graph;
+	private final SharedRouteCalculator calculator;
+	private final ForkJoinPool forkJoinPool;
+	private final MatrixCalculator matrixCalculator;
+	private final ConcurrentLinkedQueue<IsochroneCalculator> isochroneCalculators;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final int concurrency;
+	private final Semaphore slots;
+	private final Map<String, EndpointMetrics> metrics;
+	private final long startTime;
+
+	private volatile long timeout;
+	private volatile double snapRange;
+
+	/** the segments by OSM way id, built on the first traffic update */
+	private Map<Long, List<Segment>> waySegments;
+
+	/**
+	 * Creates a server for <code>graph</code> listening on
+	 * <code>address</code>, which must be started with {@link #start()}. Port
+	 * 0 takes any free port, see {@link #getPort()}.
+	 *
+	 * @param concurrency
+	 *            the maximal number of computations running at the same time
+	 */
+	public RoutingServer(AnnotatedOsmGraph graph, InetSocketAddress address,
+			int concurrency) throws IOException {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException(
+					"concurrency must be at least 1");
+		}
+		this.graph = graph;
+		this.concurrency = concurrency;
+		calculator = new SharedRouteCalculator(new RoutingGraph(graph));
+		forkJoinPool = new ForkJoinPool();
+		matrixCalculator = new MatrixCalculator(calculator, forkJoinPool);
+		isochroneCalculators = new ConcurrentLinkedQueue<IsochroneCalculator>();
+		slots = new Semaphore(concurrency);
+		metrics = new LinkedHashMap<String, EndpointMetrics>();
+		timeout = DEFAULT_TIMEOUT;
+		snapRange = MatrixCalculator.DEFAULT_SNAP_RANGE;
+
+		ExecutorService virtual = createVirtualThreadExecutor();
+		virtualThreads = virtual != null;
+		executor = virtualThreads ? virtual : Executors
+				.newCachedThreadPool(new ThreadFactory() {
+					private int count;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "RoutingServer-" + (++count));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		new Endpoint("/route") {
+			@Override
+			String compute(Map<String, String> params) {
+				return route(params);
+			}
+		};
+		new Endpoint("/nearest") {
+			@Override
+			String compute(Map<String, String> params) {
+				return nearest(params);
+			}
+		};
+		new Endpoint("/matrix") {
+			@Override
+			String compute(Map<String, String> params) {
+				return matrix(params);
+			}
+		};
+		new Endpoint("/isochrone") {
+			@Override
+			String compute(Map<String, String> params) {
+				return isochrone(params);
+			}
+		};
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				send(exchange, 200, getMetricsJson());
+			}
+		});
+		server.createContext("/traffic", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int status = 200;
+				String body;
+				try {
+					body = traffic(exchange.getRequestMethod(),
+							parseQuery(exchange.getRequestURI().getRawQuery()));
+				} catch (RequestException e) {
+					status = e.getStatus();
+					body = error(e.getMessage());
+				} catch (IllegalArgumentException e) {
+					status = 400;
+					body = error(e.getMessage());
+				}
+				send(exchange, status, body);
+			}
+		});
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if the
+	 *         JVM has no virtual threads
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception e) {
+			// virtual threads came with Java 21
+			return null;
+		}
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits up to <code>delay</code> seconds for
+	 * running exchanges to finish.
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdownNow();
+		forkJoinPool.shutdownNow();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds within which a request must be answered.
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout must be positive");
+		}
+		this.timeout = timeout;
+	}
+
+	public double getSnapRange() {
+		return snapRange;
+	}
+
+	/**
+	 * Sets the radius in meters within which points are snapped to nodes.
+	 */
+	public void setSnapRange(double snapRange) {
+		this.snapRange = snapRange;
+	}
+
+	/**
+	 * Makes all endpoints follow the closures and speed factors of
+	 * <code>traffic</code>, which may be updated while the server runs.
+	 *
+	 * @param traffic
+	 *            the live traffic, or null to ignore it
+	 */
+	public void setTraffic(LiveTraffic traffic) {
+		calculator.setTraffic(traffic);
+	}
+
+	public LiveTraffic getTraffic() {
+		return calculator.getTraffic();
+	}
+
+	/**
+	 * @return the metrics of the endpoints by path
+	 */
+	public Map<String, EndpointMetrics> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * A computing endpoint. Its requests are counted, limited by the
+	 * concurrency slots and subject to the timeout.
+	 */
+	private abstract class Endpoint implements HttpHandler {
+		private final EndpointMetrics endpointMetrics;
+
+		Endpoint(String path) {
+			endpointMetrics = new EndpointMetrics(path);
+			metrics.put(path, endpointMetrics);
+			server.createContext(path, this);
+		}
+
+		/**
+		 * @return the JSON answer to a request with the given parameters
+		 * @throws IllegalArgumentException
+		 *             if the parameters are invalid
+		 */
+		abstract String compute(Map<String, String> params);
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			long startTime = System.nanoTime();
+			int status = 200;
+			String body;
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					throw new RequestException(405, "only GET is supported");
+				}
+				body = execute(parseQuery(exchange.getRequestURI()
+						.getRawQuery()), startTime);
+			} catch (RequestException e) {
+				status = e.getStatus();
+				body = error(e.getMessage());
+			} catch (IllegalArgumentException e) {
+				status = 400;
+				body = error(e.getMessage());
+			} catch (RuntimeException e) {
+				status = 500;
+				body = error(e.toString());
+			}
+			if (status == 503) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+			}
+			send(exchange, status, body);
+			endpointMetrics.record(status, System.nanoTime() - startTime);
+		}
+
+		private String execute(final Map<String, String> params,
+				long startTime) {
+			long deadline = startTime + timeout * 1000000;
+			try {
+				if (!slots.tryAcquire(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS)) {
+					throw new RequestException(503, "server busy");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RequestException(503, "server stopping");
+			}
+			Future<String> f;
+			try {
+				f = executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						try {
+							return compute(params);
+						} finally {
+							slots.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				slots.release();
+				throw new RequestException(503, "server stopping");
+			}
+			try {
+				return f.get(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				throw new RequestException(504, "timeout after " + timeout
+						+ " ms");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RequestException(503, "server stopping");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	private String route(Map<String, String> params) {
+		EdgeRating rating = getRating(params);
+		RoutingProfile profile = RoutingProfile
+				.forRestriction(getRestriction(params));
+		Node from = snap(params, "from");
+		Node to = snap(params, "to");
+		// the duration is rated under the state the route is computed with
+		TrafficState traffic = calculator.getTrafficState();
+		RoutingResult route = calculator.getRoute(from, to, rating, profile,
+				traffic);
+		if (!route.hasRoute() && (from != to)) {
+			throw new RequestException(404, "no route found");
+		}
+		double length = 0;
+		double duration = 0;
+		StringBuilder points = new StringBuilder();
+		appendPoint(points, from.get_latitude(), from.get_longitude());
+		// streamed, so long routes don't need a list of segments
+		for (Segment s : route) {
+			length += s.get_length();
+			duration += s.get_length() * profile.getFactor(s.get_wayType())
+					/ traffic.getSpeedFactor(s);
+			Node n = (Node) s.getThat();
+			points.append(',');
+			appendPoint(points, n.get_latitude(), n.get_longitude());
+		}
+		return String.format(Locale.US, "{\"from\":%s,\"to\":%s,"
+				+ "\"length\":%.1f,\"duration\":%.1f,\"points\":[%s]}",
+				node(from), node(to), length, duration, points);
+	}
+
+	private String nearest(Map<String, String> params) {
+		double[] p = getPoint(params, "point");
+		Node n = snap(params, "point");
+		return String.format(Locale.US, "{\"node\":%s,\"distance\":%.1f}",
+				node(n), Segmentator.distance(p[0], p[1], n));
+	}
+
+	private String matrix(Map<String, String> params) {
+		double[][] sources = getPoints(params, "sources");
+		double[][] targets = getPoints(params, "targets");
+		if ((long) sources.length * targets.length > MAX_MATRIX_ENTRIES) {
+			throw new IllegalArgumentException("more than "
+					+ MAX_MATRIX_ENTRIES + " entries requested");
+		}
+		DistanceMatrix m = matrixCalculator.calculate(graph, sources, targets,
+				getRating(params), getRestriction(params));
+		StringBuilder lengths = new StringBuilder();
+		StringBuilder durations = new StringBuilder();
+		for (int i = 0; i < m.getSourceCount(); i++) {
+			lengths.append((i == 0) ? "[" : ",[");
+			durations.append((i == 0) ? "[" : ",[");
+			for (int j = 0; j < m.getTargetCount(); j++) {
+				if (j > 0) {
+					lengths.append(',');
+					durations.append(',');
+				}
+				lengths.append(number(m.getLength(i, j)));
+				durations.append(number(m.getDuration(i, j)));
+			}
+			lengths.append(']');
+			durations.append(']');
+		}
+		return "{\"lengths\":[" + lengths + "],\"durations\":[" + durations
+				+ "]}";
+	}
+
+	private String isochrone(Map<String, String> params) {
+		EdgeRating rating = getRating(params);
+		RoutingRestriction restriction = getRestriction(params);
+		double limit = getDouble(params, "limit");
+		Node start = snap(params, "point");
+		IsochroneCalculator c = isochroneCalculators.poll();
+		if (c == null) {
+			c = new IsochroneCalculator(graph);
+		}
+		Isochrone isochrone;
+		try {
+			c.setCellSize(params.containsKey("cellSize") ? getDouble(params,
+					"cellSize") : IsochroneCalculator.DEFAULT_CELL_SIZE);
+			if (c.getRouteCalculator().getRestriction() != restriction) {
+				c.getRouteCalculator().setRestriction(restriction);
+			}
+			c.getRouteCalculator().setTraffic(calculator.getTraffic());
+			isochrone = c.calculate(start, limit, rating);
+		} finally {
+			isochroneCalculators.offer(c);
+		}
+		StringBuilder polygons = new StringBuilder();
+		for (double[][] ring : isochrone.getPolygons()) {
+			polygons.append((polygons.length() == 0) ? "[" : ",[");
+			for (int i = 0; i < ring.length; i++) {
+				if (i > 0) {
+					polygons.append(',');
+				}
+				appendPoint(polygons, ring[i][0], ring[i][1]);
+			}
+			polygons.append(']');
+		}
+		return String.format(Locale.US, "{\"start\":%s,\"limit\":%s,"
+				+ "\"reachedNodes\":%d,\"cellSize\":%.1f,\"polygons\":[%s]}",
+				node(start), number(limit), isochrone.getReachedNodes().size(),
+				isochrone.getCellSize(), polygons);
+	}
+
+	private String traffic(String method, Map<String, String> params) {
+		LiveTraffic traffic = calculator.getTraffic();
+		if (traffic == null) {
+			throw new RequestException(404, "live traffic is disabled");
+		}
+		if ("POST".equals(method)) {
+			updateTraffic(params);
+		} else if (!"GET".equals(method)) {
+			throw new RequestException(405, "only GET and POST are supported");
+		}
+		TrafficState state = traffic.getState();
+		return String.format(Locale.US, "{\"overrides\":%d,\"blocked\":%d}",
+				state.size(), state.getBlockedCount());
+	}
+
+	/**
+	 * Applies the changes of a POST request to <code>/traffic</code> in one
+	 * update. The segments are given by OSM way ids separated by semicolons:
+	 * <code>block</code> closes all segments of the ways, <code>open</code>
+	 * opens them again, <code>reset</code> removes their overrides, and
+	 * <code>speedFactor</code> takes pairs <code>wayId:factor</code>.
+	 * <code>clear=true</code> removes all overrides before.
+	 */
+	private void updateTraffic(Map<String, String> params) {
+		TrafficUpdate update = new TrafficUpdate();
+		for (String id : getList(params, "block")) {
+			for (Segment s : getWaySegments(id)) {
+				update.block(s);
+			}
+		}
+		for (String id : getList(params, "open")) {
+			for (Segment s : getWaySegments(id)) {
+				update.open(s);
+			}
+		}
+		for (String id : getList(params, "reset")) {
+			for (Segment s : getWaySegments(id)) {
+				update.reset(s);
+			}
+		}
+		for (String pair : getList(params, "speedFactor")) {
+			int colon = pair.indexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("invalid speedFactor "
+						+ pair + ", expected wayId:factor");
+			}
+			double factor;
+			try {
+				factor = Double.parseDouble(pair.substring(colon + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid speedFactor "
+						+ pair);
+			}
+			for (Segment s : getWaySegments(pair.substring(0, colon))) {
+				update.setSpeedFactor(s, factor);
+			}
+		}
+		LiveTraffic traffic = calculator.getTraffic();
+		if ("true".equals(params.get("clear"))) {
+			traffic.setState(TrafficState.EMPTY.apply(update));
+		} else {
+			traffic.update(update);
+		}
+	}
+
+	private static List<String> getList(Map<String, String> params,
+			String name) {
+		List<String> values = new ArrayList<String>();
+		String value = params.get(name);
+		if (value != null) {
+			for (String s : value.split(";")) {
+				if (!s.trim().isEmpty()) {
+					values.add(s.trim());
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return the segments of the way with the OSM id <code>wayId</code>
+	 */
+	private synchronized List<Segment> getWaySegments(String wayId) {
+		if (waySegments == null) {
+			waySegments = new HashMap<Long, List<Segment>>();
+			for (Segment s : graph.getSegmentEdges()) {
+				List<Segment> l = waySegments.get(s.get_wayId());
+				if (l == null) {
+					l = new ArrayList<Segment>();
+					waySegments.put(s.get_wayId(), l);
+				}
+				l.add(s);
+			}
+		}
+		List<Segment> segments = null;
+		try {
+			segments = waySegments.get(Long.parseLong(wayId));
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		if (segments == null) {
+			throw new IllegalArgumentException("unknown way " + wayId);
+		}
+		return segments;
+	}
+
+	private String getMetricsJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "{\"uptime\":%.1f,"
+				+ "\"virtualThreads\":%b,\"concurrency\":%d,\"running\":%d,"
+				+ "\"idleWorkspaces\":%d,\"endpoints\":{",
+				(System.currentTimeMillis() - startTime) / 1000.0,
+				virtualThreads, concurrency, concurrency
+						- slots.availablePermits(), calculator
+						.getWorkspacePool().getIdleCount()));
+		boolean first = true;
+		for (Entry<String, EndpointMetrics> e : metrics.entrySet()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append(quote(e.getKey())).append(':').append(
+					e.getValue().toJson());
+		}
+		return sb.append("}}").toString();
+	}
+
+	private Node snap(Map<String, String> params, String name) {
+		double[] p = getPoint(params, name);
+		Node n = MatrixCalculator.snap(graph, p[0], p[1], snapRange);
+		if (n == null) {
+			throw new RequestException(404, "no node within " + snapRange
+					+ " m of " + name);
+		}
+		return n;
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(decode(pair.substring(0, eq)), decode(pair
+						.substring(eq + 1)));
+			}
+		}
+		return params;
+	}
+
+	private static String decode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String getParameter(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if ((value == null) || value.isEmpty()) {
+			throw new IllegalArgumentException("missing parameter " + name);
+		}
+		return value;
+	}
+
+	private static double getDouble(Map<String, String> params, String name) {
+		try {
+			return Double.parseDouble(getParameter(params, name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid number " + name);
+		}
+	}
+
+	private static double[] getPoint(Map<String, String> params, String name) {
+		return parsePoint(getParameter(params, name), name);
+	}
+
+	private static double[][] getPoints(Map<String, String> params,
+			String name) {
+		List<double[]> points = new ArrayList<double[]>();
+		for (String s : getParameter(params, name).split(";")) {
+			points.add(parsePoint(s, name));
+		}
+		return points.toArray(new double[points.size()][]);
+	}
+
+	private static double[] parsePoint(String s, String name) {
+		String[] parts = s.split(",");
+		try {
+			if (parts.length == 2) {
+				double lat = Double.parseDouble(parts[0].trim());
+				double lon = Double.parseDouble(parts[1].trim());
+				if ((Math.abs(lat) <= 90) && (Math.abs(lon) <= 180)) {
+					return new double[] { lat, lon };
+				}
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("invalid point " + name
+				+ ", expected lat,lon");
+	}
+
+	private static EdgeRating getRating(Map<String, String> params) {
+		String value = params.get("rating");
+		try {
+			return (value == null) ? EdgeRating.TIME : EdgeRating
+					.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown rating " + value);
+		}
+	}
+
+	private static RoutingRestriction getRestriction(
+			Map<String, String> params) {
+		String value = params.get("restriction");
+		try {
+			return (value == null) ? RoutingRestriction.CAR
+					: RoutingRestriction.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown restriction " + value);
+		}
+	}
+
+	private static void appendPoint(StringBuilder sb, double lat, double lon) {
+		sb.append(String.format(Locale.US, "[%.6f,%.6f]", lat, lon));
+	}
+
+	private static String node(Node n) {
+		return String.format(Locale.US,
+				"{\"osmId\":%d,\"lat\":%.6f,\"lon\":%.6f}", n.get_osmId(), n
+						.get_latitude(), n.get_longitude());
+	}
+
+	/**
+	 * @return <code>d</code> with one decimal, or null if it is infinite
+	 */
+	private static String number(double d) {
+		return Double.isInfinite(d) ? "null" : String.format(Locale.US,
+				"%.1f", d);
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + quote(message) + "}";
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static CommandLine processCommandLineOptions(String[] args) {
+		String toolString = "java " + RoutingServer.class.getName();
+		String versionString = "1.0";
+		OptionHandler oh = new OptionHandler(toolString, versionString);
+
+		Option input = new Option("i", "input", true,
+				"(required): input TG file");
+		input.setRequired(true);
+		input.setArgName("file");
+		oh.addOption(input);
+
+		Option port = new Option("p", "port", true,
+				"(optional): port to listen on, default: " + DEFAULT_PORT);
+		port.setRequired(false);
+		port.setArgName("port");
+		oh.addOption(port);
+
+		Option bind = new Option("b", "bind", true,
+				"(optional): address to listen on, default: localhost");
+		bind.setRequired(false);
+		bind.setArgName("address");
+		oh.addOption(bind);
+
+		Option concurrency = new Option("c", "concurrency", true,
+				"(optional): maximal number of concurrent computations, "
+						+ "default: number of cores");
+		concurrency.setRequired(false);
+		concurrency.setArgName("number");
+		oh.addOption(concurrency);
+
+		Option timeout = new Option("t", "timeout", true,
+				"(optional): request timeout in milliseconds, default: "
+						+ DEFAULT_TIMEOUT);
+		timeout.setRequired(false);
+		timeout.setArgName("ms");
+		oh.addOption(timeout);
+
+		Option traffic = new Option("l", "live-traffic", false,
+				"(optional): accept live traffic updates at /traffic");
+		traffic.setRequired(false);
+		oh.addOption(traffic);
+		return oh.parse(args);
+	}
+
+	public static void main(String[] args) throws GraphIOException,
+			IOException {
+		CommandLine cl = processCommandLineOptions(args);
+		OsmGraphFactory f = new OsmGraphFactoryImpl();
+		f.setGraphImplementationClass(OsmGraph.GC, AnnotatedOsmGraph.class);
+		AnnotatedOsmGraph graph = (AnnotatedOsmGraph) OsmSchema.instance()
+				.loadOsmGraph(cl.getOptionValue("i"), f,
+						new ConsoleProgressFunction());
+
+		int port = Integer.parseInt(cl.getOptionValue("p", Integer
+				.toString(DEFAULT_PORT)));
+		final RoutingServer server = new RoutingServer(graph,
+				new InetSocketAddress(cl.getOptionValue("b", "localhost"),
+						port), Integer.parseInt(cl.getOptionValue("c",
+						Integer.toString(Runtime.getRuntime()
+								.availableProcessors()))));
+		if (cl.hasOption("t")) {
+			server.setTimeout(Long.parseLong(cl.getOptionValue("t")));
+		}
+		if (cl.hasOption("l")) {
+			server.setTraffic(new LiveTraffic());
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop(1);
+			}
+		});
+		server.start();
+		System.out.println("Listening on port " + server.getPort()
+				+ (server.usesVirtualThreads() ? " with virtual threads" : ""));
+	}
+}
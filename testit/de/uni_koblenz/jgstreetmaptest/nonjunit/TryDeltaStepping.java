@@ -0,0 +1,134 @@
+package de.uni_koblenz.jgstreetmaptest.nonjunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.compact.DeltaSteppingRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * Compares the one-to-all searches of the
+ * {@link DeltaSteppingRouteCalculator} with the ones of the
+ * {@link DijkstraRouteCalculator}. The distances of all vertices must be
+ * identical, and the routes of the delta-stepping search must be rated like
+ * their distances, up to rounding.
+ *
+ * Usage: TryDeltaStepping [graphfile [runs]], the graph defaults to the
+ * Rhineland-Palatinate graph.
+ */
+public class TryDeltaStepping {
+
+	private static final int RUNS = 10;
+	private static final long SEED = 4711;
+
+	public static void main(String[] args) throws GraphIOException {
+		String graphFile = (args.length > 0) ? args[0]
+				: "OsmRhinelandPalatinate.tg.gz";
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : RUNS;
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+		ForkJoinPool forkJoinPool = new ForkJoinPool();
+		int mismatches;
+		try {
+			mismatches = compare(graph, runs, forkJoinPool);
+		} finally {
+			forkJoinPool.shutdown();
+		}
+		System.out.println(mismatches + " mismatches");
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Runs one-to-all searches from <code>runs</code> random start vertices
+	 * with both calculators for {@link EdgeRating#LENGTH} and
+	 * {@link EdgeRating#TIME}.
+	 *
+	 * @return the number of vertices with different distances or routes
+	 */
+	public static int compare(OsmGraph graph, int runs,
+			ForkJoinPool forkJoinPool) {
+		RoutingGraph routingGraph = new RoutingGraph(graph);
+		List<Node> nodes = new ArrayList<Node>();
+		for (Node n : graph.getNodeVertices()) {
+			if (n.getFirstSegmentIncidence() != null) {
+				nodes.add(n);
+			}
+		}
+
+		DijkstraRouteCalculator dijkstra = new DijkstraRouteCalculator(graph);
+		DeltaSteppingRouteCalculator deltaStepping = new DeltaSteppingRouteCalculator(
+				routingGraph, forkJoinPool);
+		int mismatches = 0;
+		for (EdgeRating rating : new EdgeRating[] { EdgeRating.LENGTH,
+				EdgeRating.TIME }) {
+			Random rnd = new Random(SEED);
+			long[][] times = new long[2][runs];
+			for (int i = 0; i < runs; i++) {
+				Node start = nodes.get(rnd.nextInt(nodes.size()));
+				dijkstra.setStart(start);
+				deltaStepping.setStart(start);
+				long t0 = System.nanoTime();
+				dijkstra.calculateShortestRoutes(rating);
+				times[0][i] = System.nanoTime() - t0;
+				t0 = System.nanoTime();
+				deltaStepping.calculateShortestRoutes(rating);
+				times[1][i] = System.nanoTime() - t0;
+
+				for (Node n : nodes) {
+					double expected = dijkstra.getDistance(n);
+					double d = deltaStepping.getDistance(n);
+					if (d != expected) {
+						System.err.println("Distance mismatch for " + start
+								+ " -> " + n + ": " + d + " vs. " + expected);
+						mismatches++;
+					} else if ((n != start)
+							&& (d != Double.POSITIVE_INFINITY)
+							&& !matchesRoute(deltaStepping, n, rating, d)) {
+						System.err.println("Route mismatch for " + start
+								+ " -> " + n);
+						mismatches++;
+					}
+				}
+				System.out.print(".");
+				System.out.flush();
+			}
+			System.out.println();
+			System.out.println("Results for " + rating + ":");
+			System.out.println("  DijkstraRouteCalculator: "
+					+ median(times[0]) + " msec");
+			System.out.println("  DeltaSteppingRouteCalculator: "
+					+ median(times[1]) + " msec, "
+					+ deltaStepping.getBucketCount() + " buckets in the last run");
+		}
+		return mismatches;
+	}
+
+	private static boolean matchesRoute(
+			DeltaSteppingRouteCalculator calculator, Node target,
+			EdgeRating rating, double distance) {
+		List<Segment> route = calculator.getRoute(target, rating).getRoute();
+		if ((route == null) || (route.get(route.size() - 1).getThat() != target)) {
+			return false;
+		}
+		// the weight tables of the searches round the ratings to floats
+		double w = calculator.calculateCompleteWeight(route, rating);
+		return Math.abs(w - distance) <= 1e-2;
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / (1000.0 * 1000.0);
+	}
+}
@@ -0,0 +1,180 @@
+package de.uni_koblenz.jgstreetmaptest.nonjunit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.RoutingRestriction;
+import de.uni_koblenz.jgstreetmap.routing.SnappedRoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+import de.uni_koblenz.jgstreetmap.routing.compact.SharedRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.matching.GpsPoint;
+import de.uni_koblenz.jgstreetmap.routing.matching.MapMatcher;
+import de.uni_koblenz.jgstreetmap.routing.matching.MatchedPoint;
+import de.uni_koblenz.jgstreetmap.routing.matching.MatchingSession;
+import de.uni_koblenz.jgstreetmap.routing.snap.SegmentIndex;
+
+/**
+ * Matches noisy traces along random routes with windows much smaller than
+ * the traces, so that most points are decided by the window. The matches of
+ * consecutive points must lie on one candidate sequence: the route distance
+ * of each match must be the length of the route from the match of its
+ * predecessor, as computed by the {@link DijkstraRouteCalculator}.
+ *
+ * Usage: TryMapMatching [graphfile [runs]], the graph defaults to the
+ * Rhineland-Palatinate graph.
+ */
+public class TryMapMatching {
+
+	private static final int RUNS = 20;
+	private static final long SEED = 4711;
+
+	/** the standard deviation of the position noise in meters */
+	private static final double NOISE = 20;
+
+	/** the distance in meters between the points of a trace */
+	private static final double STEP = 40;
+
+	public static void main(String[] args) throws GraphIOException {
+		String graphFile = (args.length > 0) ? args[0]
+				: "OsmRhinelandPalatinate.tg.gz";
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : RUNS;
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+		int mismatches = compare(graph, runs);
+		System.out.println(mismatches + " mismatches");
+		System.out.println("Fini.");
+	}
+
+	/**
+	 * Matches <code>runs</code> traces for each window from 1 to 3.
+	 *
+	 * @return the number of points whose match doesn't continue the match of
+	 *         its predecessor
+	 */
+	public static int compare(OsmGraph graph, int runs) {
+		RoutingRestriction restriction = RoutingRestriction.CAR;
+		List<Node> nodes = new ArrayList<Node>();
+		for (Node n : graph.getNodeVertices()) {
+			if (n.getFirstSegmentIncidence() != null) {
+				nodes.add(n);
+			}
+		}
+		SegmentIndex index = new SegmentIndex(graph);
+		SharedRouteCalculator calculator = new SharedRouteCalculator(
+				new RoutingGraph(graph));
+		MapMatcher matcher = new MapMatcher(index, calculator, restriction);
+		DijkstraRouteCalculator dijkstra = new DijkstraRouteCalculator(graph);
+		dijkstra.setRestriction(restriction);
+
+		Random rnd = new Random(SEED);
+		int mismatches = 0;
+		for (int window = 1; window <= 3; window++) {
+			matcher.setWindow(window);
+			int points = 0;
+			int countChanges = 0;
+			for (int i = 0; i < runs; i++) {
+				Node start = nodes.get(rnd.nextInt(nodes.size()));
+				Node target = nodes.get(rnd.nextInt(nodes.size()));
+				List<Segment> route = calculator.getRoute(start, target,
+						EdgeRating.LENGTH, restriction).getRoute();
+				if ((route == null) || route.isEmpty()) {
+					continue;
+				}
+				List<GpsPoint> trace = createTrace(route, rnd);
+				int previousCount = -1;
+				for (GpsPoint p : trace) {
+					int count = Math.min(matcher.getMaxCandidates(), index
+							.query(p.getLatitude(), p.getLongitude(),
+									matcher.getRadius(),
+									RouteCalculator.getRelevantTypes(restriction))
+							.size());
+					if ((previousCount >= 0) && (count != previousCount)) {
+						countChanges++;
+					}
+					previousCount = count;
+				}
+
+				MatchingSession session = matcher.createSession();
+				List<MatchedPoint> matched = new ArrayList<MatchedPoint>();
+				for (GpsPoint p : trace) {
+					matched.addAll(session.add(p));
+				}
+				matched.addAll(session.finish());
+				if (matched.size() != trace.size()) {
+					System.err.println("Got " + matched.size()
+							+ " matches for " + trace.size() + " points");
+					mismatches++;
+					continue;
+				}
+				for (int j = 1; j < matched.size(); j++) {
+					if (!continues(dijkstra, matched.get(j - 1), matched.get(j))) {
+						System.err.println("Match " + matched.get(j)
+								+ " doesn't continue " + matched.get(j - 1));
+						mismatches++;
+					}
+				}
+				points += trace.size();
+			}
+			System.out.println("Window " + window + ": " + points
+					+ " points, " + countChanges
+					+ " changes of the candidate count");
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @return true if the route distance of <code>m</code> is the length of
+	 *         the route from <code>previous</code>, or if <code>m</code>
+	 *         starts a new part of the trace
+	 */
+	private static boolean continues(DijkstraRouteCalculator dijkstra,
+			MatchedPoint previous, MatchedPoint m) {
+		if (!previous.isMatched() || !m.isMatched()
+				|| Double.isNaN(m.getRouteDistance())
+				|| Double.isInfinite(m.getRouteDistance())) {
+			return true;
+		}
+		SnappedRoutingResult r = dijkstra.getRoute(previous.getProjection(), m
+				.getProjection(), EdgeRating.LENGTH);
+		return (r.getRoute() != null)
+				&& (Math.abs(r.getLength() - m.getRouteDistance()) <= 1e-3);
+	}
+
+	/**
+	 * @return points every {@link #STEP} meters along <code>route</code>,
+	 *         moved by gaussian noise, 4 seconds apart
+	 */
+	private static List<GpsPoint> createTrace(List<Segment> route, Random rnd) {
+		List<GpsPoint> trace = new ArrayList<GpsPoint>();
+		long time = 0;
+		for (Segment s : route) {
+			Node a = (Node) s.getThis();
+			Node b = (Node) s.getThat();
+			int n = Math.max(1, (int) (s.get_length() / STEP));
+			for (int i = 0; i < n; i++) {
+				double f = (i + rnd.nextDouble()) / n;
+				double lat = a.get_latitude() + f
+						* (b.get_latitude() - a.get_latitude());
+				double lon = a.get_longitude() + f
+						* (b.get_longitude() - a.get_longitude());
+				// about 111 km per degree of latitude
+				lat += rnd.nextGaussian() * NOISE / 111000;
+				lon += rnd.nextGaussian() * NOISE
+						/ (111000 * Math.cos(Math.toRadians(lat)));
+				time += 4000;
+				trace.add(new GpsPoint(time, lat, lon));
+			}
+		}
+		return trace;
+	}
+}
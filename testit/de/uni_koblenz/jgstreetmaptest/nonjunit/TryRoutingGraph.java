@@ -0,0 +1,109 @@
+package de.uni_koblenz.jgstreetmaptest.nonjunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.AStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+import de.uni_koblenz.jgstreetmap.routing.compact.CompactAStarRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.CompactDijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.compact.RoutingGraph;
+
+/**
+ * Compares point-to-point queries of the calculators working on the
+ * {@link RoutingGraph} snapshot with the ones working on the JGraLab graph.
+ *
+ * Usage: TryRoutingGraph [graphfile [runs]], the graph defaults to the
+ * Rhineland-Palatinate graph.
+ */
+public class TryRoutingGraph {
+
+	private static final int RUNS = 50;
+	private static final long SEED = 4711;
+
+	public static void main(String[] args) throws GraphIOException {
+		String graphFile = (args.length > 0) ? args[0]
+				: "OsmRhinelandPalatinate.tg.gz";
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : RUNS;
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+
+		long t0 = System.nanoTime();
+		RoutingGraph routingGraph = new RoutingGraph(graph);
+		System.out.println("Created routing graph with "
+				+ routingGraph.getArcCount() + " arcs in "
+				+ (System.nanoTime() - t0) / 1000000 + " msec");
+
+		List<Node> nodes = new ArrayList<Node>();
+		for (Node n : graph.getNodeVertices()) {
+			if (n.getFirstSegmentIncidence() != null) {
+				nodes.add(n);
+			}
+		}
+
+		RouteCalculator[] calculators = { new DijkstraRouteCalculator(graph),
+				new CompactDijkstraRouteCalculator(routingGraph),
+				new AStarRouteCalculator(graph),
+				new CompactAStarRouteCalculator(routingGraph) };
+		for (EdgeRating rating : new EdgeRating[] { EdgeRating.LENGTH,
+				EdgeRating.TIME }) {
+			Random rnd = new Random(SEED);
+			long[][] times = new long[calculators.length][runs];
+			for (int i = 0; i < runs; i++) {
+				Node start = nodes.get(rnd.nextInt(nodes.size()));
+				Node target = nodes.get(rnd.nextInt(nodes.size()));
+				double reference = 0;
+				for (int c = 0; c < calculators.length; c++) {
+					RouteCalculator calculator = calculators[c];
+					calculator.setStart(start);
+					t0 = System.nanoTime();
+					RoutingResult result = calculator.getRoute(target, rating);
+					times[c][i] = System.nanoTime() - t0;
+					double w = weight(calculator, result, rating);
+					if (c == 0) {
+						reference = w;
+					} else if (Math.abs(w - reference) > 1e-2) {
+						System.err.println("Mismatch of "
+								+ calculator.getClass().getSimpleName()
+								+ " for " + start + " -> " + target + ": "
+								+ w + " vs. " + reference);
+					}
+				}
+				System.out.print(".");
+				System.out.flush();
+			}
+			System.out.println();
+			System.out.println("Results for " + rating + ":");
+			for (int c = 0; c < calculators.length; c++) {
+				System.out.println("  "
+						+ calculators[c].getClass().getSimpleName() + ": "
+						+ median(times[c]) + " msec");
+			}
+		}
+		System.out.println("Fini.");
+	}
+
+	private static double weight(RouteCalculator calculator,
+			RoutingResult result, EdgeRating rating) {
+		List<Segment> route = result.getRoute();
+		return route == null ? Double.POSITIVE_INFINITY : calculator
+				.calculateCompleteWeight(route, rating);
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / (1000.0 * 1000.0);
+	}
+}
@@ -0,0 +1,104 @@
+package de.uni_koblenz.jgstreetmaptest.nonjunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.uni_koblenz.jgralab.exception.GraphIOException;
+import de.uni_koblenz.jgralab.impl.ConsoleProgressFunction;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmGraph;
+import de.uni_koblenz.jgstreetmap.osmschema.OsmSchema;
+import de.uni_koblenz.jgstreetmap.osmschema.map.Node;
+import de.uni_koblenz.jgstreetmap.osmschema.routing.Segment;
+import de.uni_koblenz.jgstreetmap.routing.DijkstraRouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator;
+import de.uni_koblenz.jgstreetmap.routing.RouteCalculator.EdgeRating;
+import de.uni_koblenz.jgstreetmap.routing.RoutingResult;
+
+/**
+ * Compares one-to-all runs of the {@link DijkstraRouteCalculator}, which uses
+ * an indexed {@link de.uni_koblenz.jgstreetmap.routing.VertexHeap}, with the
+ * former {@link java.util.PriorityQueue} based implementation.
+ *
+ * Usage: TryVertexHeap [graphfile [runs]], the graph defaults to the
+ * Rhineland-Palatinate graph.
+ */
+public class TryVertexHeap {
+
+	private static final int RUNS = 20;
+	private static final long SEED = 4711;
+
+	public static void main(String[] args) throws GraphIOException {
+		String graphFile = (args.length > 0) ? args[0]
+				: "OsmRhinelandPalatinate.tg.gz";
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : RUNS;
+		OsmGraph graph = OsmSchema.instance().loadOsmGraph(graphFile,
+				new ConsoleProgressFunction());
+
+		List<Node> nodes = new ArrayList<Node>();
+		for (Node n : graph.getNodeVertices()) {
+			if (n.getFirstSegmentIncidence() != null) {
+				nodes.add(n);
+			}
+		}
+		System.out.println("Nodes with segments: " + nodes.size());
+
+		Random rnd = new Random(SEED);
+		long[] heapTimes = new long[runs];
+		long[] pqTimes = new long[runs];
+		for (EdgeRating rating : new EdgeRating[] { EdgeRating.LENGTH,
+				EdgeRating.TIME }) {
+			for (int i = 0; i < runs; i++) {
+				Node start = nodes.get(rnd.nextInt(nodes.size()));
+				Node target = nodes.get(rnd.nextInt(nodes.size()));
+
+				DijkstraRouteCalculator heapCalculator = new DijkstraRouteCalculator(
+						graph);
+				heapCalculator.setStart(start);
+				long t0 = System.nanoTime();
+				heapCalculator.calculateShortestRoutes(rating);
+				heapTimes[i] = System.nanoTime() - t0;
+
+				PriorityQueueDijkstraRouteCalculator pqCalculator = new PriorityQueueDijkstraRouteCalculator(
+						graph);
+				pqCalculator.setStart(start);
+				t0 = System.nanoTime();
+				pqCalculator.calculateShortestRoutes(rating);
+				pqTimes[i] = System.nanoTime() - t0;
+
+				double d1 = weight(heapCalculator,
+						heapCalculator.getRoute(target, rating), rating);
+				double d2 = weight(pqCalculator,
+						pqCalculator.getRoute(target, rating), rating);
+				if (Math.abs(d1 - d2) > 1e-6) {
+					System.err.println("Mismatch for " + start + " -> "
+							+ target + ": " + d1 + " vs. " + d2);
+				}
+				System.out.print(".");
+				System.out.flush();
+			}
+			System.out.println();
+			System.out.println("Results for " + rating + ":");
+			double heap = median(heapTimes);
+			double pq = median(pqTimes);
+			System.out.println("  VertexHeap:    " + heap + " msec");
+			System.out.println("  PriorityQueue: " + pq + " msec");
+			System.out.println("  Speedup:       " + pq / heap);
+		}
+		System.out.println("Fini.");
+	}
+
+	private static double weight(RouteCalculator calculator,
+			RoutingResult result, EdgeRating rating) {
+		List<Segment> route = result.getRoute();
+		return route == null ? Double.POSITIVE_INFINITY : calculator
+				.calculateCompleteWeight(route, rating);
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / (1000.0 * 1000.0);
+	}
+}